@@ -0,0 +1,57 @@
+package org.te.toll;
+
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.te.toll.model.ClusterRing;
+import org.te.toll.storage.cluster.ClusterAdmin;
+
+import java.io.UncheckedIOException;
+
+@RestController
+@RequestMapping("/admin/cluster")
+@ConditionalOnProperty(name = "storage.type", havingValue = "sharded")
+public class ClusterAdminController {
+    private final ClusterAdmin cluster;
+
+    public ClusterAdminController(ClusterAdmin cluster) {
+        this.cluster = cluster;
+    }
+
+    @ApiOperation(value = "This method returns the hash ring this node routes with.")
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    public ClusterRing getRing() {
+        return ClusterRing.of(cluster.getRing());
+    }
+
+    @ApiOperation(value = "This method adds a node, whose shard must already be served, to the ring of every node and " +
+            "moves to it the registrations it now owns. Returns the number of passages moved.")
+    @RequestMapping(value = "/nodes/{node:.+}", method = RequestMethod.POST)
+    public ResponseEntity<?> addNode(
+            @ApiParam(value = "The shard address of the node", required = true, defaultValue = "toll-3:7101")
+            @PathVariable String node) {
+        try {
+            return ResponseEntity.ok(cluster.addNode(node));
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "This method removes a node from the ring of every node and moves its registrations to the " +
+            "nodes left, after which it can be stopped. Returns the number of passages moved.")
+    @RequestMapping(value = "/nodes/{node:.+}", method = RequestMethod.DELETE)
+    public ResponseEntity<?> removeNode(
+            @ApiParam(value = "The shard address of the node", required = true, defaultValue = "toll-3:7101")
+            @PathVariable String node) {
+        try {
+            return ResponseEntity.ok(cluster.removeNode(node));
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
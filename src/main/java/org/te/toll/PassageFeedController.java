@@ -0,0 +1,72 @@
+package org.te.toll;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.te.toll.ingestion.IngestionPipeline;
+import org.te.toll.model.PassageRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+@RestController
+@RequestMapping("/toll/feed")
+public class PassageFeedController {
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final IngestionPipeline pipeline;
+    private final ObjectMapper objectMapper;
+
+    public PassageFeedController(IngestionPipeline pipeline, ObjectMapper objectMapper) {
+        this.pipeline = pipeline;
+        this.objectMapper = objectMapper;
+    }
+
+    @ApiOperation(value = "This method hands a batch of passages, given as a JSON array, to the ingestion pipeline " +
+            "and returns the number accepted without waiting for them to be recorded.")
+    @RequestMapping(value = "", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> feed(@RequestBody List<PassageRequest> passages) {
+        int accepted = 0;
+        for (PassageRequest passage : passages) {
+            if (!pipeline.publish(passage)) {
+                return full(accepted);
+            }
+            accepted++;
+        }
+        return ResponseEntity.accepted().body(accepted);
+    }
+
+    @ApiOperation(value = "This method hands a batch of passages, given as one JSON object per line, to the " +
+            "ingestion pipeline as they are read and returns the number accepted without waiting for them to be " +
+            "recorded.")
+    @RequestMapping(value = "", method = RequestMethod.POST, consumes = APPLICATION_NDJSON)
+    public ResponseEntity<?> feedNdjson(InputStream body) throws IOException {
+        int accepted = 0;
+        try (MappingIterator<PassageRequest> lines = objectMapper.readerFor(PassageRequest.class).readValues(body)) {
+            while (lines.hasNext()) {
+                if (!pipeline.publish(lines.next())) {
+                    return full(accepted);
+                }
+                accepted++;
+            }
+        } catch (JsonProcessingException | RuntimeException e) {
+            return ResponseEntity.badRequest().body("Wrong passage format after " + accepted + " accepted passages");
+        }
+        return ResponseEntity.accepted().body(accepted);
+    }
+
+    // Passages are accepted in order, the feed resends the ones after the accepted ones
+    private static ResponseEntity<?> full(int accepted) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body("Ingestion pipeline is full, the first " + accepted + " passages were accepted");
+    }
+}
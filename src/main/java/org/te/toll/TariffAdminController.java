@@ -0,0 +1,73 @@
+package org.te.toll;
+
+import io.swagger.annotations.ApiOperation;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.te.toll.config.TariffRegistry;
+import org.te.toll.config.TariffSnapshot;
+import org.te.toll.jobs.TariffReplayJob;
+import org.te.toll.model.TariffReplayRequest;
+import org.te.toll.model.TariffSummary;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/admin/tariffs")
+public class TariffAdminController {
+    private final TariffRegistry tariffs;
+    private final TariffReplayJob replay;
+
+    public TariffAdminController(TariffRegistry tariffs, TariffReplayJob replay) {
+        this.tariffs = tariffs;
+        this.replay = replay;
+    }
+
+    @ApiOperation(value = "This method returns the loaded tariffs, ordered by the first day they apply to.")
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    public List<TariffSummary> getTariffs() {
+        return summaries(tariffs.getTariffs());
+    }
+
+    @ApiOperation(value = "This method reads the tariffs file again, replaces the loaded tariffs and reprices the " +
+            "stored passages.")
+    @RequestMapping(value = "/reload", method = RequestMethod.POST)
+    public ResponseEntity<?> reload() {
+        try {
+            return ResponseEntity.ok(summaries(tariffs.reload().getTariffs()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "This method prices the stored passages of a period under the current tariffs and under " +
+            "candidate ones, and returns the revenue of each tariff and the distribution of the daily fees.")
+    @RequestMapping(value = "/replay", method = RequestMethod.POST)
+    public ResponseEntity<?> replay(@RequestBody TariffReplayRequest request) {
+        if (request.getFrom() == null || request.getTo() == null) {
+            return ResponseEntity.badRequest().body("The period to replay needs both from and to");
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(request.getFrom());
+            to = LocalDate.parse(request.getTo());
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Wrong period format, from and to must be yyyy-MM-dd");
+        }
+        try {
+            return ResponseEntity.ok(replay.replay(request.getCandidates(), from, to));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    private static List<TariffSummary> summaries(List<TariffSnapshot> snapshots) {
+        return snapshots.stream().map(TariffSummary::of).collect(Collectors.toList());
+    }
+}
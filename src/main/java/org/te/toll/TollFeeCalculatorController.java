@@ -1,30 +1,87 @@
 package org.te.toll;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
-import lombok.AllArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.te.toll.calculator.TollCalculator;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.config.TariffZones;
 import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
 import org.te.toll.exceptions.MultipleDaysPassages;
 import org.te.toll.exceptions.MultipleVehicleTypesException;
-import org.te.toll.storage.StorageService;
+import org.te.toll.exceptions.UnknownTariffZoneException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.jobs.InvoicingJob;
+import org.te.toll.jobs.RetentionCompactor;
+import org.te.toll.model.DailyFeeResponse;
+import org.te.toll.model.PassageRequest;
+import org.te.toll.storage.VehicleDay;
+import org.te.toll.time.PassageTimeParser;
 
-import java.time.ZoneId;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/toll")
-@AllArgsConstructor
 public class TollFeeCalculatorController {
-    private final StorageService storage;
-    private final TollCalculator calculator;
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final int FLUSH_EVERY = 256;
+    // NDJSON passages read, recorded and answered at once
+    private static final int NDJSON_CHUNK = 1024;
+
+    private final DailyFeeTracker tracker;
+    private final ObjectMapper objectMapper;
+    private final RetentionCompactor retention;
+    private final InvoicingJob invoicing;
+    private final PassageTimeParser timeParser;
+    private final TariffZones zones;
+    private final Timer validDates;
+    private final Timer invalidDates;
+
+    public TollFeeCalculatorController(DailyFeeTracker tracker, ObjectMapper objectMapper,
+                                       RetentionCompactor retention, InvoicingJob invoicing,
+                                       PassageTimeParser timeParser, TariffZones zones, MeterRegistry registry) {
+        this.tracker = tracker;
+        this.objectMapper = objectMapper;
+        this.retention = retention;
+        this.invoicing = invoicing;
+        this.timeParser = timeParser;
+        this.zones = zones;
+        this.validDates = dateParsingTimer(registry, "valid");
+        this.invalidDates = dateParsingTimer(registry, "invalid");
+    }
 
     @ApiOperation(value = "This method returns the current daily toll-fee for the vehicle for the input date and after" +
             " considering the input passage.")
@@ -35,31 +92,334 @@ public class TollFeeCalculatorController {
             @ApiParam(value = "The registration number of the vehicle", required = true, defaultValue = "ULJ985")
             @PathVariable String registration,
             @ApiParam(value = "The current station passing time", required = true, defaultValue = "2022-10-31 16:01:00")
-            @PathVariable String date) throws MultipleDaysPassages {
+            @PathVariable String date,
+            @ApiParam(value = "The tariff zone, the default one if not set")
+            @RequestParam(required = false) String zone) throws MultipleDaysPassages, UnknownTariffZoneException {
 
-        if (registration.length() < 2 || registration.length() > 12) {
+        if (registration.length() < 2 || registration.length() > 12
+                || registration.indexOf(TariffZones.SEPARATOR) >= 0) {
             // A Japanese registration number could theoretically have 12 digits (longest in the world) 🙂
             return ResponseEntity.badRequest().body("Wrong registration number format");
         }
-        ZonedDateTime dateTime;
+        int tariffZone = tariffZoneOf(zone);
+        long start = System.nanoTime();
+        long epochSecond = timeParser.parse(date);
+        if (epochSecond == PassageTimeParser.INVALID) {
+            invalidDates.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return ResponseEntity.badRequest().body("Wrong date format");
+        }
+        validDates.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        ZonedDateTime dateTime = timeParser.toDateTime(epochSecond);
+        if (retention.isCompacted(dateTime.toLocalDate())) {
+            return ResponseEntity.badRequest().body("Passage is older than the retention period");
+        }
+
+        try {
+            return ResponseEntity.ok(tracker.recordAndPrice(tariffZone, registration, vehicleType, dateTime));
+        } catch (VehicleTypeMismatchException e) {
+            return ResponseEntity.badRequest().body("Vehicle type doesn't match a previous passage");
+        } catch (MultipleVehicleTypesException e) {
+            return ResponseEntity.badRequest().body("Vehicle has multiple types");
+        } catch (CompactedDayException e) {
+            return ResponseEntity.badRequest().body("Passage is older than the retention period");
+        }
+    }
+
+    @ApiOperation(value = "This method returns the total toll-fee of the vehicle between two dates, both included.")
+    @RequestMapping(value = "/get-fees/{registration}/{from}/{to}", method = RequestMethod.GET)
+    public ResponseEntity<?> getFees(
+            @ApiParam(value = "The registration number of the vehicle", required = true, defaultValue = "ULJ985")
+            @PathVariable String registration,
+            @ApiParam(value = "The first day", required = true, defaultValue = "2022-10-01")
+            @PathVariable String from,
+            @ApiParam(value = "The last day", required = true, defaultValue = "2022-10-31")
+            @PathVariable String to,
+            @ApiParam(value = "The tariff zone, the default one if not set")
+            @RequestParam(required = false) String zone) throws UnknownTariffZoneException {
+        int tariffZone = tariffZoneOf(zone);
+        LocalDate fromDay;
+        LocalDate toDay;
         try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
-            dateTime = ZonedDateTime.parse(date, formatter);
+            fromDay = LocalDate.parse(from);
+            toDay = LocalDate.parse(to);
         } catch (DateTimeParseException e) {
             return ResponseEntity.badRequest().body("Wrong date format");
         }
+        if (fromDay.isAfter(toDay)) {
+            return ResponseEntity.badRequest().body("The first day is after the last day");
+        }
+        return ResponseEntity.ok(tracker.getFee(tariffZone, registration, fromDay, toDay));
+    }
 
+    @ApiOperation(value = "This method returns the total toll-fee of the vehicle during a month.")
+    @RequestMapping(value = "/get-monthly-fee/{registration}/{month}", method = RequestMethod.GET)
+    public ResponseEntity<?> getMonthlyFee(
+            @ApiParam(value = "The registration number of the vehicle", required = true, defaultValue = "ULJ985")
+            @PathVariable String registration,
+            @ApiParam(value = "The month", required = true, defaultValue = "2022-10")
+            @PathVariable String month,
+            @ApiParam(value = "The tariff zone, the default one if not set")
+            @RequestParam(required = false) String zone) throws UnknownTariffZoneException {
+        int tariffZone = tariffZoneOf(zone);
         try {
-            VehicleType typeInMemory = storage.vehicleTypeOf(registration, dateTime);
-            if (typeInMemory != null && vehicleType != typeInMemory) {
-                return ResponseEntity.badRequest().body("Vehicle type doesn't match a previous passage");
+            YearMonth yearMonth = YearMonth.parse(month);
+            return ResponseEntity.ok(tracker.getFee(tariffZone, registration, yearMonth.atDay(1),
+                    yearMonth.atEndOfMonth()));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Wrong month format");
+        }
+    }
+
+    @ApiOperation(value = "This method returns the total toll-fee of the vehicle during a year.")
+    @RequestMapping(value = "/get-yearly-fee/{registration}/{year}", method = RequestMethod.GET)
+    public ResponseEntity<?> getYearlyFee(
+            @ApiParam(value = "The registration number of the vehicle", required = true, defaultValue = "ULJ985")
+            @PathVariable String registration,
+            @ApiParam(value = "The year", required = true, defaultValue = "2022")
+            @PathVariable String year,
+            @ApiParam(value = "The tariff zone, the default one if not set")
+            @RequestParam(required = false) String zone) throws UnknownTariffZoneException {
+        int tariffZone = tariffZoneOf(zone);
+        try {
+            Year parsed = Year.parse(year);
+            return ResponseEntity.ok(tracker.getFee(tariffZone, registration, parsed.atDay(1),
+                    parsed.atMonth(12).atEndOfMonth()));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Wrong year format");
+        }
+    }
+
+    @ApiOperation(value = "This method prices every vehicle that passed during the day and writes the invoice file " +
+            "to the invoicing directory.")
+    @RequestMapping(value = "/invoice/{day}", method = RequestMethod.POST)
+    public ResponseEntity<?> invoice(
+            @ApiParam(value = "The day to invoice", required = true, defaultValue = "2022-10-31")
+            @PathVariable String day) throws IOException {
+        LocalDate invoicedDay;
+        try {
+            invoicedDay = LocalDate.parse(day);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Wrong date format");
+        }
+        if (retention.isCompacted(invoicedDay)) {
+            return ResponseEntity.badRequest().body("Passage is older than the retention period");
+        }
+        return ResponseEntity.ok(invoicing.invoice(invoicedDay));
+    }
+
+    @ApiOperation(value = "This method records a batch of passages, given as a JSON array, and streams back one JSON " +
+            "line per vehicle and day with the updated daily toll-fee.")
+    @RequestMapping(value = "/record-passages", method = RequestMethod.POST,
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> recordPassages(@RequestBody List<PassageRequest> passages) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(out -> {
+                    DailyFeeLines lines = new DailyFeeLines(out);
+                    recordAndWrite(passages, lines);
+                    lines.flush();
+                });
+    }
+
+    @ApiOperation(value = "This method records a batch of passages, given as one JSON object per line, as they are " +
+            "read, and streams back one JSON line per vehicle and day of every chunk of passages with the updated " +
+            "daily toll-fee.")
+    @RequestMapping(value = "/record-passages", method = RequestMethod.POST,
+            consumes = APPLICATION_NDJSON, produces = APPLICATION_NDJSON)
+    public void recordPassagesNdjson(InputStream body, HttpServletResponse response) throws IOException {
+        MappingIterator<PassageRequest> input;
+        try {
+            input = objectMapper.readerFor(PassageRequest.class).readValues(body);
+        } catch (JsonProcessingException e) {
+            wrongPassageFormat(response);
+            return;
+        }
+        try (input) {
+            DailyFeeLines lines = null;
+            List<PassageRequest> chunk = new ArrayList<>(NDJSON_CHUNK);
+            boolean malformed = false;
+            boolean more = true;
+            while (more) {
+                try {
+                    while ((more = input.hasNext()) && chunk.size() < NDJSON_CHUNK) {
+                        chunk.add(input.next());
+                    }
+                } catch (RuntimeException e) {
+                    malformed = true;
+                    more = false;
+                }
+                if (lines == null) {
+                    if (malformed && chunk.isEmpty()) {
+                        wrongPassageFormat(response);
+                        return;
+                    }
+                    response.setContentType(APPLICATION_NDJSON);
+                    lines = new DailyFeeLines(response.getOutputStream());
+                }
+                recordAndWrite(chunk, lines);
+                chunk.clear();
+                if (malformed) {
+                    lines.write(DailyFeeResponse.error(null, null, "Wrong passage format"));
+                }
+                lines.flush();
+            }
+        }
+    }
+
+    private static void wrongPassageFormat(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.BAD_REQUEST.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getOutputStream().write("Wrong passage format".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @ExceptionHandler(UnknownTariffZoneException.class)
+    public ResponseEntity<String> unknownTariffZone() {
+        return ResponseEntity.badRequest().body("Unknown tariff zone");
+    }
+
+    // The default zone when none is given
+    private int tariffZoneOf(String zone) throws UnknownTariffZoneException {
+        int tariffZone = zones.indexOf(zone);
+        if (tariffZone < 0) {
+            throw new UnknownTariffZoneException();
+        }
+        return tariffZone;
+    }
+
+    // Groups the passages by vehicle and day and records every group before writing a line, so that a client gone
+    // while they are written doesn't leave any unrecorded
+    private void recordAndWrite(List<PassageRequest> passages, DailyFeeLines lines) {
+        List<DailyFeeResponse> rejected = new ArrayList<>();
+        Map<VehicleDay, PassageGroup> groups = new LinkedHashMap<>();
+        for (PassageRequest passage : passages) {
+            String registration = passage.getRegistration();
+            if (registration == null || registration.length() < 2 || registration.length() > 12
+                    || registration.indexOf(TariffZones.SEPARATOR) >= 0) {
+                rejected.add(DailyFeeResponse.error(registration, passage.getDate(), "Wrong registration number format"));
+                continue;
+            }
+            int tariffZone = zones.indexOf(passage.getZone());
+            if (tariffZone < 0) {
+                rejected.add(DailyFeeResponse.error(registration, passage.getDate(), "Unknown tariff zone"));
+                continue;
             }
+            if (passage.getVehicleType() == null) {
+                rejected.add(DailyFeeResponse.error(registration, passage.getDate(), "Missing vehicle type"));
+                continue;
+            }
+            ZonedDateTime dateTime = timeParser.parseDateTime(passage.getDate());
+            if (dateTime == null) {
+                rejected.add(DailyFeeResponse.error(registration, passage.getDate(), "Wrong date format"));
+                continue;
+            }
+            groups.computeIfAbsent(new VehicleDay(zones.keyOf(tariffZone, registration), dateTime.toLocalDate()),
+                    key -> new PassageGroup(registration, tariffZone, passage.getVehicleType()))
+                    .add(passage.getVehicleType(), dateTime);
+        }
+
+        List<DailyFeeResponse> recorded = new ArrayList<>(groups.size());
+        for (Map.Entry<VehicleDay, PassageGroup> entry : groups.entrySet()) {
+            PassageGroup group = entry.getValue();
+            DailyFeeResponse response = recordGroup(entry.getKey().getDay(), group);
+            if (group.tariffZone != TariffZones.DEFAULT) {
+                response.setZone(zones.idOf(group.tariffZone));
+            }
+            recorded.add(response);
+        }
+        for (DailyFeeResponse response : rejected) {
+            lines.write(response);
+        }
+        for (DailyFeeResponse response : recorded) {
+            lines.write(response);
+        }
+    }
+
+    private DailyFeeResponse recordGroup(LocalDate passageDay, PassageGroup group) {
+        String registration = group.registration;
+        String day = passageDay.toString();
+        if (group.mixedTypes) {
+            return DailyFeeResponse.error(registration, day, "Vehicle has multiple types");
+        }
+        if (retention.isCompacted(passageDay)) {
+            return DailyFeeResponse.error(registration, day, "Passage is older than the retention period");
+        }
+        try {
+            return DailyFeeResponse.fee(registration, day, group.type,
+                    tracker.recordAndPrice(group.tariffZone, registration, group.type, group.dateTimes));
+        } catch (VehicleTypeMismatchException e) {
+            return DailyFeeResponse.error(registration, day, "Vehicle type doesn't match a previous passage");
         } catch (MultipleVehicleTypesException e) {
-            return ResponseEntity.badRequest().body("Vehicle has multiple types");
+            return DailyFeeResponse.error(registration, day, "Vehicle has multiple types");
+        } catch (CompactedDayException e) {
+            return DailyFeeResponse.error(registration, day, "Passage is older than the retention period");
+        } catch (MultipleDaysPassages e) {
+            return DailyFeeResponse.error(registration, day, "Passages span multiple days");
         }
+    }
+
+    private static Timer dateParsingTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("toll.request.date.parsing")
+                .description("Parsing of the passage date of get-fee requests")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
 
-        storage.recordPassage(registration, vehicleType, dateTime);
+    /**
+     * Response lines, flushed every FLUSH_EVERY lines. Once the client is gone the lines are dropped, so the passages
+     * still to record are recorded all the same.
+     */
+    private class DailyFeeLines {
+        private final Writer writer;
+        private int count;
+        private boolean disconnected;
 
-        return ResponseEntity.ok(calculator.getTollFee(vehicleType, storage.getPassages(registration, dateTime)));
+        DailyFeeLines(OutputStream out) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+
+        void write(DailyFeeResponse response) {
+            if (disconnected) {
+                return;
+            }
+            try {
+                writer.write(objectMapper.writeValueAsString(response));
+                writer.write('\n');
+                if (++count % FLUSH_EVERY == 0) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                disconnected = true;
+            }
+        }
+
+        void flush() {
+            if (disconnected) {
+                return;
+            }
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                disconnected = true;
+            }
+        }
+    }
+
+    private static class PassageGroup {
+        final String registration;
+        final int tariffZone;
+        final VehicleType type;
+        final List<ZonedDateTime> dateTimes = new ArrayList<>();
+        boolean mixedTypes;
+
+        PassageGroup(String registration, int tariffZone, VehicleType type) {
+            this.registration = registration;
+            this.tariffZone = tariffZone;
+            this.type = type;
+        }
+
+        void add(VehicleType passageType, ZonedDateTime dateTime) {
+            mixedTypes |= passageType != type;
+            dateTimes.add(dateTime);
+        }
     }
 }
@@ -0,0 +1,196 @@
+package org.te.toll.calculator;
+
+import org.te.toll.config.FareTable;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Running fee of one vehicle during one day, updated passage by passage with the same rules as
+ * {@link TollCalculator#getTollFee}.
+ * <p>
+ * Passages are kept sorted together with their clusters. A passage arriving in order only touches the last cluster.
+ * A late passage is placed with a binary search and the clusters are rebuilt from the one it lands in, stopping as
+ * soon as a cluster starts on the same passage as before, since every following cluster is then unchanged.
+ * <p>
+ * Not thread-safe: callers serialize the updates of each vehicle-day.
+ */
+public class DailyFeeAccumulator {
+    private final VehicleType type;
+    private final LocalDate day;
+    private final DayOffsets offsets;
+    private final FareTable fareTable;
+    private final int maxDailyFare;
+    private final boolean exempt;
+
+    private long[] passages = new long[4];
+    private int[] prices = new int[4];
+    private int size;
+
+    private int[] clusterFirst = new int[4];
+    private int[] clusterPrice = new int[4];
+    private int clusterCount;
+    // Sum of the cluster prices before applying maxDailyFare
+    private int total;
+
+    // Scratch space for rebuilt clusters
+    private int[] rebuiltFirst = new int[4];
+    private int[] rebuiltPrice = new int[4];
+
+    // When DailyFeeTracker last updated this day, in the order of its updates
+    volatile long lastUpdate;
+
+    DailyFeeAccumulator(VehicleType type, LocalDate day, ZoneId zone, FareTable fareTable, int maxDailyFare,
+                        boolean exempt) {
+        this.type = type;
+        this.day = day;
+        this.offsets = new DayOffsets(day, zone);
+        this.fareTable = fareTable;
+        this.maxDailyFare = maxDailyFare;
+        this.exempt = exempt;
+    }
+
+    public VehicleType getType() {
+        return type;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public int getPassageCount() {
+        return size;
+    }
+
+    public boolean isExempt() {
+        return exempt;
+    }
+
+    public int getFee() {
+        return exempt ? 0 : Math.min(total, maxDailyFare);
+    }
+
+    /**
+     * @return The fee of the day including the new passage
+     * @throws MultipleDaysPassages if the passage doesn't belong to the day of this accumulator
+     */
+    public int add(long epochSecond) throws MultipleDaysPassages {
+        int secondOfDay = offsets.secondOfDay(epochSecond);
+        if (secondOfDay < 0) {
+            throw new MultipleDaysPassages();
+        }
+        int pos = insert(epochSecond, fareTable.priceAt(secondOfDay / 60));
+        if (pos == size - 1) {
+            appendToClusters(pos);
+        } else {
+            rebuildClusters(pos);
+        }
+        return getFee();
+    }
+
+    private int insert(long epochSecond, int price) {
+        // Insert after any equal passage so that in order arrivals always append
+        int pos = Arrays.binarySearch(passages, 0, size, epochSecond);
+        if (pos < 0) {
+            pos = -pos - 1;
+        } else {
+            while (pos < size && passages[pos] == epochSecond) {
+                pos++;
+            }
+        }
+        if (size == passages.length) {
+            passages = Arrays.copyOf(passages, size * 2);
+            prices = Arrays.copyOf(prices, size * 2);
+        }
+        System.arraycopy(passages, pos, passages, pos + 1, size - pos);
+        System.arraycopy(prices, pos, prices, pos + 1, size - pos);
+        passages[pos] = epochSecond;
+        prices[pos] = price;
+        size++;
+        return pos;
+    }
+
+    private void appendToClusters(int pos) {
+        int last = clusterCount - 1;
+        if (last >= 0 && passages[pos] - passages[clusterFirst[last]] < TollCalculator.CLUSTER_SECONDS) {
+            if (prices[pos] > clusterPrice[last]) {
+                total += prices[pos] - clusterPrice[last];
+                clusterPrice[last] = prices[pos];
+            }
+        } else {
+            ensureClusterCapacity(clusterCount + 1);
+            clusterFirst[clusterCount] = pos;
+            clusterPrice[clusterCount] = prices[pos];
+            clusterCount++;
+            total += prices[pos];
+        }
+    }
+
+    private void rebuildClusters(int pos) {
+        // The clusters from 'replaced' on are rebuilt, the ones after it may survive unchanged
+        int replaced = pos == 0 ? 0 : clusterOf(pos - 1);
+        int tail = pos == 0 ? 0 : replaced + 1;
+        for (int j = tail; j < clusterCount; j++) {
+            clusterFirst[j]++;
+        }
+
+        int rebuilt = 0;
+        int i = pos == 0 ? 0 : clusterFirst[replaced];
+        int j = tail;
+        boolean resynced = false;
+        while (i < size) {
+            while (j < clusterCount && clusterFirst[j] < i) {
+                j++;
+            }
+            if (i > pos && j < clusterCount && clusterFirst[j] == i) {
+                resynced = true;
+                break;
+            }
+            long start = passages[i];
+            int price = prices[i];
+            int first = i++;
+            while (i < size && passages[i] - start < TollCalculator.CLUSTER_SECONDS) {
+                price = Math.max(price, prices[i++]);
+            }
+            if (rebuilt == rebuiltFirst.length) {
+                rebuiltFirst = Arrays.copyOf(rebuiltFirst, rebuilt * 2);
+                rebuiltPrice = Arrays.copyOf(rebuiltPrice, rebuilt * 2);
+            }
+            rebuiltFirst[rebuilt] = first;
+            rebuiltPrice[rebuilt] = price;
+            rebuilt++;
+        }
+        int kept = resynced ? j : clusterCount;
+
+        for (int c = replaced; c < kept; c++) {
+            total -= clusterPrice[c];
+        }
+        for (int c = 0; c < rebuilt; c++) {
+            total += rebuiltPrice[c];
+        }
+        int newCount = replaced + rebuilt + clusterCount - kept;
+        ensureClusterCapacity(newCount);
+        System.arraycopy(clusterFirst, kept, clusterFirst, replaced + rebuilt, clusterCount - kept);
+        System.arraycopy(clusterPrice, kept, clusterPrice, replaced + rebuilt, clusterCount - kept);
+        System.arraycopy(rebuiltFirst, 0, clusterFirst, replaced, rebuilt);
+        System.arraycopy(rebuiltPrice, 0, clusterPrice, replaced, rebuilt);
+        clusterCount = newCount;
+    }
+
+    // Index of the cluster containing the passage at the given index
+    private int clusterOf(int passage) {
+        int pos = Arrays.binarySearch(clusterFirst, 0, clusterCount, passage);
+        return pos >= 0 ? pos : -pos - 2;
+    }
+
+    private void ensureClusterCapacity(int capacity) {
+        if (capacity > clusterFirst.length) {
+            int length = Math.max(capacity, clusterFirst.length * 2);
+            clusterFirst = Arrays.copyOf(clusterFirst, length);
+            clusterPrice = Arrays.copyOf(clusterPrice, length);
+        }
+    }
+}
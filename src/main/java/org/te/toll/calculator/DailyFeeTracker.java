@@ -0,0 +1,488 @@
+package org.te.toll.calculator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TrackerProperties;
+import org.te.toll.config.TariffsReloadedEvent;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleDaysPassages;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.storage.AsyncStorageService;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.VehicleDay;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * Records passages and keeps the running fee of each (registration, day), so that a new passage costs an incremental
+ * update instead of a recalculation of the whole day. Every new fee is also written to the {@link FeeRollups}.
+ * <p>
+ * The vehicle type check, the storage write and the fee update of a vehicle-day run under the monitor of its
+ * accumulator, so concurrent passages of the same vehicle can't both pass the check with different types. Vehicle
+ * types only have to agree within a day, so other days and other vehicles don't wait for each other.
+ * <p>
+ * Running fees are priced with the tariff of their zone and day when they are first tracked. A tariff reload drops
+ * them all and reprices the stored days. Vehicles are stored and summed up per zone, under
+ * {@link TariffZones#keyOf}.
+ * <p>
+ * The running fees are a cache of the stored passages: past tracker.max-vehicle-days, the least recently updated
+ * ones are dropped, whatever the retention, and rebuilt from storage if their vehicle passes again that day.
+ * <p>
+ * With a storage shared by several nodes, like the sharded one, the other nodes record passages behind the back of
+ * the running fees and the rollups of this one. Neither is kept then: the owner shard checks the type and records
+ * each passage as one operation, the fee is priced from the passages of the day read back from it, and
+ * {@link #getFee} prices the requested days from storage, reading all of them at once when given an
+ * {@link AsyncStorageService}.
+ */
+@Slf4j
+@Component
+public class DailyFeeTracker {
+    private final StorageService storage;
+    private final TollCalculator calculator;
+    private final FeeRollups rollups;
+    private final TariffZones zones;
+    private final Map<VehicleDay, DailyFeeAccumulator> accumulators = new ConcurrentHashMap<>();
+    private final int maxVehicleDays;
+    private final boolean shared;
+    private AsyncStorageService asyncStorage;
+    // Orders the updates of the accumulators, for the eviction
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    // Days before it are closed to new passages, checked under the monitor of the accumulators
+    private volatile LocalDate compactedBefore = LocalDate.MIN;
+    private final DistributionSummary vehicleDayPassages;
+    private final Timer exemptUpdates;
+    private final Timer clusteredUpdates;
+    private final Counter unconfiguredZoneDays;
+
+    public DailyFeeTracker(StorageService storage, TollCalculator calculator) {
+        this(storage, calculator, new FeeRollups(), TariffZones.SINGLE, Metrics.globalRegistry);
+    }
+
+    public DailyFeeTracker(StorageService storage, TollCalculator calculator, FeeRollups rollups, TariffZones zones,
+                           MeterRegistry registry) {
+        this(storage, calculator, rollups, zones, new TrackerProperties(), registry);
+    }
+
+    @Autowired
+    public DailyFeeTracker(StorageService storage, TollCalculator calculator, FeeRollups rollups, TariffZones zones,
+                           TrackerProperties properties, MeterRegistry registry) {
+        this.storage = storage;
+        this.shared = storage.isShared();
+        this.maxVehicleDays = Math.max(1, properties.getMaxVehicleDays());
+        this.calculator = calculator;
+        this.rollups = rollups;
+        this.zones = zones;
+        this.exemptUpdates = updateTimer(registry, "exempt");
+        this.clusteredUpdates = updateTimer(registry, "clusters");
+        this.vehicleDayPassages = DistributionSummary.builder("toll.tracker.vehicle.day.passages")
+                .description("Passages of a vehicle-day after each update of its running fee")
+                .baseUnit("passages")
+                .serviceLevelObjectives(1, 2, 3, 4, 6, 8, 12, 16)
+                .register(registry);
+        this.unconfiguredZoneDays = Counter.builder("toll.tracker.unconfigured.zone.days")
+                .description("Stored vehicle-days of removed tariff zones priced with the default tariff")
+                .register(registry);
+    }
+
+    /**
+     * Lets {@link #getFee} read the days of a shared storage at once instead of one after the other.
+     */
+    @Autowired(required = false)
+    public void setAsyncStorage(AsyncStorageService asyncStorage) {
+        this.asyncStorage = asyncStorage;
+    }
+
+    public int recordAndPrice(String registration, VehicleType type, ZonedDateTime dateTime)
+            throws MultipleDaysPassages, MultipleVehicleTypesException, VehicleTypeMismatchException,
+            CompactedDayException {
+        return recordAndPrice(TariffZones.DEFAULT, registration, type, dateTime);
+    }
+
+    /**
+     * Checks the vehicle type against the passages of the same day, stores the passage and returns the fee of its
+     * day in the tariff zone, including all the passages recorded before, as one atomic operation.
+     *
+     * @throws VehicleTypeMismatchException if the vehicle passed with another type during the day
+     * @throws MultipleVehicleTypesException if the stored passages of the day already have several types
+     * @throws CompactedDayException if the day is before the cutoff of {@link #evictBefore}
+     */
+    public int recordAndPrice(int zone, String registration, VehicleType type, ZonedDateTime dateTime)
+            throws MultipleDaysPassages, MultipleVehicleTypesException, VehicleTypeMismatchException,
+            CompactedDayException {
+        String key = zones.keyOf(zone, registration);
+        if (shared) {
+            return recordShared(key, type, List.of(dateTime));
+        }
+        VehicleDay vehicleDay = new VehicleDay(key, dateTime.toLocalDate());
+        while (true) {
+            DailyFeeAccumulator accumulator = accumulatorOf(zone, vehicleDay, type, dateTime);
+            synchronized (accumulator) {
+                if (accumulators.get(vehicleDay) != accumulator) {
+                    // Dropped by a tariff reload or an eviction while waiting for it
+                    continue;
+                }
+                checkOpen(vehicleDay);
+                checkType(key, type, dateTime);
+                storage.recordPassage(key, type, dateTime);
+                long start = System.nanoTime();
+                int fee = accumulator.add(dateTime.toEpochSecond());
+                accumulator.lastUpdate = updates.incrementAndGet();
+                timerOf(accumulator).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                vehicleDayPassages.record(accumulator.getPassageCount());
+                rollups.setDailyFee(key, accumulator.getDay(), fee);
+                return fee;
+            }
+        }
+    }
+
+    public int recordAndPrice(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleDaysPassages, MultipleVehicleTypesException, VehicleTypeMismatchException,
+            CompactedDayException {
+        return recordAndPrice(TariffZones.DEFAULT, registration, type, dateTimes);
+    }
+
+    /**
+     * Same as {@link #recordAndPrice(int, String, VehicleType, ZonedDateTime)} for several passages of one vehicle
+     * during one day, stored in a single storage operation.
+     *
+     * @throws MultipleDaysPassages if the passages don't all belong to the same day
+     */
+    public int recordAndPrice(int zone, String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleDaysPassages, MultipleVehicleTypesException, VehicleTypeMismatchException,
+            CompactedDayException {
+        return record(zone, registration, type, dateTimes, true);
+    }
+
+    /**
+     * Same as {@link #recordAndPrice(int, String, VehicleType, List)} without writing the new fee to the rollups,
+     * which is left to a later {@link #publishFee}. Lets a caller recording many passages write the rollups of each
+     * vehicle-day once.
+     */
+    public int append(int zone, String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleDaysPassages, MultipleVehicleTypesException, VehicleTypeMismatchException,
+            CompactedDayException {
+        return record(zone, registration, type, dateTimes, false);
+    }
+
+    /**
+     * Writes the current running fee of the vehicle-day to the rollups, if it is tracked.
+     */
+    public void publishFee(int zone, String registration, LocalDate day) {
+        String key = zones.keyOf(zone, registration);
+        VehicleDay vehicleDay = new VehicleDay(key, day);
+        DailyFeeAccumulator accumulator = accumulators.get(vehicleDay);
+        if (accumulator == null) {
+            return;
+        }
+        synchronized (accumulator) {
+            if (accumulators.get(vehicleDay) == accumulator) {
+                rollups.setDailyFee(key, day, accumulator.getFee());
+            }
+        }
+    }
+
+    private int record(int zone, String registration, VehicleType type, List<ZonedDateTime> dateTimes,
+                       boolean publish)
+            throws MultipleDaysPassages, MultipleVehicleTypesException, VehicleTypeMismatchException,
+            CompactedDayException {
+        ZonedDateTime first = dateTimes.get(0);
+        for (ZonedDateTime dateTime : dateTimes) {
+            if (!dateTime.toLocalDate().equals(first.toLocalDate())) {
+                throw new MultipleDaysPassages();
+            }
+        }
+        String key = zones.keyOf(zone, registration);
+        if (shared) {
+            return recordShared(key, type, dateTimes);
+        }
+        VehicleDay vehicleDay = new VehicleDay(key, first.toLocalDate());
+        while (true) {
+            DailyFeeAccumulator accumulator = accumulatorOf(zone, vehicleDay, type, first);
+            synchronized (accumulator) {
+                if (accumulators.get(vehicleDay) != accumulator) {
+                    continue;
+                }
+                checkOpen(vehicleDay);
+                checkType(key, type, first);
+                storage.recordPassages(key, type, dateTimes);
+                long start = System.nanoTime();
+                for (ZonedDateTime dateTime : dateTimes) {
+                    accumulator.add(dateTime.toEpochSecond());
+                }
+                accumulator.lastUpdate = updates.incrementAndGet();
+                timerOf(accumulator).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                vehicleDayPassages.record(accumulator.getPassageCount());
+                if (publish) {
+                    rollups.setDailyFee(key, accumulator.getDay(), accumulator.getFee());
+                }
+                return accumulator.getFee();
+            }
+        }
+    }
+
+    /**
+     * @return The fees of the vehicle in the tariff zone from {@code from} to {@code to}, both included, read from
+     * the rollups, or priced from storage day by day when it is shared
+     */
+    public long getFee(int zone, String registration, LocalDate from, LocalDate to) {
+        String key = zones.keyOf(zone, registration);
+        if (!shared) {
+            return rollups.getFee(key, from, to);
+        }
+        long total = 0;
+        if (asyncStorage == null) {
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                total += priceStored(key, day);
+            }
+            return total;
+        }
+        List<CompletableFuture<Integer>> fees = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            fees.add(priceStoredAsync(key, day));
+        }
+        for (CompletableFuture<Integer> fee : fees) {
+            try {
+                total += fee.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof MultipleVehicleTypesException) {
+                    throw new IllegalStateException("Storage holds passages of several types for " + key, e);
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Rebuilds the fee rollups of the days already in storage, like the ones replayed from a passage log on startup.
+     * The days of tariff zones removed from the configuration are left out, they have no tariff to be priced with.
+     */
+    @PostConstruct
+    public void rebuildRollups() {
+        if (shared) {
+            // Not read, getFee prices the days from storage
+            return;
+        }
+        AtomicLong unpriced = new AtomicLong();
+        storage.forEachVehicleDay((key, type, passages) -> {
+            if (zones.isConfiguredKey(key)) {
+                rollups.setDailyFee(key, passages.get(0).toLocalDate(), priceStored(key, type, passages));
+            } else {
+                unpriced.incrementAndGet();
+            }
+        });
+        if (unpriced.get() > 0) {
+            log.warn("Left {} stored vehicle-days of tariff zones that are not configured anymore out of the rollups",
+                    unpriced.get());
+        }
+    }
+
+    /**
+     * Prices the passages of a tariff zone removed from the configuration with the tariff of the default zone, so
+     * that their days can still be compacted.
+     *
+     * @param key The registration the passages are stored under, which gives their tariff zone
+     * @return The fee of the stored passages of one day
+     */
+    public int priceStored(String key, VehicleType type, List<ZonedDateTime> passages) {
+        int zone = TariffZones.DEFAULT;
+        if (zones.isConfiguredKey(key)) {
+            zone = zones.zoneOfKey(key);
+        } else {
+            unconfiguredZoneDays.increment();
+        }
+        try {
+            return calculator.getTollFee(zone, type, passages);
+        } catch (MultipleDaysPassages e) {
+            throw new IllegalStateException("Storage returned passages of several days for " + key, e);
+        }
+    }
+
+    /**
+     * Drops the running fees priced with the previous tariffs and reprices the days in storage with the new ones.
+     */
+    @EventListener
+    public void onTariffsReloaded(TariffsReloadedEvent event) {
+        drop((vehicleDay, accumulator) -> true);
+        rebuildRollups();
+        // Passages recorded during the rebuild may have been overwritten by a fee computed before them
+        accumulators.forEach((vehicleDay, accumulator) -> {
+            synchronized (accumulator) {
+                if (accumulators.get(vehicleDay) == accumulator) {
+                    rollups.setDailyFee(vehicleDay.getRegistration(), vehicleDay.getDay(), accumulator.getFee());
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the days before the cutoff to new passages and forgets their running fees. Once this returns, every
+     * passage of those days is in storage and no other one will be, so they can be compacted.
+     */
+    public void evictBefore(LocalDate cutoff) {
+        if (cutoff.isAfter(compactedBefore)) {
+            compactedBefore = cutoff;
+        }
+        drop((vehicleDay, accumulator) -> vehicleDay.getDay().isBefore(cutoff));
+    }
+
+    int getTrackedVehicleDays() {
+        return accumulators.size();
+    }
+
+    // Removes under the monitor of each accumulator, so a passage either updates it before or sees it gone after
+    private void drop(BiPredicate<VehicleDay, DailyFeeAccumulator> filter) {
+        for (Map.Entry<VehicleDay, DailyFeeAccumulator> entry : accumulators.entrySet()) {
+            DailyFeeAccumulator accumulator = entry.getValue();
+            if (!filter.test(entry.getKey(), accumulator)) {
+                continue;
+            }
+            synchronized (accumulator) {
+                accumulators.remove(entry.getKey(), accumulator);
+            }
+        }
+    }
+
+    // The fee includes the passages recorded by the other nodes until it's read back, like a late one would
+    private int recordShared(String key, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        ZonedDateTime first = dateTimes.get(0);
+        if (first.toLocalDate().isBefore(compactedBefore)) {
+            throw new CompactedDayException();
+        }
+        storage.recordPassagesOfType(key, type, dateTimes);
+        List<ZonedDateTime> passages = storage.getPassages(key, first);
+        vehicleDayPassages.record(passages.size());
+        return priceStored(key, type, passages);
+    }
+
+    private int priceStored(String key, LocalDate day) {
+        Integer total = storage.getDailyTotal(key, day);
+        if (total != null) {
+            return total;
+        }
+        // Only the local day is looked at, whatever the zone
+        ZonedDateTime dateTime = day.atStartOfDay(ZoneOffset.UTC);
+        List<ZonedDateTime> passages = storage.getPassages(key, dateTime);
+        if (passages.isEmpty()) {
+            return 0;
+        }
+        try {
+            return priceStored(key, storage.vehicleTypeOf(key, dateTime), passages);
+        } catch (MultipleVehicleTypesException e) {
+            throw new IllegalStateException("Storage holds passages of several types for " + key + " on " + day, e);
+        }
+    }
+
+    // Same as priceStored(key, day), the reads of a day in flight at once and in parallel with the other days
+    private CompletableFuture<Integer> priceStoredAsync(String key, LocalDate day) {
+        ZonedDateTime dateTime = day.atStartOfDay(ZoneOffset.UTC);
+        return asyncStorage.getDailyTotal(key, day).thenCompose(total -> total != null
+                ? CompletableFuture.completedFuture(total)
+                : asyncStorage.getPassages(key, dateTime).thenCombine(asyncStorage.vehicleTypeOf(key, dateTime),
+                        (passages, type) -> passages.isEmpty() ? 0 : priceStored(key, type, passages)));
+    }
+
+    private DailyFeeAccumulator accumulatorOf(int zone, VehicleDay vehicleDay, VehicleType type,
+                                              ZonedDateTime dateTime) {
+        DailyFeeAccumulator accumulator = accumulators.computeIfAbsent(vehicleDay,
+                key -> load(zone, key.getRegistration(), type, dateTime));
+        if (accumulators.size() > maxVehicleDays) {
+            evictLeastRecentlyUpdated();
+        }
+        return accumulator;
+    }
+
+    // Drops down to 90% of the bound at once, so the sort is paid once every tenth of the bound of new vehicle-days
+    private void evictLeastRecentlyUpdated() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long[] lastUpdates = accumulators.values().stream().mapToLong(accumulator -> accumulator.lastUpdate)
+                    .toArray();
+            int excess = lastUpdates.length - maxVehicleDays * 9 / 10;
+            if (excess <= 0) {
+                return;
+            }
+            Arrays.sort(lastUpdates);
+            long oldestKept = lastUpdates[excess];
+            drop((vehicleDay, accumulator) -> accumulator.lastUpdate < oldestKept);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    // Under the monitor of the accumulator: a passage either ends before its accumulator is dropped, or sees the cutoff
+    private void checkOpen(VehicleDay vehicleDay) throws CompactedDayException {
+        if (vehicleDay.getDay().isBefore(compactedBefore)) {
+            throw new CompactedDayException();
+        }
+    }
+
+    private void checkType(String registration, VehicleType type, ZonedDateTime dateTime)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException {
+        VehicleType storedType = storage.vehicleTypeOf(registration, dateTime);
+        if (storedType != null && storedType != type) {
+            throw new VehicleTypeMismatchException();
+        }
+    }
+
+    private Timer timerOf(DailyFeeAccumulator accumulator) {
+        return accumulator.isExempt() ? exemptUpdates : clusteredUpdates;
+    }
+
+    // Picks up the passages that were stored before this day was first tracked, priced with their own type
+    private DailyFeeAccumulator load(int zone, String registration, VehicleType type, ZonedDateTime dateTime) {
+        List<ZonedDateTime> passages = storage.getPassages(registration, dateTime);
+        VehicleType storedType;
+        try {
+            storedType = storage.vehicleTypeOf(registration, dateTime);
+        } catch (MultipleVehicleTypesException e) {
+            storedType = null;
+        }
+        DailyFeeAccumulator accumulator = calculator.newDailyFeeAccumulator(zone,
+                storedType != null ? storedType : type, dateTime.toLocalDate(), dateTime.getZone());
+        try {
+            for (ZonedDateTime passage : passages) {
+                accumulator.add(passage.toEpochSecond());
+            }
+        } catch (MultipleDaysPassages e) {
+            throw new IllegalStateException("Storage returned passages of another day for " + dateTime, e);
+        }
+        accumulator.lastUpdate = updates.incrementAndGet();
+        return accumulator;
+    }
+
+    private static Timer updateTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("toll.tracker.fee")
+                .description("Incremental updates of a daily fee with new passages")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -0,0 +1,39 @@
+package org.te.toll.calculator;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Converts epoch seconds to seconds of one local day. Zone rules are only consulted per passage on the days with a
+ * DST transition.
+ */
+final class DayOffsets {
+    static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final ZoneRules rules;
+    private final long localDayStart;
+    private final boolean fixedOffset;
+    private final int offset;
+
+    DayOffsets(LocalDate day, ZoneId zone) {
+        rules = zone.getRules();
+        localDayStart = day.toEpochDay() * SECONDS_PER_DAY;
+        long start = day.atStartOfDay(zone).toEpochSecond();
+        long end = day.plusDays(1).atStartOfDay(zone).toEpochSecond();
+        ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochSecond(start));
+        fixedOffset = transition == null || transition.toEpochSecond() >= end;
+        offset = rules.getOffset(Instant.ofEpochSecond(start)).getTotalSeconds();
+    }
+
+    /**
+     * @return The local second of the day of the passage, or -1 if it belongs to another day.
+     */
+    int secondOfDay(long epochSecond) {
+        int passageOffset = fixedOffset ? offset : rules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+        long secondOfDay = epochSecond + passageOffset - localDayStart;
+        return secondOfDay >= 0 && secondOfDay < SECONDS_PER_DAY ? (int) secondOfDay : -1;
+    }
+}
@@ -0,0 +1,94 @@
+package org.te.toll.calculator;
+
+import lombok.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fee of every (registration, day), grouped by month together with the month total. A month costs one read and a
+ * year at most twelve, whatever the number of passages. Days are overwritten with their latest fee, so a late
+ * passage that changes a past day updates the totals of its month as well.
+ */
+@Component
+public class FeeRollups {
+    private final Map<VehicleMonth, MonthRollup> months = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the fee of a day, replacing the previous one. Updates of the same vehicle-day must not run concurrently.
+     */
+    public void setDailyFee(String registration, LocalDate day, int fee) {
+        months.computeIfAbsent(new VehicleMonth(registration, YearMonth.from(day)), key -> new MonthRollup())
+                .set(day.getDayOfMonth(), fee);
+    }
+
+    public int getDailyFee(String registration, LocalDate day) {
+        MonthRollup month = months.get(new VehicleMonth(registration, YearMonth.from(day)));
+        return month == null ? 0 : month.get(day.getDayOfMonth());
+    }
+
+    public int getMonthlyFee(String registration, YearMonth yearMonth) {
+        MonthRollup month = months.get(new VehicleMonth(registration, yearMonth));
+        return month == null ? 0 : month.total();
+    }
+
+    public int getYearlyFee(String registration, Year year) {
+        int total = 0;
+        for (int month = 1; month <= 12; month++) {
+            total += getMonthlyFee(registration, year.atMonth(month));
+        }
+        return total;
+    }
+
+    /**
+     * @return The fees from {@code from} to {@code to}, both included. Whole months are read from their totals.
+     */
+    public long getFee(String registration, LocalDate from, LocalDate to) {
+        long total = 0;
+        YearMonth last = YearMonth.from(to);
+        for (YearMonth yearMonth = YearMonth.from(from); !yearMonth.isAfter(last); yearMonth = yearMonth.plusMonths(1)) {
+            MonthRollup month = months.get(new VehicleMonth(registration, yearMonth));
+            if (month == null) {
+                continue;
+            }
+            int firstDay = yearMonth.equals(YearMonth.from(from)) ? from.getDayOfMonth() : 1;
+            int lastDay = yearMonth.equals(last) ? to.getDayOfMonth() : yearMonth.lengthOfMonth();
+            if (firstDay == 1 && lastDay == yearMonth.lengthOfMonth()) {
+                total += month.total();
+            } else {
+                for (int day = firstDay; day <= lastDay; day++) {
+                    total += month.get(day);
+                }
+            }
+        }
+        return total;
+    }
+
+    @Value
+    private static class VehicleMonth {
+        String registration;
+        YearMonth month;
+    }
+
+    private static final class MonthRollup {
+        private final int[] fees = new int[31];
+        private int total;
+
+        synchronized void set(int dayOfMonth, int fee) {
+            total += fee - fees[dayOfMonth - 1];
+            fees[dayOfMonth - 1] = fee;
+        }
+
+        synchronized int get(int dayOfMonth) {
+            return fees[dayOfMonth - 1];
+        }
+
+        synchronized int total() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.te.toll.calculator;
+
+import org.te.toll.config.TariffSnapshot;
+import org.te.toll.config.TariffSource;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prices a vehicle-day under several tariffs at once, for what-if comparisons. The passages are sorted and converted
+ * to minutes of the day once, then each tariff only walks the minutes, so every extra tariff costs a fraction of a
+ * {@link TollCalculator#getTollFee} call. The fees are the ones the calculator would give with each tariff.
+ * <p>
+ * Not thread-safe, every thread prices with its own instance.
+ */
+public final class TariffComparison {
+    private final TariffSource[] tariffs;
+    private int[] minutes = new int[16];
+
+    public TariffComparison(List<? extends TariffSource> tariffs) {
+        this.tariffs = tariffs.toArray(new TariffSource[0]);
+    }
+
+    public int size() {
+        return tariffs.length;
+    }
+
+    /**
+     * Writes the fee of the day under the i-th tariff to {@code fees[i]}.
+     *
+     * @param tariffZone The {@link org.te.toll.config.TariffZones} index of the zone whose tariffs apply
+     * @param day The local day in {@code zone} all the passages belong to
+     * @param epochSeconds The passages as seconds since the epoch. The first {@code count} entries are sorted in place.
+     * @throws MultipleDaysPassages if any passage falls outside {@code day}
+     */
+    public void price(int tariffZone, VehicleType type, LocalDate day, ZoneId zone, long[] epochSeconds, int count,
+                      int[] fees) throws MultipleDaysPassages {
+        if (count == 0) {
+            Arrays.fill(fees, 0, tariffs.length, 0);
+            return;
+        }
+        Arrays.sort(epochSeconds, 0, count);
+        DayOffsets offsets = new DayOffsets(day, zone);
+        if (minutes.length < count) {
+            minutes = new int[Math.max(count, minutes.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            int second = offsets.secondOfDay(epochSeconds[i]);
+            if (second < 0) {
+                throw new MultipleDaysPassages();
+            }
+            minutes[i] = second / 60;
+        }
+        for (int t = 0; t < tariffs.length; t++) {
+            TariffSnapshot tariff = tariffs[t].tariffOf(tariffZone, day);
+            fees[t] = tariff.getExemptionCalendar().isExempt(type, day) ? 0
+                    : TollCalculator.clusterFee(tariff, epochSeconds, minutes, count);
+        }
+    }
+}
@@ -1,74 +1,154 @@
 package org.te.toll.calculator;
 
-import lombok.AllArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.te.toll.config.TollConfiguration;
+import org.te.toll.config.FareTable;
+import org.te.toll.config.TariffSnapshot;
+import org.te.toll.config.TariffSource;
+import org.te.toll.config.TariffZones;
 import org.te.toll.enums.VehicleType;
 import org.te.toll.exceptions.MultipleDaysPassages;
 
-import java.time.DayOfWeek;
-import java.time.Month;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 @Component
-@AllArgsConstructor
 public class TollCalculator {
-    private final TollConfiguration config;
+    static final int CLUSTER_SECONDS = 60 * 60;
+
+    private final TariffSource tariffs;
+    private final Timer exemptFees;
+    private final Timer clusteredFees;
+
+    public TollCalculator(TariffSource tariffs) {
+        this(tariffs, Metrics.globalRegistry);
+    }
+
+    @Autowired
+    public TollCalculator(TariffSource tariffs, MeterRegistry registry) {
+        this.tariffs = tariffs;
+        this.exemptFees = feeTimer(registry, "exempt");
+        this.clusteredFees = feeTimer(registry, "clusters");
+    }
 
     public int getTollFee(VehicleType type, List<ZonedDateTime> passages) throws MultipleDaysPassages {
+        return getTollFee(TariffZones.DEFAULT, type, passages);
+    }
+
+    public int getTollFee(int tariffZone, VehicleType type, List<ZonedDateTime> passages) throws MultipleDaysPassages {
         if (passages.isEmpty()) {
             return 0;
         }
         ZonedDateTime passageDateTime = passages.get(0);
-        DayOfWeek passagesDay = passageDateTime.getDayOfWeek();
-        Month passagesMonth = passageDateTime.getMonth();
-        long passagesSameDay = passages.stream()
-                .filter(x -> x.toLocalDate().equals(passageDateTime.toLocalDate())).count();
-        if (passagesSameDay != passages.size()) {
-            throw new MultipleDaysPassages();
+        LocalDate day = passageDateTime.toLocalDate();
+        long[] epochSeconds = new long[passages.size()];
+        for (int i = 0; i < epochSeconds.length; i++) {
+            ZonedDateTime passage = passages.get(i);
+            if (!passage.toLocalDate().equals(day)) {
+                throw new MultipleDaysPassages();
+            }
+            epochSeconds[i] = passage.toEpochSecond();
         }
+        return getTollFee(tariffZone, type, day, passageDateTime.getZone(), epochSeconds, epochSeconds.length);
+    }
+
+    public int getTollFee(VehicleType type, LocalDate day, ZoneId zone, long[] epochSeconds, int count)
+            throws MultipleDaysPassages {
+        return getTollFee(TariffZones.DEFAULT, type, day, zone, epochSeconds, count);
+    }
 
-        if (config.getExemptMonths().contains(passagesMonth)
-                || config.getExemptWeekDays().contains(passagesDay)
-                || config.getExemptDates().contains(passageDateTime.toLocalDate())) {
+    /**
+     * Calculates the fee of one day in a single pass over the passages, with second resolution.
+     *
+     * @param tariffZone The {@link TariffZones} index of the zone whose tariff applies
+     * @param day The local day in {@code zone} all the passages belong to
+     * @param epochSeconds The passages as seconds since the epoch. The first {@code count} entries are sorted in place.
+     * @throws MultipleDaysPassages if any passage falls outside {@code day}
+     */
+    public int getTollFee(int tariffZone, VehicleType type, LocalDate day, ZoneId zone, long[] epochSeconds,
+                          int count) throws MultipleDaysPassages {
+        if (count == 0) {
             return 0;
         }
-        if (config.getExemptVehicleTypes().contains(type)) {
-            return 0;
+        Arrays.sort(epochSeconds, 0, count);
+        DayOffsets offsets = new DayOffsets(day, zone);
+        if (offsets.secondOfDay(epochSeconds[0]) < 0 || offsets.secondOfDay(epochSeconds[count - 1]) < 0) {
+            throw new MultipleDaysPassages();
         }
 
-        List<List<ZonedDateTime>> clusters = groupPassagesIntoClusters(passages);
-        return Math.min(clusters.stream()
-                .map(this::getClusterPrice)
-                .reduce(0, Integer::sum), config.getMaxDailyFare());
+        long start = System.nanoTime();
+        TariffSnapshot tariff = tariffs.tariffOf(tariffZone, day);
+        if (tariff.getExemptionCalendar().isExempt(type, day)) {
+            exemptFees.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return 0;
+        }
+        int fee = clusterFee(tariff, epochSeconds, count, offsets, null);
+        clusteredFees.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return fee;
     }
 
-    private int getClusterPrice(List<ZonedDateTime> cluster) {
-        return cluster.stream()
-                .map(config::getPriceByTime).max(Comparator.naturalOrder()).orElse(0);
+    /**
+     * Same as the clustering of {@link #getTollFee}, over the minutes of the day of the passages computed beforehand.
+     * Lets {@link TariffComparison} convert the passages once for all its tariffs.
+     */
+    static int clusterFee(TariffSnapshot tariff, long[] epochSeconds, int[] minutes, int count) {
+        return clusterFee(tariff, epochSeconds, count, null, minutes);
     }
 
-    private List<List<ZonedDateTime>> groupPassagesIntoClusters(List<ZonedDateTime> passages) {
-        List<List<ZonedDateTime>> clusters = new ArrayList<>();
-
-        Stack<ZonedDateTime> orderedPassages = new Stack<>();
-        orderedPassages.addAll(passages.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList()));
-
-        while(!orderedPassages.isEmpty()) {
-            ZonedDateTime firstPassage = orderedPassages.pop();
-            List<ZonedDateTime> currentCluster = new ArrayList<>(List.of(firstPassage));
-            while(!orderedPassages.isEmpty() && ChronoUnit.MINUTES.between(firstPassage, orderedPassages.peek()) < 60) {
-                currentCluster.add(orderedPassages.pop());
+    /**
+     * Sums the highest price of every hour-long cluster of the sorted passages, capped at the tariff's daily maximum,
+     * in a single pass. The minute of the day of each passage is read from {@code minutes} when given, otherwise
+     * worked out from {@code offsets} as the passage comes.
+     */
+    private static int clusterFee(TariffSnapshot tariff, long[] epochSeconds, int count, DayOffsets offsets,
+                                  int[] minutes) {
+        FareTable fareTable = tariff.getFareTable();
+        int maxDailyFare = tariff.getMaxDailyFare();
+        int total = 0;
+        long clusterStart = epochSeconds[0];
+        int clusterPrice = 0;
+        for (int i = 0; i < count; i++) {
+            long passage = epochSeconds[i];
+            int price = fareTable.priceAt(minutes != null ? minutes[i] : offsets.secondOfDay(passage) / 60);
+            if (passage - clusterStart < CLUSTER_SECONDS) {
+                clusterPrice = Math.max(clusterPrice, price);
+            } else {
+                total += clusterPrice;
+                if (total >= maxDailyFare) {
+                    return maxDailyFare;
+                }
+                clusterStart = passage;
+                clusterPrice = price;
             }
-            clusters.add(currentCluster);
         }
+        return Math.min(total + clusterPrice, maxDailyFare);
+    }
+
+    public DailyFeeAccumulator newDailyFeeAccumulator(VehicleType type, LocalDate day, ZoneId zone) {
+        return newDailyFeeAccumulator(TariffZones.DEFAULT, type, day, zone);
+    }
+
+    /**
+     * @return An empty running fee for the vehicle and day, priced with the tariff of the zone in effect on that day
+     */
+    public DailyFeeAccumulator newDailyFeeAccumulator(int tariffZone, VehicleType type, LocalDate day, ZoneId zone) {
+        TariffSnapshot tariff = tariffs.tariffOf(tariffZone, day);
+        return new DailyFeeAccumulator(type, day, zone, tariff.getFareTable(), tariff.getMaxDailyFare(),
+                tariff.getExemptionCalendar().isExempt(type, day));
+    }
 
-        return clusters;
+    // Exempt days short-circuit before any passage is priced, so they are timed apart
+    private static Timer feeTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("toll.calculator.fee")
+                .description("Daily fee calculations over a list of passages")
+                .tag("outcome", outcome)
+                .register(registry);
     }
 }
@@ -0,0 +1,81 @@
+package org.te.toll.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.te.toll.storage.AsyncStorageService;
+import org.te.toll.storage.StorageService;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies execution.mode. Virtual threads are looked up by reflection, so that the application still builds and runs
+ * on Java 11: on a JDK without them the virtual mode falls back to the Tomcat thread pool with a warning.
+ * <p>
+ * With the sharded storage, whose calls wait on other nodes, the storage reads of a fee over several days are made
+ * at once through an {@link AsyncStorageService}, on virtual threads in the virtual mode and on a pool of
+ * execution.pool-size threads otherwise.
+ */
+@Slf4j
+@Configuration
+public class ExecutionConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandler(
+            ExecutionProperties properties) {
+        return protocolHandler -> {
+            if (properties.getMode() != ExecutionProperties.Mode.VIRTUAL) {
+                return;
+            }
+            Optional<ExecutorService> virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual.isPresent()) {
+                log.info("Serving requests on virtual threads");
+                protocolHandler.setExecutor(virtual.get());
+            } else {
+                log.warn("Virtual threads need Java 21 or later, running on {}: keeping the Tomcat thread pool",
+                        System.getProperty("java.version"));
+            }
+        };
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "storage.type", havingValue = "sharded")
+    public ExecutorService storageExecutor(ExecutionProperties properties) {
+        return newStorageExecutor(properties);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "storage.type", havingValue = "sharded")
+    public AsyncStorageService asyncStorageService(StorageService storage, ExecutorService storageExecutor) {
+        return new AsyncStorageService(storage, storageExecutor);
+    }
+
+    static ExecutorService newStorageExecutor(ExecutionProperties properties) {
+        if (properties.getMode() == ExecutionProperties.Mode.VIRTUAL) {
+            Optional<ExecutorService> virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual.isPresent()) {
+                return virtual.get();
+            }
+        }
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(properties.getPoolSize(), runnable -> {
+            Thread thread = new Thread(runnable, "toll-storage-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "execution")
+@Getter
+@Setter
+public class ExecutionProperties {
+    private Mode mode = Mode.PLATFORM;
+    /** Threads of the async storage calls when virtual threads are not available */
+    private int poolSize = 64;
+
+    public enum Mode {
+        /** Requests run on the Tomcat thread pool */
+        PLATFORM,
+        /** Requests and async storage calls run on a new virtual thread each, on Java 21 and later */
+        VIRTUAL
+    }
+}
@@ -0,0 +1,81 @@
+package org.te.toll.config;
+
+import org.te.toll.enums.VehicleType;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Immutable, precompiled view of the configured exemptions. Every check is a constant-time set or bit lookup.
+ */
+public final class ExemptionCalendar {
+    public static final ExemptionCalendar NONE = of(null, null, null, null);
+
+    private final Set<VehicleType> vehicleTypes;
+    private final Set<Month> months;
+    private final Set<DayOfWeek> weekDays;
+    // Exempt dates as a bitmap of epoch days, starting from the earliest exempt date
+    private final long firstEpochDay;
+    private final BitSet dates;
+
+    private ExemptionCalendar(Set<VehicleType> vehicleTypes, Set<Month> months, Set<DayOfWeek> weekDays,
+                              long firstEpochDay, BitSet dates) {
+        this.vehicleTypes = vehicleTypes;
+        this.months = months;
+        this.weekDays = weekDays;
+        this.firstEpochDay = firstEpochDay;
+        this.dates = dates;
+    }
+
+    /**
+     * Null collections are treated as empty.
+     */
+    public static ExemptionCalendar of(Collection<VehicleType> vehicleTypes, Collection<Month> months,
+                                       Collection<DayOfWeek> weekDays, Collection<LocalDate> dates) {
+        long firstEpochDay = 0;
+        BitSet dateBits = new BitSet();
+        if (dates != null && !dates.isEmpty()) {
+            firstEpochDay = dates.stream().mapToLong(LocalDate::toEpochDay).min().getAsLong();
+            for (LocalDate date : dates) {
+                dateBits.set(Math.toIntExact(date.toEpochDay() - firstEpochDay));
+            }
+        }
+        return new ExemptionCalendar(
+                copyOf(vehicleTypes, VehicleType.class),
+                copyOf(months, Month.class),
+                copyOf(weekDays, DayOfWeek.class),
+                firstEpochDay, dateBits);
+    }
+
+    public boolean isExemptVehicle(VehicleType type) {
+        return vehicleTypes.contains(type);
+    }
+
+    public boolean isExemptDay(LocalDate day) {
+        return months.contains(day.getMonth())
+                || weekDays.contains(day.getDayOfWeek())
+                || isExemptDate(day.toEpochDay());
+    }
+
+    public boolean isExempt(VehicleType type, LocalDate day) {
+        return isExemptDay(day) || isExemptVehicle(type);
+    }
+
+    private boolean isExemptDate(long epochDay) {
+        long offset = epochDay - firstEpochDay;
+        return offset >= 0 && offset < dates.length() && dates.get((int) offset);
+    }
+
+    private static <E extends Enum<E>> Set<E> copyOf(Collection<E> values, Class<E> type) {
+        EnumSet<E> set = EnumSet.noneOf(type);
+        if (values != null) {
+            set.addAll(values);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,62 @@
+package org.te.toll.config;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable price lookup table with one entry per minute of the day, compiled from the configured fares.
+ */
+public final class FareTable {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final int[] priceByMinute;
+
+    private FareTable(int[] priceByMinute) {
+        this.priceByMinute = priceByMinute;
+    }
+
+    /**
+     * @param fares Fares ordered by start time. The first one must start at midnight, and each fare applies until
+     *              the next one starts.
+     * @throws IllegalArgumentException if the fares are empty, unsorted, overlapping or don't start at midnight.
+     */
+    public static FareTable compile(List<TollConfiguration.Fare> fares) {
+        if (fares == null || fares.isEmpty()) {
+            throw new IllegalArgumentException("At least one fare must be configured");
+        }
+        int[] priceByMinute = new int[MINUTES_PER_DAY];
+        int previousStart = -1;
+        for (int i = 0; i < fares.size(); i++) {
+            TollConfiguration.Fare fare = fares.get(i);
+            if (fare.getHour() < 0 || fare.getHour() > 23 || fare.getMinute() < 0 || fare.getMinute() > 59) {
+                throw new IllegalArgumentException("Invalid fare start time " + fare);
+            }
+            if (fare.getPrice() < 0) {
+                throw new IllegalArgumentException("Negative fare price " + fare);
+            }
+            int start = fare.getHour() * 60 + fare.getMinute();
+            if (i == 0 && start != 0) {
+                throw new IllegalArgumentException("The first fare must start at 00:00, found " + fare);
+            }
+            if (start <= previousStart) {
+                throw new IllegalArgumentException("Fares must be sorted by start time without overlaps, found " + fare);
+            }
+            int end = i + 1 < fares.size()
+                    ? fares.get(i + 1).getHour() * 60 + fares.get(i + 1).getMinute()
+                    : MINUTES_PER_DAY;
+            // An invalid end is reported when the next fare is validated; clamping keeps the fill in bounds
+            Arrays.fill(priceByMinute, start, Math.max(start, Math.min(end, MINUTES_PER_DAY)), fare.getPrice());
+            previousStart = start;
+        }
+        return new FareTable(priceByMinute);
+    }
+
+    public int priceAt(int minuteOfDay) {
+        return priceByMinute[minuteOfDay];
+    }
+
+    public int priceAt(ZonedDateTime time) {
+        return priceByMinute[time.getHour() * 60 + time.getMinute()];
+    }
+}
@@ -0,0 +1,29 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "ingestion")
+@Getter
+@Setter
+public class IngestionProperties {
+    /** Passages the ring buffer holds between the feed and the last stage, a power of two */
+    private int ringSize = 64 * 1024;
+    /** Most passages a stage takes from the ring at once */
+    private int batchSize = 1024;
+    private Backpressure backpressure = Backpressure.BLOCK;
+    /** How long a blocked feed waits for room in the ring before refusing the passage */
+    private Duration blockTimeout = Duration.ofSeconds(1);
+
+    public enum Backpressure {
+        /** The feed waits for the slowest stage to free a slot, up to blockTimeout */
+        BLOCK,
+        /** Passages are refused as soon as the ring is full */
+        REJECT
+    }
+}
@@ -0,0 +1,17 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "invoicing")
+@Getter
+@Setter
+public class InvoicingProperties {
+    /** Where the invoice files are written, one per day */
+    private String directory = "invoices";
+    /** Threads pricing the vehicles, 0 uses one per available processor */
+    private int parallelism = 0;
+}
@@ -0,0 +1,19 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "replay")
+@Getter
+@Setter
+public class ReplayProperties {
+    /** Threads pricing the vehicle-days, 0 uses one per available processor */
+    private int parallelism = 0;
+    /** Vehicle-days handed to a thread at once */
+    private int batchSize = 4096;
+    /** Longest period a replay covers, its tallies hold one revenue per day and tariff */
+    private int maxDays = 366;
+}
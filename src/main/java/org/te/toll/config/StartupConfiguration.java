@@ -0,0 +1,45 @@
+package org.te.toll.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.te.toll.jobs.RetentionCompactor;
+import org.te.toll.storage.StorageServiceShardedImpl;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Startup of the prod profile, where spring.main.lazy-initialization creates the beans on their first use.
+ */
+@Slf4j
+@Configuration
+public class StartupConfiguration {
+
+    /**
+     * Beans that work in the background rather than when they are called: the retention compaction, the tariff file
+     * watcher and the shard served to the other nodes must still start with the application.
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter backgroundBeansStartEagerly() {
+        return LazyInitializationExcludeFilter.forBeanTypes(RetentionCompactor.class, TariffRegistry.class,
+                StorageServiceShardedImpl.class);
+    }
+
+    /**
+     * Closes the application as soon as it is ready, for training runs like the one building the class-data
+     * sharing archive of the cds Maven profile.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "startup.exit-after-ready", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> exitAfterReady() {
+        return event -> {
+            log.info("Ready {} ms after the JVM start, exiting", ManagementFactory.getRuntimeMXBean().getUptime());
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package org.te.toll.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.te.toll.storage.InstrumentedClusterStorageService;
+import org.te.toll.storage.InstrumentedStorageService;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceShardedImpl;
+import org.te.toll.storage.cluster.ClusterAdmin;
+
+/**
+ * Wraps whichever storage implementation is selected by storage.type with timers and size gauges. The sharded one
+ * stays injectable as a {@link ClusterAdmin}.
+ */
+@Configuration
+public class StorageMetricsConfiguration {
+
+    @Bean
+    public static BeanPostProcessor storageMetricsPostProcessor(ObjectProvider<MeterRegistry> registry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof StorageServiceShardedImpl) {
+                    return new InstrumentedClusterStorageService((StorageServiceShardedImpl) bean,
+                            registry.getObject());
+                }
+                if (bean instanceof StorageService && !(bean instanceof InstrumentedStorageService)) {
+                    return new InstrumentedStorageService((StorageService) bean, registry.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
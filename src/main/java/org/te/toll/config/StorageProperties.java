@@ -0,0 +1,76 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties(prefix = "storage")
+@Getter
+@Setter
+public class StorageProperties {
+    private String type = "concurrent";
+    private Log log = new Log();
+    private Retention retention = new Retention();
+    private OffHeap offHeap = new OffHeap();
+    private Cluster cluster = new Cluster();
+
+    @Getter
+    @Setter
+    public static class Log {
+        private String directory = "data";
+        private int segmentSize = 64 * 1024 * 1024;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.BATCH;
+        private int fsyncBatchSize = 1000;
+        private Duration fsyncMaxDelay = Duration.ofMillis(100);
+    }
+
+    @Getter
+    @Setter
+    public static class Retention {
+        /** Days of raw passages to keep, including today. Older days are compacted to daily totals, 0 keeps all */
+        private int rawDays = 0;
+        private Duration compactionInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class OffHeap {
+        /** Independently locked parts of the store, a power of two */
+        private int segments = 64;
+        /** Largest direct buffer allocated at once, smaller ones are used while a segment is small */
+        private int slabSize = 16 * 1024 * 1024;
+    }
+
+    @Getter
+    @Setter
+    public static class Cluster {
+        /** Shard addresses of every node of the cluster as host:port, this one included */
+        private List<String> nodes = new ArrayList<>();
+        /**
+         * Shard address of this node, empty for a node that only routes to the others. A node that isn't one of the
+         * nodes yet serves an empty shard until it is added to the ring
+         */
+        private String self = "";
+        /** Points of the hash ring per node, more spread the registrations more evenly */
+        private int virtualNodes = 128;
+        /** Local address the shard server listens on, the host of self if empty. The protocol isn't authenticated */
+        private String bindAddress = "";
+        /** Longest wait for an answer of another node before the call fails */
+        private Duration readTimeout = Duration.ofSeconds(30);
+    }
+
+    public enum FsyncPolicy {
+        /** Force every append to disk before returning */
+        ALWAYS,
+        /** Force to disk every fsyncBatchSize appended passages, and at the latest fsyncMaxDelay after an append */
+        BATCH,
+        /** Leave flushing to the operating system */
+        NEVER
+    }
+}
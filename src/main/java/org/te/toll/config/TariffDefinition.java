@@ -0,0 +1,69 @@
+package org.te.toll.config;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.te.toll.enums.VehicleType;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The tariff of a zone in application.yml or an entry of the tariff file. The properties left out are inherited.
+ */
+@Getter
+@Setter
+public class TariffDefinition {
+    /** Tariff zone the entry of the tariff file applies to, the default one if not set */
+    private String zone;
+    /** First day priced with the entry of the tariff file, yyyy-MM-dd */
+    private String effectiveFrom;
+    private List<VehicleType> exemptVehicleTypes;
+    private List<Month> exemptMonths;
+    private List<DayOfWeek> exemptWeekDays;
+    @Setter(AccessLevel.PACKAGE)
+    private List<LocalDate> exemptDates;
+    private Integer maxDailyFare;
+    private List<TollConfiguration.Fare> fares;
+
+    public void setExemptDatesRaw(List<String> exemptDatesRaw) {
+        exemptDates = exemptDatesRaw.stream().map(LocalDate::parse).collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * @return A copy of this definition where the properties left out take the value of the parent
+     */
+    public TariffDefinition inherit(TariffDefinition parent) {
+        TariffDefinition merged = new TariffDefinition();
+        merged.zone = zone != null ? zone : parent.zone;
+        merged.effectiveFrom = effectiveFrom != null ? effectiveFrom : parent.effectiveFrom;
+        merged.exemptVehicleTypes = exemptVehicleTypes != null ? exemptVehicleTypes : parent.exemptVehicleTypes;
+        merged.exemptMonths = exemptMonths != null ? exemptMonths : parent.exemptMonths;
+        merged.exemptWeekDays = exemptWeekDays != null ? exemptWeekDays : parent.exemptWeekDays;
+        merged.exemptDates = exemptDates != null ? exemptDates : parent.exemptDates;
+        merged.maxDailyFare = maxDailyFare != null ? maxDailyFare : parent.maxDailyFare;
+        merged.fares = fares != null ? fares : parent.fares;
+        return merged;
+    }
+
+    /**
+     * @return The compiled tariff, effective from {@link LocalDate#MIN} if no effective day is set
+     * @throws IllegalArgumentException if the effective day or the fares are not valid
+     */
+    public TariffSnapshot toSnapshot(String zoneId, long version) {
+        LocalDate from = LocalDate.MIN;
+        if (effectiveFrom != null) {
+            try {
+                from = LocalDate.parse(effectiveFrom);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Wrong effectiveFrom " + effectiveFrom, e);
+            }
+        }
+        return new TariffSnapshot(version, zoneId, from, FareTable.compile(fares),
+                maxDailyFare != null ? maxDailyFare : 0,
+                ExemptionCalendar.of(exemptVehicleTypes, exemptMonths, exemptWeekDays, exemptDates));
+    }
+}
@@ -0,0 +1,17 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "tariffs")
+@Getter
+@Setter
+public class TariffProperties {
+    /** YAML file with the tariffs taking over from a given day, none if empty */
+    private String file = "";
+    /** Reloads the tariffs whenever the file changes */
+    private boolean watch = false;
+}
@@ -0,0 +1,203 @@
+package org.te.toll.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.bind.BindException;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Every tariff of every zone, each one valid from its effective day until the next one of its zone takes over. The
+ * application configuration is the tariff of the days before the first entry of the tariffs file.
+ * <p>
+ * The tariffs are swapped as a whole behind an atomic reference, so pricing never waits for a reload and always sees
+ * either the old or the new set. A reload publishes a {@link TariffsReloadedEvent}.
+ */
+@Slf4j
+@Primary
+@Component
+public class TariffRegistry implements TariffSource {
+    private final TollConfiguration base;
+    private final TariffProperties properties;
+    private final ApplicationEventPublisher publisher;
+    // By zone index, then sorted by effective day. The first one of each zone is effective from LocalDate.MIN
+    private final AtomicReference<TariffSnapshot[][]> tariffs = new AtomicReference<>();
+    private Thread watcher;
+    private WatchService watchService;
+
+    public TariffRegistry(TollConfiguration base, TariffProperties properties, ApplicationEventPublisher publisher) {
+        this.base = base;
+        this.properties = properties;
+        this.publisher = publisher;
+        tariffs.set(load(0));
+    }
+
+    @Override
+    public TariffSnapshot tariffOf(int zone, LocalDate day) {
+        TariffSnapshot[] current = tariffs.get()[zone];
+        int low = 1;
+        int high = current.length - 1;
+        // Last tariff effective on or before the day
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (current[middle].getEffectiveFrom().isAfter(day)) {
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return current[high];
+    }
+
+    public List<TariffSnapshot> getTariffs() {
+        return flatten(tariffs.get());
+    }
+
+    public long getVersion() {
+        return tariffs.get()[TariffZones.DEFAULT][0].getVersion();
+    }
+
+    /**
+     * Reads the tariffs file again and replaces all the tariffs with a new version.
+     *
+     * @throws IllegalArgumentException if the file can't be read or a tariff is not valid, the current tariffs stay
+     */
+    public synchronized TariffsReloadedEvent reload() {
+        TariffSnapshot[][] loaded = load(getVersion() + 1);
+        tariffs.set(loaded);
+        TariffsReloadedEvent event = new TariffsReloadedEvent(getVersion(), flatten(loaded));
+        log.info("Loaded tariffs version {} with {} tariffs", event.getVersion(), event.getTariffs().size());
+        publisher.publishEvent(event);
+        return event;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!properties.isWatch() || properties.getFile().isEmpty()) {
+            return;
+        }
+        Path file = Paths.get(properties.getFile()).toAbsolutePath();
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(() -> watch(file), "tariff-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch(Path file) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= file.getFileName().equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (RuntimeException e) {
+                        log.error("Keeping tariffs version {}, {} is not valid", getVersion(), file, e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching {}", file);
+        }
+    }
+
+    private TariffSnapshot[][] load(long version) {
+        List<String> zoneIds = base.getTariffZoneIds();
+        List<List<TariffSnapshot>> byZone = new ArrayList<>();
+        for (int zone = 0; zone < zoneIds.size(); zone++) {
+            byZone.add(new ArrayList<>(List.of(base.tariffOf(zone, LocalDate.MIN).withVersion(version))));
+        }
+        for (TariffDefinition definition : readDefinitions()) {
+            String zoneId = definition.getZone() != null ? definition.getZone() : base.getTariffZone();
+            int zone = zoneIds.indexOf(zoneId);
+            if (zone < 0) {
+                throw new IllegalArgumentException("Unknown tariff zone " + zoneId);
+            }
+            if (definition.getEffectiveFrom() == null) {
+                throw new IllegalArgumentException("Tariff of " + zoneId + " without effectiveFrom");
+            }
+            byZone.get(zone).add(definition.inherit(base.definitionOf(zone)).toSnapshot(zoneId, version));
+        }
+        TariffSnapshot[][] loaded = new TariffSnapshot[byZone.size()][];
+        for (int zone = 0; zone < loaded.length; zone++) {
+            List<TariffSnapshot> zoneTariffs = byZone.get(zone);
+            zoneTariffs.sort(Comparator.comparing(TariffSnapshot::getEffectiveFrom));
+            for (int i = 1; i < zoneTariffs.size(); i++) {
+                if (!zoneTariffs.get(i).getEffectiveFrom().isAfter(zoneTariffs.get(i - 1).getEffectiveFrom())) {
+                    throw new IllegalArgumentException("Two tariffs of " + zoneIds.get(zone) + " are effective from "
+                            + zoneTariffs.get(i).getEffectiveFrom());
+                }
+            }
+            loaded[zone] = zoneTariffs.toArray(new TariffSnapshot[0]);
+        }
+        return loaded;
+    }
+
+    private static List<TariffSnapshot> flatten(TariffSnapshot[][] byZone) {
+        List<TariffSnapshot> all = new ArrayList<>();
+        for (TariffSnapshot[] zoneTariffs : byZone) {
+            all.addAll(List.of(zoneTariffs));
+        }
+        return List.copyOf(all);
+    }
+
+    private List<TariffDefinition> readDefinitions() {
+        if (properties.getFile().isEmpty()) {
+            return List.of();
+        }
+        Path file = Paths.get(properties.getFile());
+        if (!Files.exists(file)) {
+            throw new IllegalArgumentException("Tariffs file " + file + " doesn't exist");
+        }
+        List<PropertySource<?>> sources;
+        try {
+            sources = new YamlPropertySourceLoader().load("tariffs", new FileSystemResource(file));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Can't read tariffs file " + file, e);
+        }
+        try {
+            return new Binder(ConfigurationPropertySources.from(sources))
+                    .bind("tariffs", Bindable.listOf(TariffDefinition.class))
+                    .orElse(List.of());
+        } catch (BindException e) {
+            throw new IllegalArgumentException("Wrong tariffs in " + file, e);
+        }
+    }
+}
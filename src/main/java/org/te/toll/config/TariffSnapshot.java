@@ -0,0 +1,53 @@
+package org.te.toll.config;
+
+import java.time.LocalDate;
+
+/**
+ * Immutable set of prices and exemptions of a tariff zone, valid from a day until the next snapshot takes over.
+ */
+public final class TariffSnapshot {
+    private final long version;
+    private final String zone;
+    private final LocalDate effectiveFrom;
+    private final FareTable fareTable;
+    private final int maxDailyFare;
+    private final ExemptionCalendar exemptionCalendar;
+
+    public TariffSnapshot(long version, String zone, LocalDate effectiveFrom, FareTable fareTable, int maxDailyFare,
+                          ExemptionCalendar exemptionCalendar) {
+        this.version = version;
+        this.zone = zone;
+        this.effectiveFrom = effectiveFrom;
+        this.fareTable = fareTable;
+        this.maxDailyFare = maxDailyFare;
+        this.exemptionCalendar = exemptionCalendar;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public LocalDate getEffectiveFrom() {
+        return effectiveFrom;
+    }
+
+    public FareTable getFareTable() {
+        return fareTable;
+    }
+
+    public int getMaxDailyFare() {
+        return maxDailyFare;
+    }
+
+    public ExemptionCalendar getExemptionCalendar() {
+        return exemptionCalendar;
+    }
+
+    public TariffSnapshot withVersion(long newVersion) {
+        return new TariffSnapshot(newVersion, zone, effectiveFrom, fareTable, maxDailyFare, exemptionCalendar);
+    }
+}
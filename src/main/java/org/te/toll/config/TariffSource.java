@@ -0,0 +1,15 @@
+package org.te.toll.config;
+
+import java.time.LocalDate;
+
+/**
+ * Gives the tariff to price the passages of a day with, in a tariff zone given by its {@link TariffZones} index.
+ */
+@FunctionalInterface
+public interface TariffSource {
+    TariffSnapshot tariffOf(int zone, LocalDate day);
+
+    default TariffSnapshot tariffOf(LocalDate day) {
+        return tariffOf(TariffZones.DEFAULT, day);
+    }
+}
@@ -0,0 +1,89 @@
+package org.te.toll.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the tariff zones, so that a zone id is looked up once per request and the tariffs are then found by index.
+ * <p>
+ * The passages of a vehicle in another zone than the default one are stored, summed up and invoiced under
+ * registration@zone, so that each zone has its own days and daily caps.
+ */
+@Component
+public class TariffZones {
+    public static final int DEFAULT = 0;
+    public static final char SEPARATOR = '@';
+    public static final TariffZones SINGLE = new TariffZones(List.of("default"));
+
+    private final List<String> ids;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    @Autowired
+    public TariffZones(TollConfiguration config) {
+        this(config.getTariffZoneIds());
+    }
+
+    public TariffZones(List<String> ids) {
+        this.ids = List.copyOf(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            indexes.put(ids.get(i), i);
+        }
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return The index of the zone, the default one if the id is null, or -1 for an unknown zone
+     */
+    public int indexOf(String id) {
+        if (id == null) {
+            return DEFAULT;
+        }
+        return indexes.getOrDefault(id, -1);
+    }
+
+    public String idOf(int zone) {
+        return ids.get(zone);
+    }
+
+    /**
+     * @return The registration the passages of the vehicle in the zone are stored under
+     */
+    public String keyOf(int zone, String registration) {
+        return zone == DEFAULT ? registration : registration + SEPARATOR + ids.get(zone);
+    }
+
+    /**
+     * @return False if the key names a zone that is not configured anymore
+     */
+    public boolean isConfiguredKey(String key) {
+        int separator = key.lastIndexOf(SEPARATOR);
+        return separator < 0 || indexes.containsKey(key.substring(separator + 1));
+    }
+
+    /**
+     * @throws IllegalStateException if the key names a zone that is not configured anymore
+     */
+    public int zoneOfKey(String key) {
+        int separator = key.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            return DEFAULT;
+        }
+        Integer zone = indexes.get(key.substring(separator + 1));
+        if (zone == null) {
+            throw new IllegalStateException("Unknown tariff zone of " + key);
+        }
+        return zone;
+    }
+
+    public static String registrationOfKey(String key) {
+        int separator = key.lastIndexOf(SEPARATOR);
+        return separator < 0 ? key : key.substring(0, separator);
+    }
+}
@@ -0,0 +1,14 @@
+package org.te.toll.config;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Published once a new set of tariffs replaced the previous one.
+ */
+@Value
+public class TariffsReloadedEvent {
+    long version;
+    List<TariffSnapshot> tariffs;
+}
@@ -6,16 +6,20 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Configuration;
 import org.te.toll.enums.VehicleType;
 
+import javax.annotation.PostConstruct;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 @Configuration
 @EnableConfigurationProperties
 @ConfigurationProperties
 @Setter
-public class TollConfiguration {
+public class TollConfiguration implements TariffSource {
     private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
     @Getter
     List<VehicleType> exemptVehicleTypes;
@@ -25,27 +29,117 @@ public class TollConfiguration {
     List<DayOfWeek> exemptWeekDays;
     @Getter
     int maxDailyFare;
-    private List<String> exemptDatesRaw;
+    // Time zone of the toll stations, passage times are local times in this zone
+    @Getter
+    ZoneId tollZone = ZoneId.systemDefault();
+    // Id of the tariff zone priced with the properties above
+    @Getter
+    String tariffZone = "default";
+    // The other tariff zones by id, the properties they leave out are the ones above
+    @Getter
+    Map<String, TariffDefinition> tariffZones = Map.of();
+    @Getter
+    @Setter(AccessLevel.NONE)
+    private List<LocalDate> exemptDates = List.of();
+    @Getter
+    @Setter(AccessLevel.NONE)
     private List<Fare> fares;
+    @Getter
+    @Setter(AccessLevel.NONE)
+    private volatile FareTable fareTable;
+    // Built by refresh once the exemption properties are bound, so readers always see a consistent calendar
+    @Getter
+    @Setter(AccessLevel.NONE)
+    private volatile ExemptionCalendar exemptionCalendar = ExemptionCalendar.NONE;
+    // The bound tariff of each zone as a whole, valid on every day, by zone index
+    @Setter(AccessLevel.NONE)
+    private volatile TariffSnapshot[] tariffs;
 
-    public List<LocalDate> getExemptDates() {
-        return exemptDatesRaw.stream()
+    public void setExemptDatesRaw(List<String> exemptDatesRaw) {
+        exemptDates = exemptDatesRaw.stream()
                 .map(x -> LocalDate.parse(x, formatter))
-                .collect(Collectors.toList());
+                .collect(Collectors.toUnmodifiableList());
     }
 
-    public int getPriceByTime(ZonedDateTime time) {
-        int currentFare = 0;
-        for (Fare fare: fares) {
-            ZonedDateTime fareStart = ZonedDateTime.of(time.getYear(), time.getMonthValue(), time.getDayOfMonth(),
-                    fare.getHour(), fare.getMinute(), 0, 0, ZoneId.systemDefault());
-            if (!fareStart.isAfter(time)) {
-                currentFare = fare.getPrice();
-            } else {
-                break;
-            }
+    public void setFares(List<Fare> fares) {
+        this.fares = fares;
+    }
+
+    /**
+     * Builds the exemption calendar and the tariff of every zone from the bound properties and publishes them at
+     * once. The setters only bind, so readers never see a calendar or a tariff built from some of the properties of
+     * a binding; whatever binds them again calls this afterwards.
+     *
+     * @throws IllegalArgumentException if the tariff zones are inconsistent
+     */
+    @PostConstruct
+    public synchronized void refresh() {
+        ExemptionCalendar calendar = ExemptionCalendar.of(exemptVehicleTypes, exemptMonths, exemptWeekDays,
+                exemptDates);
+        if (fares == null) {
+            exemptionCalendar = calendar;
+            return;
+        }
+        if (tariffZones.containsKey(tariffZone)) {
+            throw new IllegalArgumentException("Tariff zone " + tariffZone + " is configured twice");
+        }
+        FareTable compiled = FareTable.compile(fares);
+        List<String> ids = getTariffZoneIds();
+        TariffSnapshot[] rebuilt = new TariffSnapshot[ids.size()];
+        rebuilt[TariffZones.DEFAULT] = new TariffSnapshot(0, tariffZone, LocalDate.MIN, compiled, maxDailyFare,
+                calendar);
+        for (int zone = 1; zone < rebuilt.length; zone++) {
+            rebuilt[zone] = definitionOf(zone).toSnapshot(ids.get(zone), 0);
         }
-        return currentFare;
+        fareTable = compiled;
+        exemptionCalendar = calendar;
+        tariffs = rebuilt;
+    }
+
+    /**
+     * @return The ids of the tariff zones by index, the zone of the top level properties first
+     */
+    public List<String> getTariffZoneIds() {
+        List<String> ids = new ArrayList<>();
+        ids.add(tariffZone);
+        ids.addAll(new TreeSet<>(tariffZones.keySet()));
+        return ids;
+    }
+
+    /**
+     * @return The definition of the zone with all the inherited properties filled in
+     */
+    public TariffDefinition definitionOf(int zone) {
+        TariffDefinition base = new TariffDefinition();
+        base.setExemptVehicleTypes(exemptVehicleTypes);
+        base.setExemptMonths(exemptMonths);
+        base.setExemptWeekDays(exemptWeekDays);
+        base.setExemptDates(exemptDates);
+        base.setMaxDailyFare(maxDailyFare);
+        base.setFares(fares);
+        if (zone == TariffZones.DEFAULT) {
+            return base;
+        }
+        TariffDefinition definition = tariffZones.get(getTariffZoneIds().get(zone)).inherit(base);
+        // Effective days only make sense in the tariff file
+        definition.setEffectiveFrom(null);
+        return definition;
+    }
+
+    /**
+     * @throws IllegalStateException if no fares were bound yet
+     */
+    @Override
+    public TariffSnapshot tariffOf(int zone, LocalDate day) {
+        TariffSnapshot[] current = tariffs;
+        if (current == null) {
+            throw new IllegalStateException("No fares configured");
+        }
+        return current[zone];
+    }
+
+    public int getPriceByTime(ZonedDateTime time) {
+        return fareTable.priceAt(time);
     }
 
     @Data
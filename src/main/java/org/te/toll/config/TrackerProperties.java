@@ -0,0 +1,18 @@
+package org.te.toll.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "tracker")
+@Getter
+@Setter
+public class TrackerProperties {
+    /**
+     * Running daily fees kept in memory. Beyond that the least recently updated vehicle-days are dropped, and
+     * reloaded from storage on their next passage
+     */
+    private int maxVehicleDays = 1_000_000;
+}
@@ -0,0 +1,7 @@
+package org.te.toll.exceptions;
+
+/**
+ * The passages of the day were already replaced by their daily total, so new ones can't be recorded.
+ */
+public class CompactedDayException extends Exception {
+}
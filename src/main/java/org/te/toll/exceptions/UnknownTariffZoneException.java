@@ -0,0 +1,7 @@
+package org.te.toll.exceptions;
+
+/**
+ * The tariff zone of a request is not one of the configured zones.
+ */
+public class UnknownTariffZoneException extends Exception {
+}
@@ -0,0 +1,7 @@
+package org.te.toll.exceptions;
+
+/**
+ * The vehicle already passed during the same day with another type.
+ */
+public class VehicleTypeMismatchException extends Exception {
+}
@@ -0,0 +1,366 @@
+package org.te.toll.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.config.IngestionProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleDaysPassages;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.jobs.RetentionCompactor;
+import org.te.toll.model.PassageRequest;
+import org.te.toll.storage.VehicleDay;
+import org.te.toll.time.PassageTimeParser;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Accepts passages from gantry feeds without waiting for them to be recorded, and records them on three threads
+ * connected by a {@link PassageRing}:
+ * <ol>
+ * <li>parse: validates the registration, zone and vehicle type and parses the date, like /toll/get-fee;</li>
+ * <li>append: records the passages of each vehicle-day of the batch at once through
+ * {@link DailyFeeTracker#append}, which checks their vehicle type against the stored passages of their day under
+ * the lock of the vehicle-day;</li>
+ * <li>fee: writes the running fee of each vehicle-day of the batch to the rollups once.</li>
+ * </ol>
+ * Each stage takes every passage the previous one has released, up to ingestion.batch-size, so that batches grow
+ * with the load. A stage with nothing to do spins briefly, then parks until the feed or the previous stage wakes it
+ * up, so an idle pipeline costs no processor time. The latency from the feed to the end of each stage is published
+ * as toll.ingestion.latency.
+ */
+@Slf4j
+@Component
+public class IngestionPipeline {
+    private static final String[] STAGES = {"parse", "append", "fee"};
+    // Idle rounds of spinning and yielding before a stage parks
+    private static final int IDLE_SPINS = 200;
+
+    private final PassageRing ring;
+    private final int batchSize;
+    private final IngestionProperties.Backpressure backpressure;
+    private final long blockTimeoutNanos;
+    private final DailyFeeTracker tracker;
+    private final RetentionCompactor retention;
+    private final PassageTimeParser timeParser;
+    private final TariffZones zones;
+    private final Stage[] stages = new Stage[STAGES.length];
+    private final Counter accepted;
+    private final Map<Rejection, Counter> rejected = new EnumMap<>(Rejection.class);
+    private final Counter refused;
+    private volatile boolean running;
+
+    public IngestionPipeline(IngestionProperties properties, DailyFeeTracker tracker, RetentionCompactor retention,
+                             PassageTimeParser timeParser, TariffZones zones, MeterRegistry registry) {
+        this.ring = new PassageRing(properties.getRingSize());
+        this.batchSize = properties.getBatchSize();
+        this.backpressure = properties.getBackpressure();
+        this.blockTimeoutNanos = properties.getBlockTimeout().toNanos();
+        this.tracker = tracker;
+        this.retention = retention;
+        this.timeParser = timeParser;
+        this.zones = zones;
+        BatchHandler[] handlers = {this::parse, this::append, this::publishFees};
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Stage(STAGES[i], i == 0 ? null : stages[i - 1], handlers[i], latencyTimer(registry, STAGES[i]));
+            if (i > 0) {
+                stages[i - 1].downstream = stages[i];
+            }
+        }
+        ring.setGate(stages[stages.length - 1].sequence);
+        accepted = passageCounter(registry, "accepted");
+        for (Rejection rejection : Rejection.values()) {
+            rejected.put(rejection, passageCounter(registry, rejection.tag));
+        }
+        refused = Counter.builder("toll.ingestion.refused")
+                .description("Passages refused by the feed because the ring was full")
+                .register(registry);
+        Gauge.builder("toll.ingestion.backlog", this, IngestionPipeline::getBacklog)
+                .description("Passages accepted by the feed and not recorded yet")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (Stage stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Lets the stages finish the passages already accepted, up to the block timeout, then stops them.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        awaitIdle(Duration.ofNanos(blockTimeoutNanos));
+        running = false;
+        for (Stage stage : stages) {
+            LockSupport.unpark(stage.thread);
+        }
+        for (Stage stage : stages) {
+            stage.thread.join(TimeUnit.NANOSECONDS.toMillis(blockTimeoutNanos) + 1);
+        }
+    }
+
+    public boolean publish(PassageRequest passage) {
+        return publish(passage.getVehicleType(), passage.getRegistration(), passage.getDate(), passage.getZone());
+    }
+
+    /**
+     * Hands a passage to the pipeline. Invalid passages are accepted too and dropped by the stages, which count them
+     * by reason in toll.ingestion.passages.
+     *
+     * @return false if the ring had no room for the passage, right away or after the block timeout depending on
+     * ingestion.backpressure
+     */
+    public boolean publish(VehicleType vehicleType, String registration, String date, String zone) {
+        long sequence = backpressure == IngestionProperties.Backpressure.REJECT
+                ? ring.tryClaim() : ring.claim(blockTimeoutNanos);
+        if (sequence < 0) {
+            refused.increment();
+            return false;
+        }
+        ring.get(sequence).set(vehicleType, registration, date, zone);
+        ring.publish(sequence);
+        stages[0].wake();
+        return true;
+    }
+
+    /**
+     * Waits until every passage accepted before the call has gone through all the stages.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitIdle(Duration timeout) throws InterruptedException {
+        long target = ring.getClaimed();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        int attempts = 0;
+        while (stages[stages.length - 1].sequence.get() < target) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            PassageRing.idle(attempts++);
+        }
+        return true;
+    }
+
+    public long getBacklog() {
+        return ring.getClaimed() - stages[stages.length - 1].sequence.get();
+    }
+
+    private void parse(long first, long last) {
+        for (long sequence = first; sequence <= last; sequence++) {
+            PassageSlot slot = ring.get(sequence);
+            String registration = slot.registration;
+            if (registration == null || registration.length() < 2 || registration.length() > 12
+                    || registration.indexOf(TariffZones.SEPARATOR) >= 0) {
+                slot.rejection = Rejection.REGISTRATION;
+                continue;
+            }
+            slot.tariffZone = zones.indexOf(slot.zone);
+            if (slot.tariffZone < 0) {
+                slot.rejection = Rejection.ZONE;
+                continue;
+            }
+            if (slot.vehicleType == null) {
+                slot.rejection = Rejection.VEHICLE_TYPE;
+                continue;
+            }
+            slot.dateTime = timeParser.parseDateTime(slot.date);
+            if (slot.dateTime == null) {
+                slot.rejection = Rejection.DATE;
+            } else if (retention.isCompacted(slot.dateTime.toLocalDate())) {
+                slot.rejection = Rejection.RETENTION;
+            } else {
+                slot.vehicleDay = new VehicleDay(zones.keyOf(slot.tariffZone, registration), slot.dateTime.toLocalDate());
+            }
+        }
+    }
+
+    private void append(long first, long last) {
+        Map<VehicleDay, PassageGroup> groups = new LinkedHashMap<>();
+        for (long sequence = first; sequence <= last; sequence++) {
+            PassageSlot slot = ring.get(sequence);
+            if (!slot.isAccepted()) {
+                continue;
+            }
+            PassageGroup group = groups.computeIfAbsent(slot.vehicleDay, vehicleDay -> new PassageGroup(slot));
+            if (slot.vehicleType != group.type) {
+                // The first type of a vehicle-day in the batch is checked against the stored passages by the tracker
+                slot.rejection = Rejection.TYPE_MISMATCH;
+                continue;
+            }
+            group.slots.add(slot);
+            group.dateTimes.add(slot.dateTime);
+        }
+        for (PassageGroup group : groups.values()) {
+            Rejection rejection = null;
+            int fee = 0;
+            try {
+                fee = tracker.append(group.tariffZone, group.registration, group.type, group.dateTimes);
+            } catch (VehicleTypeMismatchException e) {
+                rejection = Rejection.TYPE_MISMATCH;
+            } catch (MultipleVehicleTypesException e) {
+                rejection = Rejection.MULTIPLE_TYPES;
+            } catch (CompactedDayException e) {
+                rejection = Rejection.RETENTION;
+            } catch (MultipleDaysPassages e) {
+                throw new IllegalStateException("Passages were grouped by day", e);
+            }
+            for (PassageSlot slot : group.slots) {
+                slot.rejection = rejection;
+                slot.fee = fee;
+            }
+        }
+    }
+
+    private void publishFees(long first, long last) {
+        Set<VehicleDay> published = new HashSet<>();
+        for (long sequence = first; sequence <= last; sequence++) {
+            PassageSlot slot = ring.get(sequence);
+            if (slot.isAccepted()) {
+                if (published.add(slot.vehicleDay)) {
+                    tracker.publishFee(slot.tariffZone, slot.registration, slot.vehicleDay.getDay());
+                }
+                accepted.increment();
+            } else {
+                rejected.get(slot.rejection).increment();
+            }
+            slot.clear();
+        }
+    }
+
+    private static Timer latencyTimer(MeterRegistry registry, String stage) {
+        return Timer.builder("toll.ingestion.latency")
+                .description("Time from the feed to the end of each pipeline stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                // Stages take microseconds when the ring is not backed up, the default buckets start at 1 ms
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+
+    private static Counter passageCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder("toll.ingestion.passages")
+                .description("Passages that went through the pipeline, by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    @FunctionalInterface
+    private interface BatchHandler {
+        void handle(long first, long last);
+    }
+
+    private final class Stage implements Runnable {
+        final String name;
+        final Stage upstream;
+        final BatchHandler handler;
+        final Timer latency;
+        // Last sequence this stage is done with
+        final AtomicLong sequence = new AtomicLong(-1);
+        final Thread thread;
+        Stage downstream;
+        // Set before the last check for work, and read by the feed or the upstream stage after they released some
+        volatile boolean parked;
+
+        Stage(String name, Stage upstream, BatchHandler handler, Timer latency) {
+            this.name = name;
+            this.upstream = upstream;
+            this.handler = handler;
+            this.latency = latency;
+            thread = new Thread(this, "ingestion-" + name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int attempts = 0;
+            while (running) {
+                long first = sequence.get() + 1;
+                long last = available(first, first + batchSize - 1);
+                if (last < first) {
+                    if (attempts < IDLE_SPINS) {
+                        PassageRing.idle(attempts++);
+                    } else {
+                        parked = true;
+                        if (running && available(first, first) < first) {
+                            LockSupport.park(this);
+                        }
+                        parked = false;
+                    }
+                    continue;
+                }
+                attempts = 0;
+                try {
+                    handler.handle(first, last);
+                } catch (RuntimeException e) {
+                    log.warn("Ingestion stage {} failed on passages {} to {}", name, first, last, e);
+                    for (long s = first; s <= last; s++) {
+                        ring.get(s).rejection = Rejection.ERROR;
+                    }
+                }
+                long now = System.nanoTime();
+                for (long s = first; s <= last; s++) {
+                    latency.record(now - ring.get(s).publishedNanos, TimeUnit.NANOSECONDS);
+                }
+                sequence.set(last);
+                if (downstream != null) {
+                    downstream.wake();
+                }
+            }
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private long available(long first, long last) {
+            if (upstream == null) {
+                return ring.highestPublished(first, Math.min(last, ring.getClaimed()));
+            }
+            return Math.min(last, upstream.sequence.get());
+        }
+    }
+
+    private static final class PassageGroup {
+        final int tariffZone;
+        final String registration;
+        final VehicleType type;
+        final List<PassageSlot> slots = new ArrayList<>();
+        final List<ZonedDateTime> dateTimes = new ArrayList<>();
+
+        PassageGroup(PassageSlot first) {
+            this.tariffZone = first.tariffZone;
+            this.registration = first.registration;
+            this.type = first.vehicleType;
+        }
+    }
+}
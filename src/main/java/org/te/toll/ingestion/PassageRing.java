@@ -0,0 +1,120 @@
+package org.te.toll.ingestion;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring of passage slots in the style of the LMAX Disruptor. Feeds claim increasing sequences with a
+ * CAS, fill the slot of the sequence and publish it; the stages follow each other's sequences. A feed can't claim a
+ * slot the last stage hasn't released yet, which is where backpressure comes from.
+ */
+final class PassageRing {
+    private final PassageSlot[] slots;
+    private final int mask;
+    private final int indexShift;
+    // Lap of the sequence last published in each slot, -1 before the first lap
+    private final AtomicIntegerArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile AtomicLong gate = new AtomicLong(Long.MAX_VALUE);
+
+    PassageRing(int size) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("The ring size must be a power of two: " + size);
+        }
+        slots = new PassageSlot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new PassageSlot();
+        }
+        mask = size - 1;
+        indexShift = Integer.numberOfTrailingZeros(size);
+        published = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Sets the sequence of the last stage, the one feeds must not lap.
+     */
+    void setGate(AtomicLong lastStage) {
+        gate = lastStage;
+    }
+
+    /**
+     * @return The claimed sequence, or -1 if the ring is full
+     */
+    long tryClaim() {
+        while (true) {
+            long current = claimed.get();
+            if (current + 1 - slots.length > gate.get()) {
+                return -1;
+            }
+            if (claimed.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * @return The claimed sequence, or -1 if the ring stayed full during the timeout
+     */
+    long claim(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        int attempts = 0;
+        while (true) {
+            long sequence = tryClaim();
+            if (sequence >= 0) {
+                return sequence;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return -1;
+            }
+            idle(attempts++);
+        }
+    }
+
+    PassageSlot get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    // A volatile write rather than a lazy one: the feed checks whether the first stage parked right after it
+    void publish(long sequence) {
+        published.set((int) sequence & mask, (int) (sequence >>> indexShift));
+    }
+
+    /**
+     * @return The last sequence between first and last, both included, such that all the ones before it are
+     * published, or first - 1 if first isn't
+     */
+    long highestPublished(long first, long last) {
+        for (long sequence = first; sequence <= last; sequence++) {
+            if (published.get((int) sequence & mask) != (int) (sequence >>> indexShift)) {
+                return sequence - 1;
+            }
+        }
+        return last;
+    }
+
+    long getClaimed() {
+        return claimed.get();
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    /**
+     * Backs off when there is nothing to do: spins first, then yields, then sleeps, so idle stages and blocked feeds
+     * leave the processors to the busy ones.
+     */
+    static void idle(int attempts) {
+        if (attempts < 100) {
+            Thread.onSpinWait();
+        } else if (attempts < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+}
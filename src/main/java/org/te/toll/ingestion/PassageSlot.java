@@ -0,0 +1,54 @@
+package org.te.toll.ingestion;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.VehicleDay;
+
+import java.time.ZonedDateTime;
+
+/**
+ * One reusable entry of the {@link PassageRing}. The feed fills the raw fields, then each stage reads what the
+ * previous ones wrote and adds its own results; the sequences of the ring order these writes, so the fields need no
+ * synchronization.
+ */
+final class PassageSlot {
+    // Written by the feed
+    VehicleType vehicleType;
+    String registration;
+    String date;
+    String zone;
+    long publishedNanos;
+
+    // Written by the stages, reset by set so that nothing is left from the previous lap
+    int tariffZone = -1;
+    ZonedDateTime dateTime;
+    // Registration under its zone and day of the passage, once parsed
+    VehicleDay vehicleDay;
+    Rejection rejection;
+    int fee;
+
+    void set(VehicleType vehicleType, String registration, String date, String zone) {
+        this.vehicleType = vehicleType;
+        this.registration = registration;
+        this.date = date;
+        this.zone = zone;
+        this.tariffZone = -1;
+        this.dateTime = null;
+        this.vehicleDay = null;
+        this.rejection = null;
+        this.fee = 0;
+        this.publishedNanos = System.nanoTime();
+    }
+
+    boolean isAccepted() {
+        return rejection == null;
+    }
+
+    // Lets the collector reclaim the passage while the slot waits for its next lap
+    void clear() {
+        registration = null;
+        date = null;
+        zone = null;
+        dateTime = null;
+        vehicleDay = null;
+    }
+}
@@ -0,0 +1,23 @@
+package org.te.toll.ingestion;
+
+/**
+ * Why the pipeline dropped a passage, with the messages of the synchronous endpoints.
+ */
+enum Rejection {
+    REGISTRATION("registration", "Wrong registration number format"),
+    ZONE("zone", "Unknown tariff zone"),
+    VEHICLE_TYPE("vehicle-type", "Missing vehicle type"),
+    DATE("date", "Wrong date format"),
+    RETENTION("retention", "Passage is older than the retention period"),
+    TYPE_MISMATCH("type-mismatch", "Vehicle type doesn't match a previous passage"),
+    MULTIPLE_TYPES("multiple-types", "Vehicle has multiple types"),
+    ERROR("error", "Unexpected error");
+
+    final String tag;
+    final String message;
+
+    Rejection(String tag, String message) {
+        this.tag = tag;
+        this.message = message;
+    }
+}
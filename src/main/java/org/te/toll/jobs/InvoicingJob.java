@@ -0,0 +1,213 @@
+package org.te.toll.jobs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.InvoicingProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+import org.te.toll.model.InvoiceSummary;
+import org.te.toll.storage.StorageService;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End of day billing: prices every vehicle that passed during a day and writes one CSV line per vehicle and tariff
+ * zone.
+ * <p>
+ * The vehicles of the day are split in shards by registration hash, and the shards are priced in parallel on a
+ * fork-join pool. Shards are written to the file in order as soon as they are priced, so the file is the same
+ * whatever the parallelism. The vehicle-days stored under a tariff zone removed from the configuration have no tariff
+ * to be priced with: they are left out and counted in the summary.
+ */
+@Slf4j
+@Component
+public class InvoicingJob {
+    static final String HEADER = "registration,day,vehicleType,passages,fee,zone";
+    // More shards than threads, so that a slow shard doesn't leave the other threads idle
+    private static final int SHARDS_PER_THREAD = 8;
+
+    private final StorageService storage;
+    private final TollCalculator calculator;
+    private final RetentionCompactor retention;
+    private final TariffZones zones;
+    private final InvoicingProperties properties;
+    private final Timer invoicingTimer;
+    private final Counter invoicedVehicles;
+
+    public InvoicingJob(StorageService storage, TollCalculator calculator, RetentionCompactor retention,
+                        TariffZones zones, InvoicingProperties properties, MeterRegistry registry) {
+        this.storage = storage;
+        this.calculator = calculator;
+        this.retention = retention;
+        this.zones = zones;
+        this.properties = properties;
+        invoicingTimer = Timer.builder("toll.invoicing")
+                .description("Duration of the invoicing runs")
+                .register(registry);
+        invoicedVehicles = Counter.builder("toll.invoicing.vehicles")
+                .description("Vehicle-days invoiced")
+                .baseUnit("vehicles")
+                .register(registry);
+    }
+
+    /**
+     * Writes the invoice of the day to invoice-yyyy-MM-dd.csv in the invoicing directory, replacing it at once if it
+     * was already invoiced.
+     */
+    public InvoiceSummary invoice(LocalDate day) throws IOException {
+        return invoice(day, Path.of(properties.getDirectory()).resolve("invoice-" + day + ".csv"));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the passages of the day were already compacted
+     */
+    public InvoiceSummary invoice(LocalDate day, Path file) throws IOException {
+        if (retention.isCompacted(day)) {
+            throw new IllegalArgumentException("The passages of " + day + " were already compacted");
+        }
+        long start = System.nanoTime();
+        int parallelism = properties.getParallelism() > 0
+                ? properties.getParallelism() : Runtime.getRuntime().availableProcessors();
+        AtomicLong skipped = new AtomicLong();
+        List<List<VehicleDayPassages>> shards = shard(day, Integer.highestOneBit(parallelism * SHARDS_PER_THREAD),
+                skipped);
+
+        long vehicles = 0;
+        long passages = 0;
+        long totalFee = 0;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<PricedShard>> tasks = new ArrayList<>(shards.size());
+            for (List<VehicleDayPassages> shard : shards) {
+                tasks.add(pool.submit(() -> price(day, shard)));
+            }
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            // Written next to the invoice and renamed over it, so that a reader never sees a partial invoice
+            Path partial = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+                    writer.write(HEADER);
+                    writer.write('\n');
+                    for (ForkJoinTask<PricedShard> task : tasks) {
+                        PricedShard priced = task.join();
+                        writer.append(priced.csv);
+                        vehicles += priced.vehicles;
+                        passages += priced.passages;
+                        totalFee += priced.totalFee;
+                    }
+                }
+                Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        invoicingTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        invoicedVehicles.increment(vehicles);
+        InvoiceSummary summary = new InvoiceSummary(day.toString(), file.toString(), vehicles, passages, totalFee,
+                skipped.get(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        if (skipped.get() > 0) {
+            log.warn("Left {} vehicles of tariff zones that are not configured anymore out of the invoice of {}",
+                    skipped.get(), day);
+        }
+        log.info("Invoiced {} vehicles and {} passages of {} in {} ms ({} vehicles/s) to {}", vehicles, passages, day,
+                summary.getDurationMillis(), summary.getVehiclesPerSecond(), file);
+        return summary;
+    }
+
+    private List<List<VehicleDayPassages>> shard(LocalDate day, int shardCount, AtomicLong skipped) {
+        List<List<VehicleDayPassages>> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
+        }
+        storage.forEachVehicleDaySeconds(day, (key, type, passageDay, zone, epochSeconds, count) -> {
+            if (!zones.isConfiguredKey(key)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            int hash = key.hashCode();
+            shards.get((hash ^ (hash >>> 16)) & (shardCount - 1)).add(new VehicleDayPassages(
+                    TariffZones.registrationOfKey(key), zones.zoneOfKey(key), type, zone,
+                    Arrays.copyOf(epochSeconds, count)));
+        });
+        return shards;
+    }
+
+    private PricedShard price(LocalDate day, List<VehicleDayPassages> shard) {
+        PricedShard priced = new PricedShard();
+        for (VehicleDayPassages vehicleDay : shard) {
+            int fee;
+            try {
+                fee = calculator.getTollFee(vehicleDay.tariffZone, vehicleDay.type, day, vehicleDay.zone,
+                        vehicleDay.epochSeconds, vehicleDay.epochSeconds.length);
+            } catch (MultipleDaysPassages e) {
+                throw new IllegalStateException("Storage returned passages of another day for "
+                        + vehicleDay.registration, e);
+            }
+            appendCsv(priced.csv, vehicleDay.registration).append(',')
+                    .append(day).append(',')
+                    .append(vehicleDay.type).append(',')
+                    .append(vehicleDay.epochSeconds.length).append(',')
+                    .append(fee).append(',');
+            appendCsv(priced.csv, zones.idOf(vehicleDay.tariffZone)).append('\n');
+            priced.vehicles++;
+            priced.passages += vehicleDay.epochSeconds.length;
+            priced.totalFee += fee;
+        }
+        return priced;
+    }
+
+    // Registrations and zones are free text, quote the ones that would break the line
+    private static StringBuilder appendCsv(StringBuilder csv, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return csv.append(value);
+        }
+        return csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static final class VehicleDayPassages {
+        final String registration;
+        final int tariffZone;
+        final VehicleType type;
+        final ZoneId zone;
+        final long[] epochSeconds;
+
+        VehicleDayPassages(String registration, int tariffZone, VehicleType type, ZoneId zone, long[] epochSeconds) {
+            this.registration = registration;
+            this.tariffZone = tariffZone;
+            this.type = type;
+            this.zone = zone;
+            this.epochSeconds = epochSeconds;
+        }
+    }
+
+    private static final class PricedShard {
+        final StringBuilder csv = new StringBuilder();
+        long vehicles;
+        long passages;
+        long totalFee;
+    }
+}
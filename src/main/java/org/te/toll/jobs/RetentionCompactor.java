@@ -0,0 +1,126 @@
+package org.te.toll.jobs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.storage.StorageService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that enforces storage.retention: the passages of the days older than raw-days are replaced by
+ * their daily total, and their running fees are dropped. Days are counted in the toll zone, like the passages.
+ */
+@Slf4j
+@Component
+public class RetentionCompactor {
+    private final StorageService storage;
+    private final DailyFeeTracker tracker;
+    private final StorageProperties.Retention retention;
+    private final Clock clock;
+    private final Counter evictedPassages;
+    private final Timer compactionTimer;
+    private volatile LocalDate cutoff = LocalDate.MIN;
+    private ScheduledExecutorService scheduler;
+
+    public RetentionCompactor(StorageService storage, DailyFeeTracker tracker, StorageProperties properties,
+                              MeterRegistry registry) {
+        this(storage, tracker, properties, registry, Clock.systemDefaultZone());
+    }
+
+    @Autowired
+    public RetentionCompactor(StorageService storage, DailyFeeTracker tracker, StorageProperties properties,
+                              TollConfiguration config, MeterRegistry registry) {
+        this(storage, tracker, properties, registry, Clock.system(config.getTollZone()));
+    }
+
+    RetentionCompactor(StorageService storage, DailyFeeTracker tracker, StorageProperties properties,
+                       MeterRegistry registry, Clock clock) {
+        this.storage = storage;
+        this.tracker = tracker;
+        this.retention = properties.getRetention();
+        this.clock = clock;
+        evictedPassages = Counter.builder("toll.storage.compaction.evicted")
+                .description("Passages replaced by daily totals")
+                .baseUnit("passages")
+                .register(registry);
+        compactionTimer = Timer.builder("toll.storage.compaction")
+                .description("Duration of the retention compaction passes")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (retention.getRawDays() <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = retention.getCompactionInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::compactSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return True if the passages of the day were already compacted, so new ones can't be priced anymore
+     */
+    public boolean isCompacted(LocalDate day) {
+        return day.isBefore(cutoff);
+    }
+
+    /**
+     * Runs one compaction pass with the cutoff given by the retention period.
+     *
+     * @return The number of evicted passages
+     */
+    public long compact() {
+        return compact(LocalDate.now(clock).minusDays(retention.getRawDays() - 1L));
+    }
+
+    long compact(LocalDate newCutoff) {
+        // Published first so that passages of the days being compacted are turned away from now on
+        if (newCutoff.isAfter(cutoff)) {
+            cutoff = newCutoff;
+        }
+        long start = System.nanoTime();
+        // Closes the days to the passages that got past isCompacted before the cutoff moved, so that none of them
+        // lands in storage after its day was compacted
+        tracker.evictBefore(newCutoff);
+        long evicted = storage.compactBefore(newCutoff, tracker::priceStored);
+        long elapsed = System.nanoTime() - start;
+        compactionTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        evictedPassages.increment(evicted);
+        log.info("Compacted {} passages before {} in {} ms", evicted, newCutoff, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        return evicted;
+    }
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            // An exception would cancel the scheduled task
+            log.error("Retention compaction failed", e);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.te.toll.jobs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.te.toll.calculator.TariffComparison;
+import org.te.toll.config.ReplayProperties;
+import org.te.toll.config.TariffDefinition;
+import org.te.toll.config.TariffSnapshot;
+import org.te.toll.config.TariffSource;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+import org.te.toll.model.TariffReplayReport;
+import org.te.toll.model.TariffRevenue;
+import org.te.toll.storage.StorageService;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * What-if pricing of the stored history: prices every stored vehicle-day of a period under the current tariffs and
+ * under candidate ones, in a single scan of the storage, and reports the revenue of each tariff.
+ * <p>
+ * The scan cuts the vehicle-days in batches that are priced on a fork-join pool, every batch under all the tariffs
+ * at once with a {@link TariffComparison}, into a tally merged into the total as soon as the batch is priced. At
+ * most two batches per thread wait to be priced and the period is capped by replay.max-days, so the memory used
+ * doesn't grow with the size of the history.
+ * <p>
+ * The vehicle-days stored under a tariff zone removed from the configuration have no tariff to be priced with: they
+ * are left out and counted in the report.
+ */
+@Slf4j
+@Component
+public class TariffReplayJob {
+    public static final String CURRENT = "current";
+    private static final VehicleType[] TYPES = VehicleType.values();
+    private static final int QUEUED_BATCHES_PER_THREAD = 2;
+
+    private final StorageService storage;
+    private final TariffSource tariffs;
+    private final TollConfiguration config;
+    private final TariffZones zones;
+    private final ReplayProperties properties;
+    private final Timer replayTimer;
+    private final Counter replayedVehicleDays;
+
+    public TariffReplayJob(StorageService storage, TariffSource tariffs, TollConfiguration config, TariffZones zones,
+                           ReplayProperties properties, MeterRegistry registry) {
+        this.storage = storage;
+        this.tariffs = tariffs;
+        this.config = config;
+        this.zones = zones;
+        this.properties = properties;
+        replayTimer = Timer.builder("toll.replay")
+                .description("Duration of the tariff replays")
+                .register(registry);
+        replayedVehicleDays = Counter.builder("toll.replay.vehicles")
+                .description("Vehicle-days priced by the tariff replays, once whatever the number of tariffs")
+                .baseUnit("vehicles")
+                .register(registry);
+    }
+
+    /**
+     * Replays the period under the current tariffs and the candidates. A candidate replaces the tariff of its zone,
+     * the default one if not set, from its effectiveFrom day if set, and the properties it leaves out are the ones of
+     * the zone in the application configuration. The other zones and days keep the current tariffs.
+     *
+     * @throws IllegalArgumentException if a candidate is not valid or is named like the current tariffs
+     */
+    public TariffReplayReport replay(Map<String, TariffDefinition> candidates, LocalDate from, LocalDate to) {
+        Map<String, TariffSource> sources = new LinkedHashMap<>();
+        for (Map.Entry<String, TariffDefinition> candidate : candidates.entrySet()) {
+            TariffDefinition definition = candidate.getValue();
+            int zone = zones.indexOf(definition.getZone());
+            if (zone < 0) {
+                throw new IllegalArgumentException("Unknown tariff zone " + definition.getZone() + " of candidate "
+                        + candidate.getKey());
+            }
+            TariffSnapshot tariff = definition.inherit(config.definitionOf(zone)).toSnapshot(zones.idOf(zone), 0);
+            sources.put(candidate.getKey(), (tariffZone, day) -> tariffZone == zone
+                    && !day.isBefore(tariff.getEffectiveFrom()) ? tariff : tariffs.tariffOf(tariffZone, day));
+        }
+        return replayTariffs(sources, from, to);
+    }
+
+    /**
+     * Replays the period, both days included, under the current tariffs and the given ones.
+     *
+     * @throws IllegalArgumentException if a tariff is named like the current tariffs, or the period is empty or
+     * longer than replay.max-days
+     */
+    public TariffReplayReport replayTariffs(Map<String, TariffSource> candidates, LocalDate from, LocalDate to) {
+        if (candidates.containsKey(CURRENT)) {
+            throw new IllegalArgumentException("The name " + CURRENT + " is taken by the current tariffs");
+        }
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("The replayed period ends on " + to + " before it starts on " + from);
+        }
+        if (to.toEpochDay() - from.toEpochDay() >= properties.getMaxDays()) {
+            throw new IllegalArgumentException("The replayed period is longer than " + properties.getMaxDays()
+                    + " days");
+        }
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>();
+        names.add(CURRENT);
+        names.addAll(candidates.keySet());
+        List<TariffSource> sources = new ArrayList<>();
+        sources.add(tariffs);
+        sources.addAll(candidates.values());
+        int days = (int) (to.toEpochDay() - from.toEpochDay() + 1);
+        int parallelism = properties.getParallelism() > 0
+                ? properties.getParallelism() : Runtime.getRuntime().availableProcessors();
+        int batchSize = properties.getBatchSize();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        int queueSize = parallelism * QUEUED_BATCHES_PER_THREAD;
+        Semaphore queued = new Semaphore(queueSize);
+        Tally total = new Tally(sources.size(), days);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        long[] skipped = {0};
+        // The scan runs on this thread, the batch being filled is only touched here
+        Batch[] filling = {new Batch(batchSize)};
+        Runnable submit = () -> {
+            Batch batch = filling[0];
+            queued.acquireUninterruptibly();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            pool.execute(() -> {
+                try {
+                    Tally tally = price(batch, sources, from, days);
+                    synchronized (total) {
+                        total.merge(tally);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    queued.release();
+                }
+            });
+            filling[0] = new Batch(batchSize);
+        };
+        try {
+            storage.forEachVehicleDaySeconds(null, (key, type, day, zone, epochSeconds, count) -> {
+                if (type == null || day.isBefore(from) || day.isAfter(to)) {
+                    return;
+                }
+                if (!zones.isConfiguredKey(key)) {
+                    skipped[0]++;
+                    return;
+                }
+                if (filling[0].add(key, type, day, zone, Arrays.copyOf(epochSeconds, count))) {
+                    submit.run();
+                }
+            });
+            if (filling[0].size > 0) {
+                submit.run();
+            }
+            // Every batch gives its place in the queue back once merged
+            queued.acquireUninterruptibly(queueSize);
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            replayTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            replayedVehicleDays.increment(total.vehicleDays);
+            TariffReplayReport report = report(total, names, from, to, skipped[0],
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+            if (skipped[0] > 0) {
+                log.warn("Left {} vehicle-days of tariff zones that are not configured anymore out of the replay",
+                        skipped[0]);
+            }
+            log.info("Replayed {} vehicle-days and {} passages from {} to {} under {} tariffs in {} ms ({} " +
+                            "vehicle-days/s)", total.vehicleDays, total.passages, from, to, sources.size(),
+                    report.getDurationMillis(), report.getVehicleDaysPerSecond());
+            return report;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Tally price(Batch batch, List<TariffSource> sources, LocalDate from, int days) {
+        TariffComparison comparison = new TariffComparison(sources);
+        Tally tally = new Tally(sources.size(), days);
+        int[] fees = new int[sources.size()];
+        for (int i = 0; i < batch.size; i++) {
+            long[] epochSeconds = batch.epochSeconds[i];
+            int count = epochSeconds.length;
+            LocalDate day = batch.days[i];
+            try {
+                comparison.price(zones.zoneOfKey(batch.keys[i]), batch.types[i], day, batch.zones[i], epochSeconds,
+                        count, fees);
+            } catch (MultipleDaysPassages e) {
+                throw new IllegalStateException("Storage returned passages of another day for " + batch.keys[i], e);
+            }
+            tally.add(batch.types[i], (int) (day.toEpochDay() - from.toEpochDay()), count, fees);
+        }
+        return tally;
+    }
+
+    private static TariffReplayReport report(Tally total, List<String> names, LocalDate from, LocalDate to,
+                                             long skippedVehicleDays, long durationMillis) {
+        List<TariffRevenue> revenues = new ArrayList<>(names.size());
+        for (int t = 0; t < names.size(); t++) {
+            TariffTally tariff = total.tariffs[t];
+            Map<String, Long> byType = new LinkedHashMap<>();
+            for (VehicleType type : TYPES) {
+                if (tariff.revenueByType[type.ordinal()] > 0) {
+                    byType.put(type.name(), tariff.revenueByType[type.ordinal()]);
+                }
+            }
+            Map<String, Long> byDay = new LinkedHashMap<>();
+            for (int d = 0; d < tariff.revenueByDay.length; d++) {
+                byDay.put(from.plusDays(d).toString(), tariff.revenueByDay[d]);
+            }
+            Map<Integer, Long> byFee = new TreeMap<>();
+            for (int fee = 0; fee < tariff.vehicleDaysByFee.length; fee++) {
+                if (tariff.vehicleDaysByFee[fee] > 0) {
+                    byFee.put(fee, tariff.vehicleDaysByFee[fee]);
+                }
+            }
+            revenues.add(new TariffRevenue(names.get(t), tariff.revenue, tariff.revenue - total.tariffs[0].revenue,
+                    total.vehicleDays - tariff.vehicleDaysByFee[0],
+                    total.vehicleDays == 0 ? 0 : tariff.revenue / (double) total.vehicleDays,
+                    tariff.percentile(0.5), tariff.percentile(0.9), tariff.percentile(0.99),
+                    tariff.vehicleDaysByFee.length - 1, byType, byDay, byFee));
+        }
+        return new TariffReplayReport(from.toString(), to.toString(), total.vehicleDays, total.passages,
+                skippedVehicleDays, durationMillis, revenues);
+    }
+
+    private static final class Batch {
+        final String[] keys;
+        final VehicleType[] types;
+        final LocalDate[] days;
+        final ZoneId[] zones;
+        final long[][] epochSeconds;
+        int size;
+
+        Batch(int capacity) {
+            keys = new String[capacity];
+            types = new VehicleType[capacity];
+            days = new LocalDate[capacity];
+            zones = new ZoneId[capacity];
+            epochSeconds = new long[capacity][];
+        }
+
+        /**
+         * @return true once the batch is full
+         */
+        boolean add(String key, VehicleType type, LocalDate day, ZoneId zone, long[] dayEpochSeconds) {
+            keys[size] = key;
+            types[size] = type;
+            days[size] = day;
+            zones[size] = zone;
+            epochSeconds[size] = dayEpochSeconds;
+            return ++size == keys.length;
+        }
+    }
+
+    private static final class Tally {
+        final TariffTally[] tariffs;
+        long vehicleDays;
+        long passages;
+
+        Tally(int tariffCount, int days) {
+            tariffs = new TariffTally[tariffCount];
+            for (int t = 0; t < tariffCount; t++) {
+                tariffs[t] = new TariffTally(days);
+            }
+        }
+
+        void add(VehicleType type, int day, int passageCount, int[] fees) {
+            vehicleDays++;
+            passages += passageCount;
+            for (int t = 0; t < tariffs.length; t++) {
+                tariffs[t].add(type, day, fees[t]);
+            }
+        }
+
+        void merge(Tally other) {
+            vehicleDays += other.vehicleDays;
+            passages += other.passages;
+            for (int t = 0; t < tariffs.length; t++) {
+                tariffs[t].merge(other.tariffs[t]);
+            }
+        }
+    }
+
+    private static final class TariffTally {
+        final long[] revenueByType = new long[TYPES.length];
+        final long[] revenueByDay;
+        // Indexed by fee, a fee is at most the max daily fare of its tariff
+        long[] vehicleDaysByFee = new long[1];
+        long revenue;
+
+        TariffTally(int days) {
+            revenueByDay = new long[days];
+        }
+
+        void add(VehicleType type, int day, int fee) {
+            if (fee >= vehicleDaysByFee.length) {
+                vehicleDaysByFee = Arrays.copyOf(vehicleDaysByFee, fee + 1);
+            }
+            vehicleDaysByFee[fee]++;
+            revenue += fee;
+            revenueByType[type.ordinal()] += fee;
+            revenueByDay[day] += fee;
+        }
+
+        void merge(TariffTally other) {
+            if (other.vehicleDaysByFee.length > vehicleDaysByFee.length) {
+                vehicleDaysByFee = Arrays.copyOf(vehicleDaysByFee, other.vehicleDaysByFee.length);
+            }
+            for (int fee = 0; fee < other.vehicleDaysByFee.length; fee++) {
+                vehicleDaysByFee[fee] += other.vehicleDaysByFee[fee];
+            }
+            for (int i = 0; i < revenueByType.length; i++) {
+                revenueByType[i] += other.revenueByType[i];
+            }
+            for (int i = 0; i < revenueByDay.length; i++) {
+                revenueByDay[i] += other.revenueByDay[i];
+            }
+            revenue += other.revenue;
+        }
+
+        // Lowest fee paid by at least that share of the vehicle-days, 0 when nothing was replayed
+        int percentile(double share) {
+            long total = 0;
+            for (long count : vehicleDaysByFee) {
+                total += count;
+            }
+            long seen = 0;
+            for (int fee = 0; fee < vehicleDaysByFee.length; fee++) {
+                seen += vehicleDaysByFee[fee];
+                if (seen > 0 && seen >= share * total) {
+                    return fee;
+                }
+            }
+            return 0;
+        }
+    }
+}
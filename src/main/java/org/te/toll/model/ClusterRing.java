@@ -0,0 +1,19 @@
+package org.te.toll.model;
+
+import lombok.Value;
+import org.te.toll.storage.cluster.HashRing;
+
+import java.util.List;
+
+/**
+ * The hash ring a node routes with: its version, incremented by every membership change, and its nodes.
+ */
+@Value
+public class ClusterRing {
+    long version;
+    List<String> nodes;
+
+    public static ClusterRing of(HashRing ring) {
+        return new ClusterRing(ring.getVersion(), ring.getNodes());
+    }
+}
@@ -0,0 +1,32 @@
+package org.te.toll.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.te.toll.enums.VehicleType;
+
+/**
+ * The updated daily fee of one vehicle, or the reason why its passages were rejected.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DailyFeeResponse {
+    private String registration;
+    private String day;
+    private VehicleType vehicleType;
+    private Integer fee;
+    private String error;
+    // Only set for the other tariff zones than the default one
+    private String zone;
+
+    public static DailyFeeResponse fee(String registration, String day, VehicleType vehicleType, int fee) {
+        return new DailyFeeResponse(registration, day, vehicleType, fee, null, null);
+    }
+
+    public static DailyFeeResponse error(String registration, String day, String error) {
+        return new DailyFeeResponse(registration, day, null, null, error, null);
+    }
+}
@@ -0,0 +1,22 @@
+package org.te.toll.model;
+
+import lombok.Value;
+
+/**
+ * Outcome of one run of the invoicing job.
+ */
+@Value
+public class InvoiceSummary {
+    String day;
+    String file;
+    long vehicles;
+    long passages;
+    long totalFee;
+    /** Vehicle-days of tariff zones removed from the configuration, left out of the invoice */
+    long skippedVehicles;
+    long durationMillis;
+
+    public long getVehiclesPerSecond() {
+        return durationMillis == 0 ? vehicles * 1000 : vehicles * 1000 / durationMillis;
+    }
+}
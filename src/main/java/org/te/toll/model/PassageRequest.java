@@ -0,0 +1,23 @@
+package org.te.toll.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.te.toll.enums.VehicleType;
+
+/**
+ * One passage reported by a gantry, with the same fields as /toll/get-fee.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PassageRequest {
+    private VehicleType vehicleType;
+    private String registration;
+    private String date;
+    private String zone;
+
+    public PassageRequest(VehicleType vehicleType, String registration, String date) {
+        this(vehicleType, registration, date, null);
+    }
+}
@@ -0,0 +1,24 @@
+package org.te.toll.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of a tariff replay, the current tariffs first and then the candidates in the order they were given.
+ */
+@Value
+public class TariffReplayReport {
+    String from;
+    String to;
+    long vehicleDays;
+    long passages;
+    /** Vehicle-days of tariff zones removed from the configuration, left out of the replay */
+    long skippedVehicleDays;
+    long durationMillis;
+    List<TariffRevenue> tariffs;
+
+    public long getVehicleDaysPerSecond() {
+        return durationMillis == 0 ? vehicleDays * 1000 : vehicleDays * 1000 / durationMillis;
+    }
+}
@@ -0,0 +1,21 @@
+package org.te.toll.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.te.toll.config.TariffDefinition;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Period to replay, yyyy-MM-dd days both included, and the candidate tariffs by name.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TariffReplayRequest {
+    private String from;
+    private String to;
+    private Map<String, TariffDefinition> candidates = new LinkedHashMap<>();
+}
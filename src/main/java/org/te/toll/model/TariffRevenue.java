@@ -0,0 +1,27 @@
+package org.te.toll.model;
+
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Revenue of the replayed period under one tariff, and how the daily fees of the vehicles are distributed.
+ */
+@Value
+public class TariffRevenue {
+    String name;
+    long revenue;
+    /** Revenue minus the one of the current tariffs */
+    long revenueChange;
+    /** Vehicle-days with a fee above 0 */
+    long chargedVehicleDays;
+    double meanFee;
+    int medianFee;
+    int p90Fee;
+    int p99Fee;
+    int maxFee;
+    Map<String, Long> revenueByVehicleType;
+    Map<String, Long> revenueByDay;
+    /** Number of vehicle-days by daily fee, in increasing fee order */
+    Map<Integer, Long> vehicleDaysByFee;
+}
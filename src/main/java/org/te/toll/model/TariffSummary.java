@@ -0,0 +1,23 @@
+package org.te.toll.model;
+
+import lombok.Value;
+import org.te.toll.config.TariffSnapshot;
+
+import java.time.LocalDate;
+
+/**
+ * One of the loaded tariffs, the effective day is null for the ones of the application configuration.
+ */
+@Value
+public class TariffSummary {
+    long version;
+    String zone;
+    String effectiveFrom;
+    int maxDailyFare;
+
+    public static TariffSummary of(TariffSnapshot tariff) {
+        LocalDate from = tariff.getEffectiveFrom();
+        return new TariffSummary(tariff.getVersion(), tariff.getZone(), from.equals(LocalDate.MIN) ? null : from.toString(),
+                tariff.getMaxDailyFare());
+    }
+}
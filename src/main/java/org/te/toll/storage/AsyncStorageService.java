@@ -0,0 +1,59 @@
+package org.te.toll.storage;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking view of a {@link StorageService}: every call runs on the given executor and completes a future, so
+ * that a caller can issue many lookups at once instead of waiting for each of them in turn.
+ */
+public class AsyncStorageService {
+    private final StorageService storage;
+    private final Executor executor;
+
+    public AsyncStorageService(StorageService storage, Executor executor) {
+        this.storage = storage;
+        this.executor = executor;
+    }
+
+    public StorageService getStorage() {
+        return storage;
+    }
+
+    public CompletableFuture<Void> recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        return CompletableFuture.runAsync(() -> storage.recordPassage(registration, type, dateTime), executor);
+    }
+
+    public CompletableFuture<Void> recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        return CompletableFuture.runAsync(() -> storage.recordPassages(registration, type, dateTimes), executor);
+    }
+
+    public CompletableFuture<List<ZonedDateTime>> getPassages(String registration, ZonedDateTime day) {
+        return CompletableFuture.supplyAsync(() -> storage.getPassages(registration, day), executor);
+    }
+
+    public CompletableFuture<Integer> getDailyTotal(String registration, LocalDate day) {
+        return CompletableFuture.supplyAsync(() -> storage.getDailyTotal(registration, day), executor);
+    }
+
+    /**
+     * @return A future completed exceptionally with a {@link MultipleVehicleTypesException} if the vehicle has
+     * several types that day
+     */
+    public CompletableFuture<VehicleType> vehicleTypeOf(String registration, ZonedDateTime dateTime) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return storage.vehicleTypeOf(registration, dateTime);
+            } catch (MultipleVehicleTypesException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
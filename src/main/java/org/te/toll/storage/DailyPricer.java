@@ -0,0 +1,14 @@
+package org.te.toll.storage;
+
+import org.te.toll.enums.VehicleType;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Computes the daily total that replaces the passages of a compacted day.
+ */
+@FunctionalInterface
+public interface DailyPricer {
+    int price(String registration, VehicleType type, List<ZonedDateTime> passages);
+}
@@ -0,0 +1,11 @@
+package org.te.toll.storage;
+
+import java.time.LocalDate;
+
+/**
+ * Receives the daily total of one vehicle during one compacted day.
+ */
+@FunctionalInterface
+public interface DailyTotalConsumer {
+    void accept(String registration, LocalDate day, int total);
+}
@@ -0,0 +1,34 @@
+package org.te.toll.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.te.toll.storage.cluster.ClusterAdmin;
+import org.te.toll.storage.cluster.HashRing;
+
+/**
+ * Instrumented sharded storage, which stays injectable as the {@link ClusterAdmin} it wraps. The membership changes
+ * aren't timed.
+ */
+public class InstrumentedClusterStorageService extends InstrumentedStorageService implements ClusterAdmin {
+    private final ClusterAdmin admin;
+
+    public <S extends StorageService & ClusterAdmin> InstrumentedClusterStorageService(S delegate,
+                                                                                      MeterRegistry registry) {
+        super(delegate, registry);
+        this.admin = delegate;
+    }
+
+    @Override
+    public long addNode(String node) {
+        return admin.addNode(node);
+    }
+
+    @Override
+    public long removeNode(String node) {
+        return admin.removeNode(node);
+    }
+
+    @Override
+    public HashRing getRing() {
+        return admin.getRing();
+    }
+}
@@ -0,0 +1,141 @@
+package org.te.toll.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call of the wrapped storage, as toll.storage tagged with the operation, and publishes its size.
+ * Closing it closes the wrapped storage, if that holds resources.
+ */
+public class InstrumentedStorageService implements StorageService, AutoCloseable {
+    private final StorageService delegate;
+    private final Timer recordPassage;
+    private final Timer recordPassages;
+    private final Timer getPassages;
+    private final Timer vehicleTypeOf;
+
+    public InstrumentedStorageService(StorageService delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        recordPassage = timer(registry, "recordPassage");
+        recordPassages = timer(registry, "recordPassages");
+        getPassages = timer(registry, "getPassages");
+        vehicleTypeOf = timer(registry, "vehicleTypeOf");
+        Gauge.builder("toll.storage.passages", delegate, StorageService::getPassageCount)
+                .description("Passages currently stored")
+                .register(registry);
+        Gauge.builder("toll.storage.vehicle.days", delegate, StorageService::getVehicleDayCount)
+                .description("Vehicle-days with stored passages")
+                .register(registry);
+    }
+
+    public StorageService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        long start = System.nanoTime();
+        delegate.recordPassage(registration, type, dateTime);
+        recordPassage.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        long start = System.nanoTime();
+        delegate.recordPassages(registration, type, dateTimes);
+        recordPassages.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordPassagesOfType(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        long start = System.nanoTime();
+        try {
+            delegate.recordPassagesOfType(registration, type, dateTimes);
+        } finally {
+            recordPassages.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        long start = System.nanoTime();
+        List<ZonedDateTime> passages = delegate.getPassages(registration, day);
+        getPassages.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return passages;
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        long start = System.nanoTime();
+        try {
+            return delegate.vehicleTypeOf(registration, dateTime);
+        } finally {
+            vehicleTypeOf.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public long getPassageCount() {
+        return delegate.getPassageCount();
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        return delegate.getVehicleDayCount();
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        delegate.forEachVehicleDay(consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        delegate.forEachVehicleDay(day, consumer);
+    }
+
+    @Override
+    public void forEachVehicleDaySeconds(LocalDate day, VehicleDaySecondsConsumer consumer) {
+        delegate.forEachVehicleDaySeconds(day, consumer);
+    }
+
+    @Override
+    public long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        return delegate.compactBefore(cutoff, pricer);
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        return delegate.getDailyTotal(registration, day);
+    }
+
+    @Override
+    public boolean isShared() {
+        return delegate.isShared();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    private static Timer timer(MeterRegistry registry, String operation) {
+        return Timer.builder("toll.storage")
+                .description("StorageService calls")
+                .tag("operation", operation)
+                .register(registry);
+    }
+}
@@ -0,0 +1,152 @@
+package org.te.toll.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Open-addressing hash map from non-negative long keys to long values, stored in a direct ByteBuffer and probed
+ * linearly. Slots are iterated by index so that values can be updated or removed while scanning. Not thread-safe.
+ */
+final class OffHeapLongMap {
+    private static final int SLOT_BYTES = 16;
+    // Keys are stored complemented, so that every stored key is negative and these two markers never clash
+    private static final long EMPTY = 0;
+    private static final long REMOVED = 1;
+
+    private ByteBuffer slots;
+    private int mask;
+    private int size;
+    private int removed;
+
+    OffHeapLongMap(int initialCapacity) {
+        allocate(Math.max(16, Integer.highestOneBit(initialCapacity - 1) << 1));
+    }
+
+    long get(long key, long missing) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            long stored = storedKeyAt(slot);
+            if (stored == ~key) {
+                return valueAt(slot);
+            }
+            if (stored == EMPTY) {
+                return missing;
+            }
+        }
+    }
+
+    void put(long key, long value) {
+        int free = -1;
+        int slot = slotOf(key);
+        for (; ; slot = (slot + 1) & mask) {
+            long stored = storedKeyAt(slot);
+            if (stored == ~key) {
+                setValueAt(slot, value);
+                return;
+            }
+            if (stored == REMOVED && free < 0) {
+                free = slot;
+            } else if (stored == EMPTY) {
+                break;
+            }
+        }
+        if (free >= 0) {
+            removed--;
+            slot = free;
+        } else if ((size + removed + 1) * 4L > (mask + 1) * 3L) {
+            rehash();
+            put(key, value);
+            return;
+        }
+        slots.putLong(slot * SLOT_BYTES, ~key);
+        setValueAt(slot, value);
+        size++;
+    }
+
+    boolean remove(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            long stored = storedKeyAt(slot);
+            if (stored == ~key) {
+                removeAt(slot);
+                return true;
+            }
+            if (stored == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    long getSizeInBytes() {
+        return slots.capacity();
+    }
+
+    boolean isUsed(int slot) {
+        return storedKeyAt(slot) < 0;
+    }
+
+    /**
+     * @return The key of a used slot
+     */
+    long keyAt(int slot) {
+        return ~storedKeyAt(slot);
+    }
+
+    long valueAt(int slot) {
+        return slots.getLong(slot * SLOT_BYTES + 8);
+    }
+
+    void setValueAt(int slot, long value) {
+        slots.putLong(slot * SLOT_BYTES + 8, value);
+    }
+
+    void removeAt(int slot) {
+        slots.putLong(slot * SLOT_BYTES, REMOVED);
+        size--;
+        removed++;
+    }
+
+    private long storedKeyAt(int slot) {
+        return slots.getLong(slot * SLOT_BYTES);
+    }
+
+    private int slotOf(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void rehash() {
+        ByteBuffer old = this.slots;
+        int oldCapacity = mask + 1;
+        int capacity = oldCapacity;
+        // Only grow when the live keys need it, otherwise the rehash just clears the tombstones
+        while ((size + 1) * 2L > capacity) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+        size = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long stored = old.getLong(slot * SLOT_BYTES);
+            if (stored < 0) {
+                put(~stored, old.getLong(slot * SLOT_BYTES + 8));
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        mask = capacity - 1;
+        removed = 0;
+    }
+}
@@ -0,0 +1,138 @@
+package org.te.toll.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Off-heap counterpart of {@link RegistrationDictionary}: maps registrations to dense ids with an open-addressing
+ * table of [hash, id + 1] int pairs, and keeps the characters of each registration in slabs. Not thread-safe.
+ */
+final class OffHeapRegistrations {
+    private final OffHeapSlabs characters;
+    private ByteBuffer slots;
+    private int mask;
+    // Address of the [length, chars] record of every id
+    private ByteBuffer addresses;
+    private int size;
+
+    OffHeapRegistrations(int maxSlabSize) {
+        characters = new OffHeapSlabs(maxSlabSize);
+        slots = allocate(16 * 8);
+        mask = 15;
+        addresses = allocate(16 * 8);
+    }
+
+    /**
+     * @return The id of the registration, or -1 if it was never added
+     */
+    int find(String registration) {
+        int hash = registration.hashCode();
+        for (int slot = slotOf(hash); ; slot = (slot + 1) & mask) {
+            int id = slots.getInt(slot * 8 + 4) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (slots.getInt(slot * 8) == hash && matches(id, registration)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return The id of the registration, added if needed
+     */
+    int idOf(String registration) {
+        int id = find(registration);
+        if (id >= 0) {
+            return id;
+        }
+        if ((size + 1) * 4L > (mask + 1) * 3L) {
+            grow();
+        }
+        id = size++;
+        long address = characters.allocate(4 + 2 * registration.length());
+        characters.putInt(address, 0, registration.length());
+        for (int i = 0; i < registration.length(); i++) {
+            characters.putChar(address, 4 + 2 * i, registration.charAt(i));
+        }
+        if (addresses.capacity() < size * 8) {
+            addresses = copyOf(addresses, addresses.capacity() * 2);
+        }
+        addresses.putLong(id * 8, address);
+        insert(registration.hashCode(), id);
+        return id;
+    }
+
+    String registrationOf(int id) {
+        long address = addresses.getLong(id * 8);
+        char[] chars = new char[characters.getInt(address, 0)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = characters.getChar(address, 4 + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getSizeInBytes() {
+        return slots.capacity() + addresses.capacity() + characters.getCapacity();
+    }
+
+    private boolean matches(int id, String registration) {
+        long address = addresses.getLong(id * 8);
+        if (characters.getInt(address, 0) != registration.length()) {
+            return false;
+        }
+        for (int i = 0; i < registration.length(); i++) {
+            if (characters.getChar(address, 4 + 2 * i) != registration.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int hash, int id) {
+        int slot = slotOf(hash);
+        while (slots.getInt(slot * 8 + 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots.putInt(slot * 8, hash);
+        slots.putInt(slot * 8 + 4, id + 1);
+    }
+
+    // Registrations differing by their last character have close hashes, which would form long runs of used slots
+    private int slotOf(int hash) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private void grow() {
+        ByteBuffer old = slots;
+        int oldCapacity = mask + 1;
+        slots = allocate(oldCapacity * 2 * 8);
+        mask = oldCapacity * 2 - 1;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int id = old.getInt(slot * 8 + 4) - 1;
+            if (id >= 0) {
+                insert(old.getInt(slot * 8), id);
+            }
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer buffer, int capacity) {
+        ByteBuffer copy = allocate(capacity);
+        copy.put(buffer.duplicate().clear());
+        return copy.clear();
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
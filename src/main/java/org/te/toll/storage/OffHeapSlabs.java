@@ -0,0 +1,91 @@
+package org.te.toll.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Bump allocator over direct ByteBuffer slabs. The first slab is small and each new one doubles, up to the maximum
+ * slab size. Memory is never freed piecewise: the owner copies the live records into a new allocator and drops the
+ * old one. Allocations are 8-byte aligned and address 0 is never returned. Not thread-safe.
+ */
+final class OffHeapSlabs {
+    private static final int FIRST_SLAB_SIZE = 64 * 1024;
+
+    private final int maxSlabSize;
+    private ByteBuffer[] slabs = new ByteBuffer[0];
+    // Next free offset in the last slab
+    private int top;
+    private long capacity;
+    private long used;
+
+    OffHeapSlabs(int maxSlabSize) {
+        if (maxSlabSize < FIRST_SLAB_SIZE) {
+            throw new IllegalArgumentException("The slab size must be at least " + FIRST_SLAB_SIZE + " bytes");
+        }
+        this.maxSlabSize = maxSlabSize;
+    }
+
+    /**
+     * @return The address of the new block, slab index in the high 32 bits and offset in the low 32 bits
+     */
+    long allocate(int bytes) {
+        int size = (bytes + 7) & ~7;
+        if (size > maxSlabSize - 8) {
+            throw new IllegalArgumentException("Can't allocate " + bytes + " bytes in slabs of " + maxSlabSize);
+        }
+        if (slabs.length == 0 || top + size > slabs[slabs.length - 1].capacity()) {
+            int slabSize = slabs.length == 0 ? FIRST_SLAB_SIZE : (int) Math.min(2L * slabs[slabs.length - 1].capacity(), maxSlabSize);
+            slabs = Arrays.copyOf(slabs, slabs.length + 1);
+            slabs[slabs.length - 1] = ByteBuffer.allocateDirect(slabSize).order(ByteOrder.nativeOrder());
+            capacity += slabSize;
+            // Offset 0 of the first slab stays unused so that 0 can mean no address
+            top = slabs.length == 1 ? 8 : 0;
+        }
+        long address = ((long) (slabs.length - 1) << 32) | top;
+        top += size;
+        used += size;
+        return address;
+    }
+
+    int getInt(long address, int offset) {
+        return slabs[(int) (address >>> 32)].getInt((int) address + offset);
+    }
+
+    void putInt(long address, int offset, int value) {
+        slabs[(int) (address >>> 32)].putInt((int) address + offset, value);
+    }
+
+    char getChar(long address, int offset) {
+        return slabs[(int) (address >>> 32)].getChar((int) address + offset);
+    }
+
+    void putChar(long address, int offset, char value) {
+        slabs[(int) (address >>> 32)].putChar((int) address + offset, value);
+    }
+
+    /**
+     * Copies bytes from a block of this allocator or of another one.
+     */
+    void copy(OffHeapSlabs from, long fromAddress, long toAddress, int bytes) {
+        ByteBuffer source = from.slabs[(int) (fromAddress >>> 32)].duplicate();
+        source.limit((int) fromAddress + bytes).position((int) fromAddress);
+        ByteBuffer target = slabs[(int) (toAddress >>> 32)].duplicate();
+        target.position((int) toAddress);
+        target.put(source);
+    }
+
+    /**
+     * @return The bytes reserved from the operating system
+     */
+    long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The bytes handed out, including the blocks the owner doesn't use anymore
+     */
+    long getUsed() {
+        return used;
+    }
+}
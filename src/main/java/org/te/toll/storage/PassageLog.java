@@ -0,0 +1,414 @@
+package org.te.toll.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.te.toll.config.StorageProperties.FsyncPolicy;
+import org.te.toll.enums.VehicleType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only passage log made of fixed-size memory-mapped segment files, plus a dictionary file that assigns a dense
+ * id to every registration number.
+ * <p>
+ * A passage record is 20 bytes: registration id (int), epoch seconds (long), vehicle type ordinal (byte), 3 bytes of
+ * padding and a CRC32 of the first 13 bytes (int). Unused segment space is all zeros. Replay stops at the first record
+ * that is empty or whose checksum doesn't match. In the last segment, a torn record followed only by empty or torn
+ * ones is where a write left off: it is cleared so that appending resumes there. A damaged record followed by intact
+ * ones, or one in an earlier segment, is corruption rather than a torn write, and opening the log fails instead of
+ * dropping the records after it.
+ * <p>
+ * With the batch fsync policy the appends are forced every fsyncBatchSize passages, and at the latest fsyncMaxDelay
+ * after they were appended.
+ * <p>
+ * Only the last segment is appended to. The closed ones can be rewritten without the passages that are not needed
+ * anymore, see {@link #compact}.
+ */
+@Slf4j
+final class PassageLog implements Closeable {
+    static final int RECORD_SIZE = 20;
+    private static final int CHECKED_BYTES = 13;
+    private static final String SEGMENT_PREFIX = "passages-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String REGISTRATIONS_FILE = "registrations.dat";
+    private static final VehicleType[] TYPES = VehicleType.values();
+
+    interface Replay {
+        void passage(String registration, VehicleType type, long epochSecond);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final int fsyncBatchSize;
+    // Forces the batches that don't fill up in time, null unless the fsync policy is batch
+    private final ScheduledExecutorService flusher;
+
+    private final Map<String, Integer> registrationIds = new HashMap<>();
+    private final List<String> registrations = new ArrayList<>();
+    private final FileChannel registrationChannel;
+    private boolean registrationsDirty;
+
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+    private int unsynced;
+    private boolean closed;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] checked = new byte[CHECKED_BYTES];
+
+    private PassageLog(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int fsyncBatchSize)
+            throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        if (this.segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must hold at least one record");
+        }
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncBatchSize = Math.max(1, fsyncBatchSize);
+        this.flusher = fsyncPolicy == FsyncPolicy.BATCH ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "passage-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        Files.createDirectories(directory);
+        registrationChannel = FileChannel.open(directory.resolve(REGISTRATIONS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens the log in the directory, creating it if needed, and replays every stored passage in append order.
+     *
+     * @param fsyncMaxDelay Longest time a passage appended with the batch policy waits to be forced to disk, zero
+     *                      to only force full batches
+     * @throws IOException if a segment is corrupt, see above
+     */
+    static PassageLog open(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int fsyncBatchSize,
+                           Duration fsyncMaxDelay, Replay replay) throws IOException {
+        PassageLog passageLog = new PassageLog(directory, segmentSize, fsyncPolicy, fsyncBatchSize);
+        try {
+            passageLog.replayRegistrations();
+            passageLog.replaySegments(replay);
+        } catch (IOException | RuntimeException e) {
+            passageLog.close();
+            throw e;
+        }
+        if (passageLog.flusher != null && !fsyncMaxDelay.isZero()) {
+            long delay = fsyncMaxDelay.toMillis();
+            // A passage appended after one run is forced by the next one
+            passageLog.flusher.scheduleWithFixedDelay(passageLog::flush, delay, delay, TimeUnit.MILLISECONDS);
+        }
+        return passageLog;
+    }
+
+    synchronized void append(String registration, VehicleType type, long epochSecond) throws IOException {
+        writeRecord(idOf(registration), type, epochSecond);
+        appended(1);
+    }
+
+    synchronized void append(String registration, VehicleType type, long[] epochSeconds) throws IOException {
+        int id = idOf(registration);
+        for (long epochSecond : epochSeconds) {
+            writeRecord(id, type, epochSecond);
+        }
+        appended(epochSeconds.length);
+    }
+
+    synchronized void sync() throws IOException {
+        // Registrations first, a durable passage must never refer to a lost registration
+        if (registrationsDirty) {
+            registrationChannel.force(false);
+            registrationsDirty = false;
+        }
+        segment.force();
+        unsynced = 0;
+    }
+
+    // Passages appended since the log was last forced to disk
+    synchronized int unsynced() {
+        return unsynced;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            // Not interrupted, a force interrupted midway would close the channel
+            flusher.shutdown();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (fsyncPolicy != FsyncPolicy.NEVER && segment != null) {
+                    sync();
+                }
+            } finally {
+                registrationChannel.close();
+            }
+        }
+    }
+
+    private synchronized void flush() {
+        if (closed || unsynced == 0) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            log.warn("Failed to force {} appended passages to disk, retrying with the next ones", unsynced, e);
+        }
+    }
+
+    private void appended(int records) throws IOException {
+        unsynced += records;
+        if (fsyncPolicy == FsyncPolicy.ALWAYS
+                || (fsyncPolicy == FsyncPolicy.BATCH && unsynced >= fsyncBatchSize)) {
+            sync();
+        }
+    }
+
+    private int idOf(String registration) throws IOException {
+        Integer id = registrationIds.get(registration);
+        if (id != null) {
+            return id;
+        }
+        int newId = registrations.size() + 1;
+        byte[] bytes = registration.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + 2 + bytes.length + 4);
+        record.putInt(newId).putShort((short) bytes.length).put(bytes);
+        crc.reset();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue()).flip();
+        while (record.hasRemaining()) {
+            registrationChannel.write(record);
+        }
+        registrationsDirty = true;
+        registrations.add(registration);
+        registrationIds.put(registration, newId);
+        return newId;
+    }
+
+    private void writeRecord(int id, VehicleType type, long epochSecond) throws IOException {
+        if (segment.remaining() < RECORD_SIZE) {
+            roll();
+        }
+        int position = segment.position();
+        segment.putInt(id).putLong(epochSecond).put((byte) type.ordinal()).put((byte) 0).putShort((short) 0)
+                .putInt(checksum(segment, position));
+    }
+
+    private void roll() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            sync();
+        }
+        segment = mapSegment(++segmentNumber);
+    }
+
+    private void replayRegistrations() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) registrationChannel.size());
+        while (buffer.hasRemaining()) {
+            if (registrationChannel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        int valid = 0;
+        while (buffer.remaining() >= 10) {
+            int id = buffer.getInt(valid);
+            int length = buffer.getShort(valid + 4);
+            if (id != registrations.size() + 1 || length < 0 || valid + 10 + length > buffer.limit()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), valid, 6 + length);
+            if ((int) crc.getValue() != buffer.getInt(valid + 6 + length)) {
+                break;
+            }
+            String registration = new String(buffer.array(), valid + 6, length, StandardCharsets.UTF_8);
+            registrations.add(registration);
+            registrationIds.put(registration, id);
+            valid += 10 + length;
+            buffer.position(valid);
+        }
+        if (valid < registrationChannel.size()) {
+            log.warn("Discarding {} bytes of torn registration records", registrationChannel.size() - valid);
+            registrationChannel.truncate(valid);
+        }
+        registrationChannel.position(valid);
+    }
+
+    private void replaySegments(Replay replay) throws IOException {
+        List<Path> paths = segmentFiles();
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            segmentNumber = numberOf(path);
+            segment = mapSegment(segmentNumber);
+            replaySegment(replay, path, i == paths.size() - 1);
+        }
+        if (segment == null) {
+            segment = mapSegment(++segmentNumber);
+        }
+    }
+
+    // Leaves the segment positioned after its last intact record, where the appends go on in the last one
+    private void replaySegment(Replay replay, Path path, boolean last) throws IOException {
+        while (segment.remaining() >= RECORD_SIZE) {
+            int position = segment.position();
+            if (isEmpty(segment, position) || !isIntact(position)) {
+                break;
+            }
+            int id = segment.getInt(position);
+            replay.passage(registrations.get(id - 1), TYPES[segment.get(position + 12)], segment.getLong(position + 4));
+            segment.position(position + RECORD_SIZE);
+        }
+        int end = segment.position();
+        boolean torn = false;
+        for (int position = end; position + RECORD_SIZE <= segment.limit(); position += RECORD_SIZE) {
+            if (isEmpty(segment, position)) {
+                continue;
+            }
+            if (!last || isIntact(position)) {
+                throw new IOException("Passage log segment " + path + " is corrupt at offset " + end + ", records "
+                        + "follow it up to offset " + position + ". Move the segment out of " + directory + " to "
+                        + "start without its passages");
+            }
+            torn = true;
+        }
+        if (torn) {
+            log.warn("Torn passage records from offset {} of {}, discarding them", end, path);
+            for (int i = end; i < segment.limit(); i++) {
+                segment.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private boolean isIntact(int position) {
+        int id = segment.getInt(position);
+        int type = segment.get(position + 12);
+        return segment.getInt(position + 16) == checksum(segment, position) && id >= 1 && id <= registrations.size()
+                && type >= 0 && type < TYPES.length;
+    }
+
+    private MappedByteBuffer mapSegment(int number) throws IOException {
+        Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Segments written with a different size setting are replayed with their own length
+            long size = Math.max(channel.size() - channel.size() % RECORD_SIZE, 0);
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size == 0 ? segmentSize : size);
+        }
+    }
+
+    /**
+     * Rewrites the closed segments without the passages whose epoch second the filter doesn't keep, each replaced at
+     * once, and deletes the ones left empty. The segment being appended to is left as it is, appends go on meanwhile.
+     *
+     * @return The number of passage records dropped
+     */
+    long compact(LongPredicate keep) throws IOException {
+        int active;
+        synchronized (this) {
+            active = segmentNumber;
+        }
+        List<Path> closed = new ArrayList<>();
+        for (Path path : segmentFiles()) {
+            if (numberOf(path) < active) {
+                closed.add(path);
+            }
+        }
+        long dropped = 0;
+        for (Path path : closed) {
+            dropped += compactSegment(path, keep);
+        }
+        return dropped;
+    }
+
+    // Closed segments aren't written anymore, their records are copied as they are
+    private long compactSegment(Path path, LongPredicate keep) throws IOException {
+        ByteBuffer kept;
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size() - channel.size() % RECORD_SIZE);
+            kept = ByteBuffer.allocate(records.limit());
+            for (int position = 0; position + RECORD_SIZE <= records.limit(); position += RECORD_SIZE) {
+                if (isEmpty(records, position)) {
+                    break;
+                }
+                count++;
+                if (keep.test(records.getLong(position + 4))) {
+                    kept.put(records.duplicate().position(position).limit(position + RECORD_SIZE));
+                }
+            }
+        }
+        int dropped = count - kept.position() / RECORD_SIZE;
+        if (dropped == 0) {
+            return 0;
+        }
+        if (kept.position() == 0) {
+            Files.delete(path);
+            return dropped;
+        }
+        Path rewritten = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(rewritten, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            kept.flip();
+            while (kept.hasRemaining()) {
+                channel.write(kept);
+            }
+            channel.force(false);
+        }
+        Files.move(rewritten, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return dropped;
+    }
+
+    private static boolean isEmpty(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) == 0 && buffer.getLong(position + 4) == 0 && buffer.get(position + 12) == 0
+                && buffer.getInt(position + 16) == 0;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int numberOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private int checksum(ByteBuffer buffer, int position) {
+        for (int i = 0; i < CHECKED_BYTES; i++) {
+            checked[i] = buffer.get(position + i);
+        }
+        crc.reset();
+        crc.update(checked, 0, CHECKED_BYTES);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,55 @@
+package org.te.toll.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense int id, starting from 0, to every registration number, and keeps a single copy of each one.
+ */
+public final class RegistrationDictionary {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] registrations = new String[1024];
+    private int size;
+
+    /**
+     * @return The id of the registration, assigning a new one if it was never seen before
+     */
+    public int idOf(String registration) {
+        Integer id = ids.get(registration);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(registration);
+            if (id != null) {
+                return id;
+            }
+            String[] current = registrations;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+                registrations = current;
+            }
+            current[size] = registration;
+            // Published after the array slot so that whoever reads the id can resolve it
+            ids.put(registration, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return The id of the registration, or -1 if it was never seen
+     */
+    public int find(String registration) {
+        Integer id = ids.get(registration);
+        return id == null ? -1 : id;
+    }
+
+    public String registrationOf(int id) {
+        return registrations[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,104 @@
+package org.te.toll.storage;
+
+/**
+ * Scalable Bloom filter of registrations: "never added" answers are exact, "maybe added" ones are wrong for well
+ * under 1% of the registrations that were never added.
+ * <p>
+ * It starts with a slice for a few thousand registrations and adds a slice twice as large whenever the last one is
+ * full, so a quiet day costs 8 KB and a busy one about 2 bytes per registration. A miss probes every slice, so the
+ * first slice is sized for the traffic of a small city to keep them few. Not thread-safe.
+ */
+final class RegistrationFilter {
+    private static final int FIRST_CAPACITY = 4096;
+    private static final int BITS_PER_REGISTRATION = 16;
+    private static final int HASHES = 8;
+
+    private Slice[] slices = {new Slice(FIRST_CAPACITY)};
+
+    void add(String registration) {
+        long hash = hash(registration);
+        if (mightContain(hash)) {
+            return;
+        }
+        Slice last = slices[slices.length - 1];
+        if (last.size == last.capacity) {
+            Slice[] grown = new Slice[slices.length + 1];
+            System.arraycopy(slices, 0, grown, 0, slices.length);
+            last = new Slice(last.capacity * 2);
+            grown[slices.length] = last;
+            slices = grown;
+        }
+        last.add(hash);
+    }
+
+    boolean mightContain(String registration) {
+        return mightContain(hash(registration));
+    }
+
+    /**
+     * @return The size of the bit sets, in bytes
+     */
+    long getSizeInBytes() {
+        long bytes = 0;
+        for (Slice slice : slices) {
+            bytes += slice.bits.length * (long) Long.BYTES;
+        }
+        return bytes;
+    }
+
+    private boolean mightContain(long hash) {
+        for (Slice slice : slices) {
+            if (slice.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Murmur3 finalizer over the cached String hash; its two halves seed the double hashing of the slices
+    private static long hash(String registration) {
+        long hash = registration.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Slice {
+        final long[] bits;
+        final int mask;
+        final int capacity;
+        int size;
+
+        Slice(int capacity) {
+            this.capacity = capacity;
+            int bitCount = capacity * BITS_PER_REGISTRATION;
+            bits = new long[bitCount / Long.SIZE];
+            mask = bitCount - 1;
+        }
+
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+            size++;
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -2,14 +2,42 @@ package org.te.toll.storage;
 
 import org.springframework.stereotype.Component;
 import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
 import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
 
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.List;
 
 @Component
 public interface StorageService {
     void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime);
+
+    /**
+     * Records several passages of the same vehicle in one operation.
+     */
+    void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes);
+
+    /**
+     * Records passages of one day of a vehicle unless it already passed with another type that day. A storage
+     * written by several nodes checks and records as one operation, the others in two steps, so their callers must
+     * not record passages of the same vehicle-day concurrently.
+     *
+     * @throws VehicleTypeMismatchException if the vehicle passed with another type during the day
+     * @throws MultipleVehicleTypesException if the stored passages of the day already have several types
+     * @throws CompactedDayException if the day was already replaced by its daily total, only checked by the storages
+     * written by several nodes
+     */
+    default void recordPassagesOfType(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        VehicleType storedType = vehicleTypeOf(registration, dateTimes.get(0));
+        if (storedType != null && storedType != type) {
+            throw new VehicleTypeMismatchException();
+        }
+        recordPassages(registration, type, dateTimes);
+    }
+
     List<ZonedDateTime> getPassages(String registration, ZonedDateTime day);
 
     /**
@@ -20,4 +48,72 @@ public interface StorageService {
      * @throws MultipleVehicleTypesException
      */
     VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException;
+
+    /**
+     * @return The number of passages currently stored, not counting the ones replaced by a daily total
+     */
+    long getPassageCount();
+
+    /**
+     * @return The number of (registration, day) pairs with at least one stored passage
+     */
+    long getVehicleDayCount();
+
+    /**
+     * Calls the consumer once for every vehicle-day with stored passages, in no particular order. Days replaced by
+     * their daily total are not included.
+     */
+    void forEachVehicleDay(VehicleDayConsumer consumer);
+
+    /**
+     * Same as {@link #forEachVehicleDay(VehicleDayConsumer)}, limited to the vehicles that passed during the day.
+     */
+    void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer);
+
+    /**
+     * Same as {@link #forEachVehicleDay(LocalDate, VehicleDayConsumer)}, the passages given as epoch seconds. The
+     * storages keeping passages as numbers hand them over as they are instead of building a date-time for each.
+     *
+     * @param day The day to scan, or null for every day
+     */
+    default void forEachVehicleDaySeconds(LocalDate day, VehicleDaySecondsConsumer consumer) {
+        long[][] epochSeconds = {new long[16]};
+        VehicleDayConsumer adapter = (registration, type, passages) -> {
+            int count = passages.size();
+            if (epochSeconds[0].length < count) {
+                epochSeconds[0] = new long[Math.max(count, epochSeconds[0].length * 2)];
+            }
+            for (int i = 0; i < count; i++) {
+                epochSeconds[0][i] = passages.get(i).toEpochSecond();
+            }
+            ZonedDateTime first = passages.get(0);
+            consumer.accept(registration, type, first.toLocalDate(), first.getZone(), epochSeconds[0], count);
+        };
+        if (day == null) {
+            forEachVehicleDay(adapter);
+        } else {
+            forEachVehicleDay(day, adapter);
+        }
+    }
+
+    /**
+     * Replaces the passages of every day before the cutoff with their daily total, computed by the pricer.
+     * Passages can keep being recorded and read while this runs, but not for the days being compacted: each day is
+     * compacted once, and passages recorded for it afterwards would be left out of its total.
+     *
+     * @return The number of passages evicted
+     */
+    long compactBefore(LocalDate cutoff, DailyPricer pricer);
+
+    /**
+     * @return The daily total of a compacted day, or null if the day was never compacted
+     */
+    Integer getDailyTotal(String registration, LocalDate day);
+
+    /**
+     * @return true if other nodes record passages in this storage as well, so what it holds can't be cached
+     */
+    default boolean isShared() {
+        return false;
+    }
 }
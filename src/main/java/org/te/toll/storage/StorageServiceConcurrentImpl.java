@@ -0,0 +1,382 @@
+package org.te.toll.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Thread-safe storage partitioned by (registration, local day). Each partition is guarded by its own monitor,
+ * so writers for different vehicles never contend and lookups only touch the passages of the requested day.
+ * <p>
+ * To keep the heap small, registrations are replaced by dense ids and a partition stores its passages as int
+ * seconds from the start of its day, with second resolution, plus a bitmask of the vehicle types seen that day.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "concurrent", matchIfMissing = true)
+public class StorageServiceConcurrentImpl implements StorageService {
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final VehicleType[] TYPES = VehicleType.values();
+
+    final RegistrationDictionary registrations = new RegistrationDictionary();
+    // Keyed by registration id in the high 32 bits and local epoch day in the low 32 bits
+    final Map<Long, DayPartition> partitions = new ConcurrentHashMap<>();
+    // Totals of the days whose passages were compacted, same keys as the partitions
+    final Map<Long, Integer> dailyTotals = new ConcurrentHashMap<>();
+    private final LongAdder passageCount = new LongAdder();
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        int id = registrations.idOf(registration);
+        while (!partitionOf(id, dateTime).add(type, dateTime.toEpochSecond())) {
+            // The partition was compacted in the meantime, the passage goes to a new one
+        }
+        passageCount.increment();
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        int id = registrations.idOf(registration);
+        DayPartition partition = null;
+        for (ZonedDateTime dateTime : dateTimes) {
+            if (partition == null || partition.epochDay != dateTime.toLocalDate().toEpochDay()) {
+                partition = partitionOf(id, dateTime);
+            }
+            while (!partition.add(type, dateTime.toEpochSecond())) {
+                partition = partitionOf(id, dateTime);
+            }
+        }
+        passageCount.add(dateTimes.size());
+    }
+
+    /**
+     * Checks the type and records under the monitor of the partition, so it's atomic even when the store is the shard
+     * of a cluster written by several nodes. A compacted day is refused whatever the cutoff of the caller.
+     */
+    @Override
+    public void recordPassagesOfType(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        int id = registrations.idOf(registration);
+        ZonedDateTime first = dateTimes.get(0);
+        long key = key(id, first.toLocalDate().toEpochDay());
+        while (true) {
+            DayPartition partition = partitionOf(id, first);
+            synchronized (partition) {
+                if (partition.evicted) {
+                    continue;
+                }
+                // Compaction stores the total before removing the partition, so a partition created after it sees it
+                if (dailyTotals.containsKey(key)) {
+                    if (partition.size == 0) {
+                        partition.evicted = true;
+                        partitions.remove(key, partition);
+                    }
+                    throw new CompactedDayException();
+                }
+                VehicleType storedType = partition.type();
+                if (storedType != null && storedType != type) {
+                    throw new VehicleTypeMismatchException();
+                }
+                for (ZonedDateTime dateTime : dateTimes) {
+                    partition.add(type, dateTime.toEpochSecond());
+                }
+            }
+            passageCount.add(dateTimes.size());
+            return;
+        }
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        DayPartition partition = find(registration, day);
+        return partition == null ? List.of() : partition.passages();
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        DayPartition partition = find(registration, dateTime);
+        return partition == null ? null : partition.type();
+    }
+
+    @Override
+    public long getPassageCount() {
+        return passageCount.sum();
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        return partitions.size();
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        forEachVehicleDay(null, consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        for (Map.Entry<Long, DayPartition> entry : partitions.entrySet()) {
+            DayPartition partition = entry.getValue();
+            if (day != null && partition.epochDay != day.toEpochDay()) {
+                continue;
+            }
+            List<ZonedDateTime> passages;
+            VehicleType type;
+            synchronized (partition) {
+                passages = partition.passages();
+                type = partition.firstType();
+            }
+            if (!passages.isEmpty()) {
+                consumer.accept(registrations.registrationOf((int) (entry.getKey() >>> 32)), type, passages);
+            }
+        }
+    }
+
+    /**
+     * Hands the seconds of every partition over without building a date-time for any of them.
+     */
+    @Override
+    public void forEachVehicleDaySeconds(LocalDate day, VehicleDaySecondsConsumer consumer) {
+        long[] epochSeconds = new long[16];
+        for (Map.Entry<Long, DayPartition> entry : partitions.entrySet()) {
+            DayPartition partition = entry.getValue();
+            if (day != null && partition.epochDay != day.toEpochDay()) {
+                continue;
+            }
+            int count;
+            VehicleType type;
+            synchronized (partition) {
+                count = partition.size;
+                if (epochSeconds.length < count) {
+                    epochSeconds = new long[Math.max(count, epochSeconds.length * 2)];
+                }
+                partition.epochSeconds(epochSeconds);
+                type = partition.firstType();
+            }
+            if (count > 0) {
+                consumer.accept(registrationOf(entry.getKey()), type, LocalDate.ofEpochDay(partition.epochDay),
+                        partition.zone, epochSeconds, count);
+            }
+        }
+    }
+
+    @Override
+    public long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        long cutoffDay = cutoff.toEpochDay();
+        long evicted = 0;
+        for (Map.Entry<Long, DayPartition> entry : partitions.entrySet()) {
+            DayPartition partition = entry.getValue();
+            if (partition.epochDay >= cutoffDay) {
+                continue;
+            }
+            String registration = registrationOf(entry.getKey());
+            // Priced under the monitor, so no passage gets in between, and closed only once priced: a pricer that
+            // throws leaves the day open and its passages counted
+            synchronized (partition) {
+                if (partition.evicted) {
+                    // Compacted or moved by a concurrent call, which counted its passages
+                    continue;
+                }
+                int total = pricer.price(registration, partition.firstType(), partition.passages());
+                partition.evicted = true;
+                dailyTotals.put(entry.getKey(), total);
+                partitions.remove(entry.getKey(), partition);
+                passageCount.add(-partition.size);
+                evicted += partition.size;
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        int id = registrations.find(registration);
+        return id < 0 ? null : dailyTotals.get(key(id, day.toEpochDay()));
+    }
+
+    /**
+     * Calls the consumer once for every daily total of a compacted day, in no particular order.
+     */
+    public void forEachDailyTotal(DailyTotalConsumer consumer) {
+        for (Map.Entry<Long, Integer> entry : dailyTotals.entrySet()) {
+            consumer.accept(registrationOf(entry.getKey()), LocalDate.ofEpochDay((int) entry.getKey().longValue()),
+                    entry.getValue());
+        }
+    }
+
+    /**
+     * Sets the daily total of a compacted day, used when the vehicle moves here from another store.
+     */
+    public void putDailyTotal(String registration, LocalDate day, int total) {
+        dailyTotals.put(key(registrations.idOf(registration), day.toEpochDay()), total);
+    }
+
+    /**
+     * Replaces the passages of the vehicle-day of the first one with the given ones, used when the vehicle moves here
+     * from another store: copying the same day again leaves it as it was instead of doubling its passages.
+     */
+    public void replacePassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        int id = registrations.idOf(registration);
+        ZonedDateTime first = dateTimes.get(0);
+        while (true) {
+            DayPartition partition = partitionOf(id, first);
+            synchronized (partition) {
+                if (partition.evicted) {
+                    continue;
+                }
+                passageCount.add(-partition.size);
+                partition.clear();
+                for (ZonedDateTime dateTime : dateTimes) {
+                    partition.add(type, dateTime.toEpochSecond());
+                }
+            }
+            passageCount.add(dateTimes.size());
+            return;
+        }
+    }
+
+    /**
+     * Drops the passages and daily totals of the registrations matching the filter, used once they were copied to
+     * another store. Passages recorded for them while this runs may be left behind.
+     *
+     * @return The number of passages removed
+     */
+    public long removeIf(Predicate<String> filter) {
+        long removed = 0;
+        for (Map.Entry<Long, DayPartition> entry : partitions.entrySet()) {
+            if (!filter.test(registrationOf(entry.getKey()))) {
+                continue;
+            }
+            DayPartition partition = entry.getValue();
+            synchronized (partition) {
+                if (partition.evicted) {
+                    continue;
+                }
+                partition.evicted = true;
+                partitions.remove(entry.getKey(), partition);
+                passageCount.add(-partition.size);
+                removed += partition.size;
+            }
+        }
+        dailyTotals.keySet().removeIf(key -> filter.test(registrationOf(key)));
+        return removed;
+    }
+
+    private String registrationOf(long key) {
+        return registrations.registrationOf((int) (key >>> 32));
+    }
+
+    private DayPartition partitionOf(int id, ZonedDateTime dateTime) {
+        long epochDay = dateTime.toLocalDate().toEpochDay();
+        return partitions.computeIfAbsent(key(id, epochDay), k -> new DayPartition(dateTime.getZone(), (int) epochDay));
+    }
+
+    private DayPartition find(String registration, ZonedDateTime dateTime) {
+        int id = registrations.find(registration);
+        return id < 0 ? null : partitions.get(key(id, dateTime.toLocalDate().toEpochDay()));
+    }
+
+    static long key(int registrationId, long epochDay) {
+        return ((long) registrationId << 32) | (epochDay & 0xFFFFFFFFL);
+    }
+
+    static final class DayPartition {
+        final ZoneId zone;
+        final int epochDay;
+        private int types;
+        private int size;
+        // Seconds since midnight UTC of the epoch day, so local passages fit an int even with large offsets
+        private int[] seconds = new int[2];
+        private boolean evicted;
+
+        DayPartition(ZoneId zone, int epochDay) {
+            this.zone = zone;
+            this.epochDay = epochDay;
+        }
+
+        /**
+         * @return false if the partition was compacted and can't take passages anymore
+         */
+        synchronized boolean add(VehicleType type, long epochSecond) {
+            if (evicted) {
+                return false;
+            }
+            types |= 1 << type.ordinal();
+            if (size == seconds.length) {
+                seconds = Arrays.copyOf(seconds, size * 2);
+            }
+            seconds[size++] = (int) (epochSecond - epochDay * SECONDS_PER_DAY);
+            return true;
+        }
+
+        synchronized void clear() {
+            types = 0;
+            size = 0;
+        }
+
+        /**
+         * @return A copy of the seconds, each passage only turned into a date-time when the caller reads it
+         */
+        synchronized List<ZonedDateTime> passages() {
+            return size == 0 ? List.of() : new Passages(zone, epochDay, Arrays.copyOf(seconds, size));
+        }
+
+        synchronized void epochSeconds(long[] into) {
+            for (int i = 0; i < size; i++) {
+                into[i] = epochDay * SECONDS_PER_DAY + seconds[i];
+            }
+        }
+
+        // Vehicles rarely change type within a day; when they do the compacted day is priced with one of them
+        synchronized VehicleType firstType() {
+            return types == 0 ? null : TYPES[Integer.numberOfTrailingZeros(types)];
+        }
+
+        synchronized VehicleType type() throws MultipleVehicleTypesException {
+            if (types == 0) {
+                return null;
+            }
+            if (Integer.bitCount(types) > 1) {
+                throw new MultipleVehicleTypesException();
+            }
+            return TYPES[Integer.numberOfTrailingZeros(types)];
+        }
+    }
+
+    private static final class Passages extends AbstractList<ZonedDateTime> implements RandomAccess {
+        private final ZoneId zone;
+        private final int epochDay;
+        private final int[] seconds;
+
+        Passages(ZoneId zone, int epochDay, int[] seconds) {
+            this.zone = zone;
+            this.epochDay = epochDay;
+            this.seconds = seconds;
+        }
+
+        @Override
+        public ZonedDateTime get(int index) {
+            return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochDay * SECONDS_PER_DAY + seconds[index]), zone);
+        }
+
+        @Override
+        public int size() {
+            return seconds.length;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.te.toll.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.StorageProperties.FsyncPolicy;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Durable storage: every passage is appended to a {@link PassageLog} before it is indexed in memory, and the index
+ * is rebuilt by replaying the log on startup. Replayed passages are restored in the toll zone.
+ * <p>
+ * Compaction writes the daily totals and the cutoff to daily-totals.dat before the closed segments of the log are
+ * rewritten without the passages of the compacted days. On startup the totals are loaded first and the passages
+ * before the cutoff still in the log are skipped, so a crash between the two steps loses nothing.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "file")
+public class StorageServiceFileImpl implements StorageService, Closeable {
+    private static final String DAILY_TOTALS_FILE = "daily-totals.dat";
+
+    private final StorageServiceConcurrentImpl index = new StorageServiceConcurrentImpl();
+    private final ZoneId zone;
+    private final Path directory;
+    private final PassageLog passageLog;
+    // Days before it were compacted, their passages left in the log are not replayed
+    private LocalDate compactedBefore = LocalDate.MIN;
+
+    @Autowired
+    public StorageServiceFileImpl(StorageProperties properties, TollConfiguration config) throws IOException {
+        this(Path.of(properties.getLog().getDirectory()), properties.getLog().getSegmentSize(),
+                properties.getLog().getFsyncPolicy(), properties.getLog().getFsyncBatchSize(),
+                properties.getLog().getFsyncMaxDelay(), config.getTollZone());
+    }
+
+    StorageServiceFileImpl(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int fsyncBatchSize)
+            throws IOException {
+        this(directory, segmentSize, fsyncPolicy, fsyncBatchSize, Duration.ZERO, ZoneId.systemDefault());
+    }
+
+    StorageServiceFileImpl(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int fsyncBatchSize,
+                           Duration fsyncMaxDelay, ZoneId zone) throws IOException {
+        this.zone = zone;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        loadDailyTotals();
+        long firstKept = startOf(compactedBefore);
+        passageLog = PassageLog.open(directory, segmentSize, fsyncPolicy, fsyncBatchSize, fsyncMaxDelay,
+                (registration, type, epochSecond) -> {
+                    if (epochSecond >= firstKept) {
+                        index.recordPassage(registration, type,
+                                ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone));
+                    }
+                });
+    }
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        try {
+            passageLog.append(registration, type, dateTime.toEpochSecond());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index.recordPassage(registration, type, dateTime);
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        long[] epochSeconds = dateTimes.stream().mapToLong(ZonedDateTime::toEpochSecond).toArray();
+        try {
+            passageLog.append(registration, type, epochSeconds);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index.recordPassages(registration, type, dateTimes);
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        return index.getPassages(registration, day);
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        return index.vehicleTypeOf(registration, dateTime);
+    }
+
+    @Override
+    public long getPassageCount() {
+        return index.getPassageCount();
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        return index.getVehicleDayCount();
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        index.forEachVehicleDay(consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        index.forEachVehicleDay(day, consumer);
+    }
+
+    /**
+     * Compacts the index, persists its daily totals with the cutoff, then drops the passages before the cutoff from
+     * the closed segments of the log.
+     */
+    @Override
+    public synchronized long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        long evicted = index.compactBefore(cutoff, pricer);
+        if (cutoff.isAfter(compactedBefore)) {
+            compactedBefore = cutoff;
+        }
+        long firstKept = startOf(compactedBefore);
+        try {
+            writeDailyTotals();
+            passageLog.compact(epochSecond -> epochSecond >= firstKept);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return evicted;
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        return index.getDailyTotal(registration, day);
+    }
+
+    @Override
+    public void close() throws IOException {
+        passageLog.close();
+    }
+
+    private long startOf(LocalDate day) {
+        return day.equals(LocalDate.MIN) ? Long.MIN_VALUE : day.atStartOfDay(zone).toEpochSecond();
+    }
+
+    // Replaced at once, so it is either the previous totals or the new ones
+    private void writeDailyTotals() throws IOException {
+        Path file = directory.resolve(DAILY_TOTALS_FILE);
+        Path partial = file.resolveSibling(DAILY_TOTALS_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeLong(compactedBefore.toEpochDay());
+            IOException[] failure = {null};
+            index.forEachDailyTotal((registration, day, total) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    out.writeBoolean(true);
+                    out.writeUTF(registration);
+                    out.writeLong(day.toEpochDay());
+                    out.writeInt(total);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            out.writeBoolean(false);
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void loadDailyTotals() throws IOException {
+        Path file = directory.resolve(DAILY_TOTALS_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            compactedBefore = LocalDate.ofEpochDay(in.readLong());
+            while (in.readBoolean()) {
+                String registration = in.readUTF();
+                LocalDate day = LocalDate.ofEpochDay(in.readLong());
+                index.putDailyTotal(registration, day, in.readInt());
+            }
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package org.te.toll.storage;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.te.toll.enums.VehicleType;
 import org.te.toll.exceptions.MultipleVehicleTypesException;
 
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -12,25 +18,75 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+/**
+ * The original HashMap store, every operation of which holds the lock of the store.
+ * <p>
+ * Most type lookups are for the first passage of a vehicle during the day, so a filter of the registrations seen
+ * each day answers them without reading the history of the vehicle, and the type of each vehicle on the last day it
+ * passed answers most of the others. Only passages recorded out of order and filter false positives still scan the
+ * history. The lookups are counted by outcome in the metric toll.storage.type.lookups.
+ */
 @Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "in-memory")
 public class StorageServiceInMemoryImpl implements StorageService {
 
     Map<String, List<ZonedDateTime>> passagesByRegistration;
     Map<String, List<TypeDay>> vehicleTypeByRegistration;
+    Map<String, Map<LocalDate, Integer>> dailyTotalsByRegistration;
+    Map<LocalDate, RegistrationFilter> registrationsByDay;
+    Map<String, LastDayType> lastDayTypeByRegistration;
+    // Kept up to date by the writes, so that the storage gauges don't scan the history
+    private long passageCount;
+    private long vehicleDayCount;
+    private final Counter absentLookups;
+    private final Counter cachedLookups;
+    private final Counter historyLookups;
+    private final Counter falsePositiveLookups;
 
     public StorageServiceInMemoryImpl() {
+        this(Metrics.globalRegistry);
+    }
+
+    @Autowired
+    public StorageServiceInMemoryImpl(MeterRegistry registry) {
         passagesByRegistration = new HashMap<>();
         vehicleTypeByRegistration = new HashMap<>();
+        dailyTotalsByRegistration = new HashMap<>();
+        registrationsByDay = new HashMap<>();
+        lastDayTypeByRegistration = new HashMap<>();
+        absentLookups = lookupCounter(registry, "absent");
+        cachedLookups = lookupCounter(registry, "cached");
+        historyLookups = lookupCounter(registry, "history");
+        falsePositiveLookups = lookupCounter(registry, "false-positive");
     }
 
     @Override
-    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+    public synchronized void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        if (isFirstPassageOfDay(registration, dateTime)) {
+            vehicleDayCount++;
+        }
+        passageCount++;
         vehicleTypeByRegistration.computeIfAbsent(registration, k -> new ArrayList<>()).add(new TypeDay(type, dateTime));
         passagesByRegistration.computeIfAbsent(registration, k -> new ArrayList<>()).add(dateTime);
+        LocalDate day = dateTime.toLocalDate();
+        registrationsByDay.computeIfAbsent(day, k -> new RegistrationFilter()).add(registration);
+        LastDayType lastDayType = lastDayTypeByRegistration.get(registration);
+        if (lastDayType == null || lastDayType.day.isBefore(day)) {
+            lastDayTypeByRegistration.put(registration, new LastDayType(day, type));
+        } else if (lastDayType.day.equals(day) && lastDayType.type != type) {
+            lastDayType.multipleTypes = true;
+        }
+    }
+
+    @Override
+    public synchronized void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        for (ZonedDateTime dateTime : dateTimes) {
+            recordPassage(registration, type, dateTime);
+        }
     }
 
     @Override
-    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+    public synchronized List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
         List<ZonedDateTime> passages = passagesByRegistration.getOrDefault(registration, List.of());
         return passages.stream()
                 .filter(x -> x.truncatedTo(ChronoUnit.DAYS).isEqual(day.truncatedTo(ChronoUnit.DAYS)))
@@ -38,21 +94,152 @@ public class StorageServiceInMemoryImpl implements StorageService {
     }
 
     @Override
-    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+    public synchronized VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime)
+            throws MultipleVehicleTypesException {
+        LocalDate day = dateTime.toLocalDate();
+        RegistrationFilter registrations = registrationsByDay.get(day);
+        if (registrations == null || !registrations.mightContain(registration)) {
+            absentLookups.increment();
+            return null;
+        }
+        LastDayType lastDayType = lastDayTypeByRegistration.get(registration);
+        if (lastDayType != null && lastDayType.day.equals(day)) {
+            cachedLookups.increment();
+            if (lastDayType.multipleTypes) {
+                throw new MultipleVehicleTypesException();
+            }
+            return lastDayType.type;
+        }
         List<VehicleType> typeDayList = vehicleTypeByRegistration.getOrDefault(registration, List.of()).stream()
                 .filter(x -> x.day.isEqual(dateTime.truncatedTo(ChronoUnit.DAYS)))
                 .map(x -> x.type)
                 .distinct()
                 .collect(Collectors.toList());
         if (typeDayList.isEmpty()) {
+            falsePositiveLookups.increment();
             return null;
         }
+        historyLookups.increment();
         if (typeDayList.size() == 1) {
             return typeDayList.get(0);
         }
         throw new MultipleVehicleTypesException();
     }
 
+    @Override
+    public synchronized long getPassageCount() {
+        return passageCount;
+    }
+
+    @Override
+    public synchronized long getVehicleDayCount() {
+        return vehicleDayCount;
+    }
+
+    @Override
+    public synchronized void forEachVehicleDay(VehicleDayConsumer consumer) {
+        forEachVehicleDay(null, consumer);
+    }
+
+    @Override
+    public synchronized void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        for (Map.Entry<String, List<ZonedDateTime>> entry : passagesByRegistration.entrySet()) {
+            List<ZonedDateTime> passages = entry.getValue();
+            List<TypeDay> typeDays = vehicleTypeByRegistration.get(entry.getKey());
+            Map<LocalDate, List<Integer>> days = new HashMap<>();
+            for (int i = 0; i < passages.size(); i++) {
+                LocalDate passageDay = passages.get(i).toLocalDate();
+                if (day == null || day.equals(passageDay)) {
+                    days.computeIfAbsent(passageDay, k -> new ArrayList<>()).add(i);
+                }
+            }
+            for (List<Integer> indexes : days.values()) {
+                consumer.accept(entry.getKey(), typeDays.get(indexes.get(0)).type,
+                        indexes.stream().map(passages::get).collect(Collectors.toList()));
+            }
+        }
+    }
+
+    @Override
+    public synchronized long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        long evicted = 0;
+        for (Map.Entry<String, List<ZonedDateTime>> entry : passagesByRegistration.entrySet()) {
+            // Both lists are appended together, so the same index refers to the same passage
+            List<ZonedDateTime> passages = entry.getValue();
+            List<TypeDay> typeDays = vehicleTypeByRegistration.get(entry.getKey());
+            Map<LocalDate, List<Integer>> oldDays = new HashMap<>();
+            for (int i = 0; i < passages.size(); i++) {
+                LocalDate day = passages.get(i).toLocalDate();
+                if (day.isBefore(cutoff)) {
+                    oldDays.computeIfAbsent(day, k -> new ArrayList<>()).add(i);
+                }
+            }
+            for (Map.Entry<LocalDate, List<Integer>> day : oldDays.entrySet()) {
+                List<ZonedDateTime> dayPassages = day.getValue().stream().map(passages::get).collect(Collectors.toList());
+                int total = pricer.price(entry.getKey(), typeDays.get(day.getValue().get(0)).type, dayPassages);
+                dailyTotalsByRegistration.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(day.getKey(), total);
+                evicted += dayPassages.size();
+            }
+            vehicleDayCount -= oldDays.size();
+            if (!oldDays.isEmpty()) {
+                List<ZonedDateTime> keptPassages = new ArrayList<>();
+                List<TypeDay> keptTypeDays = new ArrayList<>();
+                for (int i = 0; i < passages.size(); i++) {
+                    if (!passages.get(i).toLocalDate().isBefore(cutoff)) {
+                        keptPassages.add(passages.get(i));
+                        keptTypeDays.add(typeDays.get(i));
+                    }
+                }
+                entry.setValue(keptPassages);
+                vehicleTypeByRegistration.put(entry.getKey(), keptTypeDays);
+            }
+        }
+        // The types of the compacted days are gone, so are their lookup shortcuts
+        registrationsByDay.keySet().removeIf(day -> day.isBefore(cutoff));
+        lastDayTypeByRegistration.values().removeIf(lastDayType -> lastDayType.day.isBefore(cutoff));
+        passageCount -= evicted;
+        return evicted;
+    }
+
+    @Override
+    public synchronized Integer getDailyTotal(String registration, LocalDate day) {
+        return dailyTotalsByRegistration.getOrDefault(registration, Map.of()).get(day);
+    }
+
+    // Answered like the type lookups, the history is only scanned when the shortcuts can't tell
+    private boolean isFirstPassageOfDay(String registration, ZonedDateTime dateTime) {
+        LocalDate day = dateTime.toLocalDate();
+        RegistrationFilter registrations = registrationsByDay.get(day);
+        if (registrations == null || !registrations.mightContain(registration)) {
+            return true;
+        }
+        LastDayType lastDayType = lastDayTypeByRegistration.get(registration);
+        if (lastDayType != null && lastDayType.day.equals(day)) {
+            return false;
+        }
+        ZonedDateTime truncated = dateTime.truncatedTo(ChronoUnit.DAYS);
+        return vehicleTypeByRegistration.getOrDefault(registration, List.of()).stream()
+                .noneMatch(x -> x.day.isEqual(truncated));
+    }
+
+    private static Counter lookupCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder("toll.storage.type.lookups")
+                .description("Vehicle type lookups of the in-memory store by how they were answered")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static class LastDayType {
+        final LocalDate day;
+        final VehicleType type;
+        boolean multipleTypes;
+
+        LastDayType(LocalDate day, VehicleType type) {
+            this.day = day;
+            this.type = type;
+        }
+    }
+
     private static class TypeDay {
         VehicleType type;
         ZonedDateTime day;
@@ -0,0 +1,382 @@
+package org.te.toll.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Storage that keeps registrations and passages outside of the Java heap, so that the garbage collector only sees
+ * a few hundred buffers whatever the number of passages. Registrations are hashed to segments, each guarded by a
+ * read-write lock and holding an open-addressing registration table, a (registration, day) index and the passage
+ * records, allocated in direct ByteBuffer slabs.
+ * <p>
+ * A record has the layout of a partition of {@link StorageServiceConcurrentImpl}: zone, vehicle type bitmask,
+ * count and capacity, followed by int seconds from midnight UTC of its day. A full record is copied to one twice as
+ * big and a segment is rewritten when the records it left behind take more room than the live ones.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "off-heap")
+public class StorageServiceOffHeapImpl implements StorageService {
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final VehicleType[] TYPES = VehicleType.values();
+    private static final int ZONE = 0;
+    private static final int TYPE_BITS = 4;
+    private static final int COUNT = 8;
+    private static final int CAPACITY = 12;
+    private static final int HEADER_BYTES = 16;
+    private static final int FIRST_CAPACITY = 2;
+    private static final long MIN_GARBAGE_TO_DEFRAGMENT = 1024 * 1024;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    // Records store the index of their zone in this list
+    private final List<ZoneId> zones = new CopyOnWriteArrayList<>();
+    private final Map<ZoneId, Integer> zoneIndexes = new ConcurrentHashMap<>();
+    private final LongAdder passageCount = new LongAdder();
+    private final LongAdder vehicleDayCount = new LongAdder();
+
+    public StorageServiceOffHeapImpl() {
+        this(new StorageProperties.OffHeap());
+    }
+
+    public StorageServiceOffHeapImpl(StorageProperties.OffHeap properties) {
+        int count = properties.getSegments();
+        if (count <= 0 || Integer.bitCount(count) != 1) {
+            throw new IllegalArgumentException("The number of off-heap segments must be a power of two: " + count);
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(properties.getSlabSize());
+        }
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    @Autowired
+    public StorageServiceOffHeapImpl(StorageProperties properties, MeterRegistry registry) {
+        this(properties.getOffHeap());
+        Gauge.builder("toll.storage.offheap.bytes", this, StorageServiceOffHeapImpl::getOffHeapBytes)
+                .description("Direct memory reserved by the off-heap storage")
+                .register(registry);
+    }
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        Segment segment = segmentOf(registration);
+        int zone = zoneIndexOf(dateTime.getZone());
+        segment.lock.writeLock().lock();
+        try {
+            segment.add(segment.registrations.idOf(registration), zone, type, dateTime);
+            segment.defragmentIfNeeded();
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        passageCount.increment();
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        Segment segment = segmentOf(registration);
+        segment.lock.writeLock().lock();
+        try {
+            int id = segment.registrations.idOf(registration);
+            for (ZonedDateTime dateTime : dateTimes) {
+                segment.add(id, zoneIndexOf(dateTime.getZone()), type, dateTime);
+            }
+            segment.defragmentIfNeeded();
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        passageCount.add(dateTimes.size());
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        Segment segment = segmentOf(registration);
+        segment.lock.readLock().lock();
+        try {
+            long address = segment.find(registration, day.toLocalDate().toEpochDay());
+            return address == 0 ? List.of() : segment.passages(address, day.toLocalDate().toEpochDay());
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        Segment segment = segmentOf(registration);
+        int types;
+        segment.lock.readLock().lock();
+        try {
+            long address = segment.find(registration, dateTime.toLocalDate().toEpochDay());
+            types = address == 0 ? 0 : segment.records.getInt(address, TYPE_BITS);
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        if (types == 0) {
+            return null;
+        }
+        if (Integer.bitCount(types) > 1) {
+            throw new MultipleVehicleTypesException();
+        }
+        return TYPES[Integer.numberOfTrailingZeros(types)];
+    }
+
+    @Override
+    public long getPassageCount() {
+        return passageCount.sum();
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        return vehicleDayCount.sum();
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        forEachVehicleDay(null, consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        for (Segment segment : segments) {
+            // The consumer is called once the lock is released, so that it may use the storage
+            List<StoredDay> stored = new ArrayList<>();
+            segment.lock.readLock().lock();
+            try {
+                OffHeapLongMap days = segment.days;
+                for (int slot = 0; slot < days.capacity(); slot++) {
+                    if (days.isUsed(slot) && (day == null || (int) days.keyAt(slot) == day.toEpochDay())) {
+                        stored.add(segment.read(days.keyAt(slot), days.valueAt(slot)));
+                    }
+                }
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+            for (StoredDay vehicleDay : stored) {
+                consumer.accept(vehicleDay.registration, vehicleDay.type, vehicleDay.passages);
+            }
+        }
+    }
+
+    @Override
+    public long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        long cutoffDay = cutoff.toEpochDay();
+        long evicted = 0;
+        for (Segment segment : segments) {
+            segment.lock.writeLock().lock();
+            try {
+                OffHeapLongMap days = segment.days;
+                List<Integer> slots = new ArrayList<>();
+                List<StoredDay> compacted = new ArrayList<>();
+                for (int slot = 0; slot < days.capacity(); slot++) {
+                    if (days.isUsed(slot) && (int) days.keyAt(slot) < cutoffDay) {
+                        slots.add(slot);
+                        compacted.add(segment.read(days.keyAt(slot), days.valueAt(slot)));
+                    }
+                }
+                if (compacted.isEmpty()) {
+                    continue;
+                }
+                // Every day of the segment is priced before any is removed, a pricer that throws leaves it whole
+                long[] totals = new long[compacted.size()];
+                for (int i = 0; i < totals.length; i++) {
+                    StoredDay vehicleDay = compacted.get(i);
+                    totals[i] = pricer.price(vehicleDay.registration, vehicleDay.type, vehicleDay.passages);
+                }
+                long segmentEvicted = 0;
+                for (int i = 0; i < totals.length; i++) {
+                    int slot = slots.get(i);
+                    segment.garbage += recordBytes(segment.records.getInt(days.valueAt(slot), CAPACITY));
+                    days.removeAt(slot);
+                    segment.dailyTotals.put(compacted.get(i).key, totals[i]);
+                    segmentEvicted += compacted.get(i).passages.size();
+                }
+                segment.defragmentIfNeeded();
+                vehicleDayCount.add(-compacted.size());
+                passageCount.add(-segmentEvicted);
+                evicted += segmentEvicted;
+            } finally {
+                segment.lock.writeLock().unlock();
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        Segment segment = segmentOf(registration);
+        segment.lock.readLock().lock();
+        try {
+            int id = segment.registrations.find(registration);
+            long total = id < 0 ? -1 : segment.dailyTotals.get(StorageServiceConcurrentImpl.key(id, day.toEpochDay()), -1);
+            return total < 0 ? null : (int) total;
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The direct memory reserved by the registrations, indexes and records of every segment
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                bytes += segment.getSizeInBytes();
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+
+    private Segment segmentOf(String registration) {
+        return segments[segmentShift == 32 ? 0 : (registration.hashCode() * 0x9E3779B9) >>> segmentShift];
+    }
+
+    private int zoneIndexOf(ZoneId zone) {
+        Integer index = zoneIndexes.get(zone);
+        if (index == null) {
+            index = zoneIndexes.computeIfAbsent(zone, z -> {
+                synchronized (zones) {
+                    zones.add(z);
+                    return zones.size() - 1;
+                }
+            });
+        }
+        return index;
+    }
+
+    private static int recordBytes(int capacity) {
+        return (HEADER_BYTES + 4 * capacity + 7) & ~7;
+    }
+
+    private final class Segment {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final int slabSize;
+        final OffHeapRegistrations registrations;
+        // Keyed like the partitions of the concurrent store, the values are the addresses of the records
+        final OffHeapLongMap days = new OffHeapLongMap(1024);
+        final OffHeapLongMap dailyTotals = new OffHeapLongMap(16);
+        OffHeapSlabs records;
+        // Bytes of the records replaced by a bigger copy or compacted
+        long garbage;
+
+        Segment(int slabSize) {
+            this.slabSize = slabSize;
+            registrations = new OffHeapRegistrations(slabSize);
+            records = new OffHeapSlabs(slabSize);
+        }
+
+        void add(int id, int zone, VehicleType type, ZonedDateTime dateTime) {
+            long epochDay = dateTime.toLocalDate().toEpochDay();
+            long key = StorageServiceConcurrentImpl.key(id, epochDay);
+            long address = days.get(key, 0);
+            if (address == 0) {
+                address = records.allocate(recordBytes(FIRST_CAPACITY));
+                records.putInt(address, ZONE, zone);
+                records.putInt(address, TYPE_BITS, 0);
+                records.putInt(address, COUNT, 0);
+                records.putInt(address, CAPACITY, FIRST_CAPACITY);
+                days.put(key, address);
+                vehicleDayCount.increment();
+            } else if (records.getInt(address, COUNT) == records.getInt(address, CAPACITY)) {
+                int capacity = records.getInt(address, CAPACITY);
+                long grown = records.allocate(recordBytes(2 * capacity));
+                records.copy(records, address, grown, HEADER_BYTES + 4 * capacity);
+                records.putInt(grown, CAPACITY, 2 * capacity);
+                garbage += recordBytes(capacity);
+                days.put(key, grown);
+                address = grown;
+            }
+            int count = records.getInt(address, COUNT);
+            records.putInt(address, TYPE_BITS, records.getInt(address, TYPE_BITS) | 1 << type.ordinal());
+            records.putInt(address, HEADER_BYTES + 4 * count, (int) (dateTime.toEpochSecond() - epochDay * SECONDS_PER_DAY));
+            records.putInt(address, COUNT, count + 1);
+        }
+
+        /**
+         * @return The address of the record, 0 if there is none
+         */
+        long find(String registration, long epochDay) {
+            int id = registrations.find(registration);
+            return id < 0 ? 0 : days.get(StorageServiceConcurrentImpl.key(id, epochDay), 0);
+        }
+
+        List<ZonedDateTime> passages(long address, long epochDay) {
+            ZoneId zone = zones.get(records.getInt(address, ZONE));
+            int count = records.getInt(address, COUNT);
+            List<ZonedDateTime> passages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long second = epochDay * SECONDS_PER_DAY + records.getInt(address, HEADER_BYTES + 4 * i);
+                passages.add(ZonedDateTime.ofInstant(Instant.ofEpochSecond(second), zone));
+            }
+            return passages;
+        }
+
+        StoredDay read(long key, long address) {
+            int types = records.getInt(address, TYPE_BITS);
+            // Vehicles rarely change type within a day; when they do the day is reported with one of them
+            return new StoredDay(key, registrations.registrationOf((int) (key >>> 32)),
+                    TYPES[Integer.numberOfTrailingZeros(types)], passages(address, (int) key));
+        }
+
+        /**
+         * Copies the live records to new slabs once the old copies and compacted records outweigh them.
+         */
+        void defragmentIfNeeded() {
+            if (garbage < MIN_GARBAGE_TO_DEFRAGMENT || garbage < records.getUsed() - garbage) {
+                return;
+            }
+            OffHeapSlabs defragmented = new OffHeapSlabs(slabSize);
+            for (int slot = 0; slot < days.capacity(); slot++) {
+                if (days.isUsed(slot)) {
+                    long address = days.valueAt(slot);
+                    int bytes = recordBytes(records.getInt(address, CAPACITY));
+                    long moved = defragmented.allocate(bytes);
+                    defragmented.copy(records, address, moved, bytes);
+                    days.setValueAt(slot, moved);
+                }
+            }
+            records = defragmented;
+            garbage = 0;
+        }
+
+        long getSizeInBytes() {
+            return registrations.getSizeInBytes() + days.getSizeInBytes() + dailyTotals.getSizeInBytes()
+                    + records.getCapacity();
+        }
+    }
+
+    private static final class StoredDay {
+        final long key;
+        final String registration;
+        final VehicleType type;
+        final List<ZonedDateTime> passages;
+
+        StoredDay(long key, String registration, VehicleType type, List<ZonedDateTime> passages) {
+            this.key = key;
+            this.registration = registration;
+            this.type = type;
+            this.passages = passages;
+        }
+    }
+}
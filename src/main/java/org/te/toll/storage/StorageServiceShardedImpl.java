@@ -0,0 +1,325 @@
+package org.te.toll.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.storage.cluster.ClusterAdmin;
+import org.te.toll.storage.cluster.HashRing;
+import org.te.toll.storage.cluster.LocalShard;
+import org.te.toll.storage.cluster.RemoteShard;
+import org.te.toll.storage.cluster.Shard;
+import org.te.toll.storage.cluster.ShardMovingException;
+import org.te.toll.storage.cluster.ShardServer;
+import org.te.toll.storage.cluster.WrongShardException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage of a cluster of nodes, each one holding the registrations that a consistent {@link HashRing} assigns to it.
+ * The calls about one registration go to its owner: the local shard when it's this node, otherwise the node's
+ * {@link ShardServer} over the shard protocol. Counts and scans visit every shard, compaction only the local one.
+ * <p>
+ * {@link #addNode} and {@link #removeNode}, exposed under /admin/cluster, first give the new ring to every shard,
+ * which from then on refuse the registrations they lose, then move those registrations, about 1/n of them, to their
+ * new shard. The new owners hold the calls about them off until the move is over, and the routers wait for it, up to
+ * the read timeout, so no fee is priced and no type checked against a partial history. A router that missed the
+ * change is sent the new ring by the first shard refusing one of its calls and retries with it; its counts and scans
+ * follow the ring it knows until then. Membership changes are made one at a time, through one node, and one that
+ * failed midway is finished by requesting it again.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "sharded")
+public class StorageServiceShardedImpl implements StorageService, ClusterAdmin, Closeable {
+    private static final long MOVE_POLL_MILLIS = 10;
+
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    private final ShardServer server;
+    // Node whose shard is held in this JVM, null for a node that only routes
+    private final String self;
+    private final Duration readTimeout;
+    private volatile HashRing ring;
+
+    @Autowired
+    public StorageServiceShardedImpl(StorageProperties properties) throws IOException {
+        StorageProperties.Cluster cluster = properties.getCluster();
+        if (cluster.getNodes().isEmpty()) {
+            throw new IllegalStateException("storage.cluster.nodes must list the nodes of the cluster");
+        }
+        this.ring = new HashRing(cluster.getNodes(), cluster.getVirtualNodes());
+        this.readTimeout = cluster.getReadTimeout();
+        String self = cluster.getSelf();
+        if (self.isEmpty()) {
+            this.self = null;
+            this.server = null;
+        } else {
+            if (!ring.contains(self)) {
+                log.info("{} is not one of storage.cluster.nodes, its shard stays empty until the node is added", self);
+            }
+            LocalShard local = new LocalShard();
+            local.setRing(ring, self);
+            shards.put(self, local);
+            this.self = self;
+            int colon = self.lastIndexOf(':');
+            String host = cluster.getBindAddress().isEmpty() ? self.substring(0, colon) : cluster.getBindAddress();
+            this.server = new ShardServer(local, InetAddress.getByName(host),
+                    Integer.parseInt(self.substring(colon + 1)));
+        }
+    }
+
+    /**
+     * Routes to the shards of other processes only, like the router of the local cluster harness.
+     */
+    public StorageServiceShardedImpl(List<String> nodes, int virtualNodes) {
+        this.ring = new HashRing(nodes, virtualNodes);
+        this.readTimeout = RemoteShard.DEFAULT_READ_TIMEOUT;
+        this.self = null;
+        this.server = null;
+    }
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        route(registration, shard -> {
+            shard.recordPassage(registration, type, dateTime);
+            return null;
+        });
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        route(registration, shard -> {
+            shard.recordPassages(registration, type, dateTimes);
+            return null;
+        });
+    }
+
+    @Override
+    public void recordPassagesOfType(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        long movingSince = 0;
+        while (true) {
+            HashRing current = ring;
+            String owner = current.ownerOf(registration);
+            try {
+                shardOf(owner).recordPassagesOfType(registration, type, dateTimes);
+                return;
+            } catch (WrongShardException e) {
+                catchUp(current, owner, e.getRing());
+            } catch (ShardMovingException e) {
+                movingSince = waitForMove(movingSince, e);
+            }
+        }
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        return route(registration, shard -> shard.getPassages(registration, day));
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        return route(registration, shard -> shard.vehicleTypeOf(registration, dateTime));
+    }
+
+    @Override
+    public long getPassageCount() {
+        long count = 0;
+        for (String node : ring.getNodes()) {
+            count += shardOf(node).getPassageCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        long count = 0;
+        for (String node : ring.getNodes()) {
+            count += shardOf(node).getVehicleDayCount();
+        }
+        return count;
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        forEachVehicleDay(null, consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        for (String node : ring.getNodes()) {
+            shardOf(node).forEachVehicleDay(day, consumer);
+        }
+    }
+
+    /**
+     * Compacts the shard of this node only. Every node runs its own retention, so each shard is compacted once, by
+     * the node holding it; a node that only routes has nothing to compact.
+     */
+    @Override
+    public long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        Shard local = self == null ? null : shards.get(self);
+        return local == null ? 0 : local.compactBefore(cutoff, pricer);
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        return route(registration, shard -> shard.getDailyTotal(registration, day));
+    }
+
+    /**
+     * Every node of the cluster records passages in the shards, so the callers can't keep what they read from them.
+     */
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public synchronized long addNode(String node) {
+        HashRing next = ring.contains(node) ? ring : ring.withNode(node);
+        return rebalance(next, next.withoutNode(node), ring.getNodes());
+    }
+
+    @Override
+    public synchronized long removeNode(String node) {
+        if (ring.getNodes().equals(List.of(node))) {
+            throw new IllegalArgumentException("The last node of the cluster can't be removed");
+        }
+        Set<String> sources = new LinkedHashSet<>(ring.getNodes());
+        sources.add(node);
+        HashRing next = ring.contains(node) ? ring.withoutNode(node) : ring;
+        long moved = rebalance(next, next.withNode(node), sources);
+        Shard removed = node.equals(self) ? null : shards.remove(node);
+        if (removed != null) {
+            removed.close();
+        }
+        return moved;
+    }
+
+    @Override
+    public HashRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        for (Shard shard : shards.values()) {
+            shard.close();
+        }
+    }
+
+    // Every shard refuses the registrations it loses before any of them is exported, so no passage can be recorded on
+    // the old shard between its copy and its removal, and holds the ones it gains off until all of them were moved.
+    // Copies before dropping, so a failed move loses nothing, and the copies replace the vehicle-days, so requesting
+    // it again doesn't double the passages already copied. Previous has the owners before the change, whatever its
+    // version.
+    private long rebalance(HashRing next, HashRing previous, Collection<String> sources) {
+        Set<String> members = new LinkedHashSet<>(sources);
+        members.addAll(next.getNodes());
+        Map<String, Shard> targets = new LinkedHashMap<>();
+        for (String node : members) {
+            // Checks that every shard answers before any of them changes ring
+            Shard shard = shardOf(node);
+            shard.getPassageCount();
+            targets.put(node, shard);
+        }
+        targets.forEach((node, shard) -> shard.beginMove(next, previous, node));
+        adopt(next);
+        long moved = 0;
+        for (String node : sources) {
+            Shard source = shardOf(node);
+            source.exportForeign(next, node,
+                    (registration, type, passages) ->
+                            shardOf(next.ownerOf(registration)).importVehicleDay(registration, type, passages),
+                    (registration, day, total) ->
+                            shardOf(next.ownerOf(registration)).putDailyTotal(registration, day, total));
+            moved += source.removeForeign(next, node);
+        }
+        targets.values().forEach(shard -> shard.finishMove(next));
+        log.info("Moved {} passages to rebalance onto the {} nodes of ring version {}", moved,
+                next.getNodes().size(), next.getVersion());
+        return moved;
+    }
+
+    private <T, E extends Exception> T route(String registration, ShardCall<T, E> call) throws E {
+        long movingSince = 0;
+        while (true) {
+            HashRing current = ring;
+            String owner = current.ownerOf(registration);
+            try {
+                return call.call(shardOf(owner));
+            } catch (WrongShardException e) {
+                catchUp(current, owner, e.getRing());
+            } catch (ShardMovingException e) {
+                movingSince = waitForMove(movingSince, e);
+            }
+        }
+    }
+
+    // Gives a registration moving to its new shard the read timeout to arrive, then fails the call
+    private long waitForMove(long movingSince, ShardMovingException e) {
+        long now = System.nanoTime();
+        if (movingSince == 0) {
+            movingSince = now;
+        } else if (now - movingSince > readTimeout.toNanos()) {
+            throw e;
+        }
+        try {
+            Thread.sleep(MOVE_POLL_MILLIS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        return movingSince;
+    }
+
+    // Follows a shard that knows a later ring, or brings one that missed the latest change up to date
+    private void catchUp(HashRing used, String node, HashRing known) {
+        if (known.getVersion() > used.getVersion()) {
+            adopt(known);
+        } else if (known.getVersion() < used.getVersion()) {
+            shardOf(node).setRing(used, node);
+        } else {
+            throw new IllegalStateException("Shard " + node + " holds another ring of version " + known.getVersion());
+        }
+    }
+
+    private void adopt(HashRing next) {
+        synchronized (shards) {
+            if (next.getVersion() > ring.getVersion()) {
+                ring = next;
+                log.info("Routing with ring version {} of {} nodes", next.getVersion(), next.getNodes().size());
+            }
+        }
+    }
+
+    private Shard shardOf(String node) {
+        return shards.computeIfAbsent(node, key -> new RemoteShard(key, readTimeout));
+    }
+
+    @FunctionalInterface
+    private interface ShardCall<T, E extends Exception> {
+        T call(Shard shard) throws E;
+    }
+}
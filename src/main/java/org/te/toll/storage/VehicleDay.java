@@ -0,0 +1,14 @@
+package org.te.toll.storage;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * Identifies all the passages of one vehicle during one local day.
+ */
+@Value
+public class VehicleDay {
+    String registration;
+    LocalDate day;
+}
@@ -0,0 +1,14 @@
+package org.te.toll.storage;
+
+import org.te.toll.enums.VehicleType;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Receives the stored passages of one vehicle during one day.
+ */
+@FunctionalInterface
+public interface VehicleDayConsumer {
+    void accept(String registration, VehicleType type, List<ZonedDateTime> passages);
+}
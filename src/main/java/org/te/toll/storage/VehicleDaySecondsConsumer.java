@@ -0,0 +1,15 @@
+package org.te.toll.storage;
+
+import org.te.toll.enums.VehicleType;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Receives the stored passages of one vehicle during one day as epoch seconds, without a date-time per passage.
+ * The array is reused for the next vehicle-day, so a consumer keeping the passages copies its first count entries.
+ */
+@FunctionalInterface
+public interface VehicleDaySecondsConsumer {
+    void accept(String registration, VehicleType type, LocalDate day, ZoneId zone, long[] epochSeconds, int count);
+}
@@ -0,0 +1,28 @@
+package org.te.toll.storage.cluster;
+
+/**
+ * Membership changes of a sharded store, made through one of its nodes.
+ */
+public interface ClusterAdmin {
+
+    /**
+     * Adds a node, whose shard must already be served, and moves to it the registrations it now owns. Adding a node
+     * already in the ring finishes a move that failed midway.
+     *
+     * @return The number of passages moved
+     */
+    long addNode(String node);
+
+    /**
+     * Moves the registrations of a node to the ones left, after which the node can be stopped. Removing a node no
+     * longer in the ring finishes a move that failed midway.
+     *
+     * @return The number of passages moved
+     */
+    long removeNode(String node);
+
+    /**
+     * The hash ring this node routes with.
+     */
+    HashRing getRing();
+}
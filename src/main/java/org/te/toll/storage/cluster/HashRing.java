@@ -0,0 +1,115 @@
+package org.te.toll.storage.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Consistent hash ring assigning registrations to the nodes of a cluster. Each node is placed at virtualNodes points
+ * of a 64-bit circle and a registration belongs to the node of the first point at or after its hash, so adding or
+ * removing one of n nodes only moves the registrations of the arcs it gains or loses, about 1/n of them. Immutable.
+ * <p>
+ * Every membership change increments the version of the ring, so the nodes can tell which of two rings is the latest.
+ */
+public final class HashRing {
+    private final List<String> nodes;
+    private final int virtualNodes;
+    private final long version;
+    // Sorted points of the circle and the node owning the arc that ends at each of them
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this(nodes, virtualNodes, 0);
+    }
+
+    public HashRing(Collection<String> nodes, int virtualNodes, long version) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be at least 1, not " + virtualNodes);
+        }
+        Set<String> distinct = new LinkedHashSet<>(nodes);
+        this.nodes = List.copyOf(distinct);
+        this.virtualNodes = virtualNodes;
+        this.version = version;
+        List<Point> circle = new ArrayList<>(distinct.size() * virtualNodes);
+        for (String node : distinct) {
+            for (int v = 0; v < virtualNodes; v++) {
+                circle.add(new Point(hash(node + "#" + v), node));
+            }
+        }
+        // Ties, however unlikely, go to the same node whatever the order the nodes were listed in
+        circle.sort(Comparator.<Point>comparingLong(point -> point.hash).thenComparing(point -> point.node));
+        points = new long[circle.size()];
+        owners = new String[circle.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = circle.get(i).hash;
+            owners[i] = circle.get(i).node;
+        }
+    }
+
+    public String ownerOf(String registration) {
+        int index = Arrays.binarySearch(points, hash(registration));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public HashRing withNode(String node) {
+        List<String> next = new ArrayList<>(nodes);
+        next.add(node);
+        return new HashRing(next, virtualNodes, version + 1);
+    }
+
+    public HashRing withoutNode(String node) {
+        List<String> next = new ArrayList<>(nodes);
+        next.remove(node);
+        return new HashRing(next, virtualNodes, version + 1);
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // 64-bit FNV-1a over the chars, then the murmur3 finalizer so that similar strings land far apart
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static final class Point {
+        final long hash;
+        final String node;
+
+        Point(long hash, String node) {
+            this.hash = hash;
+            this.node = node;
+        }
+    }
+}
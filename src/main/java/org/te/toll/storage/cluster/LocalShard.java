@@ -0,0 +1,245 @@
+package org.te.toll.storage.cluster;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.storage.DailyPricer;
+import org.te.toll.storage.DailyTotalConsumer;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.VehicleDayConsumer;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Shard held in this JVM by a concurrent store, the one a node serves to the others with its {@link ShardServer}.
+ * <p>
+ * Once given a ring, calls about registrations it assigns to another node fail with a {@link WrongShardException}
+ * carrying the ring, so routers that missed a membership change catch up and go to the new owner. They run under the
+ * read lock and a ring change under the write lock, so a passage is either recorded before the change, and exported
+ * with the registration, or refused after it. During a move the registrations the shard gains fail with a
+ * {@link ShardMovingException} until their passages were imported, so their new owner never answers from a partial
+ * history.
+ */
+public class LocalShard implements Shard {
+    private final StorageServiceConcurrentImpl storage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Null until the shard joins a ring, serving every registration
+    private volatile HashRing ring;
+    private volatile String node;
+    // Ring the registrations are moving from, null when no move is under way
+    private volatile HashRing movingFrom;
+
+    public LocalShard() {
+        this(new StorageServiceConcurrentImpl());
+    }
+
+    public LocalShard(StorageServiceConcurrentImpl storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        lock.readLock().lock();
+        try {
+            checkOwner(registration);
+            storage.recordPassage(registration, type, dateTime);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        lock.readLock().lock();
+        try {
+            checkOwner(registration);
+            storage.recordPassages(registration, type, dateTimes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void recordPassagesOfType(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        lock.readLock().lock();
+        try {
+            checkOwner(registration);
+            storage.recordPassagesOfType(registration, type, dateTimes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        lock.readLock().lock();
+        try {
+            checkOwner(registration);
+            return storage.getPassages(registration, day);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        lock.readLock().lock();
+        try {
+            checkOwner(registration);
+            return storage.vehicleTypeOf(registration, dateTime);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getPassageCount() {
+        return storage.getPassageCount();
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        return storage.getVehicleDayCount();
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        storage.forEachVehicleDay(consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        storage.forEachVehicleDay(day, consumer);
+    }
+
+    @Override
+    public long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        return storage.compactBefore(cutoff, pricer);
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        lock.readLock().lock();
+        try {
+            checkOwner(registration);
+            return storage.getDailyTotal(registration, day);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void exportForeign(HashRing ring, String node, VehicleDayConsumer passages, DailyTotalConsumer totals) {
+        storage.forEachVehicleDay((registration, type, dateTimes) -> {
+            if (!ring.ownerOf(registration).equals(node)) {
+                passages.accept(registration, type, dateTimes);
+            }
+        });
+        storage.forEachDailyTotal((registration, day, total) -> {
+            if (!ring.ownerOf(registration).equals(node)) {
+                totals.accept(registration, day, total);
+            }
+        });
+    }
+
+    @Override
+    public long removeForeign(HashRing ring, String node) {
+        return storage.removeIf(registration -> !ring.ownerOf(registration).equals(node));
+    }
+
+    @Override
+    public void setRing(HashRing ring, String node) {
+        lock.writeLock().lock();
+        try {
+            if (this.ring == null || ring.getVersion() > this.ring.getVersion()) {
+                this.ring = ring;
+                this.node = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void beginMove(HashRing ring, HashRing previous, String node) {
+        lock.writeLock().lock();
+        try {
+            if (this.ring == null || ring.getVersion() > this.ring.getVersion()) {
+                this.ring = ring;
+                this.node = node;
+            }
+            if (ring.getVersion() == this.ring.getVersion()) {
+                movingFrom = previous;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void finishMove(HashRing ring) {
+        lock.writeLock().lock();
+        try {
+            if (this.ring != null && ring.getVersion() == this.ring.getVersion()) {
+                movingFrom = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void importVehicleDay(String registration, VehicleType type, List<ZonedDateTime> passages) {
+        lock.readLock().lock();
+        try {
+            checkRing(registration);
+            storage.replacePassages(registration, type, passages);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putDailyTotal(String registration, LocalDate day, int total) {
+        lock.readLock().lock();
+        try {
+            checkRing(registration);
+            storage.putDailyTotal(registration, day, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The latest ring the shard was given, null if none
+     */
+    public HashRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the passages go with the heap
+    }
+
+    private void checkOwner(String registration) {
+        checkRing(registration);
+        HashRing previous = movingFrom;
+        if (previous != null && !previous.ownerOf(registration).equals(node)) {
+            throw new ShardMovingException();
+        }
+    }
+
+    private void checkRing(String registration) {
+        HashRing current = ring;
+        if (current != null && !current.ownerOf(registration).equals(node)) {
+            throw new WrongShardException(current);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package org.te.toll.storage.cluster;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.storage.DailyPricer;
+import org.te.toll.storage.DailyTotalConsumer;
+import org.te.toll.storage.VehicleDayConsumer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.te.toll.storage.cluster.ShardProtocol.*;
+
+/**
+ * Shard of another node, reached over the {@link ShardProtocol}. Every call borrows an idle connection, or opens a
+ * new one, and gives it back once answered, so concurrent callers each get their own connection and the pool grows to
+ * the highest concurrency seen. A connection that failed or was left in the middle of an answer is closed instead.
+ * A shard that doesn't answer within the read timeout is treated as unreachable.
+ */
+public class RemoteShard implements Shard {
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+
+    private final String node;
+    private final InetSocketAddress address;
+    private final int readTimeoutMillis;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * @param node Address of the node, as host:port
+     */
+    public RemoteShard(String node) {
+        this(node, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param node        Address of the node, as host:port
+     * @param readTimeout Longest wait for the next bytes of an answer
+     */
+    public RemoteShard(String node, Duration readTimeout) {
+        int colon = node.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Shard node " + node + " is not a host:port address");
+        }
+        this.node = node;
+        this.address = new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+        this.readTimeoutMillis = Math.toIntExact(readTimeout.toMillis());
+    }
+
+    @Override
+    public void recordPassage(String registration, VehicleType type, ZonedDateTime dateTime) {
+        call((in, out) -> {
+            out.writeByte(RECORD_PASSAGE);
+            out.writeUTF(registration);
+            writeType(out, type);
+            writeDateTime(out, dateTime);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+        call((in, out) -> {
+            out.writeByte(RECORD_PASSAGES);
+            out.writeUTF(registration);
+            writeType(out, type);
+            writePassages(out, dateTimes);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void recordPassagesOfType(String registration, VehicleType type, List<ZonedDateTime> dateTimes)
+            throws MultipleVehicleTypesException, VehicleTypeMismatchException, CompactedDayException {
+        int status = call((in, out) -> {
+            out.writeByte(RECORD_PASSAGES_OF_TYPE);
+            out.writeUTF(registration);
+            writeType(out, type);
+            writePassages(out, dateTimes);
+            out.flush();
+            int answer = in.readUnsignedByte();
+            if (answer != MULTIPLE_VEHICLE_TYPES && answer != VEHICLE_TYPE_MISMATCH && answer != COMPACTED_DAY) {
+                check(answer, in);
+            }
+            return answer;
+        });
+        if (status == MULTIPLE_VEHICLE_TYPES) {
+            throw new MultipleVehicleTypesException();
+        } else if (status == VEHICLE_TYPE_MISMATCH) {
+            throw new VehicleTypeMismatchException();
+        } else if (status == COMPACTED_DAY) {
+            throw new CompactedDayException();
+        }
+    }
+
+    @Override
+    public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+        return call((in, out) -> {
+            out.writeByte(GET_PASSAGES);
+            out.writeUTF(registration);
+            writeDateTime(out, day);
+            answer(in, out);
+            return readPassages(in);
+        });
+    }
+
+    @Override
+    public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+        // Answers the type ordinal, -1 for no passage that day, -2 for several types
+        int answer = call((in, out) -> {
+            out.writeByte(VEHICLE_TYPE_OF);
+            out.writeUTF(registration);
+            writeDateTime(out, dateTime);
+            out.flush();
+            int status = in.readUnsignedByte();
+            if (status == MULTIPLE_VEHICLE_TYPES) {
+                return -2;
+            }
+            check(status, in);
+            VehicleType type = readType(in);
+            return type == null ? -1 : type.ordinal();
+        });
+        if (answer == -2) {
+            throw new MultipleVehicleTypesException();
+        }
+        return answer < 0 ? null : VehicleType.values()[answer];
+    }
+
+    @Override
+    public long getPassageCount() {
+        return count(PASSAGE_COUNT);
+    }
+
+    @Override
+    public long getVehicleDayCount() {
+        return count(VEHICLE_DAY_COUNT);
+    }
+
+    @Override
+    public void forEachVehicleDay(VehicleDayConsumer consumer) {
+        forEachVehicleDay(null, consumer);
+    }
+
+    @Override
+    public void forEachVehicleDay(LocalDate day, VehicleDayConsumer consumer) {
+        call((in, out) -> {
+            out.writeByte(FOR_EACH_VEHICLE_DAY);
+            writeDay(out, day);
+            readFrames(in, out, consumer, null);
+            return null;
+        });
+    }
+
+    @Override
+    public long compactBefore(LocalDate cutoff, DailyPricer pricer) {
+        return call((in, out) -> {
+            out.writeByte(COMPACT_BEFORE);
+            out.writeLong(cutoff.toEpochDay());
+            out.flush();
+            int status;
+            while ((status = in.readUnsignedByte()) == PRICE_FRAME) {
+                String registration = in.readUTF();
+                VehicleType type = readType(in);
+                out.writeInt(pricer.price(registration, type, readPassages(in)));
+                out.flush();
+            }
+            check(status, in);
+            return in.readLong();
+        });
+    }
+
+    @Override
+    public Integer getDailyTotal(String registration, LocalDate day) {
+        return call((in, out) -> {
+            out.writeByte(DAILY_TOTAL);
+            out.writeUTF(registration);
+            writeDay(out, day);
+            answer(in, out);
+            boolean compacted = in.readBoolean();
+            int total = in.readInt();
+            return compacted ? total : null;
+        });
+    }
+
+    @Override
+    public void exportForeign(HashRing ring, String node, VehicleDayConsumer passages, DailyTotalConsumer totals) {
+        call((in, out) -> {
+            out.writeByte(EXPORT_FOREIGN);
+            out.writeUTF(node);
+            writeRing(out, ring);
+            readFrames(in, out, passages, totals);
+            return null;
+        });
+    }
+
+    @Override
+    public long removeForeign(HashRing ring, String node) {
+        return call((in, out) -> {
+            out.writeByte(REMOVE_FOREIGN);
+            out.writeUTF(node);
+            writeRing(out, ring);
+            answer(in, out);
+            return in.readLong();
+        });
+    }
+
+    @Override
+    public void setRing(HashRing ring, String node) {
+        call((in, out) -> {
+            out.writeByte(SET_RING);
+            out.writeUTF(node);
+            writeRing(out, ring);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void beginMove(HashRing ring, HashRing previous, String node) {
+        call((in, out) -> {
+            out.writeByte(BEGIN_MOVE);
+            out.writeUTF(node);
+            writeRing(out, ring);
+            writeRing(out, previous);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void finishMove(HashRing ring) {
+        call((in, out) -> {
+            out.writeByte(FINISH_MOVE);
+            writeRing(out, ring);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void importVehicleDay(String registration, VehicleType type, List<ZonedDateTime> passages) {
+        call((in, out) -> {
+            out.writeByte(IMPORT_VEHICLE_DAY);
+            out.writeUTF(registration);
+            writeType(out, type);
+            writePassages(out, passages);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void putDailyTotal(String registration, LocalDate day, int total) {
+        call((in, out) -> {
+            out.writeByte(PUT_DAILY_TOTAL);
+            out.writeUTF(registration);
+            writeDay(out, day);
+            out.writeInt(total);
+            answer(in, out);
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return node;
+    }
+
+    private long count(int operation) {
+        return call((in, out) -> {
+            out.writeByte(operation);
+            answer(in, out);
+            return in.readLong();
+        });
+    }
+
+    private void readFrames(DataInputStream in, DataOutputStream out, VehicleDayConsumer passages,
+                            DailyTotalConsumer totals) throws IOException {
+        out.flush();
+        int status;
+        while ((status = in.readUnsignedByte()) == VEHICLE_DAY_FRAME || status == DAILY_TOTAL_FRAME) {
+            String registration = in.readUTF();
+            if (status == VEHICLE_DAY_FRAME) {
+                VehicleType type = readType(in);
+                passages.accept(registration, type, readPassages(in));
+            } else {
+                LocalDate day = readDay(in);
+                totals.accept(registration, day, in.readInt());
+            }
+        }
+        check(status, in);
+    }
+
+    // Sends the request and reads the status of its answer
+    private void answer(DataInputStream in, DataOutputStream out) throws IOException {
+        out.flush();
+        check(in.readUnsignedByte(), in);
+    }
+
+    private void check(int status, DataInputStream in) throws IOException {
+        if (status == WRONG_SHARD) {
+            throw new WrongShardException(readRing(in));
+        }
+        if (status == SHARD_MOVING) {
+            throw new ShardMovingException();
+        }
+        if (status == FAILED) {
+            throw new IllegalStateException("Shard " + node + " failed: " + in.readUTF());
+        }
+        if (status != OK) {
+            throw new IOException("Unexpected answer " + status + " from shard " + node);
+        }
+    }
+
+    private <T> T call(Exchange<T> exchange) {
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = new Connection(address, readTimeoutMillis);
+            }
+            T result = exchange.run(connection.in, connection.out);
+            release(connection);
+            return result;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw new UncheckedIOException("Shard " + node + " is unreachable", e);
+        } catch (WrongShardException | ShardMovingException e) {
+            // A whole answer, the connection can serve the next call
+            release(connection);
+            throw e;
+        } catch (RuntimeException e) {
+            // The answer may not have been read to its end
+            if (connection != null) {
+                connection.close();
+            }
+            throw e;
+        }
+    }
+
+    private void release(Connection connection) {
+        if (closed) {
+            connection.close();
+        } else {
+            idle.offer(connection);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Exchange<T> {
+        T run(DataInputStream in, DataOutputStream out) throws IOException;
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(InetSocketAddress address, int readTimeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(readTimeoutMillis);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with a broken connection
+            }
+        }
+    }
+}
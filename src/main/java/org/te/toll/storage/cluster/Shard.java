@@ -0,0 +1,65 @@
+package org.te.toll.storage.cluster;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.DailyTotalConsumer;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.VehicleDayConsumer;
+
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * The registrations of a sharded store held by one node, either in this JVM or reached over the shard protocol.
+ * Besides the storage calls it lets the registrations that changed owner be moved to their new shard.
+ */
+public interface Shard extends StorageService, Closeable {
+
+    /**
+     * Hands over the passages and daily totals of the registrations that the ring doesn't assign to the node, one
+     * vehicle-day at a time. Days with several vehicle types are handed over with the first of them, like compaction
+     * does.
+     */
+    void exportForeign(HashRing ring, String node, VehicleDayConsumer passages, DailyTotalConsumer totals);
+
+    /**
+     * Drops the passages and daily totals of the registrations that the ring doesn't assign to the node.
+     *
+     * @return The number of passages dropped
+     */
+    long removeForeign(HashRing ring, String node);
+
+    /**
+     * Makes the shard serve only the registrations that the ring assigns to the node, unless it already knows a later
+     * ring. Returns once the calls about the registrations it stops serving are over, so none of them records
+     * anything after they are exported.
+     */
+    void setRing(HashRing ring, String node);
+
+    /**
+     * Same as {@link #setRing}, and until {@link #finishMove} the calls about the registrations the node gains from
+     * the previous ring fail with a {@link ShardMovingException}, so none of them is read or recorded before its
+     * history arrived. Given the ring it already knows, as when a failed move is requested again, it fences again.
+     */
+    void beginMove(HashRing ring, HashRing previous, String node);
+
+    /**
+     * Serves the registrations fenced by {@link #beginMove} with the ring again, once they were moved.
+     */
+    void finishMove(HashRing ring);
+
+    /**
+     * Replaces the passages of a vehicle-day moving to this shard, allowed while it is fenced. A move requested again
+     * after failing midway hands the same day over once more, and it replaces the first copy instead of adding to it.
+     */
+    void importVehicleDay(String registration, VehicleType type, List<ZonedDateTime> passages);
+
+    /**
+     * Sets the daily total of a compacted day of a vehicle moving to this shard, allowed while it is fenced.
+     */
+    void putDailyTotal(String registration, LocalDate day, int total);
+
+    @Override
+    void close();
+}
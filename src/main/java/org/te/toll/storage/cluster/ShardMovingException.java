@@ -0,0 +1,11 @@
+package org.te.toll.storage.cluster;
+
+/**
+ * The shard was asked about a registration it is gaining in a membership change, before its passages arrived.
+ */
+public class ShardMovingException extends RuntimeException {
+
+    public ShardMovingException() {
+        super("The registration is still moving to this shard");
+    }
+}
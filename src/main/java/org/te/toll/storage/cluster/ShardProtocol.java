@@ -0,0 +1,136 @@
+package org.te.toll.storage.cluster;
+
+import org.te.toll.enums.VehicleType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol between a {@link RemoteShard} and a {@link ShardServer}. A request is an operation byte followed by
+ * its arguments, the answer a status byte followed by the result. Scans answer with one VEHICLE_DAY or DAILY_TOTAL
+ * frame per entry before OK, compaction asks the caller to price each day with a PRICE frame answered by an int.
+ * A call about a registration the shard doesn't own answers WRONG_SHARD followed by the ring the shard knows, one
+ * about a registration still moving to it SHARD_MOVING.
+ * <p>
+ * Strings are modified UTF-8, a passage is its epoch second, nano and, when it differs from the previous passage of
+ * the list, its zone id.
+ */
+final class ShardProtocol {
+    static final int RECORD_PASSAGE = 1;
+    static final int RECORD_PASSAGES = 2;
+    static final int GET_PASSAGES = 3;
+    static final int VEHICLE_TYPE_OF = 4;
+    static final int PASSAGE_COUNT = 5;
+    static final int VEHICLE_DAY_COUNT = 6;
+    static final int FOR_EACH_VEHICLE_DAY = 7;
+    static final int COMPACT_BEFORE = 8;
+    static final int DAILY_TOTAL = 9;
+    static final int EXPORT_FOREIGN = 10;
+    static final int REMOVE_FOREIGN = 11;
+    static final int PUT_DAILY_TOTAL = 12;
+    static final int RECORD_PASSAGES_OF_TYPE = 13;
+    static final int SET_RING = 14;
+    static final int BEGIN_MOVE = 15;
+    static final int FINISH_MOVE = 16;
+    static final int IMPORT_VEHICLE_DAY = 17;
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int MULTIPLE_VEHICLE_TYPES = 2;
+    static final int VEHICLE_DAY_FRAME = 3;
+    static final int DAILY_TOTAL_FRAME = 4;
+    static final int PRICE_FRAME = 5;
+    static final int VEHICLE_TYPE_MISMATCH = 6;
+    static final int COMPACTED_DAY = 7;
+    static final int WRONG_SHARD = 8;
+    static final int SHARD_MOVING = 9;
+
+    private static final VehicleType[] TYPES = VehicleType.values();
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    private ShardProtocol() {
+    }
+
+    static void writeType(DataOutputStream out, VehicleType type) throws IOException {
+        out.writeByte(type == null ? -1 : type.ordinal());
+    }
+
+    static VehicleType readType(DataInputStream in) throws IOException {
+        int ordinal = in.readByte();
+        return ordinal < 0 ? null : TYPES[ordinal];
+    }
+
+    static void writeDay(DataOutputStream out, LocalDate day) throws IOException {
+        out.writeLong(day == null ? NO_DAY : day.toEpochDay());
+    }
+
+    static LocalDate readDay(DataInputStream in) throws IOException {
+        long epochDay = in.readLong();
+        return epochDay == NO_DAY ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    static void writeDateTime(DataOutputStream out, ZonedDateTime dateTime) throws IOException {
+        writePassages(out, List.of(dateTime));
+    }
+
+    static ZonedDateTime readDateTime(DataInputStream in) throws IOException {
+        return readPassages(in).get(0);
+    }
+
+    static void writePassages(DataOutputStream out, List<ZonedDateTime> passages) throws IOException {
+        out.writeInt(passages.size());
+        ZoneId zone = null;
+        for (ZonedDateTime passage : passages) {
+            out.writeLong(passage.toEpochSecond());
+            out.writeInt(passage.getNano());
+            boolean zoneChanged = !passage.getZone().equals(zone);
+            out.writeBoolean(zoneChanged);
+            if (zoneChanged) {
+                zone = passage.getZone();
+                out.writeUTF(zone.getId());
+            }
+        }
+    }
+
+    static List<ZonedDateTime> readPassages(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<ZonedDateTime> passages = new ArrayList<>(size);
+        ZoneId zone = null;
+        for (int i = 0; i < size; i++) {
+            long epochSecond = in.readLong();
+            int nano = in.readInt();
+            if (in.readBoolean()) {
+                zone = ZoneId.of(in.readUTF());
+            }
+            passages.add(ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano), zone));
+        }
+        return passages;
+    }
+
+    static void writeRing(DataOutputStream out, HashRing ring) throws IOException {
+        out.writeLong(ring.getVersion());
+        out.writeInt(ring.getVirtualNodes());
+        out.writeInt(ring.getNodes().size());
+        for (String member : ring.getNodes()) {
+            out.writeUTF(member);
+        }
+    }
+
+    static HashRing readRing(DataInputStream in) throws IOException {
+        long version = in.readLong();
+        int virtualNodes = in.readInt();
+        int size = in.readInt();
+        List<String> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nodes.add(in.readUTF());
+        }
+        return new HashRing(nodes, virtualNodes, version);
+    }
+}
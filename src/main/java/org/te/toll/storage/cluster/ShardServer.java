@@ -0,0 +1,287 @@
+package org.te.toll.storage.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.te.toll.storage.cluster.ShardProtocol.*;
+
+/**
+ * Serves a shard to the other nodes of the cluster over the {@link ShardProtocol}. Each connection is handled by its
+ * own thread, which answers its requests one after the other; callers keep several connections open to send
+ * requests in parallel.
+ * <p>
+ * The protocol has no authentication: the server listens on one configured address, which must only be reachable
+ * from the other nodes of the cluster.
+ */
+@Slf4j
+public class ShardServer implements Closeable {
+    private final Shard shard;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService handlers;
+    private volatile boolean closed;
+
+    /**
+     * @param address Local address to listen on
+     * @param port    Port to listen on, 0 picks a free one
+     */
+    public ShardServer(Shard shard, InetAddress address, int port) throws IOException {
+        this.shard = shard;
+        this.serverSocket = new ServerSocket(port, 0, address);
+        AtomicInteger handlerCount = new AtomicInteger();
+        this.handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-" + getPort() + "-connection-" + handlerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::accept, "shard-" + getPort() + "-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Serving shard on {}:{}", address.getHostAddress(), getPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+        handlers.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                handlers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Failed to accept a shard connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            int operation;
+            while ((operation = in.read()) >= 0) {
+                handle(operation, in, out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("Shard connection from {} dropped", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    // The arguments are read before calling the shard, so a failing call still leaves the stream at the next request
+    private void handle(int operation, DataInputStream in, DataOutputStream out) throws IOException {
+        try {
+            switch (operation) {
+                case RECORD_PASSAGE:
+                    shard.recordPassage(in.readUTF(), readType(in), readDateTime(in));
+                    out.writeByte(OK);
+                    break;
+                case RECORD_PASSAGES:
+                    shard.recordPassages(in.readUTF(), readType(in), readPassages(in));
+                    out.writeByte(OK);
+                    break;
+                case RECORD_PASSAGES_OF_TYPE:
+                    recordPassagesOfType(in.readUTF(), in, out);
+                    break;
+                case GET_PASSAGES: {
+                    List<ZonedDateTime> passages = shard.getPassages(in.readUTF(), readDateTime(in));
+                    out.writeByte(OK);
+                    writePassages(out, passages);
+                    break;
+                }
+                case VEHICLE_TYPE_OF:
+                    vehicleTypeOf(in.readUTF(), in, out);
+                    break;
+                case PASSAGE_COUNT:
+                    writeCount(out, shard.getPassageCount());
+                    break;
+                case VEHICLE_DAY_COUNT:
+                    writeCount(out, shard.getVehicleDayCount());
+                    break;
+                case FOR_EACH_VEHICLE_DAY:
+                    shard.forEachVehicleDay(readDay(in), (registration, type, passages) ->
+                            writeVehicleDay(out, registration, type, passages));
+                    out.writeByte(OK);
+                    break;
+                case COMPACT_BEFORE:
+                    compactBefore(LocalDate.ofEpochDay(in.readLong()), in, out);
+                    break;
+                case DAILY_TOTAL: {
+                    Integer total = shard.getDailyTotal(in.readUTF(), readDay(in));
+                    out.writeByte(OK);
+                    out.writeBoolean(total != null);
+                    out.writeInt(total == null ? 0 : total);
+                    break;
+                }
+                case EXPORT_FOREIGN: {
+                    String node = in.readUTF();
+                    shard.exportForeign(readRing(in), node,
+                            (registration, type, passages) -> writeVehicleDay(out, registration, type, passages),
+                            (registration, day, total) -> writeDailyTotal(out, registration, day, total));
+                    out.writeByte(OK);
+                    break;
+                }
+                case REMOVE_FOREIGN: {
+                    String node = in.readUTF();
+                    writeCount(out, shard.removeForeign(readRing(in), node));
+                    break;
+                }
+                case SET_RING: {
+                    String node = in.readUTF();
+                    shard.setRing(readRing(in), node);
+                    out.writeByte(OK);
+                    break;
+                }
+                case BEGIN_MOVE: {
+                    String node = in.readUTF();
+                    HashRing ring = readRing(in);
+                    shard.beginMove(ring, readRing(in), node);
+                    out.writeByte(OK);
+                    break;
+                }
+                case FINISH_MOVE:
+                    shard.finishMove(readRing(in));
+                    out.writeByte(OK);
+                    break;
+                case IMPORT_VEHICLE_DAY:
+                    shard.importVehicleDay(in.readUTF(), readType(in), readPassages(in));
+                    out.writeByte(OK);
+                    break;
+                case PUT_DAILY_TOTAL:
+                    shard.putDailyTotal(in.readUTF(), readDay(in), in.readInt());
+                    out.writeByte(OK);
+                    break;
+                default:
+                    throw new IOException("Unknown shard operation " + operation);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (WrongShardException e) {
+            out.writeByte(WRONG_SHARD);
+            writeRing(out, e.getRing());
+        } catch (ShardMovingException e) {
+            out.writeByte(SHARD_MOVING);
+        } catch (RuntimeException e) {
+            log.warn("Shard operation {} failed", operation, e);
+            out.writeByte(FAILED);
+            out.writeUTF(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void recordPassagesOfType(String registration, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        VehicleType type = readType(in);
+        List<ZonedDateTime> dateTimes = readPassages(in);
+        try {
+            shard.recordPassagesOfType(registration, type, dateTimes);
+        } catch (MultipleVehicleTypesException e) {
+            out.writeByte(MULTIPLE_VEHICLE_TYPES);
+            return;
+        } catch (VehicleTypeMismatchException e) {
+            out.writeByte(VEHICLE_TYPE_MISMATCH);
+            return;
+        } catch (CompactedDayException e) {
+            out.writeByte(COMPACTED_DAY);
+            return;
+        }
+        out.writeByte(OK);
+    }
+
+    private void vehicleTypeOf(String registration, DataInputStream in, DataOutputStream out) throws IOException {
+        VehicleType type;
+        try {
+            type = shard.vehicleTypeOf(registration, readDateTime(in));
+        } catch (MultipleVehicleTypesException e) {
+            out.writeByte(MULTIPLE_VEHICLE_TYPES);
+            return;
+        }
+        out.writeByte(OK);
+        writeType(out, type);
+    }
+
+    // The caller prices every compacted day, so the daily totals follow the tariffs of the node running the retention
+    private void compactBefore(LocalDate cutoff, DataInputStream in, DataOutputStream out) throws IOException {
+        long evicted = shard.compactBefore(cutoff, (registration, type, passages) -> {
+            try {
+                out.writeByte(PRICE_FRAME);
+                out.writeUTF(registration);
+                writeType(out, type);
+                writePassages(out, passages);
+                out.flush();
+                return in.readInt();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writeCount(out, evicted);
+    }
+
+    private static void writeVehicleDay(DataOutputStream out, String registration, VehicleType type,
+                                        List<ZonedDateTime> passages) {
+        try {
+            out.writeByte(VEHICLE_DAY_FRAME);
+            out.writeUTF(registration);
+            writeType(out, type);
+            writePassages(out, passages);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeDailyTotal(DataOutputStream out, String registration, LocalDate day, int total) {
+        try {
+            out.writeByte(DAILY_TOTAL_FRAME);
+            out.writeUTF(registration);
+            writeDay(out, day);
+            out.writeInt(total);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeCount(DataOutputStream out, long count) throws IOException {
+        out.writeByte(OK);
+        out.writeLong(count);
+    }
+}
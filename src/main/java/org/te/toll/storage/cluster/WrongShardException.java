@@ -0,0 +1,17 @@
+package org.te.toll.storage.cluster;
+
+/**
+ * The shard was asked about a registration that the latest ring it knows assigns to another node.
+ */
+public class WrongShardException extends RuntimeException {
+    private final HashRing ring;
+
+    public WrongShardException(HashRing ring) {
+        super("Not the owner under ring version " + ring.getVersion());
+        this.ring = ring;
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+}
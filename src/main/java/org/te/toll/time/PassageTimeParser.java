@@ -0,0 +1,152 @@
+package org.te.toll.time;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.te.toll.config.TollConfiguration;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parses passage times in the fixed layout {@code yyyy-MM-dd HH:mm:ss} straight from the characters, without a
+ * {@link java.time.format.DateTimeFormatter} and without exceptions: bad input returns {@link #INVALID}.
+ * <p>
+ * Local times are resolved in the toll zone like {@link ZonedDateTime#of}: a time in a DST gap moves forward by the
+ * length of the gap, a time in an overlap takes the earlier offset. The offset of the last parsed day is cached, so
+ * only days with a transition go through the zone rules for every passage.
+ */
+@Component
+public class PassageTimeParser {
+    public static final long INVALID = Long.MIN_VALUE;
+    private static final int LENGTH = "yyyy-MM-dd HH:mm:ss".length();
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+    // Marks a cached day with an offset transition
+    private static final int TRANSITION = Integer.MIN_VALUE;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private volatile DayOffset lastDay = new DayOffset(Long.MIN_VALUE, TRANSITION);
+
+    @Autowired
+    public PassageTimeParser(TollConfiguration config) {
+        this(config.getTollZone());
+    }
+
+    public PassageTimeParser(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @return The passage time as seconds since the epoch, or {@link #INVALID} if the text is null, doesn't follow
+     * the layout or is not a valid date and time
+     */
+    public long parse(CharSequence text) {
+        if (text == null || text.length() != LENGTH
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return INVALID;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID;
+        }
+        long epochDay = epochDay(year, month, day);
+        long localSecond = epochDay * SECONDS_PER_DAY + hour * 3_600 + minute * 60 + second;
+        int offset = offsetOf(epochDay);
+        if (offset == TRANSITION) {
+            return LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC).atZone(zone).toEpochSecond();
+        }
+        return localSecond - offset;
+    }
+
+    /**
+     * @return {@code parse(text)} as a date-time in the toll zone, or null if the text is invalid
+     */
+    public ZonedDateTime parseDateTime(CharSequence text) {
+        long epochSecond = parse(text);
+        return epochSecond == INVALID ? null : toDateTime(epochSecond);
+    }
+
+    public ZonedDateTime toDateTime(long epochSecond) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone);
+    }
+
+    private int offsetOf(long epochDay) {
+        DayOffset cached = lastDay;
+        if (cached.epochDay == epochDay) {
+            return cached.offsetSeconds;
+        }
+        LocalDateTime start = LocalDateTime.ofEpochSecond(epochDay * SECONDS_PER_DAY, 0, ZoneOffset.UTC);
+        ZoneOffset first = rules.getOffset(start);
+        ZoneOffset last = rules.getOffset(start.plusSeconds(SECONDS_PER_DAY - 1));
+        int offset = first.equals(last) ? first.getTotalSeconds() : TRANSITION;
+        lastDay = new DayOffset(epochDay, offset);
+        return offset;
+    }
+
+    // Returns a negative number if any of the characters is not a digit
+    private static int digits(CharSequence text, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Same algorithm as LocalDate.toEpochDay, for years from 0 to 9999
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (year % 4 != 0 || (year % 100 == 0 && year % 400 != 0)) {
+                total--;
+            }
+        }
+        return total - 719_528;
+    }
+
+    private static final class DayOffset {
+        final long epochDay;
+        final int offsetSeconds;
+
+        DayOffset(long epochDay, int offsetSeconds) {
+            this.epochDay = epochDay;
+            this.offsetSeconds = offsetSeconds;
+        }
+    }
+}
@@ -2,12 +2,26 @@ package org.te.toll;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.model.PassageRequest;
+
+import java.util.List;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "tariff-zones.airport.max-daily-fare=30")
+@AutoConfigureMetrics
 class TollFeeCalculatorApplicationTests {
 
 	@LocalServerPort
@@ -82,4 +96,133 @@ class TollFeeCalculatorApplicationTests {
 				String.class)).contains("0");
 	}
 
+	@Test
+	public void batchOfPassages_OneDailyFeeIsReturnedPerVehicleAndDay() {
+		List<PassageRequest> passages = List.of(
+				new PassageRequest(VehicleType.Car, "ULJ991", "2022-01-11 07:59:00"),
+				new PassageRequest(VehicleType.Car, "ULJ992", "2022-01-11 06:10:00"),
+				new PassageRequest(VehicleType.Car, "ULJ991", "2022-01-11 17:59:00"),
+				new PassageRequest(VehicleType.Car, "ULJ991", "2022-01-12 07:59:00"),
+				new PassageRequest(VehicleType.Tractor, "ULJ992", "2022-01-11 06:20:00"),
+				new PassageRequest(VehicleType.Car, "ULJ993", "2022-01-11 25:00:00"));
+		String response = this.restTemplate.postForObject("http://localhost:" + port + "/toll/record-passages",
+				passages, String.class);
+		String[] lines = response.split("\n");
+		assertThat(lines).hasSize(4);
+		assertThat(lines[0]).contains("ULJ993").contains("Wrong date format");
+		assertThat(lines[1]).contains("ULJ991").contains("2022-01-11").contains("\"fee\":38");
+		assertThat(lines[2]).contains("ULJ992").contains("Vehicle has multiple types");
+		assertThat(lines[3]).contains("ULJ991").contains("2022-01-12").contains("\"fee\":22");
+	}
+
+	@Test
+	public void batchOfPassagesAsNdjson_DailyFeesIncludePreviousPassages() {
+		String params = "Car/ULJ994/2022-01-11 07:59:00";
+		assertThat(this.restTemplate.getForObject("http://localhost:" + port + "/toll/get-fee/" + params,
+				String.class)).contains("22");
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+		String body = "{\"vehicleType\":\"Car\",\"registration\":\"ULJ994\",\"date\":\"2022-01-11 17:59:00\"}\n"
+				+ "{\"vehicleType\":\"Car\",\"registration\":\"ULJ994\",\"date\":\"2022-01-11 18:20:00\"}\n";
+		String response = this.restTemplate.postForObject("http://localhost:" + port + "/toll/record-passages",
+				new HttpEntity<>(body, headers), String.class);
+		assertThat(response.trim()).contains("ULJ994").contains("\"fee\":38").doesNotContain("\n");
+	}
+
+	@Test
+	public void ndjsonPassagesBeforeAMalformedLine_AreRecorded() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+		String body = "{\"vehicleType\":\"Car\",\"registration\":\"ULJ993\",\"date\":\"2022-01-11 07:59:00\"}\n"
+				+ "{\"vehicleType\":\"Car\",\"registration\n";
+		String response = this.restTemplate.postForObject("http://localhost:" + port + "/toll/record-passages",
+				new HttpEntity<>(body, headers), String.class);
+		String[] lines = response.trim().split("\n");
+		assertThat(lines).hasSize(2);
+		assertThat(lines[0]).contains("ULJ993").contains("\"fee\":22");
+		assertThat(lines[1]).contains("Wrong passage format");
+		assertThat(this.restTemplate.getForObject("http://localhost:" + port + "/toll/get-fee/Car/ULJ993/2022-01-11 08:29:00",
+				String.class)).contains("22");
+
+		ResponseEntity<String> malformed = this.restTemplate.postForEntity("http://localhost:" + port
+				+ "/toll/record-passages", new HttpEntity<>("{\"vehicleType\n", headers), String.class);
+		assertThat(malformed.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(malformed.getBody()).isEqualTo("Wrong passage format");
+	}
+
+	@Test
+	public void hotPathMetricsArePublishedForPrometheus() {
+		this.restTemplate.getForObject("http://localhost:" + port + "/toll/get-fee/Car/ULJ995/2022-01-11 07:59:00",
+				String.class);
+		String metrics = this.restTemplate.getForObject("http://localhost:" + port + "/actuator/prometheus",
+				String.class);
+		assertThat(metrics).contains("toll_request_date_parsing_seconds_count{outcome=\"valid\",}");
+		assertThat(metrics).contains("toll_storage_seconds_count{operation=\"vehicleTypeOf\",}");
+		assertThat(metrics).contains("toll_tracker_fee_seconds_count{outcome=\"clusters\",}");
+		assertThat(metrics).contains("toll_tracker_vehicle_day_passages_bucket{le=\"1.0\",}");
+		assertThat(metrics).contains("toll_storage_passages ");
+	}
+
+	@Test
+	public void feesOverMonthsAndYears_AreTheSumOfDailyFees() {
+		String url = "http://localhost:" + port + "/toll/";
+		this.restTemplate.getForObject(url + "get-fee/Car/ULJ996/2022-01-11 07:59:00", String.class);
+		this.restTemplate.getForObject(url + "get-fee/Car/ULJ996/2022-01-12 07:59:00", String.class);
+		this.restTemplate.getForObject(url + "get-fee/Car/ULJ996/2022-02-01 07:59:00", String.class);
+		assertThat(this.restTemplate.getForObject(url + "get-monthly-fee/ULJ996/2022-01", String.class)).isEqualTo("44");
+		assertThat(this.restTemplate.getForObject(url + "get-yearly-fee/ULJ996/2022", String.class)).isEqualTo("66");
+		assertThat(this.restTemplate.getForObject(url + "get-fees/ULJ996/2022-01-12/2022-02-01", String.class))
+				.isEqualTo("44");
+		assertThat(this.restTemplate.getForObject(url + "get-fees/ULJ996/2022-02-01/2022-01-12", String.class))
+				.isEqualTo("The first day is after the last day");
+	}
+
+	@Test
+	public void passagesInAnotherTariffZone_ArePricedAndSummedUpApart() {
+		String url = "http://localhost:" + port + "/toll/";
+		assertThat(this.restTemplate.getForObject(url + "get-fee/Car/ULJ997/2022-01-11 07:59:00?zone=airport",
+				String.class)).isEqualTo("22");
+		assertThat(this.restTemplate.getForObject(url + "get-fee/Car/ULJ997/2022-01-11 15:59:00?zone=airport",
+				String.class)).isEqualTo("30");
+		assertThat(this.restTemplate.getForObject(url + "get-fee/Car/ULJ997/2022-01-11 15:59:00",
+				String.class)).isEqualTo("22");
+		assertThat(this.restTemplate.getForObject(url + "get-monthly-fee/ULJ997/2022-01?zone=airport",
+				String.class)).isEqualTo("30");
+		assertThat(this.restTemplate.getForObject(url + "get-monthly-fee/ULJ997/2022-01",
+				String.class)).isEqualTo("22");
+		assertThat(this.restTemplate.getForObject(url + "get-fee/Car/ULJ997/2022-01-11 15:59:00?zone=moon",
+				String.class)).isEqualTo("Unknown tariff zone");
+	}
+
+	@Test
+	public void passagesFedToThePipeline_ReachTheDailyFees() throws InterruptedException {
+		String url = "http://localhost:" + port + "/toll/";
+		List<PassageRequest> passages = List.of(
+				new PassageRequest(VehicleType.Car, "ULJ998", "2022-01-11 07:59:00"),
+				new PassageRequest(VehicleType.Car, "ULJ998", "2022-01-11 17:59:00"),
+				new PassageRequest(VehicleType.Car, "ULJ998", "2022-01-11 25:00:00"));
+		assertThat(this.restTemplate.postForObject(url + "feed", passages, String.class)).isEqualTo("3");
+		String fee = null;
+		for (int attempt = 0; attempt < 100 && !"38".equals(fee); attempt++) {
+			Thread.sleep(50);
+			fee = this.restTemplate.getForObject(url + "get-fees/ULJ998/2022-01-11/2022-01-11", String.class);
+		}
+		assertThat(fee).isEqualTo("38");
+	}
+
+	@Test
+	public void tariffReplay_ComparesTheRevenueOfACandidateWithTheCurrentTariffs() {
+		String url = "http://localhost:" + port + "/";
+		assertThat(this.restTemplate.getForObject(url + "toll/get-fee/Car/ULJ999/2022-03-15 07:59:00",
+				String.class)).isEqualTo("22");
+		assertThat(this.restTemplate.getForObject(url + "toll/get-fee/Car/ULJ999/2022-03-15 07:59:00?zone=airport",
+				String.class)).isEqualTo("22");
+		Map<String, Object> request = Map.of("from", "2022-03-15", "to", "2022-03-15",
+				"candidates", Map.of("airport-cap", Map.of("zone", "airport", "maxDailyFare", 10)));
+		String report = this.restTemplate.postForObject(url + "admin/tariffs/replay", request, String.class);
+		assertThat(report).contains("\"vehicleDays\":2,", "\"name\":\"current\",\"revenue\":44,",
+				"\"name\":\"airport-cap\",\"revenue\":32,\"revenueChange\":-12,");
+		assertThat(this.restTemplate.postForObject(url + "admin/tariffs/replay", Map.of("from", "2022-03-15"),
+				String.class)).isEqualTo("The period to replay needs both from and to");
+	}
 }
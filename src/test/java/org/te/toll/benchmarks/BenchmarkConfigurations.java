@@ -0,0 +1,42 @@
+package org.te.toll.benchmarks;
+
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+
+import java.time.DayOfWeek;
+import java.time.Month;
+import java.util.List;
+
+/**
+ * The tariff of application.yml, built without starting Spring.
+ */
+final class BenchmarkConfigurations {
+    static final List<String> EXEMPT_DATES = List.of("2022-01-05", "2022-01-06", "2022-04-14", "2022-04-15",
+            "2022-04-18", "2022-05-25", "2022-05-26", "2022-06-06", "2022-06-24", "2022-11-04", "2026-12-26");
+
+    private BenchmarkConfigurations() {
+    }
+
+    static TollConfiguration defaultConfiguration() {
+        TollConfiguration config = new TollConfiguration();
+        config.setExemptMonths(List.of(Month.JULY));
+        config.setExemptWeekDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+        config.setExemptDatesRaw(EXEMPT_DATES);
+        config.setExemptVehicleTypes(List.of(VehicleType.Motorbike, VehicleType.Tractor, VehicleType.Emergency,
+                VehicleType.Diplomat, VehicleType.Foreign, VehicleType.Military));
+        config.setFares(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(6, 0, 9),
+                new TollConfiguration.Fare(6, 30, 16),
+                new TollConfiguration.Fare(7, 0, 22),
+                new TollConfiguration.Fare(8, 0, 16),
+                new TollConfiguration.Fare(8, 30, 9),
+                new TollConfiguration.Fare(15, 0, 16),
+                new TollConfiguration.Fare(15, 30, 22),
+                new TollConfiguration.Fare(17, 0, 16),
+                new TollConfiguration.Fare(18, 0, 9),
+                new TollConfiguration.Fare(18, 30, 0)));
+        config.setMaxDailyFare(60);
+        config.refresh();
+        return config;
+    }
+}
@@ -0,0 +1,54 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded counterpart of {@link StorageBenchmark}, for the thread-safe store only. Change the number of
+ * threads with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class ConcurrentStorageBenchmark {
+    StorageBenchmark fleet = new StorageBenchmark();
+
+    @Param({"1", "1000", "1000000", "10000000"})
+    int vehicles;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fleet.vehicles = vehicles;
+        fleet.implementation = "concurrent";
+        fleet.setup();
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        fleet.reset();
+    }
+
+    @Benchmark
+    public void record() {
+        fleet.recordNext();
+    }
+
+    @Benchmark
+    public List<ZonedDateTime> getPassages() {
+        return fleet.storage.getPassages(fleet.randomRegistration(), fleet.day);
+    }
+
+    @Benchmark
+    public VehicleType vehicleTypeOf() throws MultipleVehicleTypesException {
+        return fleet.storage.vehicleTypeOf(fleet.randomRegistration(), fleet.day);
+    }
+}
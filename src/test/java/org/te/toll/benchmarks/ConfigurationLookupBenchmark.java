@@ -0,0 +1,65 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.config.ExemptionCalendar;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Configuration lookups done for every fee calculation. listLookup is the exemption check as it was before the
+ * precompiled {@link ExemptionCalendar}: it parsed the raw exempt dates and searched the resulting lists on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationLookupBenchmark {
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
+
+    TollConfiguration config;
+    List<String> exemptDatesRaw;
+    LocalDate day = LocalDate.of(2022, 11, 3);
+    ZonedDateTime time = ZonedDateTime.of(2022, 11, 3, 15, 42, 0, 0, ZoneId.systemDefault());
+
+    @Setup
+    public void setup() {
+        config = BenchmarkConfigurations.defaultConfiguration();
+        exemptDatesRaw = BenchmarkConfigurations.EXEMPT_DATES;
+    }
+
+    @Benchmark
+    public boolean listLookup() {
+        List<LocalDate> exemptDates = exemptDatesRaw.stream()
+                .map(x -> LocalDate.parse(x, formatter))
+                .collect(Collectors.toList());
+        return config.getExemptMonths().contains(day.getMonth())
+                || config.getExemptWeekDays().contains(day.getDayOfWeek())
+                || exemptDates.contains(day)
+                || config.getExemptVehicleTypes().contains(VehicleType.Car);
+    }
+
+    @Benchmark
+    public boolean calendarLookup() {
+        return config.getExemptionCalendar().isExempt(VehicleType.Car, day);
+    }
+
+    @Benchmark
+    public List<LocalDate> exemptDates() {
+        return config.getExemptDates();
+    }
+
+    @Benchmark
+    public int priceByTime() {
+        return config.getPriceByTime(time);
+    }
+}
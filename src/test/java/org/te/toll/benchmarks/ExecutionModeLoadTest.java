@@ -0,0 +1,104 @@
+package org.te.toll.benchmarks;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.te.toll.TollFeeCalculatorApplication;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the application once per execution mode and keeps {@code connections} get-fee requests in flight, each
+ * connection sending its next request as soon as the previous one is answered, then prints the latency
+ * percentiles of every mode. Usage: {@code ExecutionModeLoadTest [connections] [requestsPerConnection] [modes]},
+ * defaults to 10000 connections, 20 requests each, modes "platform,virtual". Opening 10k connections needs a
+ * file descriptor limit above that ({@code ulimit -n}). The virtual mode is skipped before Java 21: it falls back to
+ * the platform pool there, and would only measure that pool a second time.
+ */
+public class ExecutionModeLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int requestsPerConnection = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String[] modes = (args.length > 2 ? args[2] : "platform,virtual").split(",");
+        for (String mode : modes) {
+            if ("virtual".equals(mode) && Runtime.version().feature() < 21) {
+                System.out.printf("virtual  skipped, Java %d has no virtual threads%n", Runtime.version().feature());
+                continue;
+            }
+            ServletWebServerApplicationContext context = (ServletWebServerApplicationContext) SpringApplication.run(
+                    TollFeeCalculatorApplication.class, "--server.port=0", "--execution.mode=" + mode,
+                    "--server.tomcat.max-connections=" + (connections + 100), "--logging.level.root=warn");
+            try {
+                long[] latencies = run(context.getWebServer().getPort(), connections, requestsPerConnection);
+                report(mode, latencies);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static long[] run(int port, int connections, int requestsPerConnection) throws Exception {
+        ExecutorService clientThreads = Executors.newFixedThreadPool(4);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientThreads)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        long[] latencies = new long[connections * requestsPerConnection];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CompletableFuture<?>[] loops = new CompletableFuture<?>[connections];
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            loops[c] = loop(client, port, c, requestsPerConnection, latencies, next, errors);
+        }
+        CompletableFuture.allOf(loops).join();
+        clientThreads.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d requests in %.1f s (%.0f/s), %d errors%n", latencies.length, seconds,
+                latencies.length / seconds, errors.get());
+        return latencies;
+    }
+
+    private static CompletableFuture<Void> loop(HttpClient client, int port, int connection, int remaining,
+                                                long[] latencies, AtomicInteger next, AtomicInteger errors) {
+        if (remaining == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // Weekday passages of one vehicle per connection, a minute apart
+        String uri = String.format("http://localhost:%d/toll/get-fee/Car/L%d/2022-01-11%%20%02d:%02d:00",
+                port, connection, 6 + remaining / 60, remaining % 60);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri)).timeout(Duration.ofSeconds(60)).build();
+        long sent = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, failure) -> {
+                    latencies[next.getAndIncrement()] = System.nanoTime() - sent;
+                    if (failure != null || response.statusCode() != 200) {
+                        errors.incrementAndGet();
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> loop(client, port, connection, remaining - 1, latencies, next, errors));
+    }
+
+    private static void report(String mode, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-8s p50 %7.2f ms  p99 %7.2f ms  p99.9 %7.2f ms  max %7.2f ms%n", mode,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+}
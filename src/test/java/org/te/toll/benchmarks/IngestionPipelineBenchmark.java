@@ -0,0 +1,108 @@
+package org.te.toll.benchmarks;
+
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.FeeRollups;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.IngestionProperties;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.ingestion.IngestionPipeline;
+import org.te.toll.jobs.RetentionCompactor;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.time.PassageTimeParser;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the same passages to the ingestion pipeline and, for comparison, through the synchronous path of get-fee
+ * (parse, then {@link DailyFeeTracker#recordAndPrice} on the calling thread), and prints the throughput of both and
+ * the latency percentiles of every pipeline stage. Usage: {@code IngestionPipelineBenchmark [passages] [vehicles]
+ * [batchSize]}, defaults to 5M passages over 100k vehicles and batches of 1024.
+ */
+public class IngestionPipelineBenchmark {
+    private static final String[] STAGES = {"parse", "append", "fee"};
+
+    public static void main(String[] args) throws Exception {
+        int passages = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int vehicles = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        String[] registrations = new String[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            registrations[v] = String.format("REG%07d", v);
+        }
+        // Each vehicle passes every 20 minutes from 06:00, then moves to the next day
+        String[] dates = new String[passages / vehicles + 1];
+        for (int round = 0; round < dates.length; round++) {
+            int minutes = 6 * 60 + 20 * (round % 36);
+            dates[round] = String.format("2022-01-%02d %02d:%02d:00", 10 + round / 36, minutes / 60, minutes % 60);
+        }
+
+        TollConfiguration config = BenchmarkConfigurations.defaultConfiguration();
+        PassageTimeParser timeParser = new PassageTimeParser(ZoneId.systemDefault());
+
+        StorageService storage = new StorageServiceConcurrentImpl();
+        DailyFeeTracker tracker = new DailyFeeTracker(storage, new TollCalculator(config));
+        long start = System.nanoTime();
+        for (int p = 0; p < passages; p++) {
+            tracker.recordAndPrice(registrations[p % vehicles], VehicleType.Car,
+                    timeParser.parseDateTime(dates[p / vehicles]));
+        }
+        report("synchronous", passages, System.nanoTime() - start);
+
+        // Keeps the histogram buckets, like the registry behind /actuator/prometheus
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        storage = new StorageServiceConcurrentImpl();
+        tracker = new DailyFeeTracker(storage, new TollCalculator(config), new FeeRollups(), TariffZones.SINGLE, registry);
+        IngestionProperties properties = new IngestionProperties();
+        properties.setBatchSize(batchSize);
+        IngestionPipeline pipeline = new IngestionPipeline(properties, tracker,
+                new RetentionCompactor(storage, tracker, new StorageProperties(), registry), timeParser,
+                TariffZones.SINGLE, registry);
+        pipeline.start();
+        start = System.nanoTime();
+        for (int p = 0; p < passages; p++) {
+            if (!pipeline.publish(VehicleType.Car, registrations[p % vehicles], dates[p / vehicles], null)) {
+                throw new IllegalStateException("The pipeline refused passage " + p);
+            }
+        }
+        if (!pipeline.awaitIdle(Duration.ofMinutes(5))) {
+            throw new IllegalStateException("The pipeline didn't drain");
+        }
+        report("pipeline", passages, System.nanoTime() - start);
+        pipeline.stop();
+        System.out.printf("%,.0f accepted, %,.0f refused%n",
+                registry.get("toll.ingestion.passages").tag("outcome", "accepted").counter().count(),
+                registry.get("toll.ingestion.refused").counter().count());
+        for (String stage : STAGES) {
+            HistogramSnapshot snapshot = registry.get("toll.ingestion.latency").tag("stage", stage).timer()
+                    .takeSnapshot();
+            System.out.printf("%-11s p50 %,9.0f us  p99 %,9.0f us  p99.9 %,9.0f us  max %,9.0f us%n", stage,
+                    percentile(snapshot, 0.5), percentile(snapshot, 0.99), percentile(snapshot, 0.999),
+                    snapshot.max(TimeUnit.MICROSECONDS));
+        }
+    }
+
+    // Upper bound of the histogram bucket holding the percentile, as a Prometheus query would estimate it
+    private static double percentile(HistogramSnapshot snapshot, double percentile) {
+        for (CountAtBucket bucket : snapshot.histogramCounts()) {
+            if (bucket.count() >= percentile * snapshot.count()) {
+                return bucket.bucket(TimeUnit.MICROSECONDS);
+            }
+        }
+        return snapshot.max(TimeUnit.MICROSECONDS);
+    }
+
+    private static void report(String name, int passages, long nanos) {
+        System.out.printf("%-11s %,d passages in %,d ms, %,.0f passages/s%n", name, passages, nanos / 1_000_000,
+                passages * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,99 @@
+package org.te.toll.benchmarks;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.FeeRollups;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.TariffZones;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.storage.InstrumentedStorageService;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the metrics on the get-fee path: "none" registers the meters in an empty composite registry, where they
+ * are no-ops, "prometheus" records them like the application does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class InstrumentationOverheadBenchmark {
+    private static final int VEHICLES = 1_000;
+    private static final int PASSAGES_PER_DAY = 20;
+
+    @Param({"none", "prometheus"})
+    String metrics;
+
+    StorageService storage;
+    TollCalculator calculator;
+    DailyFeeTracker tracker;
+    String[] registrations;
+    long[] epochSeconds;
+    long[] scratch;
+    LocalDate day = LocalDate.of(2022, 1, 12);
+    ZoneId zone = ZoneId.systemDefault();
+    long recorded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MeterRegistry registry = "none".equals(metrics)
+                ? new CompositeMeterRegistry()
+                : new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        storage = new StorageServiceConcurrentImpl();
+        if (!"none".equals(metrics)) {
+            storage = new InstrumentedStorageService(storage, registry);
+        }
+        calculator = new TollCalculator(BenchmarkConfigurations.defaultConfiguration(), registry);
+        tracker = new DailyFeeTracker(storage, calculator, new FeeRollups(), TariffZones.SINGLE, registry);
+        registrations = new String[VEHICLES];
+        for (int v = 0; v < VEHICLES; v++) {
+            registrations[v] = "REG" + v;
+            storage.recordPassage(registrations[v], VehicleType.Car, day.atTime(6, 0).atZone(zone));
+        }
+        Random random = new Random(1);
+        epochSeconds = new long[PASSAGES_PER_DAY];
+        for (int i = 0; i < PASSAGES_PER_DAY; i++) {
+            epochSeconds[i] = day.atStartOfDay(zone).plusSeconds(random.nextInt(24 * 3_600)).toEpochSecond();
+        }
+        scratch = new long[PASSAGES_PER_DAY];
+    }
+
+    @Benchmark
+    public int fee() throws MultipleDaysPassages {
+        System.arraycopy(epochSeconds, 0, scratch, 0, PASSAGES_PER_DAY);
+        return calculator.getTollFee(VehicleType.Car, day, zone, scratch, PASSAGES_PER_DAY);
+    }
+
+    @Benchmark
+    public VehicleType vehicleTypeOf() throws MultipleVehicleTypesException {
+        return storage.vehicleTypeOf(registrations[ThreadLocalRandom.current().nextInt(VEHICLES)],
+                day.atTime(12, 0).atZone(zone));
+    }
+
+    @Benchmark
+    public int recordPassage() throws Exception {
+        // Every vehicle passes PASSAGES_PER_DAY times a day, one minute apart, and then moves to the next day
+        long n = recorded++;
+        int vehicle = (int) (n % VEHICLES);
+        long passage = n / VEHICLES;
+        ZonedDateTime dateTime = day.plusDays(1 + passage / PASSAGES_PER_DAY)
+                .atTime(6, 0).plusMinutes(passage % PASSAGES_PER_DAY).atZone(zone);
+        return tracker.recordAndPrice(registrations[vehicle], VehicleType.Car, dateTime);
+    }
+}
@@ -0,0 +1,76 @@
+package org.te.toll.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.InvoicingProperties;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.jobs.InvoicingJob;
+import org.te.toll.jobs.RetentionCompactor;
+import org.te.toll.model.InvoiceSummary;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One invoicing run over a day where every vehicle passed 1 to 4 times, with the pricing spread on
+ * {@code parallelism} threads. Divide the vehicles by the score to get the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class InvoicingBenchmark {
+
+    @Param({"100000", "1000000"})
+    int vehicles;
+
+    @Param({"1", "0"})
+    int parallelism;
+
+    InvoicingJob job;
+    ZonedDateTime day = ZonedDateTime.of(2022, 1, 12, 0, 0, 0, 0, ZoneId.systemDefault());
+    Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        StorageService storage = new StorageServiceConcurrentImpl();
+        Random random = new Random(1);
+        for (int v = 0; v < vehicles; v++) {
+            String registration = "REG" + v;
+            for (int p = random.nextInt(4); p >= 0; p--) {
+                storage.recordPassage(registration, VehicleType.Car, day.plusSeconds(random.nextInt(24 * 3_600)));
+            }
+        }
+        TollCalculator calculator = new TollCalculator(BenchmarkConfigurations.defaultConfiguration());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RetentionCompactor retention = new RetentionCompactor(storage, new DailyFeeTracker(storage, calculator),
+                new StorageProperties(), registry);
+        InvoicingProperties properties = new InvoicingProperties();
+        properties.setParallelism(parallelism);
+        job = new InvoicingJob(storage, calculator, retention, TariffZones.SINGLE, properties, registry);
+        file = Files.createTempFile("invoice", ".csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public InvoiceSummary invoice() throws IOException {
+        return job.invoice(day.toLocalDate(), file);
+    }
+}
@@ -0,0 +1,128 @@
+package org.te.toll.benchmarks;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.StorageServiceInMemoryImpl;
+import org.te.toll.storage.StorageServiceOffHeapImpl;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records passages in one storage implementation, then keeps reading them while the heap churns, and reports the
+ * garbage collections, longest pause, retained heap and direct memory. Run each implementation in its own JVM with
+ * the same heap settings. Usage: {@code OffHeapGcComparison [off-heap|concurrent|in-memory] [passages] [vehicles]},
+ * defaults to 50M passages over 1M vehicles; the off-heap store needs {@code -XX:MaxDirectMemorySize} above the
+ * reported direct memory.
+ */
+public class OffHeapGcComparison {
+    private static final AtomicLong maxPauseMillis = new AtomicLong();
+    private static long collectionsBefore;
+    private static long collectionTimeBefore;
+
+    public static void main(String[] args) {
+        String implementation = args.length > 0 ? args[0] : "off-heap";
+        long passages = args.length > 1 ? Long.parseLong(args[1]) : 50_000_000L;
+        int vehicles = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        StorageService storage;
+        switch (implementation) {
+            case "off-heap":
+                storage = new StorageServiceOffHeapImpl();
+                break;
+            case "concurrent":
+                storage = new StorageServiceConcurrentImpl();
+                break;
+            case "in-memory":
+                storage = new StorageServiceInMemoryImpl();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation " + implementation);
+        }
+        listenToPauses();
+
+        ZonedDateTime start = ZonedDateTime.of(2022, 1, 10, 6, 0, 0, 0, ZoneId.systemDefault());
+        String[] registrations = new String[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            registrations[v] = String.format("REG%07d", v);
+        }
+        long loadStart = System.nanoTime();
+        for (long p = 0; p < passages; p++) {
+            long round = p / vehicles;
+            // Each vehicle passes every 20 minutes during the day, then moves to the next day
+            ZonedDateTime time = start.plusDays(round / 36).plusMinutes(20L * (round % 36));
+            storage.recordPassage(registrations[(int) (p % vehicles)], VehicleType.Car, time);
+        }
+        long loadMillis = (System.nanoTime() - loadStart) / 1_000_000;
+        report(implementation + " load", passages, loadMillis);
+
+        // Steady state: the lookups of the controller, whose garbage makes the collector trace the stored passages
+        resetCollections();
+        long readStart = System.nanoTime();
+        long read = 0;
+        for (int i = 0; i < 5_000_000; i++) {
+            read += storage.getPassages(registrations[i % vehicles], start.plusDays(i % 30)).size();
+        }
+        long readMillis = (System.nanoTime() - readStart) / 1_000_000;
+        report(implementation + " read", read, readMillis);
+
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct = pool.getMemoryUsed();
+            }
+        }
+        System.out.printf("%s: heap after GC %,d MB, direct memory %,d MB, %,d passages stored%n", implementation,
+                heap / (1024 * 1024), direct / (1024 * 1024), storage.getPassageCount());
+        if (storage instanceof StorageServiceOffHeapImpl) {
+            // The direct memory also counts the buffers replaced while growing, until the collector frees them
+            System.out.printf("%s: %,d MB of direct memory in use by the store%n", implementation,
+                    ((StorageServiceOffHeapImpl) storage).getOffHeapBytes() / (1024 * 1024));
+        }
+    }
+
+    private static void report(String phase, long operations, long millis) {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += collector.getCollectionCount();
+            time += collector.getCollectionTime();
+        }
+        System.out.printf("%-18s %,d operations in %,d ms; %,d collections, %,d ms in GC, longest pause %,d ms%n",
+                phase, operations, millis, count - collectionsBefore, time - collectionTimeBefore, maxPauseMillis.get());
+    }
+
+    private static void resetCollections() {
+        collectionsBefore = 0;
+        collectionTimeBefore = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collectionsBefore += collector.getCollectionCount();
+            collectionTimeBefore += collector.getCollectionTime();
+        }
+        maxPauseMillis.set(0);
+    }
+
+    private static void listenToPauses() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    // Concurrent collectors report whole cycles, which mostly run alongside the application
+                    if (!info.getGcName().contains("Concurrent") && !info.getGcName().contains("Cycles")) {
+                        maxPauseMillis.accumulateAndGet(info.getGcInfo().getDuration(), Math::max);
+                    }
+                }
+            }, null, null);
+        }
+    }
+}
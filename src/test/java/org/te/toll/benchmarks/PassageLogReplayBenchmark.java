@@ -0,0 +1,70 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.StorageServiceFileImpl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Opening a file storage whose passage log holds {@code vehicles} x 25 passages, which replays the whole log into the
+ * index. Divide the passages by the score to get the replay throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PassageLogReplayBenchmark {
+
+    @Param({"20000", "200000"})
+    int vehicles;
+
+    StorageProperties properties = new StorageProperties();
+    Path directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("passage-log");
+        properties.getLog().setDirectory(directory.toString());
+        properties.getLog().setSegmentSize(16 * 1024 * 1024);
+        properties.getLog().setFsyncPolicy(StorageProperties.FsyncPolicy.NEVER);
+        ZonedDateTime morning = ZonedDateTime.of(2022, 1, 12, 6, 0, 0, 0, ZoneId.systemDefault());
+        try (StorageServiceFileImpl storage = open()) {
+            for (int p = 0; p < 25; p++) {
+                for (int v = 0; v < vehicles; v++) {
+                    storage.recordPassage("REG" + v, VehicleType.Car, morning.plusMinutes(p));
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        try (StorageServiceFileImpl storage = open()) {
+            return storage.getPassageCount();
+        }
+    }
+
+    private StorageServiceFileImpl open() throws IOException {
+        return new StorageServiceFileImpl(properties, BenchmarkConfigurations.defaultConfiguration());
+    }
+}
@@ -0,0 +1,53 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.time.PassageTimeParser;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a get-fee date: a formatter built per request as the controller used to, a shared formatter and the
+ * fixed-layout parser, for a valid and an invalid date.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PassageTimeParserBenchmark {
+
+    @Param({"2022-10-31 16:01:00", "2022-10-31 16:61:00"})
+    String date;
+
+    ZoneId zone = ZoneId.of("Europe/Stockholm");
+    DateTimeFormatter sharedFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(zone);
+    PassageTimeParser parser = new PassageTimeParser(zone);
+
+    @Benchmark
+    public long formatterPerRequest() {
+        return parse(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(zone));
+    }
+
+    @Benchmark
+    public long sharedFormatter() {
+        return parse(sharedFormatter);
+    }
+
+    @Benchmark
+    public long fixedLayoutParser() {
+        return parser.parse(date);
+    }
+
+    private long parse(DateTimeFormatter formatter) {
+        try {
+            return ZonedDateTime.parse(date, formatter).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return PassageTimeParser.INVALID;
+        }
+    }
+}
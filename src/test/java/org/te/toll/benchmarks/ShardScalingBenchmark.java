@@ -0,0 +1,67 @@
+package org.te.toll.benchmarks;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.StorageServiceShardedImpl;
+import org.te.toll.storage.cluster.LocalShardCluster;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads passages through the router of a local cluster of 1 to n nodes, then adds one more node, and prints the
+ * throughput, the share of the passages each node holds and the share moved by the rebalancing. Usage:
+ * {@code ShardScalingBenchmark [passages] [vehicles] [nodes] [threads]}, defaults to 1M passages over 50k vehicles,
+ * up to 4 nodes and 8 loading threads.
+ */
+public class ShardScalingBenchmark {
+    private static final ZonedDateTime START = ZonedDateTime.of(2022, 1, 10, 6, 0, 0, 0, ZoneId.systemDefault());
+
+    public static void main(String[] args) throws Exception {
+        int passages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int vehicles = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int maxNodes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        ExecutorService loaders = Executors.newFixedThreadPool(threads);
+        for (int nodes = 1; nodes <= maxNodes; nodes++) {
+            try (LocalShardCluster cluster = new LocalShardCluster(nodes, 128)) {
+                StorageServiceShardedImpl router = cluster.getRouter();
+                long start = System.nanoTime();
+                List<Future<?>> loads = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    loads.add(loaders.submit(() -> {
+                        for (int p = thread; p < passages; p += threads) {
+                            // Each vehicle passes every 20 minutes from 06:00
+                            router.recordPassage("REG" + (p % vehicles), VehicleType.Car,
+                                    START.plusMinutes(20L * (p / vehicles)));
+                        }
+                    }));
+                }
+                for (Future<?> load : loads) {
+                    load.get();
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%d nodes: %,d passages in %,d ms, %,.0f passages/s, shares", nodes, passages,
+                        nanos / 1_000_000, passages * 1e9 / nanos);
+                for (String node : cluster.getNodes()) {
+                    System.out.printf(" %.1f%%", 100.0 * cluster.getStore(node).getPassageCount() / passages);
+                }
+                System.out.println();
+
+                start = System.nanoTime();
+                long moved = router.addNode(cluster.startNode());
+                System.out.printf("  adding node %d moved %,d passages (%.1f%%, ideal %.1f%%) in %,d ms%n", nodes + 1,
+                        moved, 100.0 * moved / passages, 100.0 / (nodes + 1), (System.nanoTime() - start) / 1_000_000);
+                if (router.getPassageCount() != passages) {
+                    throw new IllegalStateException("The cluster holds " + router.getPassageCount() + " passages");
+                }
+            }
+        }
+        loaders.shutdown();
+    }
+}
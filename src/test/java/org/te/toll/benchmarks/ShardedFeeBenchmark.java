@@ -0,0 +1,140 @@
+package org.te.toll.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.FeeRollups;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.storage.AsyncStorageService;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.cluster.LocalShardCluster;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prices a range of days of a vehicle through the sharded storage of a local cluster, once reading the days one
+ * after the other and once reading all of them at once through {@link AsyncStorageService}, and prints the latency
+ * percentiles of both. The shards of a local cluster answer over loopback, in microseconds and on the same processors
+ * as the caller, so the same days are priced a second time from a shared store that waits a network round trip
+ * before every read. Usage: {@code ShardedFeeBenchmark [nodes] [days] [requests] [poolSize] [roundTripMicros]},
+ * defaults to 3 nodes, a range of 365 days, 200 requests, a pool of 64 threads, the default of execution.pool-size,
+ * and round trips of 500 µs.
+ */
+public class ShardedFeeBenchmark {
+    private static final int VEHICLES = 20;
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 365;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int poolSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        long roundTripMicros = args.length > 4 ? Long.parseLong(args[4]) : 500;
+        LocalDate first = LocalDate.of(2022, 1, 1);
+        LocalDate last = first.plusDays(days - 1);
+        ZoneId zone = ZoneId.systemDefault();
+
+        TollConfiguration config = BenchmarkConfigurations.defaultConfiguration();
+        TollCalculator calculator = new TollCalculator(config);
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        try (LocalShardCluster cluster = new LocalShardCluster(nodes, 128)) {
+            StorageService delayed = new RoundTripStorage(roundTripMicros);
+            for (StorageService storage : Arrays.asList(cluster.getRouter(), delayed)) {
+                for (int v = 0; v < VEHICLES; v++) {
+                    for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+                        ZonedDateTime morning = day.atTime(7, 15).atZone(zone);
+                        storage.recordPassages("REG" + v, VehicleType.Car, Arrays.asList(morning, morning.plusHours(9)));
+                    }
+                }
+            }
+            System.out.printf("%d nodes over loopback%n", nodes);
+            compare(cluster.getRouter(), calculator, pool, requests, first, last);
+            System.out.printf("%d us round trips%n", roundTripMicros);
+            compare(delayed, calculator, pool, requests, first, last);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void compare(StorageService storage, TollCalculator calculator, ExecutorService pool, int requests,
+                                LocalDate first, LocalDate last) {
+        DailyFeeTracker sequential = new DailyFeeTracker(storage, calculator, new FeeRollups(), TariffZones.SINGLE,
+                new SimpleMeterRegistry());
+        DailyFeeTracker concurrent = new DailyFeeTracker(storage, calculator, new FeeRollups(), TariffZones.SINGLE,
+                new SimpleMeterRegistry());
+        concurrent.setAsyncStorage(new AsyncStorageService(storage, pool));
+
+        // The first runs warm the JIT and the connections up
+        run(sequential, requests / 4, first, last);
+        run(concurrent, requests / 4, first, last);
+        report("sequential", run(sequential, requests, first, last));
+        report("async", run(concurrent, requests, first, last));
+    }
+
+    private static long[] run(DailyFeeTracker tracker, int requests, LocalDate first, LocalDate last) {
+        long[] latencies = new long[requests];
+        for (int r = 0; r < requests; r++) {
+            long start = System.nanoTime();
+            tracker.getFee(TariffZones.DEFAULT, "REG" + (r % VEHICLES), first, last);
+            latencies[r] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static void report(String mode, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%-10s p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n", mode,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * quantile))] / 1e6;
+    }
+
+    // Shared store whose reads each wait a network round trip, like the shards of other machines
+    private static class RoundTripStorage extends StorageServiceConcurrentImpl {
+        private final long roundTripNanos;
+
+        RoundTripStorage(long roundTripMicros) {
+            this.roundTripNanos = roundTripMicros * 1_000;
+        }
+
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
+        @Override
+        public List<ZonedDateTime> getPassages(String registration, ZonedDateTime day) {
+            roundTrip();
+            return super.getPassages(registration, day);
+        }
+
+        @Override
+        public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime)
+                throws MultipleVehicleTypesException {
+            roundTrip();
+            return super.vehicleTypeOf(registration, dateTime);
+        }
+
+        @Override
+        public Integer getDailyTotal(String registration, LocalDate day) {
+            roundTrip();
+            return super.getDailyTotal(registration, day);
+        }
+
+        private void roundTrip() {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+}
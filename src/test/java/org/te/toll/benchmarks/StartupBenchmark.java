@@ -0,0 +1,121 @@
+package org.te.toll.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Starts the application in a new JVM again and again and measures the time from the process start to the first
+ * successful /toll/get-fee, for each startup mode:
+ * <ul>
+ *     <li>default: the test class path and the default configuration</li>
+ *     <li>prod: the same with the prod profile, lazy beans and no Swagger</li>
+ *     <li>prod-jar and prod-cds: the jar built by {@code mvn -P cds package}, without and with its class-data sharing
+ *     archive, only when target/cds holds them</li>
+ * </ul>
+ * Usage: {@code StartupBenchmark [runs] [modes]}, defaults to 5 runs of every available mode.
+ */
+public class StartupBenchmark {
+
+    private static final Path CDS_DIRECTORY = Paths.get("target", "cds");
+    private static final Path CDS_ARCHIVE = CDS_DIRECTORY.resolve("toll.jsa");
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Map<String, List<String>> modes = modes();
+        List<String> selected = args.length > 1 ? Arrays.asList(args[1].split(",")) : new ArrayList<>(modes.keySet());
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        for (String mode : selected) {
+            List<String> command = modes.get(mode);
+            if (command == null) {
+                System.out.printf("%-8s not available, modes are %s%n", mode, modes.keySet());
+                continue;
+            }
+            long[] millis = new long[runs];
+            for (int run = 0; run < runs; run++) {
+                millis[run] = timeToFirstFee(client, command);
+            }
+            Arrays.sort(millis);
+            System.out.printf("%-8s first fee after %,6d ms median, %,6d ms min, %,6d ms max%n", mode,
+                    millis[runs / 2], millis[0], millis[runs - 1]);
+        }
+    }
+
+    private static Map<String, List<String>> modes() throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("java.class.path");
+        Map<String, List<String>> modes = new LinkedHashMap<>();
+        modes.put("default", List.of(java, "-cp", classPath, "org.te.toll.TollFeeCalculatorApplication"));
+        modes.put("prod", List.of(java, "-cp", classPath, "-Dspring.profiles.active=prod",
+                "org.te.toll.TollFeeCalculatorApplication"));
+        if (Files.exists(CDS_ARCHIVE)) {
+            try (Stream<Path> jars = Files.list(CDS_DIRECTORY)) {
+                String jar = jars.filter(path -> path.toString().endsWith("-cds.jar")).findFirst()
+                        .orElseThrow(() -> new IllegalStateException("No jar next to " + CDS_ARCHIVE)).toString();
+                modes.put("prod-jar", List.of(java, "-Dspring.profiles.active=prod", "-jar", jar));
+                modes.put("prod-cds", List.of(java, "-XX:SharedArchiveFile=" + CDS_ARCHIVE, "-Xlog:cds=error",
+                        "-Dspring.profiles.active=prod", "-jar", jar));
+            }
+        }
+        return modes;
+    }
+
+    private static long timeToFirstFee(HttpClient client, List<String> command) throws Exception {
+        int port = freePort();
+        List<String> arguments = new ArrayList<>(command);
+        arguments.add("--server.port=" + port);
+        arguments.add("--logging.level.root=warn");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(
+                "http://localhost:" + port + "/toll/get-fee/Car/STARTUP/2022-01-11%2007:59:00")).build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(arguments)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File("target/startup-benchmark.log")))
+                .start();
+        try {
+            while (System.nanoTime() - start < TIMEOUT.toNanos()) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The application exited with " + process.exitValue() +
+                            ", see target/startup-benchmark.log");
+                }
+                try {
+                    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                    if (response.statusCode() == 200) {
+                        return (System.nanoTime() - start) / 1_000_000;
+                    }
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(5);
+            }
+            throw new IllegalStateException("No fee after " + TIMEOUT);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.StorageServiceInMemoryImpl;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record and lookup throughput of the stores, with a fleet of 1 to 1M vehicles that each passed once on the looked
+ * up day. Single-threaded, to compare with the original HashMap store: see {@link ConcurrentStorageBenchmark} for the
+ * multi-threaded runs. The stores are rebuilt after every iteration that recorded passages, so the heap only holds
+ * the fleet and one iteration of records. A fleet of 10M only fits the heap with the concurrent store:
+ * {@code -p vehicles=10000000 -p implementation=concurrent}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(1)
+public class StorageBenchmark {
+
+    @Param({"1", "1000", "1000000"})
+    int vehicles;
+
+    @Param({"concurrent", "in-memory"})
+    String implementation;
+
+    StorageService storage;
+    String[] registrations;
+    ZonedDateTime day = ZonedDateTime.of(2022, 1, 12, 7, 30, 0, 0, ZoneId.systemDefault());
+    final AtomicLong recorded = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        storage = "concurrent".equals(implementation) ? new StorageServiceConcurrentImpl() : new StorageServiceInMemoryImpl();
+        registrations = new String[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            registrations[v] = "REG" + v;
+            storage.recordPassage(registrations[v], VehicleType.Car, day);
+        }
+    }
+
+    // Drops the passages recorded by the previous iteration
+    @Setup(Level.Iteration)
+    public void reset() {
+        if (recorded.getAndSet(0) > 0) {
+            storage = null;
+            setup();
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        recordNext();
+    }
+
+    @Benchmark
+    public List<ZonedDateTime> getPassages() {
+        return storage.getPassages(randomRegistration(), day);
+    }
+
+    @Benchmark
+    public VehicleType vehicleTypeOf() throws MultipleVehicleTypesException {
+        return storage.vehicleTypeOf(randomRegistration(), day);
+    }
+
+    void recordNext() {
+        long n = recorded.getAndIncrement();
+        // Records go to the following days so that the looked up day keeps one passage per vehicle
+        int vehicle = (int) (n % vehicles);
+        long round = n / vehicles;
+        storage.recordPassage(registrations[vehicle], VehicleType.Car, day.plusDays(1 + round / 1_000).plusSeconds(round % 1_000));
+    }
+
+    String randomRegistration() {
+        return registrations[ThreadLocalRandom.current().nextInt(vehicles)];
+    }
+}
@@ -0,0 +1,60 @@
+package org.te.toll.benchmarks;
+
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.StorageServiceInMemoryImpl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.function.Supplier;
+
+/**
+ * Records the same passages in the original HashMap store and in the compact concurrent store, and reports the heap
+ * retained by each. Usage: {@code StorageFootprintBenchmark [passages] [vehicles]}, defaults to 10M passages over
+ * 1M vehicles, which needs a heap of several GB for the original store. Measured 168 and 30 bytes per passage: the
+ * per vehicle-day and per registration overheads of the concurrent store weigh more than its 4 bytes per passage.
+ */
+public class StorageFootprintBenchmark {
+
+    public static void main(String[] args) {
+        int passages = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int vehicles = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        measure("in-memory", StorageServiceInMemoryImpl::new, passages, vehicles);
+        measure("concurrent", StorageServiceConcurrentImpl::new, passages, vehicles);
+    }
+
+    private static void measure(String name, Supplier<StorageService> factory, int passages, int vehicles) {
+        long before = usedHeap();
+        StorageService storage = factory.get();
+        ZonedDateTime start = ZonedDateTime.of(2022, 1, 10, 6, 0, 0, 0, ZoneId.systemDefault());
+        String[] registrations = new String[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            registrations[v] = String.format("REG%07d", v);
+        }
+        for (int p = 0; p < passages; p++) {
+            int round = p / vehicles;
+            // Each vehicle passes every 20 minutes during the day, then moves to the next day
+            ZonedDateTime time = start.plusDays(round / 36).plusMinutes(20L * (round % 36));
+            storage.recordPassage(registrations[p % vehicles], VehicleType.Car, time);
+        }
+        registrations = null;
+        long after = usedHeap();
+        System.out.printf("%-10s %,d passages: %,d MB retained, %.1f bytes/passage%n", name, passages,
+                (after - before) / (1024 * 1024), (after - before) / (double) passages);
+        // Keep the storage reachable until it has been measured
+        if (storage.getPassages("none", start).size() > 0) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,120 @@
+package org.te.toll.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.ReplayProperties;
+import org.te.toll.config.TariffDefinition;
+import org.te.toll.config.TariffSnapshot;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+import org.te.toll.jobs.TariffReplayJob;
+import org.te.toll.model.TariffReplayReport;
+import org.te.toll.model.TariffRevenue;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Replays a month of traffic under the current tariff and four candidates, once with {@link TariffReplayJob} and
+ * once the way it was done before, one {@link TollCalculator#getTollFee} call per vehicle-day and tariff on one
+ * thread, and prints both durations and the revenues. Usage: {@code TariffReplayBenchmark [vehicles] [days]
+ * [parallelism]}, defaults to 300k vehicles a day over 30 days and one thread per processor. The vehicles pass 1 to
+ * 6 times a day, mostly at rush hours. Needs a large heap, -Xmx4g for the defaults.
+ */
+public class TariffReplayBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int vehicles = args.length > 0 ? Integer.parseInt(args[0]) : 300_000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        LocalDate first = LocalDate.of(2022, 3, 1);
+        ZoneId zone = ZoneId.of("Europe/Stockholm");
+
+        StorageService storage = new StorageServiceConcurrentImpl();
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        long passages = 0;
+        for (int day = 0; day < days; day++) {
+            ZonedDateTime midnight = first.plusDays(day).atStartOfDay(zone);
+            for (int v = 0; v < vehicles; v++) {
+                int count = 1 + random.nextInt(6);
+                List<ZonedDateTime> times = new ArrayList<>(count);
+                for (int p = 0; p < count; p++) {
+                    int hour = random.nextBoolean() ? (random.nextBoolean() ? 7 : 16) : 5 + random.nextInt(15);
+                    times.add(midnight.plusHours(hour).plusSeconds(random.nextInt(3_600)));
+                }
+                storage.recordPassages("REG" + v, v % 50 == 0 ? VehicleType.Emergency : VehicleType.Car, times);
+                passages += count;
+            }
+        }
+        System.out.printf("Stored %,d passages of %,d vehicle-days in %,d ms%n", passages, (long) vehicles * days,
+                (System.nanoTime() - start) / 1_000_000);
+
+        TollConfiguration config = BenchmarkConfigurations.defaultConfiguration();
+        Map<String, TariffDefinition> candidates = new LinkedHashMap<>();
+        candidates.put("cap-50", candidate(null, 50));
+        candidates.put("cap-80", candidate(null, 80));
+        candidates.put("plus-20pc", candidate(config.getFares().stream()
+                .map(fare -> new TollConfiguration.Fare(fare.getHour(), fare.getMinute(), fare.getPrice() * 6 / 5))
+                .collect(Collectors.toList()), null));
+        candidates.put("flat-15", candidate(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(6, 0, 15), new TollConfiguration.Fare(18, 30, 0)), null));
+
+        ReplayProperties properties = new ReplayProperties();
+        properties.setParallelism(parallelism);
+        TariffReplayJob job = new TariffReplayJob(storage, config, config, TariffZones.SINGLE, properties,
+                new SimpleMeterRegistry());
+        LocalDate last = first.plusDays(days - 1);
+        // The first run warms the JIT up
+        job.replay(candidates, first, last);
+        TariffReplayReport report = job.replay(candidates, first, last);
+        System.out.printf("Replay engine: %,d vehicle-days under %d tariffs in %,d ms (%,d vehicle-days/s)%n",
+                report.getVehicleDays(), report.getTariffs().size(), report.getDurationMillis(),
+                report.getVehicleDaysPerSecond());
+        for (TariffRevenue revenue : report.getTariffs()) {
+            System.out.printf("  %-10s revenue %,14d  change %,13d  charged %,10d  mean %5.1f  p50 %3d  p90 %3d  " +
+                            "p99 %3d%n", revenue.getName(), revenue.getRevenue(), revenue.getRevenueChange(),
+                    revenue.getChargedVehicleDays(), revenue.getMeanFee(), revenue.getMedianFee(), revenue.getP90Fee(),
+                    revenue.getP99Fee());
+        }
+
+        List<TollCalculator> calculators = new ArrayList<>();
+        calculators.add(new TollCalculator(config));
+        for (TariffDefinition candidate : candidates.values()) {
+            TariffSnapshot tariff = candidate.inherit(config.definitionOf(TariffZones.DEFAULT)).toSnapshot("default", 0);
+            calculators.add(new TollCalculator((tariffZone, day) -> tariff));
+        }
+        long[] revenues = new long[calculators.size()];
+        start = System.nanoTime();
+        storage.forEachVehicleDay((registration, type, dayPassages) -> {
+            for (int t = 0; t < calculators.size(); t++) {
+                try {
+                    revenues[t] += calculators.get(t).getTollFee(type, dayPassages);
+                } catch (MultipleDaysPassages e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        System.out.printf("One calculator call per vehicle-day and tariff: %,d ms, revenues %s%n",
+                (System.nanoTime() - start) / 1_000_000, Arrays.toString(revenues));
+    }
+
+    private static TariffDefinition candidate(List<TollConfiguration.Fare> fares, Integer maxDailyFare) {
+        TariffDefinition definition = new TariffDefinition();
+        definition.setFares(fares);
+        definition.setMaxDailyFare(maxDailyFare);
+        return definition;
+    }
+}
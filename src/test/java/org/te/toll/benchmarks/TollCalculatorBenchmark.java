@@ -0,0 +1,62 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fee of one day with a growing number of passages, through the List adapter and the primitive path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TollCalculatorBenchmark {
+
+    @Param({"1", "10", "100"})
+    int passagesPerDay;
+
+    TollCalculator calculator;
+    List<ZonedDateTime> passages;
+    long[] epochSeconds;
+    long[] scratch;
+    LocalDate day = LocalDate.of(2022, 1, 12);
+    ZoneId zone = ZoneId.systemDefault();
+
+    @Setup
+    public void setup() {
+        calculator = new TollCalculator(BenchmarkConfigurations.defaultConfiguration());
+        Random random = new Random(1);
+        passages = new ArrayList<>();
+        for (int i = 0; i < passagesPerDay; i++) {
+            passages.add(day.atStartOfDay(zone).plusSeconds(random.nextInt(24 * 3_600)));
+        }
+        Collections.shuffle(passages, random);
+        epochSeconds = passages.stream().mapToLong(ZonedDateTime::toEpochSecond).toArray();
+        scratch = new long[passagesPerDay];
+    }
+
+    @Benchmark
+    public int listOfPassages() throws MultipleDaysPassages {
+        return calculator.getTollFee(VehicleType.Car, passages);
+    }
+
+    @Benchmark
+    public int epochSeconds() throws MultipleDaysPassages {
+        // The calculator sorts in place, start every invocation from the same unsorted passages
+        System.arraycopy(epochSeconds, 0, scratch, 0, passagesPerDay);
+        return calculator.getTollFee(VehicleType.Car, day, zone, scratch, passagesPerDay);
+    }
+}
@@ -0,0 +1,65 @@
+package org.te.toll.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.storage.StorageServiceInMemoryImpl;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type lookups of the in-memory store for a fleet with some days of history, where half of the vehicles already
+ * passed today: a lookup for the other half is the one made on the first passage of the day.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(1)
+public class VehicleTypeLookupBenchmark {
+
+    @Param({"100000"})
+    int vehicles;
+
+    @Param({"1", "20"})
+    int historyDays;
+
+    StorageServiceInMemoryImpl storage;
+    String[] passedToday;
+    String[] notPassedToday;
+    ZonedDateTime today = ZonedDateTime.of(2022, 1, 31, 7, 30, 0, 0, ZoneId.systemDefault());
+
+    @Setup(Level.Trial)
+    public void setup() {
+        storage = new StorageServiceInMemoryImpl();
+        passedToday = new String[vehicles / 2];
+        notPassedToday = new String[vehicles / 2];
+        for (int v = 0; v < vehicles; v++) {
+            String registration = "REG" + v;
+            for (int d = historyDays; d > 0; d--) {
+                storage.recordPassage(registration, VehicleType.Car, today.minusDays(d));
+            }
+            if (v % 2 == 0) {
+                storage.recordPassage(registration, VehicleType.Car, today);
+                passedToday[v / 2] = registration;
+            } else {
+                notPassedToday[v / 2] = registration;
+            }
+        }
+    }
+
+    @Benchmark
+    public VehicleType firstPassageOfDay() throws MultipleVehicleTypesException {
+        return storage.vehicleTypeOf(notPassedToday[ThreadLocalRandom.current().nextInt(notPassedToday.length)], today);
+    }
+
+    @Benchmark
+    public VehicleType laterPassageOfDay() throws MultipleVehicleTypesException {
+        return storage.vehicleTypeOf(passedToday[ThreadLocalRandom.current().nextInt(passedToday.length)], today);
+    }
+}
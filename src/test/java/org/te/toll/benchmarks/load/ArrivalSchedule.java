@@ -0,0 +1,60 @@
+package org.te.toll.benchmarks.load;
+
+import java.time.Duration;
+
+/**
+ * When the requests of an open-loop run are due, whatever the answers to the previous ones: at a constant rate, or
+ * with a rate growing linearly from one value to another to find where the server saturates.
+ */
+public final class ArrivalSchedule {
+
+    private final double fromRate;
+    private final double toRate;
+    private final double seconds;
+
+    private ArrivalSchedule(double fromRate, double toRate, Duration duration) {
+        if (fromRate <= 0 || toRate <= 0 || duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("The rates and the duration must be positive");
+        }
+        this.fromRate = fromRate;
+        this.toRate = toRate;
+        this.seconds = duration.toNanos() / 1e9;
+    }
+
+    public static ArrivalSchedule constant(double rate, Duration duration) {
+        return new ArrivalSchedule(rate, rate, duration);
+    }
+
+    public static ArrivalSchedule ramp(double fromRate, double toRate, Duration duration) {
+        return new ArrivalSchedule(fromRate, toRate, duration);
+    }
+
+    /**
+     * @param request Index of the request, from 0
+     * @return Nanoseconds from the start of the run to when the request is due, -1 once the run is over
+     */
+    public long offsetNanos(long request) {
+        // Requests due by t: fromRate * t + slope * t^2 / 2, solved for t
+        double slope = (toRate - fromRate) / seconds;
+        double t = slope == 0 ? request / fromRate
+                : (Math.sqrt(fromRate * fromRate + 2 * slope * request) - fromRate) / slope;
+        return t < seconds ? (long) (t * 1e9) : -1;
+    }
+
+    /**
+     * @return Requests per second due at that many nanoseconds from the start of the run
+     */
+    public double rateAt(long offsetNanos) {
+        return fromRate + (toRate - fromRate) * Math.min(1, offsetNanos / 1e9 / seconds);
+    }
+
+    public Duration getDuration() {
+        return Duration.ofNanos((long) (seconds * 1e9));
+    }
+
+    @Override
+    public String toString() {
+        return fromRate == toRate ? String.format("%.0f requests/s for %.0f s", fromRate, seconds)
+                : String.format("%.0f to %.0f requests/s over %.0f s", fromRate, toRate, seconds);
+    }
+}
@@ -0,0 +1,30 @@
+package org.te.toll.benchmarks.load;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArrivalScheduleTest {
+
+    @Test
+    void ramp_OffersTheAverageRateOverTheRun() {
+        ArrivalSchedule ramp = ArrivalSchedule.ramp(100, 300, Duration.ofSeconds(10));
+        long requests = 0;
+        long previous = -1;
+        for (long offset; (offset = ramp.offsetNanos(requests)) >= 0; requests++) {
+            assertTrue(offset > previous);
+            previous = offset;
+        }
+        assertEquals(2_000, requests, 1);
+        assertEquals(200, ramp.rateAt(Duration.ofSeconds(5).toNanos()), 1e-9);
+    }
+
+    @Test
+    void constant_SpacesTheRequestsEvenly() {
+        ArrivalSchedule constant = ArrivalSchedule.constant(100, Duration.ofSeconds(1));
+        assertEquals(10_000_000, constant.offsetNanos(1));
+        assertEquals(-1, constant.offsetNanos(100));
+    }
+}
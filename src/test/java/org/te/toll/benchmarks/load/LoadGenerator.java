@@ -0,0 +1,174 @@
+package org.te.toll.benchmarks.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the /toll/get-fee requests of a {@link PassageWorkload} when an {@link ArrivalSchedule} makes them due,
+ * without waiting for the answers to the previous ones. The latency of a request runs from when it was due rather
+ * than from when it was sent, so a server falling behind isn't hidden by a generator falling behind with it. A request
+ * skipped because too many are unanswered is recorded with the latency of a timed out one, and fails its interval.
+ * <p>
+ * Prints the throughput and the latency percentiles of every interval, records the interval histograms in the
+ * HdrHistogram log format when given a log writer, and returns the histogram of the whole run, in microseconds.
+ */
+public class LoadGenerator {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final PassageWorkload workload;
+    private final int maxInFlight;
+    private final Duration p99Objective;
+
+    /**
+     * @param maxInFlight  Requests left unanswered after which the due ones are skipped, and recorded as timed out
+     * @param p99Objective Highest p99 latency of an interval the server is considered to keep up with
+     */
+    public LoadGenerator(HttpClient client, URI baseUri, PassageWorkload workload, int maxInFlight,
+                         Duration p99Objective) {
+        this.client = client;
+        this.baseUri = baseUri;
+        this.workload = workload;
+        this.maxInFlight = maxInFlight;
+        this.p99Objective = p99Objective;
+    }
+
+    public Result run(ArrivalSchedule schedule, Duration interval, PrintStream out, HistogramLogWriter log)
+            throws InterruptedException {
+        Recorder recorder = new Recorder(3);
+        AtomicLong inFlight = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        Result result = new Result(p99Objective.toNanos() / 1000);
+        long intervalNanos = interval.toNanos();
+        long start = System.nanoTime();
+        long intervalStart = start;
+        Histogram intervalHistogram = null;
+        long skipped = 0;
+        for (long request = 0; ; request++) {
+            long offset = schedule.offsetNanos(request);
+            long due = offset < 0 ? start + schedule.getDuration().toNanos() : start + offset;
+            while (due - intervalStart >= intervalNanos) {
+                LockSupport.parkNanos(intervalStart + intervalNanos - System.nanoTime());
+                intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+                result.interval(intervalHistogram, schedule.rateAt(intervalStart - start + intervalNanos / 2),
+                        intervalNanos, errors.getAndSet(0), skipped, out, log);
+                skipped = 0;
+                intervalStart += intervalNanos;
+            }
+            if (offset < 0) {
+                break;
+            }
+            LockSupport.parkNanos(due - System.nanoTime());
+            if (inFlight.get() >= maxInFlight) {
+                // Never sent so never answered: counting it as timed out keeps the percentiles honest at saturation
+                recorder.recordValue(REQUEST_TIMEOUT.toNanos() / 1000);
+                skipped++;
+                continue;
+            }
+            inFlight.incrementAndGet();
+            HttpRequest httpRequest = HttpRequest.newBuilder(baseUri.resolve(workload.next().toPath()))
+                    .timeout(REQUEST_TIMEOUT)
+                    .build();
+            client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        recorder.recordValue(Math.max(1, (System.nanoTime() - due) / 1000));
+                        if (failure != null || response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                        inFlight.decrementAndGet();
+                    });
+        }
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        // Answers to the last requests due
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        if (intervalHistogram.getTotalCount() > 0) {
+            result.interval(intervalHistogram, schedule.rateAt(Long.MAX_VALUE),
+                    Math.max(1, System.nanoTime() - intervalStart), errors.getAndSet(0), skipped, out, log);
+        }
+        result.unanswered = inFlight.get();
+        return result;
+    }
+
+    /**
+     * Latencies of a run, and the highest offered rate of an interval the server kept up with: answering about as
+     * many requests as were due, without errors or skipped requests and with a p99 under the objective.
+     */
+    public static class Result {
+        private final Histogram histogram = new Histogram(3);
+        private final long sloMicros;
+        private long errors;
+        private long skipped;
+        private long unanswered;
+        private double sustainedRate;
+
+        private Result(long sloMicros) {
+            this.sloMicros = sloMicros;
+        }
+
+        private void interval(Histogram interval, double offeredRate, long nanos, long intervalErrors,
+                              long intervalSkipped, PrintStream out, HistogramLogWriter log) {
+            histogram.add(interval);
+            errors += intervalErrors;
+            skipped += intervalSkipped;
+            double seconds = nanos / 1e9;
+            // Skipped requests are in the histogram but weren't answered
+            double rate = (interval.getTotalCount() - intervalSkipped) / seconds;
+            long p99 = interval.getValueAtPercentile(99);
+            if (intervalErrors == 0 && intervalSkipped == 0 && rate >= offeredRate * 0.95 && p99 <= sloMicros) {
+                sustainedRate = Math.max(sustainedRate, offeredRate);
+            }
+            out.printf("offered %,8.0f/s  answered %,8.0f/s  p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  " +
+                            "max %8.2f ms  errors %d  skipped %d%n", offeredRate, rate,
+                    interval.getValueAtPercentile(50) / 1e3, p99 / 1e3, interval.getValueAtPercentile(99.9) / 1e3,
+                    interval.getMaxValue() / 1e3, intervalErrors, intervalSkipped);
+            if (log != null) {
+                log.outputIntervalHistogram(interval);
+            }
+        }
+
+        /**
+         * Prints the percentile distribution of the whole run in the HdrHistogram format, in milliseconds.
+         */
+        public void report(String name, PrintStream out) {
+            out.printf("%n%s: %,d requests due, %,d errors, %,d skipped, %,d unanswered%n", name,
+                    histogram.getTotalCount(), errors, skipped, unanswered);
+            out.printf("p50 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms%n",
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMaxValue() / 1e3);
+            out.printf("Kept up with up to %,.0f requests/s with a p99 under %.0f ms%n", sustainedRate,
+                    sloMicros / 1e3);
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public double getSustainedRate() {
+            return sustainedRate;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.te.toll.benchmarks.load;
+
+import org.te.toll.enums.VehicleType;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Endless stream of passages shaped like the traffic of a toll station, one simulated day after the other:
+ * <ul>
+ *     <li>a third of the passages around the morning rush hour, a third around the evening one, the rest spread
+ *     from 05:00 to 22:00, with less traffic on weekends</li>
+ *     <li>the commuters, 30% of the fleet, pass 70% of the time, so most vehicles come back several times a day</li>
+ *     <li>every vehicle keeps its type, about 10% of them of an exempt one</li>
+ *     <li>5% of the passages reach the API up to 30 minutes late, after later passages of the same vehicle</li>
+ * </ul>
+ * Not thread-safe, the generator takes the passages from one thread.
+ */
+public class PassageWorkload {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd%20HH:mm:ss");
+    private static final double COMMUTERS = 0.3;
+    private static final double COMMUTER_PASSAGES = 0.7;
+    private static final double LATE_SHARE = 0.05;
+    private static final int MAX_DELAY_SECONDS = 30 * 60;
+    private static final double WEEKEND_TRAFFIC = 0.4;
+    // Share of the vehicles of each type, in the order of VehicleType
+    private static final double[] TYPE_SHARES = {0.88, 0.04, 0.01, 0.01, 0.01, 0.04, 0.01};
+
+    private final int passagesPerDay;
+    private final Random random;
+    private final VehicleType[] types;
+    private LocalDate day;
+    private int[] vehicles = new int[0];
+    private int[] seconds = new int[0];
+    private int next;
+
+    /**
+     * @param vehicles       Size of the fleet
+     * @param passagesPerDay Passages of a weekday
+     * @param firstDay       First simulated day
+     */
+    public PassageWorkload(int vehicles, int passagesPerDay, LocalDate firstDay, long seed) {
+        this.passagesPerDay = passagesPerDay;
+        this.random = new Random(seed);
+        this.types = new VehicleType[vehicles];
+        for (int vehicle = 0; vehicle < vehicles; vehicle++) {
+            types[vehicle] = pickType();
+        }
+        this.day = firstDay.minusDays(1);
+    }
+
+    public Passage next() {
+        if (next == vehicles.length) {
+            day = day.plusDays(1);
+            generateDay();
+        }
+        int vehicle = vehicles[next];
+        int second = seconds[next++];
+        return new Passage(types[vehicle], registrationOf(vehicle), day.atStartOfDay().plusSeconds(second));
+    }
+
+    public static String registrationOf(int vehicle) {
+        return "LG" + vehicle;
+    }
+
+    // The passages of the day in the order they reach the API
+    private void generateDay() {
+        boolean weekend = day.getDayOfWeek().getValue() >= 6;
+        int count = weekend ? (int) (passagesPerDay * WEEKEND_TRAFFIC) : passagesPerDay;
+        int[] dayVehicles = new int[count];
+        int[] daySeconds = new int[count];
+        long[] arrivals = new long[count];
+        for (int i = 0; i < count; i++) {
+            dayVehicles[i] = pickVehicle();
+            daySeconds[i] = pickSecondOfDay(weekend);
+            int delay = random.nextDouble() < LATE_SHARE ? 1 + random.nextInt(MAX_DELAY_SECONDS) : 0;
+            arrivals[i] = (long) (daySeconds[i] + delay) << 32 | i;
+        }
+        Arrays.sort(arrivals);
+        vehicles = new int[count];
+        seconds = new int[count];
+        for (int i = 0; i < count; i++) {
+            int passage = (int) arrivals[i];
+            vehicles[i] = dayVehicles[passage];
+            seconds[i] = daySeconds[passage];
+        }
+        next = 0;
+    }
+
+    private int pickVehicle() {
+        int commuters = Math.max(1, (int) (types.length * COMMUTERS));
+        if (commuters == types.length || random.nextDouble() < COMMUTER_PASSAGES) {
+            return random.nextInt(commuters);
+        }
+        return commuters + random.nextInt(types.length - commuters);
+    }
+
+    private int pickSecondOfDay(boolean weekend) {
+        double draw = random.nextDouble();
+        double second;
+        if (weekend || draw >= 2.0 / 3) {
+            second = 5 * 3600 + random.nextDouble() * 17 * 3600;
+        } else if (draw < 1.0 / 3) {
+            second = 7.25 * 3600 + random.nextGaussian() * 25 * 60;
+        } else {
+            second = 16.25 * 3600 + random.nextGaussian() * 30 * 60;
+        }
+        return (int) Math.max(0, Math.min(86_399, second));
+    }
+
+    private VehicleType pickType() {
+        double draw = random.nextDouble();
+        for (int type = 0; type < TYPE_SHARES.length - 1; type++) {
+            draw -= TYPE_SHARES[type];
+            if (draw < 0) {
+                return VehicleType.values()[type];
+            }
+        }
+        return VehicleType.values()[TYPE_SHARES.length - 1];
+    }
+
+    public static final class Passage {
+        private final VehicleType type;
+        private final String registration;
+        private final LocalDateTime time;
+
+        Passage(VehicleType type, String registration, LocalDateTime time) {
+            this.type = type;
+            this.registration = registration;
+            this.time = time;
+        }
+
+        public VehicleType getType() {
+            return type;
+        }
+
+        public String getRegistration() {
+            return registration;
+        }
+
+        public LocalDateTime getTime() {
+            return time;
+        }
+
+        /**
+         * @return Path of the /toll/get-fee request of the passage
+         */
+        public String toPath() {
+            return "/toll/get-fee/" + type + "/" + registration + "/" + FORMATTER.format(time);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.te.toll.benchmarks.load;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.enums.VehicleType;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PassageWorkloadTest {
+
+    @Test
+    void passagesComeMostlyAtRushHours_FromVehiclesKeepingTheirType_SomeOfThemLate() {
+        PassageWorkload workload = new PassageWorkload(1_000, 10_000, LocalDate.of(2022, 1, 3), 42);
+        Map<String, VehicleType> types = new HashMap<>();
+        Map<String, LocalDateTime> latest = new HashMap<>();
+        Set<VehicleType> seen = EnumSet.noneOf(VehicleType.class);
+        int rushHours = 0;
+        int late = 0;
+        for (int i = 0; i < 10_000; i++) {
+            PassageWorkload.Passage passage = workload.next();
+            assertEquals(LocalDate.of(2022, 1, 3), passage.getTime().toLocalDate());
+            VehicleType previous = types.putIfAbsent(passage.getRegistration(), passage.getType());
+            assertTrue(previous == null || previous == passage.getType());
+            seen.add(passage.getType());
+            LocalTime time = passage.getTime().toLocalTime();
+            if (isBetween(time, 6, 30, 8, 0) || isBetween(time, 15, 30, 17, 0)) {
+                rushHours++;
+            }
+            LocalDateTime last = latest.merge(passage.getRegistration(), passage.getTime(),
+                    (a, b) -> a.isAfter(b) ? a : b);
+            if (passage.getTime().isBefore(last)) {
+                late++;
+            }
+        }
+        assertEquals(EnumSet.allOf(VehicleType.class), seen);
+        // The peaks are 3 of the 17 hours of traffic
+        assertTrue(rushHours > 5_000, "Rush hour passages " + rushHours);
+        assertTrue(late > 0 && late < 500, "Late passages " + late);
+        // 10k passages of 1k vehicles, the commuters coming back most
+        assertTrue(types.size() < 1_000);
+        assertEquals("/toll/get-fee/Car/LG7/2022-01-03%2007:15:00",
+                new PassageWorkload.Passage(VehicleType.Car, PassageWorkload.registrationOf(7),
+                        LocalDateTime.of(2022, 1, 3, 7, 15)).toPath());
+
+        PassageWorkload.Passage nextDay = workload.next();
+        assertEquals(LocalDate.of(2022, 1, 4), nextDay.getTime().toLocalDate());
+    }
+
+    private static boolean isBetween(LocalTime time, int fromHour, int fromMinute, int toHour, int toMinute) {
+        return !time.isBefore(LocalTime.of(fromHour, fromMinute)) && time.isBefore(LocalTime.of(toHour, toMinute));
+    }
+}
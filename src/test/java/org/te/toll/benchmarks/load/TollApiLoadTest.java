@@ -0,0 +1,100 @@
+package org.te.toll.benchmarks.load;
+
+import org.HdrHistogram.HistogramLogWriter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.te.toll.TollFeeCalculatorApplication;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Open-loop load test of /toll/get-fee with the passages of a {@link PassageWorkload}, to find where the API
+ * saturates. Starts the application on a random port unless -Dload.target gives the URL of a running one.
+ * Usage: {@code TollApiLoadTest [constant|ramp] [rate] [seconds] [toRate]}, defaults to a ramp from 100 to 5000
+ * requests/s over 60 s. A constant run holds {@code rate} for {@code seconds}.
+ * <p>
+ * Every second prints the rate offered and answered and the latency percentiles, which are measured from when each
+ * request was due. The interval histograms go to target/load-&lt;mode&gt;.hlog in the HdrHistogram log format, for
+ * HistogramLogAnalyzer or the HdrHistogram plotter, and the distribution of the whole run is printed at the end.
+ * <p>
+ * System properties: load.target, load.vehicles (fleet size, 100000), load.passages-per-day (200000),
+ * load.warmup-seconds (30, at the starting rate), load.p99-objective-ms (100), load.max-in-flight (10000), load.seed.
+ * The generator and an embedded server share the same processors: give them separate machines to measure a release.
+ */
+public class TollApiLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "ramp";
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 100;
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 60);
+        double toRate = args.length > 3 ? Double.parseDouble(args[3]) : 5000;
+        ArrivalSchedule schedule;
+        if ("constant".equals(mode)) {
+            schedule = ArrivalSchedule.constant(rate, duration);
+        } else if ("ramp".equals(mode)) {
+            schedule = ArrivalSchedule.ramp(rate, toRate, duration);
+        } else {
+            throw new IllegalArgumentException("Unknown mode " + mode + ", constant or ramp");
+        }
+        int maxInFlight = Integer.getInteger("load.max-in-flight", 10_000);
+
+        String target = System.getProperty("load.target", "");
+        ServletWebServerApplicationContext context = null;
+        if (target.isEmpty()) {
+            context = (ServletWebServerApplicationContext) SpringApplication.run(TollFeeCalculatorApplication.class,
+                    "--server.port=0", "--server.tomcat.max-connections=" + (maxInFlight + 100),
+                    "--logging.level.root=warn");
+            target = "http://localhost:" + context.getWebServer().getPort();
+        }
+        ExecutorService clientThreads = Executors.newFixedThreadPool(4);
+        try {
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clientThreads)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            PassageWorkload workload = new PassageWorkload(Integer.getInteger("load.vehicles", 100_000),
+                    Integer.getInteger("load.passages-per-day", 200_000), LocalDate.of(2022, 1, 3),
+                    Long.getLong("load.seed", 42));
+            LoadGenerator generator = new LoadGenerator(client, URI.create(target), workload, maxInFlight,
+                    Duration.ofMillis(Long.getLong("load.p99-objective-ms", 100)));
+
+            long warmup = Long.getLong("load.warmup-seconds", 30);
+            if (warmup > 0) {
+                System.out.printf("Warming %s up at %.0f requests/s for %d s%n", target, rate, warmup);
+                generator.run(ArrivalSchedule.constant(rate, Duration.ofSeconds(warmup)), Duration.ofSeconds(1),
+                        new PrintStream(OutputStream.nullOutputStream()), null);
+            }
+
+            Path hlog = Paths.get("target", "load-" + mode + ".hlog");
+            Files.createDirectories(hlog.getParent());
+            try (PrintStream logStream = new PrintStream(Files.newOutputStream(hlog))) {
+                HistogramLogWriter log = new HistogramLogWriter(logStream);
+                long now = System.currentTimeMillis();
+                log.outputLogFormatVersion();
+                log.outputComment("TollApiLoadTest " + schedule + " against " + target + ", latencies in us");
+                log.outputStartTime(now);
+                log.setBaseTime(now);
+                log.outputLegend();
+                System.out.printf("Sending %s to %s%n", schedule, target);
+                generator.run(schedule, Duration.ofSeconds(1), System.out, log).report(mode, System.out);
+            }
+            System.out.println("Interval histograms written to " + hlog);
+        } finally {
+            clientThreads.shutdownNow();
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.te.toll.calculator;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DailyFeeAccumulatorTest {
+
+    TollConfiguration config = new TollConfiguration();
+    TollCalculator calculator = new TollCalculator(config);
+    LocalDate day = LocalDate.of(2022, 1, 12);
+    ZoneId zone = ZoneId.systemDefault();
+
+    DailyFeeAccumulatorTest() {
+        config.setExemptWeekDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+        config.setFares(TollCalculatorEquivalenceTest.FARES);
+        config.setMaxDailyFare(60);
+        config.refresh();
+    }
+
+    @Test
+    void whenPassagesArriveOutOfOrder_FeeMatchesBatchCalculation() throws MultipleDaysPassages {
+        DailyFeeAccumulator accumulator = calculator.newDailyFeeAccumulator(VehicleType.Car, day, zone);
+        assertEquals(22, accumulator.add(at(15, 31)));
+        assertEquals(44, accumulator.add(at(7, 36)));
+        // 06:40 opens a cluster that the 07:36 passage joins
+        assertEquals(44, accumulator.add(at(6, 40)));
+        assertEquals(60, accumulator.add(at(17, 10)));
+        assertEquals(4, accumulator.getPassageCount());
+    }
+
+    @Test
+    void whenLatePassageMovesClusterBoundaries_FeeIsRecalculated() throws MultipleDaysPassages {
+        config.setMaxDailyFare(1000);
+        config.refresh();
+        DailyFeeAccumulator accumulator = calculator.newDailyFeeAccumulator(VehicleType.Car, day, zone);
+        accumulator.add(at(7, 10)); // 22
+        assertEquals(22, accumulator.add(at(8, 5))); // 16, same cluster as 07:10
+        assertEquals(22 + 9, accumulator.add(at(8, 40)));
+        // 06:30 starts the first cluster: {06:30, 07:10}, {08:05, 08:40}
+        assertEquals(22 + 16, accumulator.add(at(6, 30)));
+    }
+
+    @Test
+    void whenPassageIsOnAnotherDay_ExceptionIsThrown() {
+        DailyFeeAccumulator accumulator = calculator.newDailyFeeAccumulator(VehicleType.Car, day, zone);
+        assertThrows(MultipleDaysPassages.class,
+                () -> accumulator.add(day.plusDays(1).atStartOfDay(zone).toEpochSecond()));
+    }
+
+    @Test
+    void whenAddingRandomPassages_EveryIntermediateFeeMatchesBatchCalculation() throws MultipleDaysPassages {
+        Random random = new Random(7);
+        for (int round = 0; round < 5_000; round++) {
+            config.setMaxDailyFare(random.nextBoolean() ? 60 : 1000);
+            config.refresh();
+            VehicleType type = random.nextInt(10) == 0 ? VehicleType.Military : VehicleType.Car;
+            LocalDate randomDay = day.plusDays(random.nextInt(14));
+            DailyFeeAccumulator accumulator = calculator.newDailyFeeAccumulator(type, randomDay, zone);
+            List<ZonedDateTime> passages = new ArrayList<>();
+            int count = 1 + random.nextInt(30);
+            for (int i = 0; i < count; i++) {
+                ZonedDateTime passage = randomDay.atStartOfDay(zone).plusSeconds(random.nextBoolean()
+                        ? 6 * 3_600 + random.nextInt(4 * 3_600)
+                        : random.nextInt(24 * 3_600));
+                passages.add(passage);
+                assertEquals(calculator.getTollFee(type, passages), accumulator.add(passage.toEpochSecond()),
+                        () -> "Different fee after " + passages);
+            }
+        }
+    }
+
+    private long at(int hour, int minute) {
+        return day.atTime(hour, minute).atZone(zone).toEpochSecond();
+    }
+}
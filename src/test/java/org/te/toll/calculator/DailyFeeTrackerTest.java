@@ -0,0 +1,214 @@
+package org.te.toll.calculator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.ExemptionCalendar;
+import org.te.toll.config.FareTable;
+import org.te.toll.config.TariffSnapshot;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TariffsReloadedEvent;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.config.TrackerProperties;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.exceptions.VehicleTypeMismatchException;
+import org.te.toll.storage.AsyncStorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.cluster.LocalShardCluster;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DailyFeeTrackerTest {
+
+    TollConfiguration config = new TollConfiguration();
+    TollCalculator calculator = new TollCalculator(config);
+    ZonedDateTime morning = ZonedDateTime.of(2022, 1, 11, 7, 59, 0, 0, ZoneId.systemDefault());
+
+    DailyFeeTrackerTest() {
+        config.setFares(TollCalculatorEquivalenceTest.FARES);
+        config.setMaxDailyFare(60);
+        config.refresh();
+    }
+
+    @Test
+    void whenTypeIsCheckedBeforeRecording_ConcurrentPassagesRecordTwoTypes() throws Exception {
+        SlowLookupStorage storage = new SlowLookupStorage();
+        // The sequence getFee used to run: check the type, then record the passage
+        List<Boolean> recorded = race(type -> {
+            VehicleType storedType = storage.vehicleTypeOf("ULJ985", morning);
+            if (storedType != null && storedType != type) {
+                return false;
+            }
+            storage.recordPassage("ULJ985", type, morning);
+            return true;
+        });
+
+        assertEquals(List.of(true, true), recorded);
+        assertThrows(MultipleVehicleTypesException.class, () -> storage.vehicleTypeOf("ULJ985", morning));
+    }
+
+    @Test
+    void whenRecordingAndPricing_ConcurrentPassagesRecordOneType() throws Exception {
+        SlowLookupStorage storage = new SlowLookupStorage();
+        DailyFeeTracker tracker = new DailyFeeTracker(storage, calculator, new FeeRollups(), TariffZones.SINGLE,
+                new SimpleMeterRegistry());
+        List<Boolean> recorded = race(type -> {
+            try {
+                tracker.recordAndPrice("ULJ985", type, morning);
+                return true;
+            } catch (VehicleTypeMismatchException e) {
+                return false;
+            }
+        });
+
+        assertEquals(1, recorded.stream().filter(x -> x).count());
+        assertNotNull(storage.vehicleTypeOf("ULJ985", morning));
+        assertEquals(1, storage.getPassages("ULJ985", morning).size());
+    }
+
+    @Test
+    void whenTariffsAreReloaded_TrackedDaysAreRepriced() throws Exception {
+        AtomicReference<TariffSnapshot> tariff = new AtomicReference<>(config.tariffOf(morning.toLocalDate()));
+        FeeRollups rollups = new FeeRollups();
+        DailyFeeTracker tracker = new DailyFeeTracker(new StorageServiceConcurrentImpl(),
+                new TollCalculator((zone, day) -> tariff.get()), rollups, TariffZones.SINGLE, new SimpleMeterRegistry());
+        assertEquals(22, tracker.recordAndPrice("ULJ985", VehicleType.Car, morning));
+
+        tariff.set(new TariffSnapshot(1, "default", LocalDate.MIN, FareTable.compile(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(6, 0, 30))), 50, ExemptionCalendar.NONE));
+        tracker.onTariffsReloaded(new TariffsReloadedEvent(1, List.of(tariff.get())));
+
+        assertEquals(30, rollups.getDailyFee("ULJ985", morning.toLocalDate()));
+        assertEquals(50, tracker.recordAndPrice("ULJ985", VehicleType.Car, morning.plusHours(2)));
+        assertEquals(50, rollups.getDailyFee("ULJ985", morning.toLocalDate()));
+    }
+
+    @Test
+    void whenMoreVehicleDaysThanTheBoundAreTracked_TheLeastRecentlyUpdatedAreReloadedFromStorage() throws Exception {
+        TrackerProperties properties = new TrackerProperties();
+        properties.setMaxVehicleDays(10);
+        DailyFeeTracker tracker = new DailyFeeTracker(new StorageServiceConcurrentImpl(), calculator,
+                new FeeRollups(), TariffZones.SINGLE, properties, new SimpleMeterRegistry());
+        assertEquals(22, tracker.recordAndPrice("ULJ985", VehicleType.Car, morning));
+        for (int vehicle = 0; vehicle < 100; vehicle++) {
+            tracker.recordAndPrice("REG" + vehicle, VehicleType.Car, morning);
+        }
+        assertTrue(tracker.getTrackedVehicleDays() <= 10);
+
+        // The first passage was evicted from memory, not from the fee
+        assertEquals(31, tracker.recordAndPrice("ULJ985", VehicleType.Car, morning.plusHours(1)));
+        assertThrows(VehicleTypeMismatchException.class,
+                () -> tracker.recordAndPrice("ULJ985", VehicleType.Tractor, morning.plusHours(2)));
+    }
+
+    @Test
+    void whenStoredPassagesBelongToARemovedZone_RollupsAreRebuiltWithoutThem() {
+        StorageServiceConcurrentImpl storage = new StorageServiceConcurrentImpl();
+        storage.recordPassage("ULJ985", VehicleType.Car, morning);
+        storage.recordPassage("ULJ985@harbour", VehicleType.Car, morning);
+        FeeRollups rollups = new FeeRollups();
+        new DailyFeeTracker(storage, calculator, rollups, TariffZones.SINGLE, new SimpleMeterRegistry())
+                .rebuildRollups();
+
+        assertEquals(22, rollups.getDailyFee("ULJ985", morning.toLocalDate()));
+        assertEquals(0, rollups.getDailyFee("ULJ985@harbour", morning.toLocalDate()));
+    }
+
+    @Test
+    void whenTwoNodesRecordTheSameVehicleInShardedStorage_EachSeesThePassagesOfTheOther() throws Exception {
+        try (LocalShardCluster cluster = new LocalShardCluster(2, 16)) {
+            // Each node keeps its own tracker and rollups in front of the same shards
+            DailyFeeTracker first = new DailyFeeTracker(cluster.getRouter(), calculator, new FeeRollups(),
+                    TariffZones.SINGLE, new SimpleMeterRegistry());
+            DailyFeeTracker second = new DailyFeeTracker(cluster.getRouter(), calculator, new FeeRollups(),
+                    TariffZones.SINGLE, new SimpleMeterRegistry());
+
+            assertEquals(22, first.recordAndPrice("ULJ985", VehicleType.Car, morning));
+            assertEquals(44, second.recordAndPrice("ULJ985", VehicleType.Car, morning.plusHours(8)));
+            assertThrows(VehicleTypeMismatchException.class,
+                    () -> second.recordAndPrice("ULJ985", VehicleType.Tractor, morning.plusHours(9)));
+            assertEquals(60, first.recordAndPrice("ULJ985", VehicleType.Car, List.of(morning.plusHours(10))));
+
+            LocalDate day = morning.toLocalDate();
+            assertEquals(60, second.getFee(TariffZones.DEFAULT, "ULJ985", day.withDayOfMonth(1), day.plusDays(20)));
+            assertEquals(0, second.getFee(TariffZones.DEFAULT, "ULJ985", day.plusDays(1), day.plusDays(1)));
+        }
+    }
+
+    @Test
+    void whenShardedDaysAreReadConcurrently_TheRangeFeeMatchesTheSequentialOne() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (LocalShardCluster cluster = new LocalShardCluster(2, 16)) {
+            DailyFeeTracker sequential = new DailyFeeTracker(cluster.getRouter(), calculator, new FeeRollups(),
+                    TariffZones.SINGLE, new SimpleMeterRegistry());
+            DailyFeeTracker concurrent = new DailyFeeTracker(cluster.getRouter(), calculator, new FeeRollups(),
+                    TariffZones.SINGLE, new SimpleMeterRegistry());
+            concurrent.setAsyncStorage(new AsyncStorageService(cluster.getRouter(), pool));
+
+            for (int day = 0; day < 10; day++) {
+                sequential.recordAndPrice("ULJ985", VehicleType.Car, morning.plusDays(day));
+            }
+            sequential.recordAndPrice("ULJ985", VehicleType.Car, morning.plusDays(3).plusHours(8));
+
+            LocalDate from = morning.toLocalDate().minusDays(1);
+            LocalDate to = from.plusDays(12);
+            assertEquals(sequential.getFee(TariffZones.DEFAULT, "ULJ985", from, to),
+                    concurrent.getFee(TariffZones.DEFAULT, "ULJ985", from, to));
+
+            cluster.getRouter().recordPassage("ULJ985", VehicleType.Tractor, morning.plusDays(5).plusHours(1));
+            assertThrows(IllegalStateException.class,
+                    () -> concurrent.getFee(TariffZones.DEFAULT, "ULJ985", from, to));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Records a car and a tractor with the same registration at the same time
+    private List<Boolean> race(Passage passage) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(2);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> car = threads.submit(() -> {
+                start.await();
+                return passage.record(VehicleType.Car);
+            });
+            Future<Boolean> tractor = threads.submit(() -> {
+                start.await();
+                return passage.record(VehicleType.Tractor);
+            });
+            return List.of(car.get(10, TimeUnit.SECONDS), tractor.get(10, TimeUnit.SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private interface Passage {
+        boolean record(VehicleType type) throws Exception;
+    }
+
+    // Widens the window between the type check and the write, like a remote store would
+
+    private static class SlowLookupStorage extends StorageServiceConcurrentImpl {
+        @Override
+        public VehicleType vehicleTypeOf(String registration, ZonedDateTime dateTime) throws MultipleVehicleTypesException {
+            VehicleType type = super.vehicleTypeOf(registration, dateTime);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return type;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.te.toll.calculator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FeeRollupsTest {
+
+    TollConfiguration config = new TollConfiguration();
+    TollCalculator calculator = new TollCalculator(config);
+    StorageService storage = new StorageServiceConcurrentImpl();
+    FeeRollups rollups = new FeeRollups();
+    DailyFeeTracker tracker = new DailyFeeTracker(storage, calculator, rollups, TariffZones.SINGLE, new SimpleMeterRegistry());
+
+    FeeRollupsTest() {
+        config.setExemptWeekDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+        config.setFares(TollCalculatorEquivalenceTest.FARES);
+        config.setMaxDailyFare(60);
+        config.refresh();
+    }
+
+    @Test
+    void whenPassagesAreRecorded_MonthsYearsAndRangesAddUpDailyFees() throws Exception {
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 11, 7, 59));
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 12, 7, 59));
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 2, 1, 15, 31));
+        tracker.recordAndPrice("XYZ789", VehicleType.Car, at(2022, 1, 11, 7, 59));
+
+        assertEquals(44, rollups.getMonthlyFee("ABC123", YearMonth.of(2022, 1)));
+        assertEquals(66, rollups.getYearlyFee("ABC123", Year.of(2022)));
+        assertEquals(0, rollups.getYearlyFee("ABC123", Year.of(2021)));
+        assertEquals(44, rollups.getFee("ABC123", LocalDate.of(2022, 1, 12), LocalDate.of(2022, 2, 1)));
+        assertEquals(22, rollups.getFee("ABC123", LocalDate.of(2021, 12, 1), LocalDate.of(2022, 1, 11)));
+        assertEquals(66, rollups.getFee("ABC123", LocalDate.of(2022, 1, 1), LocalDate.of(2022, 2, 28)));
+    }
+
+    @Test
+    void whenLatePassageChangesPastDay_RollupsAreUpdated() throws Exception {
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 11, 7, 59));
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 3, 1, 7, 59));
+        // Same cluster as 07:59, the most expensive passage of the hour is still 22
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 11, 7, 10));
+        assertEquals(22, rollups.getDailyFee("ABC123", LocalDate.of(2022, 1, 11)));
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 11, 16, 45));
+
+        assertEquals(44, rollups.getDailyFee("ABC123", LocalDate.of(2022, 1, 11)));
+        assertEquals(44, rollups.getMonthlyFee("ABC123", YearMonth.of(2022, 1)));
+        assertEquals(66, rollups.getYearlyFee("ABC123", Year.of(2022)));
+    }
+
+    @Test
+    void whenRebuiltFromStorage_RollupsMatchRecordedFees() throws Exception {
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 11, 7, 59));
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 1, 11, 16, 45));
+        tracker.recordAndPrice("ABC123", VehicleType.Car, at(2022, 2, 1, 15, 31));
+
+        FeeRollups rebuilt = new FeeRollups();
+        new DailyFeeTracker(storage, calculator, rebuilt, TariffZones.SINGLE, new SimpleMeterRegistry()).rebuildRollups();
+        assertEquals(44, rebuilt.getMonthlyFee("ABC123", YearMonth.of(2022, 1)));
+        assertEquals(66, rebuilt.getYearlyFee("ABC123", Year.of(2022)));
+    }
+
+    private ZonedDateTime at(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, ZoneId.systemDefault());
+    }
+}
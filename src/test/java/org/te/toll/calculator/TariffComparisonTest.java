@@ -0,0 +1,73 @@
+package org.te.toll.calculator;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TariffComparisonTest {
+
+    static final ZoneId STOCKHOLM = ZoneId.of("Europe/Stockholm");
+
+    @Test
+    void whenPricingRandomDaysUnderSeveralTariffs_FeesMatchTheCalculatorOfEachTariff() throws MultipleDaysPassages {
+        TollConfiguration current = tariff(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(6, 0, 9), new TollConfiguration.Fare(7, 0, 22),
+                new TollConfiguration.Fare(18, 30, 0)), 60);
+        TollConfiguration capped = tariff(current.getFares(), 35);
+        TollConfiguration weekdaysOnly = tariff(List.of(new TollConfiguration.Fare(0, 0, 5)), 200);
+        weekdaysOnly.setExemptWeekDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+        List<TollConfiguration> tariffs = List.of(current, capped, weekdaysOnly);
+        TariffComparison comparison = new TariffComparison(tariffs);
+        assertEquals(3, comparison.size());
+
+        Random random = new Random(7);
+        int[] fees = new int[3];
+        for (int round = 0; round < 5_000; round++) {
+            // Around the end of March, to cross the daylight saving time change
+            LocalDate day = LocalDate.of(2022, 3, 20).plusDays(random.nextInt(14));
+            ZonedDateTime midnight = day.atStartOfDay(STOCKHOLM);
+            int count = random.nextInt(30);
+            long[] epochSeconds = new long[count + 3];
+            for (int i = 0; i < count; i++) {
+                epochSeconds[i] = midnight.plusSeconds(random.nextInt(23 * 3_600)).toEpochSecond();
+            }
+            VehicleType type = random.nextInt(5) == 0 ? VehicleType.Emergency : VehicleType.Car;
+            comparison.price(TariffZones.DEFAULT, type, day, STOCKHOLM, epochSeconds.clone(), count, fees);
+            for (int t = 0; t < tariffs.size(); t++) {
+                assertEquals(new TollCalculator(tariffs.get(t)).getTollFee(type, day, STOCKHOLM, epochSeconds.clone(),
+                        count), fees[t], "tariff " + t + " on " + day);
+            }
+        }
+    }
+
+    @Test
+    void whenAPassageBelongsToAnotherDay_MultipleDaysPassagesIsThrown() {
+        TariffComparison comparison = new TariffComparison(List.of(tariff(List.of(new TollConfiguration.Fare(0, 0, 5)),
+                60)));
+        LocalDate day = LocalDate.of(2022, 1, 11);
+        long[] epochSeconds = {day.atTime(8, 0).atZone(STOCKHOLM).toEpochSecond(),
+                day.plusDays(1).atTime(8, 0).atZone(STOCKHOLM).toEpochSecond()};
+        assertThrows(MultipleDaysPassages.class,
+                () -> comparison.price(TariffZones.DEFAULT, VehicleType.Car, day, STOCKHOLM, epochSeconds, 2, new int[1]));
+    }
+
+    private static TollConfiguration tariff(List<TollConfiguration.Fare> fares, int maxDailyFare) {
+        TollConfiguration config = new TollConfiguration();
+        config.setFares(fares);
+        config.setMaxDailyFare(maxDailyFare);
+        config.setExemptVehicleTypes(List.of(VehicleType.Emergency));
+        config.refresh();
+        return config;
+    }
+}
@@ -0,0 +1,129 @@
+package org.te.toll.calculator;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleDaysPassages;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the single-pass calculator against a copy of the original clustering implementation on random days.
+ */
+class TollCalculatorEquivalenceTest {
+
+    static final List<TollConfiguration.Fare> FARES = List.of(new TollConfiguration.Fare(0, 0, 0),
+            new TollConfiguration.Fare(6, 0, 9),
+            new TollConfiguration.Fare(6, 30, 16),
+            new TollConfiguration.Fare(7, 0, 22),
+            new TollConfiguration.Fare(8, 0, 16),
+            new TollConfiguration.Fare(8, 30, 9),
+            new TollConfiguration.Fare(15, 0, 16),
+            new TollConfiguration.Fare(15, 30, 22),
+            new TollConfiguration.Fare(17, 0, 16),
+            new TollConfiguration.Fare(18, 0, 9),
+            new TollConfiguration.Fare(18, 30, 0));
+
+    @Test
+    void whenCalculatingRandomDays_ResultMatchesOriginalImplementation() throws MultipleDaysPassages {
+        TollConfiguration config = new TollConfiguration();
+        config.setExemptMonths(List.of(Month.JULY));
+        config.setExemptWeekDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+        config.setExemptDatesRaw(List.of("2022-01-05", "2022-01-06", "2022-04-14", "2022-04-15", "2022-04-18",
+                "2022-05-25", "2022-05-26", "2022-06-06", "2022-06-24", "2022-11-04", "2026-12-26"));
+        config.setExemptVehicleTypes(List.of(VehicleType.Motorbike, VehicleType.Tractor, VehicleType.Emergency,
+                VehicleType.Diplomat, VehicleType.Foreign, VehicleType.Military));
+        config.setFares(FARES);
+        Random random = new Random(42);
+        for (int round = 0; round < 20_000; round++) {
+            config.setMaxDailyFare(random.nextBoolean() ? 60 : 40 + random.nextInt(100));
+            config.refresh();
+            TollCalculator calculator = new TollCalculator(config);
+            VehicleType type = random.nextInt(4) == 0
+                    ? VehicleType.values()[random.nextInt(VehicleType.values().length)]
+                    : VehicleType.Car;
+            List<ZonedDateTime> passages = randomDay(random);
+            assertEquals(originalTollFee(config, type, passages), calculator.getTollFee(type, passages),
+                    () -> "Different fee for " + type + " " + passages);
+        }
+    }
+
+    private static List<ZonedDateTime> randomDay(Random random) {
+        LocalDate day = LocalDate.of(2022, 1, 1).plusDays(random.nextInt(365));
+        ZonedDateTime midnight = day.atStartOfDay(ZoneId.systemDefault());
+        List<ZonedDateTime> passages = new ArrayList<>();
+        int count = random.nextInt(25);
+        for (int i = 0; i < count; i++) {
+            ZonedDateTime passage;
+            if (!passages.isEmpty() && random.nextBoolean()) {
+                // Bursts around a previous passage exercise the 60 minutes cluster boundary
+                ZonedDateTime anchor = passages.get(random.nextInt(passages.size()));
+                passage = anchor.plusSeconds(random.nextInt(2 * 3_700) - 3_700);
+            } else {
+                passage = midnight.plusSeconds(random.nextInt(24 * 3_600));
+            }
+            if (passage.toLocalDate().equals(day)) {
+                passages.add(passage);
+            }
+        }
+        return passages;
+    }
+
+    // The implementation before the single-pass rewrite, kept as the reference
+    private static int originalTollFee(TollConfiguration config, VehicleType type, List<ZonedDateTime> passages) {
+        if (passages.isEmpty()) {
+            return 0;
+        }
+        ZonedDateTime passageDateTime = passages.get(0);
+        if (config.getExemptMonths().contains(passageDateTime.getMonth())
+                || config.getExemptWeekDays().contains(passageDateTime.getDayOfWeek())
+                || config.getExemptDates().contains(passageDateTime.toLocalDate())) {
+            return 0;
+        }
+        if (config.getExemptVehicleTypes().contains(type)) {
+            return 0;
+        }
+        List<List<ZonedDateTime>> clusters = new ArrayList<>();
+        Stack<ZonedDateTime> orderedPassages = new Stack<>();
+        orderedPassages.addAll(passages.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList()));
+        while (!orderedPassages.isEmpty()) {
+            ZonedDateTime firstPassage = orderedPassages.pop();
+            List<ZonedDateTime> currentCluster = new ArrayList<>(List.of(firstPassage));
+            while (!orderedPassages.isEmpty() && ChronoUnit.MINUTES.between(firstPassage, orderedPassages.peek()) < 60) {
+                currentCluster.add(orderedPassages.pop());
+            }
+            clusters.add(currentCluster);
+        }
+        return Math.min(clusters.stream()
+                .map(cluster -> cluster.stream().map(TollCalculatorEquivalenceTest::originalPriceByTime)
+                        .max(Comparator.naturalOrder()).orElse(0))
+                .reduce(0, Integer::sum), config.getMaxDailyFare());
+    }
+
+    private static int originalPriceByTime(ZonedDateTime time) {
+        int currentFare = 0;
+        for (TollConfiguration.Fare fare : FARES) {
+            ZonedDateTime fareStart = ZonedDateTime.of(time.getYear(), time.getMonthValue(), time.getDayOfMonth(),
+                    fare.getHour(), fare.getMinute(), 0, 0, ZoneId.systemDefault());
+            if (!fareStart.isAfter(time)) {
+                currentFare = fare.getPrice();
+            } else {
+                break;
+            }
+        }
+        return currentFare;
+    }
+}
@@ -42,6 +42,7 @@ class TollCalculatorTest {
                 new TollConfiguration.Fare(18, 30, 0)
                 ));
         config.setMaxDailyFare(60);
+        config.refresh();
     }
 
     @Test
@@ -0,0 +1,49 @@
+package org.te.toll.config;
+
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionConfigurationTest {
+
+    @Test
+    void whenVirtualModeIsSelected_VirtualThreadsAreUsedOnlyWhereTheJdkHasThem() {
+        ExecutionProperties properties = new ExecutionProperties();
+        properties.setMode(ExecutionProperties.Mode.VIRTUAL);
+        Http11NioProtocol protocol = new Http11NioProtocol();
+        new ExecutionConfiguration().virtualThreadProtocolHandler(properties).customize(protocol);
+
+        boolean virtualThreads = Runtime.version().feature() >= 21;
+        assertEquals(virtualThreads, ExecutionConfiguration.newVirtualThreadPerTaskExecutor().isPresent());
+        assertEquals(virtualThreads, protocol.getExecutor() != null
+                && !(protocol.getExecutor() instanceof ThreadPoolExecutor));
+    }
+
+    @Test
+    void whenPlatformModeIsSelected_TomcatKeepsItsPool() {
+        Http11NioProtocol protocol = new Http11NioProtocol();
+        new ExecutionConfiguration().virtualThreadProtocolHandler(new ExecutionProperties()).customize(protocol);
+        assertNull(protocol.getExecutor());
+    }
+
+    @Test
+    void whenVirtualThreadsAreNotAvailable_AsyncStorageCallsRunOnAFixedPool() {
+        ExecutionProperties properties = new ExecutionProperties();
+        properties.setMode(ExecutionProperties.Mode.VIRTUAL);
+        properties.setPoolSize(8);
+        ExecutorService executor = ExecutionConfiguration.newStorageExecutor(properties);
+        try {
+            if (Runtime.version().feature() >= 21) {
+                assertFalse(executor instanceof ThreadPoolExecutor);
+            } else {
+                assertEquals(8, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.te.toll.config;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.enums.VehicleType;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExemptionCalendarTest {
+
+    ExemptionCalendar calendar = ExemptionCalendar.of(List.of(VehicleType.Military), List.of(Month.JULY),
+            List.of(DayOfWeek.SUNDAY), List.of(LocalDate.of(2022, 6, 6), LocalDate.of(2021, 12, 24)));
+
+    @Test
+    void whenCheckingDays_OnlyExemptOnesMatch() {
+        assertTrue(calendar.isExemptDay(LocalDate.of(2022, 7, 12)));
+        assertTrue(calendar.isExemptDay(LocalDate.of(2022, 1, 16)));
+        assertTrue(calendar.isExemptDay(LocalDate.of(2022, 6, 6)));
+        assertTrue(calendar.isExemptDay(LocalDate.of(2021, 12, 24)));
+        assertFalse(calendar.isExemptDay(LocalDate.of(2022, 6, 7)));
+        assertFalse(calendar.isExemptDay(LocalDate.of(2021, 12, 23)));
+        assertFalse(calendar.isExemptDay(LocalDate.of(2030, 6, 6)));
+    }
+
+    @Test
+    void whenCheckingVehicleTypes_OnlyExemptOnesMatch() {
+        assertTrue(calendar.isExempt(VehicleType.Military, LocalDate.of(2022, 6, 7)));
+        assertFalse(calendar.isExempt(VehicleType.Car, LocalDate.of(2022, 6, 7)));
+    }
+
+    @Test
+    void whenConfigurationIsRebound_CalendarIsRebuiltOnceBindingIsOver() {
+        TollConfiguration config = new TollConfiguration();
+        config.setExemptMonths(List.of(Month.JULY));
+        config.refresh();
+        ExemptionCalendar before = config.getExemptionCalendar();
+        config.setExemptMonths(List.of(Month.AUGUST));
+        config.setExemptWeekDays(List.of(DayOfWeek.SUNDAY));
+        // Nothing half bound is published
+        assertSame(before, config.getExemptionCalendar());
+        config.refresh();
+        assertTrue(before.isExemptDay(LocalDate.of(2022, 7, 12)));
+        assertFalse(config.getExemptionCalendar().isExemptDay(LocalDate.of(2022, 7, 12)));
+        assertTrue(config.getExemptionCalendar().isExemptDay(LocalDate.of(2022, 8, 9)));
+        assertTrue(config.getExemptionCalendar().isExemptDay(LocalDate.of(2022, 9, 11)));
+    }
+}
@@ -0,0 +1,51 @@
+package org.te.toll.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FareTableTest {
+
+    FareTable fareTable = FareTable.compile(List.of(new TollConfiguration.Fare(0, 0, 0),
+            new TollConfiguration.Fare(6, 0, 9),
+            new TollConfiguration.Fare(6, 30, 16),
+            new TollConfiguration.Fare(18, 30, 0)));
+
+    @Test
+    void whenLookingUpMinutes_TheFareStartedLastIsReturned() {
+        assertEquals(0, fareTable.priceAt(0));
+        assertEquals(0, fareTable.priceAt(5 * 60 + 59));
+        assertEquals(9, fareTable.priceAt(6 * 60));
+        assertEquals(9, fareTable.priceAt(6 * 60 + 29));
+        assertEquals(16, fareTable.priceAt(6 * 60 + 30));
+        assertEquals(16, fareTable.priceAt(ZonedDateTime.of(2022, 1, 11, 18, 29, 59, 0, ZoneId.systemDefault())));
+        assertEquals(0, fareTable.priceAt(FareTable.MINUTES_PER_DAY - 1));
+    }
+
+    @Test
+    void whenFaresDontStartAtMidnight_CompilationFails() {
+        assertThrows(IllegalArgumentException.class, () -> FareTable.compile(List.of(new TollConfiguration.Fare(6, 0, 9))));
+    }
+
+    @Test
+    void whenFaresAreUnsortedOrOverlapping_CompilationFails() {
+        assertThrows(IllegalArgumentException.class, () -> FareTable.compile(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(8, 0, 9),
+                new TollConfiguration.Fare(7, 0, 16))));
+        assertThrows(IllegalArgumentException.class, () -> FareTable.compile(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(7, 0, 9),
+                new TollConfiguration.Fare(7, 0, 16))));
+    }
+
+    @Test
+    void whenFareTimeIsOutOfRange_CompilationFails() {
+        assertThrows(IllegalArgumentException.class, () -> FareTable.compile(List.of(new TollConfiguration.Fare(0, 0, 0),
+                new TollConfiguration.Fare(24, 0, 9))));
+        assertThrows(IllegalArgumentException.class, () -> FareTable.compile(List.of()));
+    }
+}
@@ -0,0 +1,40 @@
+package org.te.toll.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("prod")
+class StartupConfigurationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Test
+    void whenTheProdProfileIsActive_OnlyTheBackgroundBeansAreCreatedOnStartup() {
+        assertTrue(context.getBeanFactory().containsSingleton("retentionCompactor"));
+        assertTrue(context.getBeanFactory().containsSingleton("tariffRegistry"));
+        assertFalse(context.getBeanFactory().containsSingleton("tollFeeCalculatorController"));
+        assertFalse(context.containsBean("swaggerConfig"));
+
+        assertEquals("22", restTemplate.getForObject("http://localhost:" + port +
+                "/toll/get-fee/Car/PROD001/2022-01-11 07:59:00", String.class));
+        assertTrue(context.getBeanFactory().containsSingleton("tollFeeCalculatorController"));
+        assertEquals(HttpStatus.NOT_FOUND, restTemplate.getForEntity("http://localhost:" + port + "/v2/api-docs",
+                String.class).getStatusCode());
+    }
+}
@@ -0,0 +1,48 @@
+package org.te.toll.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.te.toll.storage.InstrumentedStorageService;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceInMemoryImpl;
+import org.te.toll.storage.StorageServiceShardedImpl;
+import org.te.toll.storage.cluster.ClusterAdmin;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageMetricsConfigurationTest {
+
+    private final BeanPostProcessor postProcessor;
+
+    StorageMetricsConfigurationTest() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("registry", new SimpleMeterRegistry());
+        postProcessor = StorageMetricsConfiguration.storageMetricsPostProcessor(
+                beanFactory.getBeanProvider(MeterRegistry.class));
+    }
+
+    @Test
+    void whenShardedStorageIsInstrumented_ItStaysAClusterAdmin() {
+        StorageServiceShardedImpl sharded = new StorageServiceShardedImpl(List.of("toll-1:7101"), 16);
+        Object bean = postProcessor.postProcessAfterInitialization(sharded, "storageServiceShardedImpl");
+
+        assertTrue(bean instanceof InstrumentedStorageService);
+        ClusterAdmin admin = (ClusterAdmin) bean;
+        assertSame(sharded.getRing(), admin.getRing());
+        assertThrows(IllegalArgumentException.class, () -> admin.removeNode("toll-1:7101"),
+                "The membership changes must reach the wrapped router");
+    }
+
+    @Test
+    void whenOtherStorageIsInstrumented_ItIsNoClusterAdmin() {
+        Object bean = postProcessor.postProcessAfterInitialization(new StorageServiceInMemoryImpl(), "storage");
+
+        assertTrue(bean instanceof StorageService);
+        assertFalse(bean instanceof ClusterAdmin);
+    }
+}
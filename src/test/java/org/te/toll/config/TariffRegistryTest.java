@@ -0,0 +1,151 @@
+package org.te.toll.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TariffRegistryTest {
+
+    static final String TARIFFS = "tariffs:\n" +
+            "  - effectiveFrom: 2023-01-01\n" +
+            "    maxDailyFare: 80\n" +
+            "    fares:\n" +
+            "      - {hour: 0, minute: 0, price: 0}\n" +
+            "      - {hour: 6, minute: 0, price: 30}\n" +
+            "  - effectiveFrom: 2022-07-01\n" +
+            "    exemptDatesRaw:\n" +
+            "      - 2022-12-26\n";
+
+    @TempDir
+    Path directory;
+    TollConfiguration config = new TollConfiguration();
+    TariffProperties properties = new TariffProperties();
+    List<Object> events = new ArrayList<>();
+
+    TariffRegistryTest() {
+        config.setFares(List.of(new TollConfiguration.Fare(0, 0, 0), new TollConfiguration.Fare(6, 0, 22)));
+        config.setMaxDailyFare(60);
+        config.refresh();
+    }
+
+    @Test
+    void whenNoFile_AllDaysUseTheConfiguration() {
+        TariffRegistry registry = new TariffRegistry(config, properties, events::add);
+
+        assertEquals(1, registry.getTariffs().size());
+        assertEquals(60, registry.tariffOf(LocalDate.of(2030, 1, 1)).getMaxDailyFare());
+        assertEquals(config.getFareTable(), registry.tariffOf(LocalDate.of(1990, 1, 1)).getFareTable());
+    }
+
+    @Test
+    void whenTariffsAreLoaded_EachDayUsesTheLastEffectiveOne() throws IOException {
+        TariffRegistry registry = new TariffRegistry(config, withFile(TARIFFS), events::add);
+
+        assertEquals(3, registry.getTariffs().size());
+        assertEquals(22, priceAtNine(registry.tariffOf(LocalDate.of(2022, 6, 30))));
+        assertFalse(registry.tariffOf(LocalDate.of(2022, 6, 30)).getExemptionCalendar()
+                .isExemptDay(LocalDate.of(2022, 12, 26)));
+        // Only the exempt dates change, the rest comes from the configuration
+        TariffSnapshot summer = registry.tariffOf(LocalDate.of(2022, 7, 1));
+        assertEquals(LocalDate.of(2022, 7, 1), summer.getEffectiveFrom());
+        assertEquals(22, priceAtNine(summer));
+        assertEquals(60, summer.getMaxDailyFare());
+        assertTrue(summer.getExemptionCalendar().isExemptDay(LocalDate.of(2022, 12, 26)));
+        assertEquals(summer, registry.tariffOf(LocalDate.of(2022, 12, 31)));
+        TariffSnapshot next = registry.tariffOf(LocalDate.of(2023, 1, 1));
+        assertEquals(30, priceAtNine(next));
+        assertEquals(80, next.getMaxDailyFare());
+        assertEquals(next, registry.tariffOf(LocalDate.of(2040, 1, 1)));
+    }
+
+    @Test
+    void whenReloaded_TheNewTariffsGetANewVersion() throws IOException {
+        TariffProperties withFile = withFile("");
+        TariffRegistry registry = new TariffRegistry(config, withFile, events::add);
+        assertEquals(0, registry.getVersion());
+
+        Files.writeString(Path.of(withFile.getFile()), TARIFFS);
+        TariffsReloadedEvent event = registry.reload();
+
+        assertEquals(1, event.getVersion());
+        assertEquals(List.of(event), events);
+        assertEquals(3, registry.getTariffs().size());
+        assertTrue(registry.getTariffs().stream().allMatch(tariff -> tariff.getVersion() == 1));
+        assertEquals(30, priceAtNine(registry.tariffOf(LocalDate.of(2023, 3, 1))));
+    }
+
+    @Test
+    void whenReloadFails_TheCurrentTariffsStay() throws IOException {
+        TariffProperties withFile = withFile(TARIFFS);
+        TariffRegistry registry = new TariffRegistry(config, withFile, events::add);
+
+        Files.writeString(Path.of(withFile.getFile()), "tariffs:\n" +
+                "  - effectiveFrom: 2023-01-01\n" +
+                "    fares:\n" +
+                "      - {hour: 6, minute: 0, price: 30}\n");
+
+        assertThrows(IllegalArgumentException.class, registry::reload);
+        assertEquals(0, registry.getVersion());
+        assertEquals(3, registry.getTariffs().size());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void whenTwoTariffsStartTheSameDay_LoadingFails() throws IOException {
+        TariffProperties withFile = withFile(TARIFFS + "  - effectiveFrom: 2023-01-01\n    maxDailyFare: 70\n");
+
+        assertThrows(IllegalArgumentException.class, () -> new TariffRegistry(config, withFile, events::add));
+    }
+
+    @Test
+    void whenZonesAreConfigured_EachZoneHasItsOwnTariffs() throws IOException {
+        TariffDefinition airport = new TariffDefinition();
+        airport.setMaxDailyFare(30);
+        config.setTariffZones(Map.of("airport", airport));
+        config.refresh();
+        TariffRegistry registry = new TariffRegistry(config, withFile("tariffs:\n" +
+                "  - zone: airport\n" +
+                "    effectiveFrom: 2023-01-01\n" +
+                "    maxDailyFare: 40\n"), events::add);
+        TariffZones zones = new TariffZones(config);
+        int zone = zones.indexOf("airport");
+
+        assertEquals(List.of("default", "airport"), zones.getIds());
+        assertEquals(30, registry.tariffOf(zone, LocalDate.of(2022, 12, 31)).getMaxDailyFare());
+        // The fares are the ones of the default zone
+        assertEquals(22, priceAtNine(registry.tariffOf(zone, LocalDate.of(2022, 12, 31))));
+        assertEquals(40, registry.tariffOf(zone, LocalDate.of(2023, 1, 1)).getMaxDailyFare());
+        assertEquals(60, registry.tariffOf(TariffZones.DEFAULT, LocalDate.of(2023, 1, 1)).getMaxDailyFare());
+        assertEquals("ABC123@airport", zones.keyOf(zone, "ABC123"));
+        assertEquals(zone, zones.zoneOfKey("ABC123@airport"));
+        assertEquals(TariffZones.DEFAULT, zones.zoneOfKey("ABC123"));
+        assertEquals(-1, zones.indexOf("moon"));
+    }
+
+    @Test
+    void whenATariffNamesAnUnknownZone_LoadingFails() throws IOException {
+        TariffProperties withFile = withFile("tariffs:\n  - zone: moon\n    effectiveFrom: 2023-01-01\n");
+
+        assertThrows(IllegalArgumentException.class, () -> new TariffRegistry(config, withFile, events::add));
+    }
+
+    private TariffProperties withFile(String content) throws IOException {
+        Path file = directory.resolve("tariffs.yml");
+        Files.writeString(file, content);
+        properties.setFile(file.toString());
+        return properties;
+    }
+
+    private static int priceAtNine(TariffSnapshot tariff) {
+        return tariff.getFareTable().priceAt(9 * 60);
+    }
+}
@@ -0,0 +1,163 @@
+package org.te.toll.ingestion;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.FeeRollups;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.IngestionProperties;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.jobs.RetentionCompactor;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.VehicleDay;
+import org.te.toll.time.PassageTimeParser;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionPipelineTest {
+
+    TollConfiguration config = new TollConfiguration();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    FeeRollups rollups = new FeeRollups();
+    IngestionProperties properties = new IngestionProperties();
+    LocalDate tuesday = LocalDate.of(2022, 1, 11);
+    IngestionPipeline pipeline;
+
+    IngestionPipelineTest() {
+        config.setFares(List.of(new TollConfiguration.Fare(0, 0, 0), new TollConfiguration.Fare(6, 0, 22)));
+        config.setMaxDailyFare(60);
+        config.refresh();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        pipeline.stop();
+    }
+
+    @Test
+    void whenPassagesAreFed_FeesReachTheRollupsAndRejectionsAreCounted() throws Exception {
+        StorageService storage = new StorageServiceConcurrentImpl();
+        pipeline = start(storage);
+        for (int v = 0; v < 100; v++) {
+            assertTrue(pipeline.publish(VehicleType.Car, "REG" + v, "2022-01-11 07:00:00", null));
+            assertTrue(pipeline.publish(VehicleType.Car, "REG" + v, "2022-01-11 09:00:00", null));
+        }
+        pipeline.publish(VehicleType.Car, "REG7", "2022-01-11 11:00:00", null);
+        pipeline.publish(VehicleType.Car, "REG7", "2022-01-11 13:00:00", null);
+        pipeline.publish(VehicleType.Emergency, "REG8", "2022-01-11 11:00:00", null);
+        pipeline.publish(VehicleType.Car, "X", "2022-01-11 11:00:00", null);
+        pipeline.publish(VehicleType.Car, "REG9", "2022-01-11 25:00:00", null);
+        pipeline.publish(VehicleType.Car, "REG9", "2022-01-11 11:00:00", "airport");
+        pipeline.publish(null, "REG9", "2022-01-11 11:00:00", null);
+        assertTrue(pipeline.awaitIdle(Duration.ofSeconds(10)));
+
+        assertEquals(44, rollups.getDailyFee("REG0", tuesday));
+        assertEquals(60, rollups.getDailyFee("REG7", tuesday));
+        assertEquals(44, rollups.getDailyFee("REG8", tuesday));
+        assertEquals(VehicleType.Car, storage.vehicleTypeOf("REG8", tuesday.atStartOfDay(ZoneId.systemDefault())));
+        assertEquals(202, count("accepted"));
+        assertEquals(1, count("type-mismatch"));
+        assertEquals(1, count("registration"));
+        assertEquals(1, count("date"));
+        assertEquals(1, count("zone"));
+        assertEquals(1, count("vehicle-type"));
+        assertEquals(0, pipeline.getBacklog());
+        assertEquals(207, registry.get("toll.ingestion.latency").tag("stage", "fee").timer().count());
+    }
+
+    @Test
+    void whenTheRingIsFullAndBackpressureRejects_PassagesAreRefusedThenRecorded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StorageService storage = new StorageServiceConcurrentImpl() {
+            @Override
+            public void recordPassages(String registration, VehicleType type, List<ZonedDateTime> dateTimes) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.recordPassages(registration, type, dateTimes);
+            }
+        };
+        properties.setRingSize(8);
+        properties.setBackpressure(IngestionProperties.Backpressure.REJECT);
+        pipeline = start(storage);
+
+        int accepted = 0;
+        while (pipeline.publish(VehicleType.Car, "REG" + accepted, "2022-01-11 07:00:00", null)) {
+            accepted++;
+        }
+        assertEquals(8, accepted);
+        assertEquals(1, registry.get("toll.ingestion.refused").counter().count());
+        release.countDown();
+        assertTrue(pipeline.awaitIdle(Duration.ofSeconds(10)));
+        assertTrue(pipeline.publish(VehicleType.Car, "REG" + accepted, "2022-01-11 07:00:00", null));
+        assertTrue(pipeline.awaitIdle(Duration.ofSeconds(10)));
+        for (int v = 0; v <= accepted; v++) {
+            assertEquals(22, rollups.getDailyFee("REG" + v, tuesday));
+        }
+    }
+
+    @Test
+    void whenARejectedPassageTakesTheSlotOfAnAcceptedOne_NothingOfTheAcceptedOneIsLeft() throws Exception {
+        properties.setRingSize(8);
+        pipeline = start(new StorageServiceConcurrentImpl());
+        for (int v = 0; v < 8; v++) {
+            assertTrue(pipeline.publish(VehicleType.Car, "REG" + v, "2022-01-11 07:00:00", null));
+        }
+        assertTrue(pipeline.awaitIdle(Duration.ofSeconds(10)));
+        // The second lap of the ring, every slot rejected at a different stage of the parse
+        pipeline.publish(VehicleType.Car, "X", "2022-01-11 09:00:00", null);
+        pipeline.publish(VehicleType.Car, "REG1", "2022-01-11 09:00:00", "airport");
+        pipeline.publish(null, "REG2", "2022-01-11 09:00:00", null);
+        pipeline.publish(VehicleType.Car, "REG3", "2022-01-11 25:00:00", null);
+        assertTrue(pipeline.awaitIdle(Duration.ofSeconds(10)));
+        assertEquals(8, count("accepted"));
+        assertEquals(1, count("registration"));
+        assertEquals(1, count("zone"));
+        assertEquals(1, count("vehicle-type"));
+        assertEquals(1, count("date"));
+        for (int v = 0; v < 4; v++) {
+            assertEquals(22, rollups.getDailyFee("REG" + v, tuesday));
+        }
+
+        PassageSlot slot = new PassageSlot();
+        slot.set(VehicleType.Car, "REG0", "2022-01-11 07:00:00", null);
+        slot.tariffZone = 0;
+        slot.dateTime = tuesday.atTime(7, 0).atZone(ZoneId.systemDefault());
+        slot.vehicleDay = new VehicleDay("REG0", tuesday);
+        slot.fee = 22;
+        slot.set(VehicleType.Car, "X", "2022-01-11 09:00:00", null);
+        assertEquals(-1, slot.tariffZone);
+        assertNull(slot.dateTime);
+        assertNull(slot.vehicleDay);
+        assertNull(slot.rejection);
+        assertEquals(0, slot.fee);
+    }
+
+    private IngestionPipeline start(StorageService storage) {
+        DailyFeeTracker tracker = new DailyFeeTracker(storage, new TollCalculator(config), rollups, TariffZones.SINGLE,
+                registry);
+        IngestionPipeline pipeline = new IngestionPipeline(properties, tracker,
+                new RetentionCompactor(storage, tracker, new StorageProperties(), registry),
+                new PassageTimeParser(ZoneId.systemDefault()), TariffZones.SINGLE, registry);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private double count(String outcome) {
+        return registry.get("toll.ingestion.passages").tag("outcome", outcome).counter().count();
+    }
+}
@@ -0,0 +1,108 @@
+package org.te.toll.jobs;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.InvoicingProperties;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.model.InvoiceSummary;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoicingJobTest {
+
+    TollConfiguration config = new TollConfiguration();
+    TollCalculator calculator = new TollCalculator(config);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    StorageService storage = new StorageServiceConcurrentImpl();
+    InvoicingProperties properties = new InvoicingProperties();
+    RetentionCompactor retention = new RetentionCompactor(storage, new DailyFeeTracker(storage, calculator),
+            new StorageProperties(), registry);
+    ZonedDateTime monday = ZonedDateTime.of(2022, 1, 10, 7, 59, 0, 0, ZoneId.systemDefault());
+
+    @TempDir
+    Path directory;
+
+    InvoicingJobTest() {
+        config.setFares(List.of(new TollConfiguration.Fare(0, 0, 0), new TollConfiguration.Fare(6, 0, 22)));
+        config.setMaxDailyFare(60);
+        config.refresh();
+    }
+
+    @Test
+    void whenInvoicingADay_EveryVehicleOfThatDayIsPricedOnce() throws IOException {
+        properties.setParallelism(3);
+        for (int v = 0; v < 1_000; v++) {
+            storage.recordPassage("REG" + v, VehicleType.Car, monday);
+            storage.recordPassage("REG" + v, VehicleType.Car, monday.plusHours(v % 5));
+        }
+        storage.recordPassage("NEXTDAY", VehicleType.Car, monday.plusDays(1));
+        storage.recordPassage("A,\"B\"", VehicleType.Car, monday);
+        // Of a tariff zone removed from the configuration
+        storage.recordPassage("REG0@ferry", VehicleType.Car, monday);
+
+        Path file = directory.resolve("invoice.csv");
+        InvoiceSummary summary = new InvoicingJob(storage, calculator, retention, TariffZones.SINGLE, properties, registry)
+                .invoice(monday.toLocalDate(), file);
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(InvoicingJob.HEADER, lines.get(0));
+        assertEquals(1_002, lines.size());
+        assertTrue(lines.contains("REG0,2022-01-10,Car,2,22,default"));
+        assertTrue(lines.contains("REG1,2022-01-10,Car,2,44,default"));
+        assertTrue(lines.contains("\"A,\"\"B\"\"\",2022-01-10,Car,1,22,default"));
+        assertTrue(lines.stream().noneMatch(line -> line.startsWith("NEXTDAY")));
+        assertEquals(1_001, summary.getVehicles());
+        assertEquals(2_001, summary.getPassages());
+        assertEquals(1, summary.getSkippedVehicles());
+        // REG0, REG5, ... stay in one cluster, the others pay two
+        assertEquals(200 * 22 + 800 * 44 + 22, summary.getTotalFee());
+    }
+
+    @Test
+    void whenParallelismChanges_InvoiceIsTheSame() throws IOException {
+        for (int v = 0; v < 500; v++) {
+            storage.recordPassage("REG" + v, VehicleType.Car, monday.plusMinutes(v));
+        }
+        properties.setParallelism(1);
+        Path single = directory.resolve("single.csv");
+        new InvoicingJob(storage, calculator, retention, TariffZones.SINGLE, properties, registry).invoice(monday.toLocalDate(), single);
+        properties.setParallelism(4);
+        Path parallel = directory.resolve("parallel.csv");
+        new InvoicingJob(storage, calculator, retention, TariffZones.SINGLE, properties, registry).invoice(monday.toLocalDate(), parallel);
+
+        assertEquals(Files.readAllLines(single).size(), Files.readAllLines(parallel).size());
+        assertEquals(Files.readAllLines(single).stream().sorted().reduce("", String::concat),
+                Files.readAllLines(parallel).stream().sorted().reduce("", String::concat));
+    }
+
+    @Test
+    void whenADayIsInvoicedAgain_TheInvoiceIsReplacedWhole() throws IOException {
+        storage.recordPassage("REG0", VehicleType.Car, monday);
+        Path file = directory.resolve("invoice.csv");
+        Files.writeString(file, "previous invoice\n".repeat(100));
+        new InvoicingJob(storage, calculator, retention, TariffZones.SINGLE, properties, registry)
+                .invoice(monday.toLocalDate(), file);
+
+        assertEquals(List.of(InvoicingJob.HEADER, "REG0,2022-01-10,Car,1,22,default"), Files.readAllLines(file));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(file), files.collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.te.toll.jobs;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.te.toll.calculator.DailyFeeTracker;
+import org.te.toll.calculator.FeeRollups;
+import org.te.toll.calculator.TollCalculator;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.CompactedDayException;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.StorageServiceInMemoryImpl;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetentionCompactorTest {
+
+    TollConfiguration config = new TollConfiguration();
+    TollCalculator calculator = new TollCalculator(config);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    StorageProperties properties = new StorageProperties();
+    ZonedDateTime monday = ZonedDateTime.of(2022, 1, 10, 7, 59, 0, 0, ZoneId.systemDefault());
+
+    RetentionCompactorTest() {
+        config.setFares(List.of(new TollConfiguration.Fare(0, 0, 0), new TollConfiguration.Fare(6, 0, 22)));
+        config.setMaxDailyFare(60);
+        config.refresh();
+        properties.getRetention().setRawDays(2);
+    }
+
+    @Test
+    void whenDaysAreOlderThanRetention_TheyAreReplacedByDailyTotals() throws Exception {
+        compactsOldDays(new StorageServiceConcurrentImpl());
+    }
+
+    @Test
+    void whenDaysAreOlderThanRetentionInTheOriginalStore_TheyAreReplacedByDailyTotals() throws Exception {
+        compactsOldDays(new StorageServiceInMemoryImpl());
+    }
+
+    private void compactsOldDays(StorageService storage) throws Exception {
+        DailyFeeTracker tracker = new DailyFeeTracker(storage, calculator);
+        Clock wednesday = Clock.fixed(monday.plusDays(2).toInstant(), monday.getZone());
+        RetentionCompactor compactor = new RetentionCompactor(storage, tracker, properties, registry, wednesday);
+        tracker.recordAndPrice("ULJ985", VehicleType.Car, monday);
+        tracker.recordAndPrice("ULJ985", VehicleType.Car, monday.plusHours(2));
+        tracker.recordAndPrice("ULJ985", VehicleType.Car, monday.plusDays(1));
+        tracker.recordAndPrice("ULJ985", VehicleType.Car, monday.plusDays(2));
+
+        assertEquals(2, compactor.compact());
+
+        LocalDate day = monday.toLocalDate();
+        assertTrue(storage.getPassages("ULJ985", monday).isEmpty());
+        assertEquals(44, storage.getDailyTotal("ULJ985", day));
+        assertEquals(1, storage.getPassages("ULJ985", monday.plusDays(1)).size());
+        assertNull(storage.getDailyTotal("ULJ985", day.plusDays(1)));
+        assertTrue(compactor.isCompacted(day));
+        assertFalse(compactor.isCompacted(day.plusDays(1)));
+        assertEquals(2, registry.get("toll.storage.compaction.evicted").counter().count());
+        assertEquals(1, registry.get("toll.storage.compaction").timer().count());
+
+        // Even past the isCompacted check of the caller, the day stays closed and its total isn't added to
+        assertThrows(CompactedDayException.class,
+                () -> tracker.recordAndPrice("ULJ985", VehicleType.Car, monday.plusHours(4)));
+        assertEquals(0, compactor.compact());
+        assertEquals(44, storage.getDailyTotal("ULJ985", day));
+    }
+
+    @Test
+    void whenADayHoldsPassagesOfARemovedTariffZone_ItIsCompactedWithTheDefaultTariff() throws Exception {
+        StorageService storage = new StorageServiceConcurrentImpl();
+        DailyFeeTracker tracker = new DailyFeeTracker(storage, calculator, new FeeRollups(), TariffZones.SINGLE,
+                registry);
+        RetentionCompactor compactor = new RetentionCompactor(storage, tracker, properties, registry);
+        storage.recordPassage("ULJ985@ferry", VehicleType.Car, monday);
+        tracker.recordAndPrice("ULJ985", VehicleType.Car, monday);
+
+        assertEquals(2, compactor.compact(monday.toLocalDate().plusDays(1)));
+        assertEquals(22, storage.getDailyTotal("ULJ985@ferry", monday.toLocalDate()));
+        assertEquals(22, storage.getDailyTotal("ULJ985", monday.toLocalDate()));
+        assertEquals(1, registry.get("toll.tracker.unconfigured.zone.days").counter().count());
+    }
+}
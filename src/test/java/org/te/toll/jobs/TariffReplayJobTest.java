@@ -0,0 +1,108 @@
+package org.te.toll.jobs;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.ReplayProperties;
+import org.te.toll.config.TariffDefinition;
+import org.te.toll.config.TariffZones;
+import org.te.toll.config.TollConfiguration;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.model.TariffReplayReport;
+import org.te.toll.model.TariffRevenue;
+import org.te.toll.storage.StorageService;
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TariffReplayJobTest {
+
+    TollConfiguration config = new TollConfiguration();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    StorageService storage = new StorageServiceConcurrentImpl();
+    ReplayProperties properties = new ReplayProperties();
+    ZonedDateTime monday = ZonedDateTime.of(2022, 1, 10, 7, 0, 0, 0, ZoneId.systemDefault());
+    TariffReplayJob job;
+
+    TariffReplayJobTest() {
+        config.setFares(List.of(new TollConfiguration.Fare(0, 0, 0), new TollConfiguration.Fare(6, 0, 22)));
+        config.setMaxDailyFare(60);
+        config.setExemptVehicleTypes(List.of(VehicleType.Emergency));
+        config.refresh();
+        properties.setParallelism(3);
+        properties.setBatchSize(16);
+        job = new TariffReplayJob(storage, config, config, TariffZones.SINGLE, properties, registry);
+    }
+
+    @Test
+    void whenReplayingAPeriod_EveryVehicleDayIsPricedUnderEveryTariff() {
+        for (int v = 0; v < 100; v++) {
+            storage.recordPassages("REG" + v, VehicleType.Car, List.of(monday, monday.plusHours(2)));
+            storage.recordPassage("REG" + v, VehicleType.Car, monday.plusDays(1));
+            // Outside of the period
+            storage.recordPassage("REG" + v, VehicleType.Car, monday.minusDays(1));
+            storage.recordPassage("REG" + v, VehicleType.Car, monday.plusDays(2));
+        }
+        storage.recordPassage("EMG", VehicleType.Emergency, monday);
+        // Of a tariff zone removed from the configuration
+        storage.recordPassage("REG0@ferry", VehicleType.Car, monday);
+
+        Map<String, TariffDefinition> candidates = new LinkedHashMap<>();
+        candidates.put("cap30", candidate(null, 30, null));
+        candidates.put("flat", candidate(List.of(new TollConfiguration.Fare(0, 0, 10)), null, null));
+        candidates.put("free-from-tuesday", candidate(List.of(new TollConfiguration.Fare(0, 0, 0)), null, "2022-01-11"));
+        TariffReplayReport report = job.replay(candidates, monday.toLocalDate(), monday.toLocalDate().plusDays(1));
+
+        assertEquals(201, report.getVehicleDays());
+        assertEquals(301, report.getPassages());
+        assertEquals(1, report.getSkippedVehicleDays());
+        assertEquals(List.of("current", "cap30", "flat", "free-from-tuesday"),
+                report.getTariffs().stream().map(TariffRevenue::getName).collect(Collectors.toList()));
+        TariffRevenue current = report.getTariffs().get(0);
+        assertEquals(100 * 44 + 100 * 22, current.getRevenue());
+        assertEquals(0, current.getRevenueChange());
+        assertEquals(200, current.getChargedVehicleDays());
+        assertEquals(22, current.getMedianFee());
+        assertEquals(44, current.getP90Fee());
+        assertEquals(44, current.getMaxFee());
+        assertEquals(Map.of(0, 1L, 22, 100L, 44, 100L), current.getVehicleDaysByFee());
+        assertEquals(Map.of("2022-01-10", 4400L, "2022-01-11", 2200L), current.getRevenueByDay());
+        assertEquals(Map.of("Car", 6600L), current.getRevenueByVehicleType());
+
+        assertEquals(100 * 30 + 100 * 22, report.getTariffs().get(1).getRevenue());
+        assertEquals(-1400, report.getTariffs().get(1).getRevenueChange());
+        assertEquals(100 * 20 + 100 * 10, report.getTariffs().get(2).getRevenue());
+        assertEquals(4400, report.getTariffs().get(3).getRevenue());
+        assertEquals(Map.of("2022-01-10", 4400L, "2022-01-11", 0L), report.getTariffs().get(3).getRevenueByDay());
+        assertEquals(201, registry.get("toll.replay.vehicles").counter().count());
+    }
+
+    @Test
+    void whenACandidateIsNotValid_IllegalArgumentExceptionIsThrown() {
+        LocalDate day = monday.toLocalDate();
+        assertThrows(IllegalArgumentException.class,
+                () -> job.replay(Map.of(TariffReplayJob.CURRENT, candidate(null, 30, null)), day, day));
+        TariffDefinition unknownZone = candidate(null, 30, null);
+        unknownZone.setZone("airport");
+        assertThrows(IllegalArgumentException.class, () -> job.replay(Map.of("airport", unknownZone), day, day));
+        assertThrows(IllegalArgumentException.class, () -> job.replay(Map.of(), day, day.minusDays(1)));
+        assertThrows(IllegalArgumentException.class, () -> job.replay(Map.of(), day, day.plusDays(366)));
+        assertEquals(0, job.replay(Map.of(), day, day).getTariffs().get(0).getRevenue());
+    }
+
+    private static TariffDefinition candidate(List<TollConfiguration.Fare> fares, Integer maxDailyFare,
+                                              String effectiveFrom) {
+        TariffDefinition definition = new TariffDefinition();
+        definition.setFares(fares);
+        definition.setMaxDailyFare(maxDailyFare);
+        definition.setEffectiveFrom(effectiveFrom);
+        return definition;
+    }
+}
@@ -0,0 +1,26 @@
+package org.te.toll.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RegistrationDictionaryTest {
+
+    RegistrationDictionary dictionary = new RegistrationDictionary();
+
+    @Test
+    void whenRegistrationsAreAdded_IdsAreDenseAndStable() {
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(i, dictionary.idOf("REG" + i));
+        }
+        assertEquals(42, dictionary.idOf(new String("REG42")));
+        assertEquals("REG4999", dictionary.registrationOf(4_999));
+        assertEquals(5_000, dictionary.size());
+    }
+
+    @Test
+    void whenLookingForUnknownRegistration_NoIdIsAssigned() {
+        assertEquals(-1, dictionary.find("ULJ985"));
+        assertEquals(0, dictionary.size());
+    }
+}
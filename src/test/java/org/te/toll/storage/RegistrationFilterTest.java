@@ -0,0 +1,42 @@
+package org.te.toll.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegistrationFilterTest {
+
+    RegistrationFilter filter = new RegistrationFilter();
+
+    @Test
+    void whenRegistrationsAreAdded_NoneIsReportedAbsent() {
+        for (int i = 0; i < 200_000; i++) {
+            filter.add("REG" + i);
+        }
+        for (int i = 0; i < 200_000; i++) {
+            assertTrue(filter.mightContain("REG" + i));
+        }
+        // About 2 bytes per registration once the filter grew
+        assertTrue(filter.getSizeInBytes() < 200_000 * 4);
+    }
+
+    @Test
+    void whenRegistrationsWereNeverAdded_FewAreReportedPresent() {
+        for (int i = 0; i < 200_000; i++) {
+            filter.add("REG" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 200_000; i++) {
+            if (filter.mightContain("OTHER" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, falsePositives + " false positives");
+    }
+
+    @Test
+    void whenEmpty_NothingIsPresent() {
+        assertFalse(filter.mightContain("ULJ985"));
+        assertEquals(4096 * 2, filter.getSizeInBytes());
+    }
+}
@@ -0,0 +1,161 @@
+package org.te.toll.storage;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageServiceConcurrentImplTest {
+
+    StorageService storage = new StorageServiceConcurrentImpl();
+
+    @Test
+    void whenPassagesInDifferentDays_OnlyCorrectDayIsRetrieved() {
+        ZonedDateTime timeOfPassage_1 = ZonedDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        ZonedDateTime timeOfPassage_2 = timeOfPassage_1.plus(1, ChronoUnit.DAYS);
+        storage.recordPassage("xyz", VehicleType.Car, timeOfPassage_1);
+        storage.recordPassage("xyz", VehicleType.Car, timeOfPassage_2);
+        List<ZonedDateTime> passages = storage.getPassages("xyz", timeOfPassage_2);
+        assertEquals(List.of(timeOfPassage_2), passages);
+        assertTrue(storage.getPassages("abc", timeOfPassage_2).isEmpty());
+    }
+
+    @Test
+    void whenVehicleHasDifferentTypesTheSameDay_MultipleVehicleTypesExceptionIsThrown() throws MultipleVehicleTypesException {
+        ZonedDateTime timeOfPassage = ZonedDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        assertNull(storage.vehicleTypeOf("xyz", timeOfPassage));
+        storage.recordPassage("xyz", VehicleType.Car, timeOfPassage);
+        assertEquals(VehicleType.Car, storage.vehicleTypeOf("xyz", timeOfPassage));
+        storage.recordPassage("xyz", VehicleType.Emergency, timeOfPassage.plus(1, ChronoUnit.MINUTES));
+        assertThrows(MultipleVehicleTypesException.class, () -> storage.vehicleTypeOf("xyz", timeOfPassage));
+    }
+
+    @Test
+    void whenDaysAreScannedAsSeconds_TheyMatchTheStoredPassages() {
+        ZonedDateTime morning = ZonedDateTime.of(2022, 1, 11, 7, 59, 12, 0, ZoneId.of("Europe/Stockholm"));
+        List<ZonedDateTime> passages = List.of(morning, morning.plusHours(9));
+        storage.recordPassages("xyz", VehicleType.Car, passages);
+        storage.recordPassage("xyz", VehicleType.Car, morning.plusDays(1));
+        storage.recordPassage("abc", VehicleType.Tractor, morning);
+
+        List<String> scanned = new ArrayList<>();
+        storage.forEachVehicleDaySeconds(morning.toLocalDate(), (registration, type, day, zone, epochSeconds, count) -> {
+            assertEquals(morning.toLocalDate(), day);
+            assertEquals(morning.getZone(), zone);
+            if (registration.equals("xyz")) {
+                assertEquals(VehicleType.Car, type);
+                assertArrayEquals(new long[]{morning.toEpochSecond(), morning.plusHours(9).toEpochSecond()},
+                        Arrays.copyOf(epochSeconds, count));
+            }
+            scanned.add(registration);
+        });
+        assertEquals(2, scanned.size());
+        assertTrue(scanned.containsAll(List.of("xyz", "abc")));
+        assertEquals(passages, storage.getPassages("xyz", morning));
+    }
+
+    @Test
+    void whenManyThreadsRecordConcurrently_NoPassageIsLost() throws Exception {
+        int threads = 16;
+        int passagesPerThread = 5_000;
+        int vehicles = 50;
+        ZonedDateTime start = ZonedDateTime.of(2022, 1, 11, 0, 0, 0, 0, ZoneId.systemDefault());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                go.await();
+                for (int i = 0; i < passagesPerThread; i++) {
+                    // Spread passages over two days so that day partitions are created concurrently too
+                    ZonedDateTime time = start.plusSeconds((thread * passagesPerThread + i) % 43_200)
+                            .plusDays(i % 2);
+                    String registration = "REG" + (i % vehicles);
+                    storage.recordPassage(registration, VehicleType.Car, time);
+                    storage.getPassages(registration, time);
+                    storage.vehicleTypeOf(registration, time);
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (int v = 0; v < vehicles; v++) {
+            total += storage.getPassages("REG" + v, start).size();
+            total += storage.getPassages("REG" + v, start.plusDays(1)).size();
+        }
+        assertEquals((long) threads * passagesPerThread, total);
+    }
+
+    @Test
+    void whenTwoCompactionsRunConcurrently_EachDayIsPricedAndCountedOnce() throws Exception {
+        int vehicles = 20_000;
+        ZonedDateTime start = ZonedDateTime.of(2022, 1, 11, 6, 0, 0, 0, ZoneId.systemDefault());
+        for (int v = 0; v < vehicles; v++) {
+            storage.recordPassages("REG" + v, VehicleType.Car, List.of(start, start.plusHours(1)));
+            storage.recordPassage("REG" + v, VehicleType.Car, start.plusDays(1));
+        }
+        AtomicInteger priced = new AtomicInteger();
+        CyclicBarrier go = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<Long>> compactions = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            compactions.add(executor.submit(() -> {
+                go.await();
+                return storage.compactBefore(start.plusDays(1).toLocalDate(),
+                        (registration, type, passages) -> priced.incrementAndGet());
+            }));
+        }
+        long evicted = 0;
+        for (Future<Long> compaction : compactions) {
+            evicted += compaction.get();
+        }
+        executor.shutdown();
+
+        assertEquals(vehicles * 2L, evicted);
+        assertEquals(vehicles, priced.get());
+        assertEquals(vehicles, storage.getPassageCount());
+        assertEquals(vehicles, storage.getVehicleDayCount());
+    }
+
+    @Test
+    void whenThePricerFails_TheDayStaysOpenAndCounted() {
+        ZonedDateTime start = ZonedDateTime.of(2022, 1, 11, 6, 0, 0, 0, ZoneId.systemDefault());
+        storage.recordPassages("REG0", VehicleType.Car, List.of(start, start.plusHours(1)));
+
+        assertThrows(IllegalStateException.class, () -> storage.compactBefore(start.plusDays(1).toLocalDate(),
+                (registration, type, passages) -> {
+                    throw new IllegalStateException("No tariff");
+                }));
+        assertEquals(2, storage.getPassageCount());
+        assertNull(storage.getDailyTotal("REG0", start.toLocalDate()));
+        storage.recordPassage("REG0", VehicleType.Car, start.plusHours(2));
+        assertEquals(3, storage.getPassages("REG0", start).size());
+
+        assertEquals(3, storage.compactBefore(start.plusDays(1).toLocalDate(), (registration, type, passages) -> 44));
+        assertEquals(0, storage.getPassageCount());
+        assertEquals(44, storage.getDailyTotal("REG0", start.toLocalDate()));
+    }
+}
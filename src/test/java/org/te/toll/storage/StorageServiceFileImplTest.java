@@ -0,0 +1,222 @@
+package org.te.toll.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.te.toll.config.StorageProperties.FsyncPolicy;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageServiceFileImplTest {
+
+    @TempDir
+    Path directory;
+
+    ZonedDateTime morning = ZonedDateTime.of(2022, 1, 11, 7, 59, 0, 0, ZoneId.systemDefault());
+
+    @Test
+    void whenReopened_PassagesAreReplayed() throws IOException, MultipleVehicleTypesException {
+        StorageServiceFileImpl storage = open(1024);
+        storage.recordPassage("ULJ985", VehicleType.Car, morning);
+        storage.recordPassages("ULJ986", VehicleType.Tractor, List.of(morning, morning.plusHours(2)));
+        storage.close();
+
+        StorageServiceFileImpl reopened = open(1024);
+        assertEquals(List.of(morning), reopened.getPassages("ULJ985", morning));
+        assertEquals(List.of(morning, morning.plusHours(2)), reopened.getPassages("ULJ986", morning));
+        assertEquals(VehicleType.Tractor, reopened.vehicleTypeOf("ULJ986", morning));
+        reopened.close();
+    }
+
+    @Test
+    void whenSegmentIsFull_LogRollsToANewSegment() throws IOException {
+        StorageServiceFileImpl storage = open(PassageLog.RECORD_SIZE * 10);
+        for (int i = 0; i < 35; i++) {
+            storage.recordPassage("ULJ985", VehicleType.Car, morning.plusMinutes(i));
+        }
+        storage.close();
+        assertEquals(4, segments().size());
+
+        StorageServiceFileImpl reopened = open(PassageLog.RECORD_SIZE * 10);
+        assertEquals(35, reopened.getPassages("ULJ985", morning).size());
+        reopened.close();
+    }
+
+    @Test
+    void whenLastRecordIsTorn_PreviousRecordsAreRecoveredAndAppendingResumes() throws IOException {
+        StorageServiceFileImpl storage = open(1024);
+        for (int i = 0; i < 3; i++) {
+            storage.recordPassage("ULJ985", VehicleType.Car, morning.plusMinutes(i));
+        }
+        storage.close();
+        // Simulate a crash in the middle of writing the third record
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8), 2L * PassageLog.RECORD_SIZE + 8);
+        }
+
+        StorageServiceFileImpl recovered = open(1024);
+        assertEquals(List.of(morning, morning.plusMinutes(1)), recovered.getPassages("ULJ985", morning));
+        recovered.recordPassage("ULJ985", VehicleType.Car, morning.plusMinutes(10));
+        recovered.close();
+
+        StorageServiceFileImpl reopened = open(1024);
+        assertEquals(List.of(morning, morning.plusMinutes(1), morning.plusMinutes(10)),
+                reopened.getPassages("ULJ985", morning));
+        reopened.close();
+    }
+
+    @Test
+    void whenARecordInTheMiddleOfASegmentIsCorrupt_OpeningFails() throws IOException {
+        StorageServiceFileImpl storage = open(1024);
+        for (int i = 0; i < 3; i++) {
+            storage.recordPassage("ULJ985", VehicleType.Car, morning.plusMinutes(i));
+        }
+        storage.close();
+        // An intact record follows the damaged one, so this can't be where a write left off
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), PassageLog.RECORD_SIZE + 5);
+        }
+        long size = Files.size(segments().get(0));
+
+        IOException e = assertThrows(IOException.class, () -> open(1024));
+        assertTrue(e.getMessage().contains("offset " + PassageLog.RECORD_SIZE), e.getMessage());
+        assertEquals(size, Files.size(segments().get(0)));
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.READ)) {
+            ByteBuffer last = ByteBuffer.allocate(PassageLog.RECORD_SIZE);
+            channel.read(last, 2L * PassageLog.RECORD_SIZE);
+            assertNotEquals(0, last.getLong(4), "The records after the corrupt one must be left alone");
+        }
+    }
+
+    @Test
+    void whenARecordOfAnEarlierSegmentIsCorrupt_OpeningFails() throws IOException {
+        StorageServiceFileImpl storage = open(PassageLog.RECORD_SIZE * 10);
+        for (int i = 0; i < 15; i++) {
+            storage.recordPassage("ULJ985", VehicleType.Car, morning.plusMinutes(i));
+        }
+        storage.close();
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8), 9L * PassageLog.RECORD_SIZE + 8);
+        }
+
+        assertThrows(IOException.class, () -> open(PassageLog.RECORD_SIZE * 10));
+    }
+
+    @Test
+    void whenABatchDoesNotFillUp_ItIsForcedAfterTheMaxDelay() throws IOException, InterruptedException {
+        try (PassageLog passageLog = PassageLog.open(directory, 1024, FsyncPolicy.BATCH, 1000,
+                Duration.ofMillis(20), (registration, type, epochSecond) -> { })) {
+            passageLog.append("ULJ985", VehicleType.Car, morning.toEpochSecond());
+            assertEquals(1, passageLog.unsynced());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (passageLog.unsynced() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, passageLog.unsynced());
+        }
+    }
+
+    @Test
+    void whenRegistrationRecordIsTorn_ItsPassagesAreDiscarded() throws IOException {
+        StorageServiceFileImpl storage = open(1024);
+        storage.recordPassage("ULJ985", VehicleType.Car, morning);
+        storage.recordPassage("ULJ986", VehicleType.Car, morning);
+        storage.close();
+        Path registrations = directory.resolve("registrations.dat");
+        try (FileChannel channel = FileChannel.open(registrations, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        StorageServiceFileImpl recovered = open(1024);
+        assertEquals(List.of(morning), recovered.getPassages("ULJ985", morning));
+        assertTrue(recovered.getPassages("ULJ986", morning).isEmpty());
+        recovered.close();
+    }
+
+    @Test
+    void whenReplayingALargeLog_AllPassagesAreIndexed() throws IOException {
+        int vehicles = 20_000;
+        int passagesPerVehicle = 25;
+        StorageServiceFileImpl storage = new StorageServiceFileImpl(directory, 16 * 1024 * 1024, FsyncPolicy.NEVER, 0);
+        for (int p = 0; p < passagesPerVehicle; p++) {
+            for (int v = 0; v < vehicles; v++) {
+                storage.recordPassage("REG" + v, VehicleType.Car, morning.plusMinutes(p));
+            }
+        }
+        storage.close();
+
+        StorageServiceFileImpl reopened = new StorageServiceFileImpl(directory, 16 * 1024 * 1024, FsyncPolicy.NEVER, 0);
+        long replayed = 0;
+        for (int v = 0; v < vehicles; v++) {
+            replayed += reopened.getPassages("REG" + v, morning).size();
+        }
+        reopened.close();
+        assertEquals((long) vehicles * passagesPerVehicle, replayed);
+    }
+
+    @Test
+    void whenOldDaysAreCompacted_TheirPassagesLeaveTheLogAndTheirTotalsAreReplayed() throws IOException {
+        StorageServiceFileImpl storage = open(PassageLog.RECORD_SIZE * 10);
+        for (int i = 0; i < 25; i++) {
+            storage.recordPassage("ULJ985", VehicleType.Car, morning.plusMinutes(i));
+        }
+        storage.recordPassage("ULJ986", VehicleType.Car, morning);
+        for (int i = 0; i < 12; i++) {
+            storage.recordPassage("ULJ985", VehicleType.Car, morning.plusDays(1).plusMinutes(i));
+        }
+        // A late passage of the compacted day, in the segment being appended to
+        storage.recordPassage("ULJ986", VehicleType.Car, morning.plusHours(1));
+        long before = Files.size(segments().get(0)) * segments().size();
+
+        assertEquals(27, storage.compactBefore(morning.plusDays(1).toLocalDate(),
+                (registration, type, passages) -> passages.size()));
+        assertTrue(Files.size(directory.resolve("daily-totals.dat")) > 0);
+        long after = 0;
+        for (Path segment : segments()) {
+            after += Files.size(segment);
+        }
+        assertTrue(after < before, after + " bytes left of " + before);
+        storage.close();
+
+        StorageServiceFileImpl reopened = open(PassageLog.RECORD_SIZE * 10);
+        assertTrue(reopened.getPassages("ULJ985", morning).isEmpty());
+        assertTrue(reopened.getPassages("ULJ986", morning).isEmpty());
+        assertEquals(25, reopened.getDailyTotal("ULJ985", morning.toLocalDate()));
+        assertEquals(2, reopened.getDailyTotal("ULJ986", morning.toLocalDate()));
+        assertEquals(12, reopened.getPassages("ULJ985", morning.plusDays(1)).size());
+        assertEquals(12, reopened.getPassageCount());
+        reopened.recordPassage("ULJ985", VehicleType.Car, morning.plusDays(1).plusHours(3));
+        reopened.close();
+
+        StorageServiceFileImpl again = open(PassageLog.RECORD_SIZE * 10);
+        assertEquals(13, again.getPassages("ULJ985", morning.plusDays(1)).size());
+        assertEquals(25, again.getDailyTotal("ULJ985", morning.toLocalDate()));
+        again.close();
+    }
+
+    private StorageServiceFileImpl open(int segmentSize) throws IOException {
+        return new StorageServiceFileImpl(directory, segmentSize, FsyncPolicy.ALWAYS, 1);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("passages-")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
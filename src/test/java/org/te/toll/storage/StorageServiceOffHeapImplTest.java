@@ -0,0 +1,142 @@
+package org.te.toll.storage;
+
+import org.junit.jupiter.api.Test;
+import org.te.toll.config.StorageProperties;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageServiceOffHeapImplTest {
+
+    static final ZonedDateTime START = ZonedDateTime.of(2022, 1, 11, 6, 0, 0, 0, ZoneId.of("Europe/Stockholm"));
+
+    StorageService storage = new StorageServiceOffHeapImpl();
+
+    @Test
+    void whenPassagesInDifferentDaysAndZones_TheyAreRetrievedWithTheirZone() {
+        ZonedDateTime tokyo = START.plusDays(1).withZoneSameLocal(ZoneId.of("Asia/Tokyo"));
+        storage.recordPassage("xyz", VehicleType.Car, START);
+        storage.recordPassage("xyz", VehicleType.Car, START.plusMinutes(30));
+        storage.recordPassage("xyz", VehicleType.Car, tokyo);
+        assertEquals(List.of(START, START.plusMinutes(30)), storage.getPassages("xyz", START));
+        assertEquals(List.of(tokyo), storage.getPassages("xyz", tokyo));
+        assertTrue(storage.getPassages("abc", START).isEmpty());
+        assertEquals(3, storage.getPassageCount());
+        assertEquals(2, storage.getVehicleDayCount());
+    }
+
+    @Test
+    void whenVehicleHasDifferentTypesTheSameDay_MultipleVehicleTypesExceptionIsThrown() throws MultipleVehicleTypesException {
+        assertNull(storage.vehicleTypeOf("xyz", START));
+        storage.recordPassage("xyz", VehicleType.Car, START);
+        assertEquals(VehicleType.Car, storage.vehicleTypeOf("xyz", START));
+        storage.recordPassage("xyz", VehicleType.Emergency, START.plusMinutes(1));
+        assertThrows(MultipleVehicleTypesException.class, () -> storage.vehicleTypeOf("xyz", START));
+    }
+
+    @Test
+    void whenRecordsGrowAndDaysAreCompacted_LiveRecordsSurviveDefragmentation() {
+        StorageProperties.OffHeap properties = new StorageProperties.OffHeap();
+        properties.setSegments(1);
+        properties.setSlabSize(64 * 1024);
+        storage = new StorageServiceOffHeapImpl(properties);
+        int vehicles = 2_000;
+        for (int day = 0; day < 10; day++) {
+            for (int v = 0; v < vehicles; v++) {
+                List<ZonedDateTime> passages = new ArrayList<>();
+                for (int p = 0; p <= v % 40; p++) {
+                    passages.add(START.plusDays(day).plusMinutes(10L * p));
+                }
+                storage.recordPassages("REG" + v, VehicleType.Car, passages);
+            }
+        }
+
+        // Every day, each group of 40 vehicles passes 1 + 2 + ... + 40 = 820 times
+        long evicted = storage.compactBefore(START.plusDays(8).toLocalDate(), (registration, type, passages) -> passages.size());
+        assertEquals(8 * 50 * 820, evicted);
+        assertEquals(2 * 50 * 820, storage.getPassageCount());
+        assertEquals(2 * vehicles, storage.getVehicleDayCount());
+        for (int v = 0; v < vehicles; v += 97) {
+            assertEquals(v % 40 + 1, storage.getDailyTotal("REG" + v, START.toLocalDate()));
+            assertTrue(storage.getPassages("REG" + v, START).isEmpty());
+            assertEquals(v % 40 + 1, storage.getPassages("REG" + v, START.plusDays(9)).size());
+            assertEquals(START.plusDays(9).plusMinutes(10L * (v % 40)),
+                    storage.getPassages("REG" + v, START.plusDays(9)).get(v % 40));
+        }
+        assertNull(storage.getDailyTotal("REG1", START.plusDays(9).toLocalDate()));
+
+        Map<String, Integer> lastDay = new HashMap<>();
+        storage.forEachVehicleDay(START.plusDays(9).toLocalDate(),
+                (registration, type, passages) -> lastDay.put(registration, passages.size()));
+        assertEquals(vehicles, lastDay.size());
+        assertEquals(40, lastDay.get("REG39"));
+    }
+
+    @Test
+    void whenManyThreadsRecordConcurrently_NoPassageIsLost() throws Exception {
+        int threads = 8;
+        int passagesPerThread = 20_000;
+        int vehicles = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                go.await();
+                for (int i = 0; i < passagesPerThread; i++) {
+                    ZonedDateTime time = START.plusSeconds((thread * passagesPerThread + i) % 43_200).plusDays(i % 2);
+                    String registration = "REG" + (i % vehicles);
+                    storage.recordPassage(registration, VehicleType.Car, time);
+                    storage.vehicleTypeOf(registration, time);
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (int v = 0; v < vehicles; v++) {
+            total += storage.getPassages("REG" + v, START).size();
+            total += storage.getPassages("REG" + v, START.plusDays(1)).size();
+        }
+        assertEquals((long) threads * passagesPerThread, total);
+    }
+
+    @Test
+    void whenManyKeysAreRemoved_OffHeapLongMapKeepsTheOthers() {
+        OffHeapLongMap map = new OffHeapLongMap(16);
+        for (long key = 0; key < 10_000; key++) {
+            map.put(key, key * 3);
+        }
+        for (long key = 0; key < 10_000; key += 2) {
+            assertTrue(map.remove(key));
+        }
+        for (long key = 10_000; key < 20_000; key++) {
+            map.put(key, key * 3);
+        }
+        assertEquals(15_000, map.size());
+        assertEquals(-1, map.get(4, -1));
+        assertEquals(15, map.get(5, -1));
+        assertEquals(59_997, map.get(19_999, -1));
+        assertFalse(map.remove(4));
+    }
+}
@@ -0,0 +1,259 @@
+package org.te.toll.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.te.toll.enums.VehicleType;
+import org.te.toll.exceptions.MultipleVehicleTypesException;
+import org.te.toll.storage.cluster.HashRing;
+import org.te.toll.storage.cluster.LocalShard;
+import org.te.toll.storage.cluster.LocalShardCluster;
+import org.te.toll.storage.cluster.RemoteShard;
+import org.te.toll.storage.cluster.ShardMovingException;
+import org.te.toll.storage.cluster.WrongShardException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageServiceShardedImplTest {
+
+    static final ZonedDateTime START = ZonedDateTime.of(2022, 1, 10, 6, 0, 0, 0, ZoneId.of("Europe/Stockholm"));
+    static final int VEHICLES = 1_000;
+
+    LocalShardCluster cluster;
+
+    @AfterEach
+    void close() throws IOException {
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    @Test
+    void whenPassagesAreRecorded_EachVehicleIsStoredOnItsOwnerAndReadBackThroughTheRouter() throws Exception {
+        cluster = new LocalShardCluster(3, 64);
+        StorageService storage = cluster.getRouter();
+        ZonedDateTime tokyo = START.withZoneSameInstant(ZoneId.of("Asia/Tokyo"));
+        storage.recordPassages("xyz", VehicleType.Car, List.of(START, START.plusMinutes(30), START.plusHours(2)));
+        storage.recordPassage("abc", VehicleType.Car, START);
+        storage.recordPassage("abc", VehicleType.Emergency, START.plusMinutes(1));
+        storage.recordPassage("jp", VehicleType.Car, tokyo);
+
+        assertEquals(List.of(START, START.plusMinutes(30), START.plusHours(2)), storage.getPassages("xyz", START));
+        assertEquals(List.of(tokyo), storage.getPassages("jp", tokyo));
+        assertEquals(tokyo.getZone(), storage.getPassages("jp", tokyo).get(0).getZone());
+        assertTrue(storage.getPassages("xyz", START.plusDays(1)).isEmpty());
+        assertEquals(VehicleType.Car, storage.vehicleTypeOf("xyz", START));
+        assertNull(storage.vehicleTypeOf("nobody", START));
+        assertThrows(MultipleVehicleTypesException.class, () -> storage.vehicleTypeOf("abc", START));
+        assertEquals(6, storage.getPassageCount());
+        assertEquals(3, storage.getVehicleDayCount());
+
+        String owner = cluster.getRouter().getRing().ownerOf("xyz");
+        for (String node : cluster.getNodes()) {
+            assertEquals(node.equals(owner) ? 3 : 0, cluster.getStore(node).getPassages("xyz", START).size());
+        }
+        List<String> scanned = new ArrayList<>();
+        storage.forEachVehicleDay(START.toLocalDate(), (registration, type, passages) -> scanned.add(registration));
+        assertEquals(3, scanned.size());
+    }
+
+    @Test
+    void whenEachNodeCompactsItsShard_TheCallerPricesTheDays() throws IOException {
+        cluster = new LocalShardCluster(3, 64);
+        StorageService storage = cluster.getRouter();
+        record(storage);
+
+        // The router holds no shard of its own
+        assertEquals(0, storage.compactBefore(START.plusDays(1).toLocalDate(), (registration, type, passages) -> 0));
+        long evicted = compactEachNode((registration, type, passages) -> 10 * passages.size());
+        assertEquals(VEHICLES * 3, evicted);
+        assertEquals(VEHICLES * 3, storage.getPassageCount());
+        for (int v = 0; v < VEHICLES; v += 37) {
+            assertEquals(30, storage.getDailyTotal("REG" + v, START.toLocalDate()));
+            assertNull(storage.getDailyTotal("REG" + v, START.plusDays(1).toLocalDate()));
+        }
+    }
+
+    @Test
+    void whenNodesAreAddedAndRemoved_OnlyTheVehiclesChangingOwnerMove() throws IOException {
+        cluster = new LocalShardCluster(3, 64);
+        StorageServiceShardedImpl storage = cluster.getRouter();
+        record(storage);
+        compactEachNode((registration, type, passages) -> passages.size());
+
+        HashRing before = storage.getRing();
+        String added = cluster.startNode();
+        assertMovedOnly(before, storage.addNode(added));
+        assertTrue(storage.getRing().contains(added));
+
+        String removed = cluster.getNodes().get(0);
+        before = storage.getRing();
+        assertMovedOnly(before, storage.removeNode(removed));
+        cluster.stopNode(removed);
+        assertEquals(3, storage.getRing().getNodes().size());
+        assertEquals(0, storage.addNode(added));
+    }
+
+    @Test
+    void whenAnotherRouterChangesTheRing_TheOldOwnersRefuseTheMovedVehiclesAndThisRouterCatchesUp() throws IOException {
+        cluster = new LocalShardCluster(3, 64);
+        StorageServiceShardedImpl storage = cluster.getRouter();
+        record(storage);
+        try (StorageServiceShardedImpl other = new StorageServiceShardedImpl(cluster.getNodes(), 64)) {
+            HashRing before = other.getRing();
+            String added = cluster.startNode();
+            storage.addNode(added);
+            long version = storage.getRing().getVersion();
+            assertEquals(version, cluster.getShard(added).getRing().getVersion());
+            String moved = null;
+            for (int v = 0; moved == null; v++) {
+                if (storage.getRing().ownerOf("REG" + v).equals(added)) {
+                    moved = "REG" + v;
+                }
+            }
+
+            // Nothing can be recorded on the old owner anymore, where the move would leave it behind
+            String vehicle = moved;
+            try (RemoteShard previousOwner = new RemoteShard(before.ownerOf(vehicle))) {
+                WrongShardException refused = assertThrows(WrongShardException.class,
+                        () -> previousOwner.recordPassage(vehicle, VehicleType.Car, START.plusDays(1)));
+                assertEquals(version, refused.getRing().getVersion());
+            }
+            assertEquals(0, before.getVersion());
+            other.recordPassage(vehicle, VehicleType.Car, START.plusDays(1).plusHours(8));
+            assertEquals(version, other.getRing().getVersion());
+            assertEquals(4, cluster.getStore(added).getPassages(vehicle, START.plusDays(1)).size());
+            assertEquals(4, other.getPassages(vehicle, START.plusDays(1)).size());
+        }
+    }
+
+    @Test
+    void whenAMoveFailedAfterCopyingSomeVehicles_RequestingItAgainDoesNotDoubleTheirPassages() throws IOException {
+        cluster = new LocalShardCluster(3, 64);
+        StorageServiceShardedImpl storage = cluster.getRouter();
+        record(storage);
+        compactEachNode((registration, type, passages) -> passages.size());
+        HashRing before = storage.getRing();
+        String added = cluster.startNode();
+        HashRing after = before.withNode(added);
+        // The first attempt copied the days of one node to the new one, then failed before removing them
+        String copied = before.getNodes().get(0);
+        cluster.getShard(copied).exportForeign(after, copied,
+                (registration, type, passages) -> cluster.getShard(added).importVehicleDay(registration, type, passages),
+                (registration, day, total) -> cluster.getShard(added).putDailyTotal(registration, day, total));
+        assertTrue(cluster.getStore(added).getPassageCount() > 0);
+
+        assertMovedOnly(before, storage.addNode(added));
+        assertEquals(cluster.getStore(added).getPassageCount(), moved(before, after));
+    }
+
+    @Test
+    void whenAVehicleIsStillMovingToItsNewOwner_TheRouterWaitsForItsWholeHistory() throws Exception {
+        cluster = new LocalShardCluster(2, 64);
+        StorageServiceShardedImpl storage = cluster.getRouter();
+        record(storage);
+        HashRing before = storage.getRing();
+        String added = cluster.startNode();
+        storage.addNode(added);
+        HashRing after = storage.getRing();
+        String moved = null;
+        for (int v = 0; moved == null; v++) {
+            if (after.ownerOf("REG" + v).equals(added)) {
+                moved = "REG" + v;
+            }
+        }
+
+        // As while the move is under way: the new owner holds the vehicle off until told its passages arrived
+        LocalShard owner = cluster.getShard(added);
+        owner.beginMove(after, before, added);
+        String vehicle = moved;
+        assertThrows(ShardMovingException.class, () -> owner.getPassages(vehicle, START.plusDays(1)));
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<ZonedDateTime>> read = caller.submit(() -> storage.getPassages(vehicle, START.plusDays(1)));
+            Thread.sleep(200);
+            assertFalse(read.isDone());
+            owner.finishMove(after);
+            assertEquals(3, read.get(10, TimeUnit.SECONDS).size());
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void whenAShardNeverAnswers_TheCallFailsAfterTheReadTimeout() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocket silent = new ServerSocket(0, 0, loopback);
+             RemoteShard shard = new RemoteShard(loopback.getHostAddress() + ":" + silent.getLocalPort(),
+                     Duration.ofMillis(200))) {
+            long start = System.nanoTime();
+            assertThrows(UncheckedIOException.class, shard::getPassageCount);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        }
+    }
+
+    // Only the vehicles whose owner changed moved, with their 3 raw passages each, and all are still readable
+    private void assertMovedOnly(HashRing before, long moved) {
+        StorageServiceShardedImpl storage = cluster.getRouter();
+        HashRing after = storage.getRing();
+        assertEquals(moved(before, after), moved);
+        assertTrue(moved > 0 && moved < VEHICLES * 3 / 2, "moved " + moved);
+        assertEquals(VEHICLES * 3, storage.getPassageCount());
+        for (int v = 0; v < VEHICLES; v++) {
+            String registration = "REG" + v;
+            assertEquals(3, storage.getPassages(registration, START.plusDays(1)).size());
+            assertEquals(3, storage.getDailyTotal(registration, START.toLocalDate()));
+            for (String node : after.getNodes()) {
+                boolean owned = after.ownerOf(registration).equals(node);
+                assertEquals(owned ? 3 : 0, cluster.getStore(node).getPassages(registration, START.plusDays(1)).size());
+                assertEquals(owned ? Integer.valueOf(3) : null,
+                        cluster.getStore(node).getDailyTotal(registration, START.toLocalDate()));
+            }
+        }
+    }
+
+    private static long moved(HashRing before, HashRing after) {
+        long moved = 0;
+        for (int v = 0; v < VEHICLES; v++) {
+            if (!before.ownerOf("REG" + v).equals(after.ownerOf("REG" + v))) {
+                moved += 3;
+            }
+        }
+        return moved;
+    }
+
+    // Like the retention of each node, over the shard protocol
+    private long compactEachNode(DailyPricer pricer) {
+        long evicted = 0;
+        for (String node : cluster.getNodes()) {
+            try (RemoteShard shard = new RemoteShard(node)) {
+                evicted += shard.compactBefore(START.plusDays(1).toLocalDate(), pricer);
+            }
+        }
+        return evicted;
+    }
+
+    // Three passages per vehicle on each of two days
+    private static void record(StorageService storage) {
+        for (int v = 0; v < VEHICLES; v++) {
+            for (int day = 0; day < 2; day++) {
+                ZonedDateTime first = START.plusDays(day).plusMinutes(v % 60);
+                storage.recordPassages("REG" + v, VehicleType.Car,
+                        List.of(first, first.plusHours(1), first.plusHours(2)));
+            }
+        }
+    }
+}
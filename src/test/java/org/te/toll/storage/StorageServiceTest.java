@@ -1,9 +1,11 @@
 package org.te.toll.storage;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.te.toll.enums.VehicleType;
 import org.te.toll.exceptions.MultipleVehicleTypesException;
 
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -41,6 +43,23 @@ class StorageServiceTest {
         assertEquals(1, passages.size());
     }
 
+    @Test
+    void whenPassagesAreRecordedAndCompacted_CountsFollow() {
+        ZonedDateTime monday = ZonedDateTime.of(2022, 1, 10, 7, 0, 0, 0, ZoneId.systemDefault());
+        storage.recordPassage("xyz_10", VehicleType.Car, monday);
+        storage.recordPassage("xyz_10", VehicleType.Car, monday.plusHours(2));
+        storage.recordPassage("xyz_10", VehicleType.Car, monday.plusDays(1));
+        storage.recordPassage("xyz_11", VehicleType.Car, monday.plusDays(1));
+        // Out of order, once the vehicle passed a later day
+        storage.recordPassage("xyz_10", VehicleType.Car, monday.plusHours(4));
+        assertEquals(5, storage.getPassageCount());
+        assertEquals(3, storage.getVehicleDayCount());
+
+        assertEquals(3, storage.compactBefore(monday.plusDays(1).toLocalDate(), (registration, type, passages) -> 0));
+        assertEquals(2, storage.getPassageCount());
+        assertEquals(2, storage.getVehicleDayCount());
+    }
+
     @Test
     void whenVehicleHasOneTypeTheSameDay_TypeIsRetrieved() throws MultipleVehicleTypesException {
         ZonedDateTime timeOfPassage_1 = ZonedDateTime.now();
@@ -62,4 +81,31 @@ class StorageServiceTest {
         });
     }
 
-}
\ No newline at end of file
+    @Test
+    void whenLookingUpTypes_LookupsAreCountedByOutcome() throws MultipleVehicleTypesException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StorageService counted = new StorageServiceInMemoryImpl(registry);
+        ZonedDateTime monday = ZonedDateTime.of(2022, 1, 10, 7, 59, 0, 0, ZoneId.systemDefault());
+        counted.recordPassage("xyz_7", VehicleType.Car, monday);
+
+        assertNull(counted.vehicleTypeOf("xyz_8", monday));
+        assertNull(counted.vehicleTypeOf("xyz_7", monday.plusDays(1)));
+        assertEquals(VehicleType.Car, counted.vehicleTypeOf("xyz_7", monday));
+
+        assertEquals(2, registry.get("toll.storage.type.lookups").tag("outcome", "absent").counter().count());
+        assertEquals(1, registry.get("toll.storage.type.lookups").tag("outcome", "cached").counter().count());
+    }
+
+    @Test
+    void whenDaysAreRecordedOutOfOrder_TypesAreStillPerDay() throws MultipleVehicleTypesException {
+        ZonedDateTime monday = ZonedDateTime.of(2022, 1, 10, 7, 59, 0, 0, ZoneId.systemDefault());
+        storage.recordPassage("xyz_9", VehicleType.Car, monday);
+        storage.recordPassage("xyz_9", VehicleType.Tractor, monday.plusDays(1));
+        storage.recordPassage("xyz_9", VehicleType.Emergency, monday.plusHours(1));
+
+        assertEquals(VehicleType.Tractor, storage.vehicleTypeOf("xyz_9", monday.plusDays(1)));
+        assertThrows(MultipleVehicleTypesException.class, () -> storage.vehicleTypeOf("xyz_9", monday));
+        storage.recordPassage("xyz_9", VehicleType.Car, monday.plusDays(1));
+        assertThrows(MultipleVehicleTypesException.class, () -> storage.vehicleTypeOf("xyz_9", monday.plusDays(1)));
+    }
+}
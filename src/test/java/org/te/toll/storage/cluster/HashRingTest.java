@@ -0,0 +1,57 @@
+package org.te.toll.storage.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+    static final int REGISTRATIONS = 100_000;
+
+    HashRing ring = new HashRing(List.of("a:1", "b:1", "c:1", "d:1"), 128);
+
+    @Test
+    void registrationsAreSpreadEvenlyWhateverTheOrderOfTheNodes() {
+        HashRing reordered = new HashRing(List.of("d:1", "b:1", "a:1", "c:1"), 128);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int r = 0; r < REGISTRATIONS; r++) {
+            String owner = ring.ownerOf("REG" + r);
+            assertEquals(owner, reordered.ownerOf("REG" + r));
+            owned.merge(owner, 1, Integer::sum);
+        }
+        for (String node : ring.getNodes()) {
+            assertEquals(0.25, owned.get(node) / (double) REGISTRATIONS, 0.06, node);
+        }
+    }
+
+    @Test
+    void whenANodeIsAdded_OnlyTheRegistrationsItTakesMove() {
+        HashRing grown = ring.withNode("e:1");
+        int moved = 0;
+        for (int r = 0; r < REGISTRATIONS; r++) {
+            String before = ring.ownerOf("REG" + r);
+            String after = grown.ownerOf("REG" + r);
+            if (!before.equals(after)) {
+                assertEquals("e:1", after);
+                moved++;
+            }
+        }
+        assertEquals(0.2, moved / (double) REGISTRATIONS, 0.06);
+    }
+
+    @Test
+    void whenANodeIsRemoved_OnlyItsRegistrationsMove() {
+        HashRing shrunk = ring.withoutNode("b:1");
+        for (int r = 0; r < REGISTRATIONS; r++) {
+            String before = ring.ownerOf("REG" + r);
+            String after = shrunk.ownerOf("REG" + r);
+            assertEquals(before.equals("b:1"), !before.equals(after));
+        }
+        assertFalse(shrunk.contains("b:1"));
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of(), 128));
+    }
+}
@@ -0,0 +1,102 @@
+package org.te.toll.storage.cluster;
+
+import org.te.toll.storage.StorageServiceConcurrentImpl;
+import org.te.toll.storage.StorageServiceShardedImpl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a cluster on one machine: every node is a concurrent store behind its own {@link ShardServer} on a free
+ * loopback port, and the router reaches all of them over the shard protocol, like a routing-only node would.
+ */
+public class LocalShardCluster implements Closeable {
+    private final Map<String, ShardServer> servers = new LinkedHashMap<>();
+    private final Map<String, StorageServiceConcurrentImpl> stores = new LinkedHashMap<>();
+    private final Map<String, LocalShard> shards = new LinkedHashMap<>();
+    private final StorageServiceShardedImpl router;
+
+    public LocalShardCluster(int nodes, int virtualNodes) throws IOException {
+        for (int n = 0; n < nodes; n++) {
+            startNode();
+        }
+        router = new StorageServiceShardedImpl(new ArrayList<>(servers.keySet()), virtualNodes);
+        shards.forEach((node, shard) -> shard.setRing(router.getRing(), node));
+    }
+
+    public StorageServiceShardedImpl getRouter() {
+        return router;
+    }
+
+    public List<String> getNodes() {
+        return router.getRing().getNodes();
+    }
+
+    /**
+     * @return The store behind the shard of a node, to check what it holds without going through the router
+     */
+    public StorageServiceConcurrentImpl getStore(String node) {
+        return stores.get(node);
+    }
+
+    /**
+     * @return The shard of a node, to check the ring it serves
+     */
+    public LocalShard getShard(String node) {
+        return shards.get(node);
+    }
+
+    /**
+     * Starts a node and rebalances the cluster onto it.
+     *
+     * @return The new node
+     */
+    public String addNode() throws IOException {
+        String node = startNode();
+        router.addNode(node);
+        return node;
+    }
+
+    /**
+     * Rebalances the cluster off a node, then stops it.
+     */
+    public void removeNode(String node) throws IOException {
+        router.removeNode(node);
+        stopNode(node);
+    }
+
+    /**
+     * Starts serving the shard of a node that isn't part of the ring yet.
+     *
+     * @return The new node
+     */
+    public String startNode() throws IOException {
+        StorageServiceConcurrentImpl store = new StorageServiceConcurrentImpl();
+        LocalShard shard = new LocalShard(store);
+        ShardServer server = new ShardServer(shard, InetAddress.getLoopbackAddress(), 0);
+        String node = InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort();
+        servers.put(node, server);
+        stores.put(node, store);
+        shards.put(node, shard);
+        return node;
+    }
+
+    public void stopNode(String node) throws IOException {
+        servers.remove(node).close();
+        stores.remove(node);
+        shards.remove(node);
+    }
+
+    @Override
+    public void close() throws IOException {
+        router.close();
+        for (ShardServer server : servers.values()) {
+            server.close();
+        }
+    }
+}
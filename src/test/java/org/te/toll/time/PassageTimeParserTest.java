@@ -0,0 +1,56 @@
+package org.te.toll.time;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PassageTimeParserTest {
+    private static final DateTimeFormatter LAYOUT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Test
+    void whenParsingRandomTimes_ResultMatchesDateTimeFormatter() {
+        Random random = new Random(7);
+        for (String zoneId : List.of("UTC", "Europe/Stockholm", "America/New_York", "Australia/Lord_Howe")) {
+            ZoneId zone = ZoneId.of(zoneId);
+            PassageTimeParser parser = new PassageTimeParser(zone);
+            DateTimeFormatter formatter = LAYOUT.withZone(zone);
+            for (int i = 0; i < 20_000; i++) {
+                // Whole years of seconds, including every DST gap and overlap of the period
+                LocalDateTime local = LocalDateTime.of(2020, 1, 1, 0, 0).plusSeconds(random.nextInt(3 * 366 * 86_400));
+                String text = local.format(LAYOUT);
+                assertEquals(ZonedDateTime.parse(text, formatter).toEpochSecond(), parser.parse(text), zoneId + " " + text);
+            }
+        }
+    }
+
+    @Test
+    void whenParsingAroundDstChanges_ResultMatchesZonedDateTime() {
+        ZoneId zone = ZoneId.of("Europe/Stockholm");
+        PassageTimeParser parser = new PassageTimeParser(zone);
+        for (String text : List.of("2022-03-27 01:59:59", "2022-03-27 02:30:00", "2022-03-27 03:00:00",
+                "2022-10-30 02:30:00", "2022-10-30 03:00:00", "2022-03-26 02:30:00")) {
+            assertEquals(LocalDateTime.parse(text, LAYOUT).atZone(zone).toEpochSecond(), parser.parse(text), text);
+        }
+    }
+
+    @Test
+    void whenParsingBadInput_InvalidIsReturned() {
+        PassageTimeParser parser = new PassageTimeParser(ZoneId.of("UTC"));
+        for (String text : new String[] {null, "", "2022-01-11", "2022-01-11 07:59:0", "2022-01-11 07:59:000",
+                "2022/01/11 07:59:00", "2022-01-11T07:59:00", "2022-13-11 07:59:00", "2022-00-11 07:59:00",
+                "2022-02-29 07:59:00", "2022-04-31 07:59:00", "2022-01-11 24:00:00", "2022-01-11 07:60:00",
+                "2022-01-11 07:59:60", "2022-01-1a 07:59:00", "+022-01-11 07:59:00", "2022-01-11 07:-9:00"}) {
+            assertEquals(PassageTimeParser.INVALID, parser.parse(text), text);
+            assertNull(parser.parseDateTime(text), text);
+        }
+        assertEquals(ZonedDateTime.of(2024, 2, 29, 7, 59, 0, 0, ZoneId.of("UTC")),
+                parser.parseDateTime("2024-02-29 07:59:00"));
+    }
+}